@@ -0,0 +1,101 @@
+#!/usr/bin/env python3
+"""Compares two JMH JSON result files and flags regressions.
+
+Usage:
+    compare.py baseline.json current.json [-t PERCENT]
+
+A benchmark regressed when its score got worse by more than the threshold and
+the confidence intervals of both runs don't overlap, so noise isn't reported.
+Higher is better for throughput mode, lower is better for time based modes.
+Exits with status 1 if any benchmark regressed.
+"""
+
+import argparse
+import json
+import sys
+
+
+def load(path):
+    with open(path) as f:
+        results = json.load(f)
+
+    res = {}
+
+    for r in results:
+        params = r.get("params") or {}
+        key = r["benchmark"]
+
+        if params:
+            key += "(" + ", ".join("%s=%s" % (k, params[k]) for k in sorted(params)) + ")"
+
+        m = r["primaryMetric"]
+        err = m.get("scoreError")
+
+        # JMH reports "NaN" error when there are too few iterations.
+        if not isinstance(err, (int, float)) or err != err:
+            err = 0.0
+
+        res[key] = (r["mode"], m["score"], err, m["scoreUnit"])
+
+    return res
+
+
+def short(name):
+    parts = name.split("(", 1)
+    cls_meth = parts[0].split(".")
+    res = ".".join(cls_meth[-2:])
+
+    return res + ("(" + parts[1] if len(parts) > 1 else "")
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Compare two JMH JSON result files.")
+    parser.add_argument("baseline")
+    parser.add_argument("current")
+    parser.add_argument("-t", "--threshold", type=float, default=5.0,
+                        help="min change in percents to report regression, 5 by default")
+    args = parser.parse_args()
+
+    base = load(args.baseline)
+    cur = load(args.current)
+
+    regressions = 0
+
+    print("%-70s %14s %14s %9s  %s" % ("Benchmark", "Baseline", "Current", "Change", "Unit"))
+
+    for key in sorted(set(base) | set(cur)):
+        if key not in base or key not in cur:
+            print("%-70s %s" % (short(key), "only in " + ("current" if key in cur else "baseline")))
+            continue
+
+        mode, b, b_err, unit = base[key]
+        _, c, c_err, _ = cur[key]
+
+        higher_better = mode == "thrpt"
+        change = (c - b) / b * 100 if b else 0.0
+        worse = -change if higher_better else change
+
+        if higher_better:
+            overlap = c + c_err >= b - b_err
+        else:
+            overlap = c - c_err <= b + b_err
+
+        status = ""
+
+        if worse > args.threshold and not overlap:
+            status = "REGRESSION"
+            regressions += 1
+        elif -worse > args.threshold and not overlap:
+            status = "improved"
+
+        print("%-70s %14.3f %14.3f %+8.1f%%  %s %s" % (short(key), b, c, change, unit, status))
+
+    if regressions:
+        print("\n%d benchmark(s) regressed by more than %.1f%%" % (regressions, args.threshold))
+        return 1
+
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,70 @@
+package ru.ifmo.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+
+/**
+ * Exposes package-private server internals to benchmarks.
+ */
+public final class BenchmarkAccess {
+    private BenchmarkAccess() {
+    }
+
+    public static Request newRequest(Server server) {
+        return new Request(null, server);
+    }
+
+    public static Request parseRequest(Server server, InputStream in) throws IOException, URISyntaxException {
+        return server.parseRequest(null, in);
+    }
+
+    public static void parseRequestLine(Server server, Request req, StringBuilder line) throws URISyntaxException {
+        server.parseRequestLine(req, line);
+    }
+
+    public static void parseHeader(Server server, Request req, StringBuilder line) {
+        server.parseHeader(req, line);
+    }
+
+    /**
+     * Parses arguments which are otherwise parsed on first access.
+     */
+    public static void parseArgs(Server server, Request req, String query) {
+        req.query = query;
+        req.getArguments();
+    }
+
+    /**
+     * @param out Stream response is written to.
+     */
+    public static Response newResponse(OutputStream out) {
+        return new Response(null, out);
+    }
+
+    public static void sendResponse(Server server, Response resp, Request req) {
+        server.sendResponse(resp, req);
+    }
+
+    public static ByteArrayOutputStream compress(Server server, ByteArrayOutputStream body) throws IOException {
+        return server.compress(body);
+    }
+
+    public static Handler resolveHandler(Server server, Request req, Response resp) {
+        return server.resolveHandler(req, resp);
+    }
+
+    public static Session openSession(Server server) {
+        return server.openSession();
+    }
+
+    public static void removeSession(Server server, String id) {
+        server.removeSession(id);
+    }
+
+    public static Session findSession(Server server, String id) {
+        return server.findSession(id);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.ifmo.server.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.server.CompressionType;
+import ru.ifmo.server.Server;
+import ru.ifmo.server.ServerConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static ru.ifmo.server.BenchmarkAccess.compress;
+
+/**
+ * Response body compression for several body sizes. Body is HTML-like text, which
+ * compresses about as well as typical pages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressBenchmark {
+    private static final String[] WORDS = {
+        "<div class=\"item\">", "</div>", "<span>", "</span>", "price", "book", "java", "server",
+        "request", "response", "<a href=\"/catalog/", "\">", "</a>", "\n", " "
+    };
+
+    @Param({"GZIP", "DEFLATE"})
+    private CompressionType type;
+
+    @Param({"1024", "16384", "262144"})
+    private int size;
+
+    private Server server;
+    private ByteArrayOutputStream body;
+
+    @Setup
+    public void setUp() {
+        server = Server.start(new ServerConfig().setPort(0).setCompression(type));
+
+        Random rnd = new Random(1);
+        StringBuilder sb = new StringBuilder(size + 32);
+
+        while (sb.length() < size) {
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+
+            if (rnd.nextInt(4) == 0)
+                sb.append(rnd.nextInt(100000));
+        }
+
+        sb.setLength(size);
+
+        body = new ByteArrayOutputStream(size);
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        body.write(bytes, 0, bytes.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream compressBody() throws IOException {
+        return compress(server, body);
+    }
+}
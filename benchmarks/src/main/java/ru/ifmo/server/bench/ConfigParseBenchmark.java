@@ -0,0 +1,62 @@
+package ru.ifmo.server.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.server.PropertiesParser;
+import ru.ifmo.server.ServerConfig;
+import ru.ifmo.server.XmlParser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of equivalent XML and properties configs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigParseBenchmark {
+    private static final String XML =
+        "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n" +
+        "<config>\n" +
+        "    <port>8080</port>\n" +
+        "    <socketTimeout>5000</socketTimeout>\n" +
+        "    <sessionTimeout>600000</sessionTimeout>\n" +
+        "    <maxSessions>100000</maxSessions>\n" +
+        "    <metricsPath>/metrics</metricsPath>\n" +
+        "    <handlers>\n" +
+        "        <handler url=\"/success\">ru.ifmo.server.SuccessHandler</handler>\n" +
+        "        <handler url=\"/index\">ru.ifmo.server.SuccessHandler</handler>\n" +
+        "    </handlers>\n" +
+        "</config>\n";
+
+    private static final String PROPERTIES =
+        "port=8080\n" +
+        "socketTimeout=5000\n" +
+        "sessionTimeout=600000\n" +
+        "maxSessions=100000\n" +
+        "metricsPath=/metrics\n" +
+        "handlers=/success=ru.ifmo.server.SuccessHandler,/index=ru.ifmo.server.SuccessHandler\n";
+
+    private byte[] xml;
+    private byte[] properties;
+
+    @Setup
+    public void setUp() {
+        xml = XML.getBytes(StandardCharsets.UTF_8);
+        properties = PROPERTIES.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ServerConfig parseXml() throws Exception {
+        return new XmlParser(new ByteArrayInputStream(xml)).parse();
+    }
+
+    @Benchmark
+    public ServerConfig parseProperties() throws Exception {
+        return new PropertiesParser(new ByteArrayInputStream(properties)).parse();
+    }
+}
@@ -0,0 +1,86 @@
+package ru.ifmo.server.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.server.Handler;
+import ru.ifmo.server.HttpMethod;
+import ru.ifmo.server.Request;
+import ru.ifmo.server.Response;
+import ru.ifmo.server.Server;
+import ru.ifmo.server.ServerConfig;
+import ru.ifmo.server.URL;
+
+import java.util.concurrent.TimeUnit;
+
+import static ru.ifmo.server.BenchmarkAccess.newRequest;
+import static ru.ifmo.server.BenchmarkAccess.newResponse;
+import static ru.ifmo.server.BenchmarkAccess.parseRequestLine;
+import static ru.ifmo.server.BenchmarkAccess.resolveHandler;
+
+/**
+ * Handler lookup and invocation: handler instance registered with
+ * {@link ServerConfig#addHandler(String, Handler)} versus {@link URL} annotated
+ * method invoked reflectively.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private Server server;
+    private Request direct;
+    private Request reflective;
+    private Response resp;
+
+    @Setup
+    public void setUp() throws Exception {
+        ServerConfig cfg = new ServerConfig().setPort(0).addHandler("/direct", new DirectHandler());
+        cfg.addClass(AnnotatedHandlers.class);
+
+        server = Server.start(cfg);
+
+        direct = request("GET /direct HTTP/1.1");
+        reflective = request("GET /reflective HTTP/1.1");
+        resp = newResponse(null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public Handler dispatchDirect() throws Exception {
+        Handler h = resolveHandler(server, direct, resp);
+        h.handle(direct, resp);
+        return h;
+    }
+
+    @Benchmark
+    public Handler dispatchReflective() throws Exception {
+        Handler h = resolveHandler(server, reflective, resp);
+        h.handle(reflective, resp);
+        return h;
+    }
+
+    private Request request(String line) throws Exception {
+        Request req = newRequest(server);
+        parseRequestLine(server, req, new StringBuilder(line));
+        return req;
+    }
+
+    public static class DirectHandler implements Handler {
+        @Override
+        public void handle(Request request, Response response) {
+            response.setStatusCode(200);
+        }
+    }
+
+    public static class AnnotatedHandlers {
+        @URL(method = HttpMethod.GET, value = "/reflective")
+        public void handle(Request request, Response response) {
+            response.setStatusCode(200);
+        }
+    }
+}
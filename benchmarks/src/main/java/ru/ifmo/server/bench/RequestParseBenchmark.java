@@ -0,0 +1,79 @@
+package ru.ifmo.server.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.server.Request;
+import ru.ifmo.server.Server;
+import ru.ifmo.server.ServerConfig;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static ru.ifmo.server.BenchmarkAccess.newRequest;
+import static ru.ifmo.server.BenchmarkAccess.parseArgs;
+import static ru.ifmo.server.BenchmarkAccess.parseHeader;
+import static ru.ifmo.server.BenchmarkAccess.parseRequest;
+
+/**
+ * HTTP/1 request parsing: whole request as read from socket, single header line
+ * and query string.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParseBenchmark {
+    private static final String QUERY = "category=books&sort=price&order=asc&page=2&size=50&q=java";
+
+    private static final String COOKIE = "Cookie: JSESSIONID=Yq3b8kXrQ0c1pZ7tW2nV5mL9sD4fH6jK; theme=dark; lang=en";
+
+    private static final String REQUEST =
+        "GET /catalog/items?" + QUERY + " HTTP/1.1\r\n" +
+        "Host: localhost:8080\r\n" +
+        "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0 Safari/537.36\r\n" +
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+        "Accept-Encoding: gzip, deflate\r\n" +
+        "Accept-Language: en-US,en;q=0.9\r\n" +
+        "Connection: keep-alive\r\n" +
+        COOKIE + "\r\n" +
+        "\r\n";
+
+    private Server server;
+    private byte[] request;
+    private final StringBuilder header = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        server = Server.start(new ServerConfig().setPort(0));
+        request = REQUEST.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public Request parseRequestFull() throws Exception {
+        return parseRequest(server, new BufferedInputStream(new ByteArrayInputStream(request), 1024));
+    }
+
+    @Benchmark
+    public Request parseCookieHeader() {
+        Request req = newRequest(server);
+        header.setLength(0);
+        header.append(COOKIE);
+        parseHeader(server, req, header);
+        return req;
+    }
+
+    @Benchmark
+    public Request parseQueryArgs() {
+        Request req = newRequest(server);
+        parseArgs(server, req, QUERY);
+        return req;
+    }
+}
@@ -0,0 +1,77 @@
+package ru.ifmo.server.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.server.Cookie;
+import ru.ifmo.server.Request;
+import ru.ifmo.server.Response;
+import ru.ifmo.server.Server;
+import ru.ifmo.server.ServerConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static ru.ifmo.server.BenchmarkAccess.newRequest;
+import static ru.ifmo.server.BenchmarkAccess.newResponse;
+import static ru.ifmo.server.BenchmarkAccess.sendResponse;
+
+/**
+ * Serialisation of status line, headers, cookies and body of HTTP/1 response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseWriteBenchmark {
+    @Param({"2", "10"})
+    private int headers;
+
+    @Param({"128", "8192"})
+    private int bodySize;
+
+    private Server server;
+    private Request req;
+    private byte[] body;
+    private String[] names;
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream(16 * 1024);
+
+    @Setup
+    public void setUp() {
+        server = Server.start(new ServerConfig().setPort(0));
+        req = newRequest(server);
+
+        body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'a');
+
+        names = new String[headers];
+
+        for (int i = 0; i < headers; i++)
+            names[i] = "X-Header-" + i;
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public int sendResponseToStream() throws IOException {
+        sink.reset();
+
+        Response resp = newResponse(sink);
+        resp.setContentType("text/html");
+
+        for (String name : names)
+            resp.setHeader(name, "value of " + name);
+
+        resp.addCookie(new Cookie("theme", "dark"));
+        resp.getOutputStream().write(body);
+
+        sendResponse(server, resp, req);
+
+        return sink.size();
+    }
+}
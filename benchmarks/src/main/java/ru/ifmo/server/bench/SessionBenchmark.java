@@ -0,0 +1,69 @@
+package ru.ifmo.server.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.server.Server;
+import ru.ifmo.server.ServerConfig;
+import ru.ifmo.server.Session;
+
+import java.util.concurrent.TimeUnit;
+
+import static ru.ifmo.server.BenchmarkAccess.findSession;
+import static ru.ifmo.server.BenchmarkAccess.openSession;
+import static ru.ifmo.server.BenchmarkAccess.removeSession;
+
+/**
+ * Session creation and lookup by ID. Created sessions are removed right away,
+ * otherwise the store would grow for the whole run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark {
+    @Param({"1000", "100000"})
+    private int sessions;
+
+    private Server server;
+    private String[] ids;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Short timeout keeps removed sessions in expiry wheel for a tick or two only.
+        server = Server.start(new ServerConfig().setPort(0).setSessionTimeout(100));
+
+        ids = new String[sessions];
+
+        for (int i = 0; i < sessions; i++) {
+            Session s = openSession(server);
+            s.setExpire(60);
+            ids[i] = s.getId();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public Session createAndRemove() {
+        Session s = openSession(server);
+        removeSession(server, s.getId());
+        return s;
+    }
+
+    @Benchmark
+    public Session lookupHit() {
+        String id = ids[next];
+        next = next + 1 == ids.length ? 0 : next + 1;
+        return findSession(server, id);
+    }
+
+    @Benchmark
+    public Session lookupMiss() {
+        return findSession(server, "no-such-session-id-0123456789abc");
+    }
+}
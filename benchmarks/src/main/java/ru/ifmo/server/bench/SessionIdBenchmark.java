@@ -0,0 +1,38 @@
+package ru.ifmo.server.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.server.SecureSessionIdGenerator;
+import ru.ifmo.server.SessionIdGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session ID generation throughput under contention. {@code legacy} is the
+ * former {@code Math.random()} based generator, kept here for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class SessionIdBenchmark {
+    private static final String LEGACY_SYMBOLS = "123456789abcdefghijklmnopqrstuvwxyz";
+    private static final int LEGACY_LENGTH = 32;
+
+    private final SessionIdGenerator secure = new SecureSessionIdGenerator();
+
+    @Benchmark
+    public String secure() {
+        return secure.generate();
+    }
+
+    @Benchmark
+    public String legacy() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LEGACY_LENGTH; i++)
+            sb.append(LEGACY_SYMBOLS.charAt((int) (Math.random() * LEGACY_SYMBOLS.length())));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,575 @@
+package ru.ifmo.server.load;
+
+import ru.ifmo.server.metrics.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open-loop HTTP/1 load generator.
+ * <p>
+ * Requests are scheduled at fixed rate regardless of responses, like arrivals of
+ * independent users. Request which can't be sent on time because all connections
+ * are busy waits for a free connection, and its latency is measured from the time
+ * it was scheduled for, not from the time it was actually sent. So server stall
+ * shows up in latency of all requests it delayed instead of being hidden by the
+ * generator slowing down (coordinated omission). Latency measured from actual
+ * send time is reported too for comparison.
+ * </p>
+ * <p>
+ * Single thread drives all connections with non-blocking sockets. With keep-alive
+ * connection is reused if response allows it, otherwise every request opens new one.
+ * </p>
+ */
+public class LoadGenerator {
+    private static final int READ_BUF_SIZE = 16 * 1024;
+
+    /** Max time to wait for in-flight requests after schedule ends. */
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final InetSocketAddress addr;
+    private final int rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final int maxConnections;
+    private final boolean keepAlive;
+    private final long timeoutNanos;
+    private final byte[] request;
+
+    private final ByteBuffer readBuf = ByteBuffer.allocateDirect(READ_BUF_SIZE);
+    private final ArrayDeque<Conn> idle = new ArrayDeque<>();
+    private final List<Conn> conns = new ArrayList<>();
+
+    private Selector selector;
+    private long measureFrom;
+    private final Result res;
+
+    /**
+     * @param addr Server address.
+     * @param path Request path with query.
+     * @param rate Requests per second.
+     * @param durationSec Measurement duration.
+     * @param warmupSec Warmup duration, its requests aren't recorded.
+     * @param maxConnections Max concurrent connections.
+     * @param keepAlive Whether to reuse connections.
+     * @param timeoutMillis Request timeout.
+     */
+    public LoadGenerator(InetSocketAddress addr, String path, int rate, int durationSec, int warmupSec,
+        int maxConnections, boolean keepAlive, long timeoutMillis) {
+        if (rate <= 0 || durationSec <= 0 || maxConnections <= 0)
+            throw new IllegalArgumentException("Rate, duration and connections must be positive");
+
+        this.addr = addr;
+        this.rate = rate;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSec);
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSec);
+        this.maxConnections = maxConnections;
+        this.keepAlive = keepAlive;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.res = new Result(rate);
+
+        request = ("GET " + path + " HTTP/1.1\r\n" +
+            "Host: " + addr.getHostString() + ":" + addr.getPort() + "\r\n" +
+            "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
+            "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Runs the schedule.
+     *
+     * @return Result.
+     * @throws IOException If failed to open selector.
+     */
+    public Result run() throws IOException {
+        selector = Selector.open();
+
+        try {
+            long start = System.nanoTime();
+            long total = rate * (warmupNanos + durationNanos) / TimeUnit.SECONDS.toNanos(1);
+            double interval = TimeUnit.SECONDS.toNanos(1) / (double) rate;
+            long end = start + warmupNanos + durationNanos;
+            long lastTimeoutCheck = start;
+            long dispatched = 0;
+            int inFlight = 0;
+
+            measureFrom = start + warmupNanos;
+
+            while (true) {
+                long now = System.nanoTime();
+                long due = Math.min(total, (long) ((now - start) / interval) + 1);
+
+                while (dispatched < due) {
+                    Conn c = idle.poll();
+
+                    if (c == null) {
+                        if (conns.size() >= maxConnections)
+                            break;
+
+                        c = connect();
+
+                        if (c == null) {
+                            // Connect failed, request is lost.
+                            onDone(start + (long) (dispatched * interval), 0, false);
+                            dispatched++;
+                            continue;
+                        }
+                    }
+
+                    long intended = start + (long) (dispatched * interval);
+                    res.maxDispatchDelayNanos = Math.max(res.maxDispatchDelayNanos, now - intended);
+
+                    dispatched++;
+                    inFlight++;
+
+                    try {
+                        c.begin(intended, now);
+                    } catch (IOException e) {
+                        if (c.fail())
+                            inFlight--;
+                    }
+                }
+
+                if (dispatched == total && inFlight == 0)
+                    break;
+
+                if (now > end + DRAIN_NANOS) {
+                    res.incomplete = inFlight + (total - dispatched);
+                    break;
+                }
+
+                long waitNanos = dispatched < total && (!idle.isEmpty() || conns.size() < maxConnections) ?
+                    start + (long) (dispatched * interval) - now : TimeUnit.MILLISECONDS.toNanos(10);
+
+                if (waitNanos >= TimeUnit.MILLISECONDS.toNanos(1))
+                    selector.select(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+                else
+                    selector.selectNow();
+
+                inFlight -= processKeys();
+
+                if (now - lastTimeoutCheck > TimeUnit.MILLISECONDS.toNanos(10)) {
+                    inFlight -= checkTimeouts(now);
+                    lastTimeoutCheck = now;
+                }
+            }
+
+            res.elapsedNanos = Math.max(res.lastDoneNanos, end) - measureFrom;
+
+            return res;
+        } finally {
+            for (Conn c : new ArrayList<>(conns))
+                c.close();
+
+            selector.close();
+        }
+    }
+
+    /**
+     * @return Number of completed requests.
+     */
+    private int processKeys() {
+        int done = 0;
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+
+            Conn c = (Conn) key.attachment();
+
+            try {
+                if (key.isConnectable() && c.ch.finishConnect())
+                    c.onConnected();
+
+                if (key.isValid() && key.isWritable())
+                    c.write();
+
+                if (key.isValid() && key.isReadable() && c.read())
+                    done++;
+            } catch (IOException e) {
+                if (c.fail())
+                    done++;
+            }
+        }
+
+        return done;
+    }
+
+    private int checkTimeouts(long now) {
+        int done = 0;
+
+        for (Conn c : new ArrayList<>(conns)) {
+            if (c.intended != 0 && now - c.sent > timeoutNanos) {
+                res.timeouts++;
+
+                if (c.fail())
+                    done++;
+            }
+        }
+
+        return done;
+    }
+
+    private Conn connect() {
+        try {
+            SocketChannel ch = SocketChannel.open();
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Conn c = new Conn(ch);
+            conns.add(c);
+            res.connects++;
+
+            if (ch.connect(addr))
+                c.key = ch.register(selector, 0, c);
+            else
+                c.key = ch.register(selector, SelectionKey.OP_CONNECT, c);
+
+            c.connected = ch.isConnected();
+
+            return c;
+        } catch (IOException e) {
+            res.connectErrors++;
+
+            return null;
+        }
+    }
+
+    private void onDone(long intended, long sent, boolean ok) {
+        long now = System.nanoTime();
+
+        if (intended < measureFrom)
+            return;
+
+        res.lastDoneNanos = now;
+
+        if (ok) {
+            res.completed++;
+            res.corrected.record(now - intended);
+            res.uncorrected.record(now - sent);
+        } else
+            res.errors++;
+    }
+
+    /**
+     * Client connection with at most one request in flight.
+     */
+    private class Conn {
+        final SocketChannel ch;
+        SelectionKey key;
+        boolean connected;
+
+        /** Scheduled time of current request or {@code 0} if connection is idle. */
+        long intended;
+        long sent;
+
+        final ByteBuffer out = ByteBuffer.wrap(request);
+
+        /** Response header bytes read so far. */
+        final StringBuilder head = new StringBuilder();
+        boolean headDone;
+        int status;
+        long bodyRemaining;
+        boolean persistent;
+
+        Conn(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        void begin(long intended, long now) throws IOException {
+            this.intended = intended;
+            this.sent = now;
+
+            out.clear();
+            head.setLength(0);
+            headDone = false;
+            status = 0;
+            bodyRemaining = -1;
+            persistent = false;
+
+            if (connected)
+                write();
+        }
+
+        void onConnected() throws IOException {
+            connected = true;
+
+            if (intended != 0)
+                write();
+        }
+
+        void write() throws IOException {
+            ch.write(out);
+
+            key.interestOps(out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        /**
+         * @return {@code true} if request is completed.
+         */
+        boolean read() throws IOException {
+            readBuf.clear();
+
+            int n = ch.read(readBuf);
+
+            if (n < 0) {
+                if (headDone && bodyRemaining < 0) {
+                    // Body delimited by connection close.
+                    complete();
+                    close();
+                    return true;
+                }
+
+                throw new IOException("Connection closed by server");
+            }
+
+            readBuf.flip();
+
+            if (!headDone) {
+                while (readBuf.hasRemaining() && !headDone) {
+                    head.append((char) readBuf.get());
+
+                    int len = head.length();
+
+                    if (len >= 4 && head.charAt(len - 1) == '\n' && head.charAt(len - 2) == '\r' &&
+                        head.charAt(len - 3) == '\n' && head.charAt(len - 4) == '\r') {
+                        parseHead();
+                        headDone = true;
+                    }
+                }
+            }
+
+            if (headDone && bodyRemaining >= 0) {
+                bodyRemaining -= readBuf.remaining();
+
+                if (bodyRemaining <= 0) {
+                    complete();
+
+                    if (persistent) {
+                        key.interestOps(0);
+                        idle.add(this);
+                    } else
+                        close();
+
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private void parseHead() {
+            String[] lines = head.toString().split("\r\n");
+            String statusLine = lines[0];
+            String[] parts = statusLine.split(" ");
+
+            status = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 0;
+
+            boolean http11 = statusLine.startsWith("HTTP/1.1");
+            String connection = null;
+
+            for (int i = 1; i < lines.length; i++) {
+                int idx = lines[i].indexOf(':');
+
+                if (idx < 0)
+                    continue;
+
+                String name = lines[i].substring(0, idx).trim().toLowerCase(Locale.ROOT);
+                String val = lines[i].substring(idx + 1).trim();
+
+                if ("content-length".equals(name))
+                    bodyRemaining = Long.parseLong(val);
+                else if ("connection".equals(name))
+                    connection = val.toLowerCase(Locale.ROOT);
+            }
+
+            persistent = keepAlive && bodyRemaining >= 0 &&
+                (http11 ? !"close".equals(connection) : "keep-alive".equals(connection));
+        }
+
+        private void complete() {
+            onDone(intended, sent, status >= 200 && status < 400);
+
+            if (status >= 400 && intended >= measureFrom)
+                res.non2xx++;
+
+            intended = 0;
+        }
+
+        /**
+         * Closes connection failed with I/O error or timeout.
+         *
+         * @return {@code true} if request was in flight.
+         */
+        boolean fail() {
+            boolean inFlight = intended != 0;
+
+            if (inFlight) {
+                onDone(intended, sent, false);
+                intended = 0;
+            }
+
+            close();
+
+            return inFlight;
+        }
+
+        void close() {
+            conns.remove(this);
+            idle.remove(this);
+
+            if (key != null)
+                key.cancel();
+
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+                // No-op.
+            }
+        }
+    }
+
+    /**
+     * Load test result.
+     */
+    public static class Result {
+        final int rate;
+
+        /** Latency from scheduled time. */
+        final Histogram corrected = new Histogram();
+
+        /** Latency from actual send time. */
+        final Histogram uncorrected = new Histogram();
+
+        long completed;
+        long errors;
+        long non2xx;
+        long timeouts;
+        long incomplete;
+        long connects;
+        long connectErrors;
+        long maxDispatchDelayNanos;
+        long elapsedNanos;
+        long lastDoneNanos;
+
+        Result(int rate) {
+            this.rate = rate;
+        }
+
+        /**
+         * @return Latency corrected for coordinated omission, nanoseconds.
+         */
+        public Histogram getLatency() {
+            return corrected;
+        }
+
+        /**
+         * @return Number of successful requests.
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return Number of failed requests, including error statuses and timeouts.
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        public void print(PrintStream out) {
+            double secs = elapsedNanos / 1e9;
+
+            out.printf(Locale.ROOT, "Target rate:    %d req/s%n", rate);
+            out.printf(Locale.ROOT, "Achieved rate:  %.1f req/s%n", completed / secs);
+            out.printf(Locale.ROOT, "Completed:      %d%n", completed);
+            out.printf(Locale.ROOT, "Errors:         %d (status >= 400: %d, timeouts: %d, connect: %d)%n",
+                errors, non2xx, timeouts, connectErrors);
+            out.printf(Locale.ROOT, "Incomplete:     %d%n", incomplete);
+            out.printf(Locale.ROOT, "Connections:    %d opened%n", connects);
+            out.printf(Locale.ROOT, "Max send delay: %.3f ms%n", maxDispatchDelayNanos / 1e6);
+            out.println();
+            out.printf(Locale.ROOT, "%-10s %14s %14s%n", "Latency", "corrected, ms", "measured, ms");
+
+            for (double p : PERCENTILES) {
+                out.printf(Locale.ROOT, "%-10s %14.3f %14.3f%n", "p" + trim(p * 100),
+                    corrected.getValueAtQuantile(p) / 1e6, uncorrected.getValueAtQuantile(p) / 1e6);
+            }
+
+            out.printf(Locale.ROOT, "%-10s %14.3f %14.3f%n", "max", corrected.getMax() / 1e6, uncorrected.getMax() / 1e6);
+        }
+
+        private static String trim(double d) {
+            return d == (long) d ? String.valueOf((long) d) : String.valueOf(d);
+        }
+    }
+
+    /**
+     * Usage: {@code LoadGenerator [-host localhost] [-port 8080] [-path /] -rate N [-duration 30]
+     * [-warmup 5] [-connections 256] [-keepalive] [-timeout 5000]}.
+     */
+    public static void main(String[] args) throws IOException {
+        String host = "localhost";
+        int port = 8080;
+        String path = "/";
+        int rate = 0;
+        int duration = 30;
+        int warmup = 5;
+        int connections = 256;
+        boolean keepAlive = false;
+        long timeout = 5000;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-host": host = args[++i]; break;
+                case "-port": port = Integer.parseInt(args[++i]); break;
+                case "-path": path = args[++i]; break;
+                case "-rate": rate = Integer.parseInt(args[++i]); break;
+                case "-duration": duration = Integer.parseInt(args[++i]); break;
+                case "-warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "-connections": connections = Integer.parseInt(args[++i]); break;
+                case "-keepalive": keepAlive = true; break;
+                case "-timeout": timeout = Long.parseLong(args[++i]); break;
+                default:
+                    usage("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        if (rate <= 0) {
+            usage("Request rate is required");
+            return;
+        }
+
+        System.out.printf(Locale.ROOT, "Running %ds (+%ds warmup) at %d req/s against http://%s:%d%s, %s, up to %d connections%n",
+            duration, warmup, rate, host, port, path, keepAlive ? "keep-alive" : "connection per request", connections);
+
+        LoadGenerator gen = new LoadGenerator(new InetSocketAddress(host, port), path, rate, duration, warmup,
+            connections, keepAlive, timeout);
+
+        gen.run().print(System.out);
+    }
+
+    private static void usage(String err) {
+        System.err.println(err);
+        System.err.println("Usage: LoadGenerator [-host localhost] [-port 8080] [-path /] -rate N [-duration 30] " +
+            "[-warmup 5] [-connections 256] [-keepalive] [-timeout 5000]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,29 @@
+package ru.ifmo.example.server;
+
+import ru.ifmo.server.Server;
+import ru.ifmo.server.ServerConfig;
+
+/**
+ * Starts server with example handlers as a target for load generator:
+ * {@code /success} is {@link SuccessHandler}, {@code /index} and {@code /index/ifmo}
+ * are reflective handlers of {@link HandlersClass}, {@code /metrics} serves server metrics.
+ * <p>
+ * Usage: {@code LoadTestServer [port]}.
+ * </p>
+ */
+public class LoadTestServer {
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : ServerConfig.DFLT_PORT;
+
+        ServerConfig config = new ServerConfig()
+                .setPort(port)
+                .setMetricsPath("/metrics")
+                .addHandler("/success", new SuccessHandler());
+
+        config.addClass(HandlersClass.class);
+
+        Server server = Server.start(config);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    }
+}
@@ -51,6 +51,9 @@ public abstract class AbstractParser implements Parser {
                 } else if (byte.class == type) {
                     method.invoke(config, Byte.parseByte(val));
 
+                } else if (String.class == type) {
+                    method.invoke(config, val);
+
                 } else {
                     Class<?> aClass = Class.forName(val);
                     Object obj = aClass.getConstructor().newInstance();
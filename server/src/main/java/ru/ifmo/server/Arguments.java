@@ -0,0 +1,264 @@
+package ru.ifmo.server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Request arguments of query and {@code application/x-www-form-urlencoded} body kept
+ * in insertion order in flat parallel arrays of names and values. A name may have
+ * several values, {@link #get(String)} returns the first one.
+ */
+class Arguments {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] names;
+    private String[] values;
+    private int size;
+    private Map<String, String> map;
+
+    /**
+     * Adds arguments of urlencoded string in one pass. Names and values are decoded,
+     * {@code +} as space and {@code %xx} as UTF-8 bytes, only if they have escapes.
+     * Argument with empty value or without {@code =} gets {@code null} value, pairs with
+     * empty name are skipped.
+     *
+     * @param s Urlencoded arguments, e.g. {@code a=1&b=x+y}.
+     */
+    void parse(String s) {
+        int len = s.length();
+        int start = 0;
+        int eq = -1;
+        boolean escName = false;
+        boolean escVal = false;
+
+        for (int i = 0; i <= len; i++) {
+            char c = i < len ? s.charAt(i) : '&';
+
+            if (c == '&') {
+                int nameEnd = eq < 0 ? i : eq;
+
+                if (nameEnd > start) {
+                    String name = component(s, start, nameEnd, escName);
+                    String val = eq < 0 || eq + 1 == i ? null : component(s, eq + 1, i, escVal);
+
+                    add(name, val);
+                }
+
+                start = i + 1;
+                eq = -1;
+                escName = false;
+                escVal = false;
+            } else if (c == '=' && eq < 0)
+                eq = i;
+            else if (c == '%' || c == '+') {
+                if (eq < 0)
+                    escName = true;
+                else
+                    escVal = true;
+            }
+        }
+    }
+
+    /**
+     * Adds arguments of urlencoded body read pair by pair, so only one pair is held as
+     * string at a time instead of the whole body.
+     *
+     * @param r Reader of urlencoded arguments.
+     * @throws IOException If failed to read.
+     */
+    void parse(Reader r) throws IOException {
+        char[] buf = new char[1024];
+        StringBuilder pair = new StringBuilder();
+
+        for (int n; (n = r.read(buf)) >= 0; ) {
+            int start = 0;
+
+            for (int i = 0; i < n; i++) {
+                if (buf[i] == '&') {
+                    parse(pair.append(buf, start, i - start).toString());
+
+                    pair.setLength(0);
+                    start = i + 1;
+                }
+            }
+
+            pair.append(buf, start, n - start);
+        }
+
+        parse(pair.toString());
+    }
+
+    private static String component(String s, int from, int to, boolean esc) {
+        return esc ? RequestTarget.decode(s, from, to, true) : s.substring(from, to);
+    }
+
+    void add(String name, String val) {
+        if (names == null) {
+            names = new String[INITIAL_CAPACITY];
+            values = new String[INITIAL_CAPACITY];
+        } else if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        names[size] = name;
+        values[size] = val;
+        size++;
+    }
+
+    /**
+     * @param name Argument name.
+     * @return First value or {@code null}.
+     */
+    String get(String name) {
+        int idx = indexOf(name, 0);
+
+        return idx < 0 ? null : values[idx];
+    }
+
+    /**
+     * @param name Argument name.
+     * @return All values in order they were sent.
+     */
+    List<String> getAll(String name) {
+        int idx = indexOf(name, 0);
+
+        if (idx < 0)
+            return Collections.emptyList();
+
+        List<String> res = new ArrayList<>(2);
+
+        for (; idx >= 0; idx = indexOf(name, idx + 1))
+            res.add(values[idx]);
+
+        return res;
+    }
+
+    /**
+     * @return Number of arguments, a name with several values is counted several times.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return Unmodifiable map view with first value of every name.
+     */
+    Map<String, String> asMap() {
+        if (map == null)
+            map = new MapView();
+
+        return map;
+    }
+
+    private int indexOf(Object name, int from) {
+        if (name == null)
+            return -1;
+
+        for (int i = from; i < size; i++) {
+            if (names[i].equals(name))
+                return i;
+        }
+
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(", ");
+
+            sb.append(names[i]).append('=').append(values[i]);
+        }
+
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Map view, a name with several values is seen once with its first value.
+     */
+    private class MapView extends AbstractMap<String, String> {
+        private Set<Map.Entry<String, String>> entries;
+
+        @Override
+        public String get(Object key) {
+            int idx = indexOf(key, 0);
+
+            return idx < 0 ? null : values[idx];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key, 0) >= 0;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            if (entries == null) {
+                entries = new AbstractSet<Map.Entry<String, String>>() {
+                    @Override
+                    public Iterator<Map.Entry<String, String>> iterator() {
+                        return new EntryIterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        int cnt = 0;
+
+                        for (int i = 0; i < size; i++) {
+                            if (indexOf(names[i], 0) == i)
+                                cnt++;
+                        }
+
+                        return cnt;
+                    }
+                };
+            }
+
+            return entries;
+        }
+    }
+
+    /**
+     * Iterates first arguments of distinct names.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+        private int next = advance(0);
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next >= size)
+                throw new NoSuchElementException();
+
+            int cur = next;
+            next = advance(next + 1);
+
+            return new AbstractMap.SimpleImmutableEntry<>(names[cur], values[cur]);
+        }
+
+        private int advance(int from) {
+            while (from < size && indexOf(names[from], 0) != from)
+                from++;
+
+            return from;
+        }
+    }
+}
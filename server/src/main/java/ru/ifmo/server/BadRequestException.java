@@ -0,0 +1,22 @@
+package ru.ifmo.server;
+
+/**
+ * Thrown when request sent by client is malformed or can't be read. Request failed with it
+ * is answered with {@code 400 Bad Request}.
+ */
+public class BadRequestException extends ServerException {
+    /**
+     * @param message Exception message.
+     */
+    public BadRequestException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message Exception message.
+     * @param cause Exception cause.
+     */
+    public BadRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
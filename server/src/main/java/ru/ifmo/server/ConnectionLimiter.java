@@ -0,0 +1,142 @@
+package ru.ifmo.server;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Limits number of open connections, server-wide and per client address.
+ * <p>
+ * Server-wide slot is taken before accepting, so acceptor pauses when limit is
+ * reached and new connections wait in listen backlog. Client slot is taken after
+ * accepting. Per client counters are striped by address hash: memory is bounded
+ * regardless of number of clients, clients sharing stripe share its limit.
+ * Counters are updated with CAS, lock is used only to park acceptors at the limit.
+ * </p>
+ */
+class ConnectionLimiter {
+    /** Number of per client counters, power of two. */
+    static final int STRIPES = 4096;
+
+    private final int max;
+    private final int maxPerClient;
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicIntegerArray clients;
+    private final AtomicInteger paused = new AtomicInteger();
+
+    /**
+     * @param max Max open connections, {@code 0} means unlimited.
+     * @param maxPerClient Max open connections per client address, {@code 0} means unlimited.
+     */
+    ConnectionLimiter(int max, int maxPerClient) {
+        this.max = max;
+        this.maxPerClient = maxPerClient;
+
+        clients = maxPerClient > 0 ? new AtomicIntegerArray(STRIPES) : null;
+    }
+
+    /**
+     * Takes server-wide slot, waits for free one if limit is reached.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void acquire() throws InterruptedException {
+        if (tryIncrement(open, max))
+            return;
+
+        paused.incrementAndGet();
+
+        try {
+            synchronized (this) {
+                while (!tryIncrement(open, max))
+                    wait();
+            }
+        } finally {
+            paused.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases server-wide slot taken by {@link #acquire()}.
+     */
+    void release() {
+        if (open.getAndDecrement() == max && max > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @param addr Client address.
+     * @return {@code False} if client has too many connections.
+     */
+    boolean acquireClient(InetAddress addr) {
+        if (clients == null)
+            return true;
+
+        int idx = stripe(addr);
+
+        while (true) {
+            int cnt = clients.get(idx);
+
+            if (cnt >= maxPerClient)
+                return false;
+
+            if (clients.compareAndSet(idx, cnt, cnt + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Releases client slot taken by {@link #acquireClient(InetAddress)}.
+     *
+     * @param addr Client address.
+     */
+    void releaseClient(InetAddress addr) {
+        if (clients != null)
+            clients.decrementAndGet(stripe(addr));
+    }
+
+    /**
+     * @return Number of open connections.
+     */
+    int getOpen() {
+        return open.get();
+    }
+
+    /**
+     * @return Number of acceptors waiting for free slot.
+     */
+    int getPaused() {
+        return paused.get();
+    }
+
+    private static boolean tryIncrement(AtomicInteger cnt, int max) {
+        if (max <= 0) {
+            cnt.incrementAndGet();
+            return true;
+        }
+
+        while (true) {
+            int cur = cnt.get();
+
+            if (cur >= max)
+                return false;
+
+            if (cnt.compareAndSet(cur, cur + 1))
+                return true;
+        }
+    }
+
+    private static int stripe(InetAddress addr) {
+        int h = addr.hashCode();
+
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+
+        return h & (STRIPES - 1);
+    }
+}
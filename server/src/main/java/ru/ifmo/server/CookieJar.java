@@ -0,0 +1,158 @@
+package ru.ifmo.server;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Request cookies kept as raw {@code Cookie} header and parsed into a map on first
+ * access only. Single cookie, like session id, is found by direct scan of the header
+ * without building the map.
+ * <p>
+ * Pairs are separated by {@code ;}, whitespace around names and values is ignored.
+ * Pair without {@code =} is a cookie with empty value, pair with empty name is skipped.
+ * If name is repeated, the first value wins, as clients send cookies with more specific
+ * path first (RFC 6265, section 5.4).
+ * </p>
+ */
+class CookieJar {
+    private String raw;
+    private Map<String, Cookie> map;
+
+    /**
+     * @param raw Value of {@code Cookie} header.
+     */
+    CookieJar(String raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * Appends value of one more {@code Cookie} header.
+     *
+     * @param header Header value.
+     */
+    void add(String header) {
+        raw = raw + "; " + header;
+        map = null;
+    }
+
+    /**
+     * @param name Cookie name.
+     * @return Cookie value or {@code null}.
+     */
+    String get(String name) {
+        if (map != null) {
+            Cookie cookie = map.get(name);
+
+            return cookie == null ? null : cookie.getValue();
+        }
+
+        return find(raw, name);
+    }
+
+    /**
+     * @return Unmodifiable map of cookies by name, parsed on first call.
+     */
+    Map<String, Cookie> asMap() {
+        if (map == null) {
+            Map<String, Cookie> res = new LinkedHashMap<>();
+            int len = raw.length();
+
+            for (int start = 0; start < len; ) {
+                int end = pairEnd(raw, start);
+                int eq = indexOfEq(raw, start, end);
+                int nameEnd = eq < 0 ? end : eq;
+
+                start = skipSpaces(raw, start, nameEnd);
+                nameEnd = trimSpaces(raw, start, nameEnd);
+
+                if (nameEnd > start) {
+                    String name = raw.substring(start, nameEnd);
+
+                    if (!res.containsKey(name))
+                        res.put(name, new Cookie(name, value(raw, eq, end)));
+                }
+
+                start = end + 1;
+            }
+
+            map = Collections.unmodifiableMap(res);
+        }
+
+        return map;
+    }
+
+    /**
+     * Scans raw header for single cookie.
+     *
+     * @param s Value of {@code Cookie} header.
+     * @param name Cookie name.
+     * @return First value of cookie or {@code null}.
+     */
+    static String find(String s, String name) {
+        int len = s.length();
+        int nameLen = name.length();
+
+        for (int start = 0; start < len; ) {
+            int end = pairEnd(s, start);
+            int eq = indexOfEq(s, start, end);
+            int nameEnd = eq < 0 ? end : eq;
+
+            start = skipSpaces(s, start, nameEnd);
+
+            if (nameLen > 0 && trimSpaces(s, start, nameEnd) - start == nameLen &&
+                s.regionMatches(start, name, 0, nameLen))
+                return value(s, eq, end);
+
+            start = end + 1;
+        }
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return raw;
+    }
+
+    /**
+     * @return Trimmed value of pair, empty if pair has no {@code =}.
+     */
+    private static String value(String s, int eq, int end) {
+        if (eq < 0)
+            return "";
+
+        int from = skipSpaces(s, eq + 1, end);
+
+        return s.substring(from, trimSpaces(s, from, end));
+    }
+
+    private static int pairEnd(String s, int from) {
+        int end = s.indexOf(';', from);
+
+        return end < 0 ? s.length() : end;
+    }
+
+    private static int indexOfEq(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '=')
+                return i;
+        }
+
+        return -1;
+    }
+
+    private static int skipSpaces(String s, int from, int to) {
+        while (from < to && s.charAt(from) <= ' ')
+            from++;
+
+        return from;
+    }
+
+    private static int trimSpaces(String s, int from, int to) {
+        while (to > from && s.charAt(to - 1) <= ' ')
+            to--;
+
+        return to;
+    }
+}
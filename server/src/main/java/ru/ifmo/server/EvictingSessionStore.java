@@ -0,0 +1,295 @@
+package ru.ifmo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.ifmo.server.util.FrequencySketch;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Session store decorator bounding number of sessions and their estimated memory
+ * with W-TinyLFU policy.
+ * <p>
+ * New sessions enter small LRU window. Session pushed out of the window competes
+ * with least recently used session of the main LRU region when store is full:
+ * session accessed more often according to {@link FrequencySketch} stays, the other
+ * one is evicted. So burst of one-off sessions, e.g. created by crawler ignoring
+ * cookies, can't push out sessions of active users.
+ * </p>
+ * <p>
+ * Memory is estimated by {@link Session#estimateSize()} of heap sessions.
+ * Self-expiring stores remove sessions behind decorator's back and are not supported.
+ * </p>
+ */
+class EvictingSessionStore implements SessionStore {
+    private static final Logger LOG = LoggerFactory.getLogger(EvictingSessionStore.class);
+
+    /** Window share of max sessions, percents. */
+    private static final int WINDOW_PERCENT = 1;
+
+    private final SessionStore delegate;
+    private final int maxSessions;
+    private final long maxBytes;
+    private final FrequencySketch sketch;
+    private final LongAdder evicted = new LongAdder();
+
+    /* Guarded by {@code this}. */
+    private final LinkedHashMap<String, Node> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Node> main = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    /**
+     * @param delegate Underlying store.
+     * @param maxSessions Max number of sessions or {@code 0} for no limit.
+     * @param maxBytes Max estimated memory or {@code 0} for no limit.
+     */
+    EvictingSessionStore(SessionStore delegate, int maxSessions, long maxBytes) {
+        if (delegate.isSelfExpiring())
+            throw new IllegalArgumentException("Self-expiring session store can't be bounded: " + delegate);
+
+        this.delegate = delegate;
+        this.maxSessions = maxSessions > 0 ? maxSessions : Integer.MAX_VALUE;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+
+        // Without count limit assume average session of 1 KB.
+        int expected = maxSessions > 0 ? maxSessions : (int) Math.min(1 << 20, maxBytes / 1024);
+        sketch = new FrequencySketch(expected);
+    }
+
+    @Override
+    public Iterable<Session> start() {
+        Iterable<Session> loaded = delegate.start();
+
+        synchronized (this) {
+            for (Session s : loaded) {
+                Node n = new Node(s);
+                main.put(n.id, n);
+                weight += n.weight;
+                s.store = this;
+            }
+
+            evict();
+        }
+
+        return loaded;
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            window.clear();
+            main.clear();
+            weight = 0;
+        }
+
+        delegate.stop();
+    }
+
+    /**
+     * Sessions added by delegate itself are accounted too.
+     */
+    @Override
+    public void setScheduler(Consumer<Session> scheduler) {
+        delegate.setScheduler(s -> {
+            s.store = this;
+
+            add(s);
+            scheduler.accept(s);
+        });
+    }
+
+    @Override
+    public Session get(String id) {
+        return delegate.get(id);
+    }
+
+    @Override
+    public void put(Session session) {
+        delegate.put(session);
+        session.store = this;
+
+        add(session);
+    }
+
+    private synchronized void add(Session session) {
+        Node n = new Node(session);
+        Node old = window.put(n.id, n);
+
+        if (old != null)
+            weight -= old.weight;
+
+        weight += n.weight;
+        sketch.increment(n.hash);
+
+        evict();
+    }
+
+    @Override
+    public void touch(Session session) {
+        delegate.touch(session);
+
+        synchronized (this) {
+            // Lookup in access ordered map moves node to MRU position.
+            Node n = window.get(session.getId());
+
+            if (n == null)
+                n = main.get(session.getId());
+
+            if (n != null)
+                sketch.increment(n.hash);
+        }
+    }
+
+    @Override
+    public void update(Session session, String key) {
+        delegate.update(session, key);
+
+        synchronized (this) {
+            Node n = window.get(session.getId());
+
+            if (n == null)
+                n = main.get(session.getId());
+
+            if (n != null) {
+                long w = session.estimateSize();
+                weight += w - n.weight;
+                n.weight = w;
+
+                evict();
+            }
+        }
+    }
+
+    @Override
+    public Session remove(String id) {
+        Session s = delegate.remove(id);
+
+        synchronized (this) {
+            removeNode(id);
+        }
+
+        return s;
+    }
+
+    @Override
+    public boolean expire(Session session) {
+        if (!delegate.expire(session))
+            return false;
+
+        synchronized (this) {
+            removeNode(session.getId());
+        }
+
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    /**
+     * @return Tracked estimated memory of sessions.
+     */
+    @Override
+    public synchronized long estimatedBytes() {
+        return weight;
+    }
+
+    /**
+     * @return Number of sessions evicted to stay within limits.
+     */
+    long evicted() {
+        return evicted.sum();
+    }
+
+    private void evict() {
+        int windowMax = Math.max(1, (maxSessions == Integer.MAX_VALUE ? count() : maxSessions) * WINDOW_PERCENT / 100);
+
+        while (window.size() > windowMax) {
+            Node candidate = eldest(window);
+
+            if (overLimit()) {
+                Node victim = eldest(main);
+
+                if (victim != null && sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                    evict(victim);
+                    promote(candidate);
+                } else
+                    evict(candidate);
+            } else
+                promote(candidate);
+        }
+
+        while (overLimit()) {
+            Node victim = eldest(main);
+
+            if (victim == null)
+                victim = eldest(window);
+
+            if (victim == null)
+                break;
+
+            evict(victim);
+        }
+    }
+
+    private boolean overLimit() {
+        return count() > maxSessions || weight > maxBytes;
+    }
+
+    private int count() {
+        return window.size() + main.size();
+    }
+
+    private void promote(Node n) {
+        window.remove(n.id);
+        main.put(n.id, n);
+    }
+
+    private void evict(Node n) {
+        removeNode(n.id);
+
+        Session s = delegate.evict(n.id);
+
+        if (s != null) {
+            s.setExpired(true);
+            evicted.increment();
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Session evicted: " + n.id);
+        }
+    }
+
+    private void removeNode(String id) {
+        Node n = window.remove(id);
+
+        if (n == null)
+            n = main.remove(id);
+
+        if (n != null)
+            weight -= n.weight;
+    }
+
+    private static Node eldest(LinkedHashMap<String, Node> map) {
+        Iterator<Map.Entry<String, Node>> it = map.entrySet().iterator();
+
+        return it.hasNext() ? it.next().getValue() : null;
+    }
+
+    private static class Node {
+        final String id;
+        final int hash;
+        long weight;
+
+        Node(Session s) {
+            id = s.getId();
+            hash = id.hashCode();
+            weight = s.estimateSize();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ru.ifmo.server;
+
+/**
+ * Checks headers of request sent with {@code Expect: 100-continue} before client transfers
+ * the body. Register with {@link ServerConfig#setExpectationHandler(ExpectationHandler)}.
+ * Invoked only for requests routed to a handler, after rate limits and body size limits
+ * are checked.
+ *
+ * @see ServerConfig
+ */
+public interface ExpectationHandler {
+    /**
+     * @param request Request with line and headers parsed, body is not read yet.
+     * @param response Response sent if request is rejected. If nothing is written to it,
+     *                 default error page is sent.
+     * @return {@link Http#SC_CONTINUE} to let client send the body or final status code,
+     * e.g. {@code 401} or {@code 413}, to reject request.
+     * @throws Exception If thrown 500 error code will be sent to client.
+     */
+    int check(Request request, Response response) throws Exception;
+}
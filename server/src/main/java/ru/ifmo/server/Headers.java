@@ -0,0 +1,410 @@
+package ru.ifmo.server;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * HTTP header fields kept in insertion order in flat parallel arrays of names and values.
+ * <p>
+ * Name lookup is case-insensitive (RFC 7230, section 3.2) and doesn't allocate. A name may
+ * have several values, {@link #get(String)} returns the first one. Well-known names are
+ * interned on insert: parsed {@code content-type} is stored as {@link Http#CONTENT_TYPE},
+ * so most lookups with constants succeed on reference comparison. Well-known names are
+ * found in a perfect hash table built on class load.
+ * </p>
+ */
+class Headers {
+    /** Interned header names. */
+    private static final String[] WELL_KNOWN = {
+        "Accept", Http.ACCEPT_ENCODING, "Accept-Language", "Authorization", Http.CACHE_CONTROL,
+        Http.CONNECTION, Http.CONTENT_ENCODING, Http.CONTENT_LENGTH, Http.CONTENT_TYPE, "Cookie", "Date",
+        "ETag", "Expect", "Host", "If-Modified-Since", "If-None-Match", "Keep-Alive", "Last-Modified",
+        "Location", "Origin", "Range", "Referer", Http.RETRY_AFTER, "Server", "Set-Cookie",
+        "Transfer-Encoding", "Upgrade", "User-Agent", "Vary", "X-Forwarded-For"
+    };
+
+    private static final int TABLE_BITS = 7;
+
+    /** Well-known names by slot. */
+    private static final String[] TABLE = new String[1 << TABLE_BITS];
+
+    /** Multiplier of name hash giving distinct slots to all well-known names. */
+    private static final int SEED;
+
+    static {
+        int seed = 1;
+
+        search:
+        for (;; seed += 2) {
+            Arrays.fill(TABLE, null);
+
+            for (String name : WELL_KNOWN) {
+                int slot = slot(name, 0, name.length(), seed);
+
+                if (TABLE[slot] != null)
+                    continue search;
+
+                TABLE[slot] = name;
+            }
+
+            break;
+        }
+
+        SEED = seed;
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] names;
+    private String[] values;
+    private int size;
+    private Map<String, String> map;
+
+    Headers() {
+        // No-op.
+    }
+
+    /**
+     * @param other Headers to copy.
+     */
+    Headers(Headers other) {
+        if (other.size > 0) {
+            names = Arrays.copyOf(other.names, other.size);
+            values = Arrays.copyOf(other.values, other.size);
+            size = other.size;
+        }
+    }
+
+    /**
+     * @param name Header name.
+     * @return First value or {@code null}.
+     */
+    String get(String name) {
+        int idx = indexOf(name, 0);
+
+        return idx < 0 ? null : values[idx];
+    }
+
+    /**
+     * @param name Header name.
+     * @return All values in order they were added.
+     */
+    List<String> getAll(String name) {
+        int idx = indexOf(name, 0);
+
+        if (idx < 0)
+            return Collections.emptyList();
+
+        List<String> res = new ArrayList<>(2);
+
+        for (; idx >= 0; idx = indexOf(name, idx + 1))
+            res.add(values[idx]);
+
+        return res;
+    }
+
+    boolean contains(String name) {
+        return indexOf(name, 0) >= 0;
+    }
+
+    /**
+     * Adds value keeping existing values of the name.
+     */
+    void add(String name, String val) {
+        if (names == null) {
+            names = new String[INITIAL_CAPACITY];
+            values = new String[INITIAL_CAPACITY];
+        } else if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        names[size] = intern(name);
+        values[size] = val;
+        size++;
+    }
+
+    /**
+     * Replaces all values of the name.
+     *
+     * @return Previous first value or {@code null}.
+     */
+    String set(String name, String val) {
+        int idx = indexOf(name, 0);
+
+        if (idx < 0) {
+            add(name, val);
+
+            return null;
+        }
+
+        String old = values[idx];
+        values[idx] = val;
+
+        removeFrom(name, idx + 1);
+
+        return old;
+    }
+
+    /**
+     * Removes all values of the name.
+     *
+     * @return Previous first value or {@code null}.
+     */
+    String remove(String name) {
+        int idx = indexOf(name, 0);
+
+        if (idx < 0)
+            return null;
+
+        String old = values[idx];
+
+        removeFrom(name, idx);
+
+        return old;
+    }
+
+    /**
+     * @return Number of fields, a name with several values is counted several times.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param idx Field index.
+     * @return Field name.
+     */
+    String name(int idx) {
+        return names[idx];
+    }
+
+    /**
+     * @param idx Field index.
+     * @return Field value.
+     */
+    String value(int idx) {
+        return values[idx];
+    }
+
+    /**
+     * @return Live map view with case-insensitive keys and first value of every name.
+     */
+    Map<String, String> asMap() {
+        if (map == null)
+            map = new MapView();
+
+        return map;
+    }
+
+    /**
+     * Returns interned name if given one is well-known.
+     *
+     * @param s Chars.
+     * @param from Name start.
+     * @param to Name end, exclusive.
+     * @return Well-known name or {@code null}.
+     */
+    static String wellKnown(CharSequence s, int from, int to) {
+        String name = TABLE[slot(s, from, to, SEED)];
+
+        if (name == null || name.length() != to - from)
+            return null;
+
+        for (int i = 0; i < name.length(); i++) {
+            if (lower(name.charAt(i)) != lower(s.charAt(from + i)))
+                return null;
+        }
+
+        return name;
+    }
+
+    /**
+     * @param s Chars.
+     * @param from Name start.
+     * @param to Name end, exclusive.
+     * @return Interned or new name.
+     */
+    static String name(CharSequence s, int from, int to) {
+        String name = wellKnown(s, from, to);
+
+        return name != null ? name : s.subSequence(from, to).toString();
+    }
+
+    private static String intern(String name) {
+        String res = wellKnown(name, 0, name.length());
+
+        return res != null ? res : name;
+    }
+
+    private static int slot(CharSequence s, int from, int to, int seed) {
+        int h = 0;
+
+        for (int i = from; i < to; i++)
+            h = h * 31 + lower(s.charAt(i));
+
+        return (h * seed) >>> (32 - TABLE_BITS);
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private int indexOf(Object name, int from) {
+        for (int i = from; i < size; i++) {
+            String n = names[i];
+
+            if (n == name || (name instanceof String && n.equalsIgnoreCase((String) name)))
+                return i;
+        }
+
+        return -1;
+    }
+
+    private void removeFrom(String name, int from) {
+        int dst = from;
+
+        for (int i = from; i < size; i++) {
+            if (names[i] == name || names[i].equalsIgnoreCase(name))
+                continue;
+
+            names[dst] = names[i];
+            values[dst] = values[i];
+            dst++;
+        }
+
+        Arrays.fill(names, dst, size, null);
+        Arrays.fill(values, dst, size, null);
+        size = dst;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(", ");
+
+            sb.append(names[i]).append('=').append(values[i]);
+        }
+
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Map view, a name with several values is seen once with its first value.
+     */
+    private class MapView extends AbstractMap<String, String> {
+        private Set<Map.Entry<String, String>> entries;
+
+        @Override
+        public String get(Object key) {
+            int idx = indexOf(key, 0);
+
+            return idx < 0 ? null : values[idx];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key, 0) >= 0;
+        }
+
+        @Override
+        public String put(String key, String val) {
+            return set(key, val);
+        }
+
+        @Override
+        public String remove(Object key) {
+            return key instanceof String ? Headers.this.remove((String) key) : null;
+        }
+
+        @Override
+        public void clear() {
+            if (names != null) {
+                Arrays.fill(names, 0, size, null);
+                Arrays.fill(values, 0, size, null);
+            }
+
+            size = 0;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            if (entries == null) {
+                entries = new AbstractSet<Map.Entry<String, String>>() {
+                    @Override
+                    public Iterator<Map.Entry<String, String>> iterator() {
+                        return new EntryIterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        int cnt = 0;
+
+                        for (int i = 0; i < size; i++) {
+                            if (indexOf(names[i], 0) == i)
+                                cnt++;
+                        }
+
+                        return cnt;
+                    }
+                };
+            }
+
+            return entries;
+        }
+    }
+
+    /**
+     * Iterates first fields of distinct names.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+        private int next = advance(0);
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next >= size)
+                throw new NoSuchElementException();
+
+            last = next;
+            next = advance(next + 1);
+
+            return new AbstractMap.SimpleImmutableEntry<>(names[last], values[last]);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0)
+                throw new IllegalStateException();
+
+            removeFrom(names[last], last);
+
+            // Fields preceding removed one are intact, fields between it and next were duplicates.
+            next = advance(last);
+            last = -1;
+        }
+
+        private int advance(int from) {
+            while (from < size && indexOf(names[from], 0) != from)
+                from++;
+
+            return from;
+        }
+    }
+}
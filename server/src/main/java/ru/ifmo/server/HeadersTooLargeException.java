@@ -0,0 +1,14 @@
+package ru.ifmo.server;
+
+/**
+ * Thrown when request line and headers exceed configured size. Request is answered
+ * with {@code 431 Request Header Fields Too Large}.
+ */
+class HeadersTooLargeException extends ServerException {
+    /**
+     * @param message Exception message.
+     */
+    HeadersTooLargeException(String message) {
+        super(message);
+    }
+}
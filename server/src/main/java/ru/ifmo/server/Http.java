@@ -13,8 +13,12 @@ public class Http {
     public static final int SC_MULTIPLE_CHOICES = 300;
     public static final int SC_BAD_REQUEST = 400;
     public static final int SC_NOT_FOUND = 404;
+    public static final int SC_PAYLOAD_TOO_LARGE = 413;
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+    public static final int SC_REQUEST_HEADER_FIELDS_TOO_LARGE = 431;
     public static final int SC_SERVER_ERROR = 500;
     public static final int SC_NOT_IMPLEMENTED = 501;
+    public static final int SC_SERVICE_UNAVAILABLE = 503;
 
     /** OK header that preceded rest response data. */
     public static final String OK_HEADER = "HTTP/1.0 200 OK\r\n\r\n";
@@ -33,10 +37,15 @@ public class Http {
     public static final String IMAGE_PNG = "image/png";
     public static final String TEXT_CSS = "text/css";
     public static final String URL_ENCODED = "application/x-www-form-urlencoded";
+    public static final String MULTIPART_FORM_DATA = "multipart/form-data";
 
     /** Header names */
     public static final String ACCEPT_ENCODING = "Accept-Encoding";
     public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String CONNECTION = "Connection";
+    public static final String RETRY_AFTER = "Retry-After";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String EXPECT = "Expect";
 
 
 }
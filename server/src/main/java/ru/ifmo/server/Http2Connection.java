@@ -0,0 +1,1114 @@
+package ru.ifmo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.ifmo.server.http2.HpackDecoder;
+import ru.ifmo.server.http2.HpackEncoder;
+import ru.ifmo.server.http2.Http2Exception;
+import ru.ifmo.server.http2.Http2Frame;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static ru.ifmo.server.Http.*;
+import static ru.ifmo.server.http2.Http2.*;
+import static ru.ifmo.server.util.Utils.htmlMessage;
+
+/**
+ * Serves single HTTP/2 connection (h2c with prior knowledge, RFC 7540).
+ * <p>
+ * Frames are read by the connection thread. Each stream is dispatched to
+ * server connection processing pool as soon as request is complete, so slow
+ * handlers don't block other streams of the same connection. Responses are
+ * written by worker threads, frame writes are serialized on output stream.
+ * </p>
+ * <p>
+ * Request body is buffered like HTTP/1 one: in memory within threshold and server
+ * memory budget, in temporary file otherwise. Multipart body isn't buffered: stream is
+ * dispatched once headers arrive and handler reads DATA as it comes, stream window is
+ * credited as handler consumes it.
+ * </p>
+ */
+class Http2Connection {
+    private static final Logger LOG = LoggerFactory.getLogger(Http2Connection.class);
+
+    /** Upper bound of decoded request header list. */
+    private static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+
+    /** Connection specific headers prohibited in HTTP/2 (RFC 7540, section 8.1.2.2). */
+    private static final String[] CONNECTION_HEADERS = {"connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "upgrade"};
+
+    private final Server server;
+    private final Socket sock;
+    private final InputStream in;
+    private final OutputStream out;
+
+    private final int maxConcurrentStreams;
+    private final int localInitialWindow;
+
+    /** Connection receive window, large enough for one request body of max size. */
+    private final int localConnWindow;
+
+    private final HpackDecoder decoder = new HpackDecoder(DFLT_HEADER_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+
+    /** Guarded by {@link #out}. */
+    private final HpackEncoder encoder = new HpackEncoder(DFLT_HEADER_TABLE_SIZE);
+
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    /** Guards send windows and {@link #closed}. */
+    private final Object flowLock = new Object();
+
+    private int connSendWindow = DFLT_INITIAL_WINDOW_SIZE;
+    private int peerInitialWindow = DFLT_INITIAL_WINDOW_SIZE;
+    private volatile int peerMaxFrameSize = DFLT_MAX_FRAME_SIZE;
+    private boolean closed;
+
+    /** Set on server stop, new streams are refused. */
+    private volatile boolean goingAway;
+
+    /** Written by connection thread only. */
+    private volatile int lastStreamId;
+
+    /** Guarded by {@link #flowLock}, credited once stream data is consumed. */
+    private int connRecvWindow = DFLT_INITIAL_WINDOW_SIZE;
+
+    /** Accessed by connection thread only. */
+    private boolean settingsAcked;
+    private boolean connWindowEnlarged;
+
+    Http2Connection(Server server, Socket sock, InputStream in) throws IOException {
+        this.server = server;
+        this.sock = sock;
+        this.in = in;
+        this.out = new BufferedOutputStream(sock.getOutputStream());
+
+        ServerConfig config = server.getConfig();
+        maxConcurrentStreams = config.getHttp2MaxConcurrentStreams();
+        localInitialWindow = config.getHttp2InitialWindowSize();
+
+        long maxBodySize = config.getMaxBodySize();
+        localConnWindow = (int) Math.max(Math.max(DFLT_INITIAL_WINDOW_SIZE, localInitialWindow),
+            Math.min(maxBodySize, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Reads frames until client closes connection or sends GOAWAY, then waits
+     * for in-flight streams to complete.
+     *
+     * @throws IOException If I/O error occurred.
+     */
+    void serve() throws IOException {
+        if (LOG.isDebugEnabled())
+            LOG.debug("HTTP/2 connection opened: {}", sock);
+
+        for (int i = 0; i < PREFACE.length; i++)
+            in.read();
+
+        writeSettings();
+
+        try {
+            Http2Frame frame;
+            while ((frame = Http2Frame.read(in, DFLT_MAX_FRAME_SIZE)) != null) {
+                if (LOG.isTraceEnabled())
+                    LOG.trace("Received frame: {}", frame);
+
+                if (!processFrame(frame))
+                    break;
+            }
+
+            awaitStreams();
+        } catch (Http2Exception e) {
+            if (LOG.isDebugEnabled())
+                LOG.debug("HTTP/2 connection error: " + e.getMessage());
+
+            close();
+            writeGoAway(e.getErrorCode(), e.getMessage());
+        } finally {
+            close();
+
+            // Bodies of streams client didn't finish will never be completed.
+            for (Stream stream : streams.values())
+                abortBody(stream);
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("HTTP/2 connection closed: {}", sock);
+        }
+    }
+
+    /**
+     * @return {@code False} if connection should be closed.
+     */
+    private boolean processFrame(Http2Frame frame) throws IOException {
+        try {
+            switch (frame.getType()) {
+                case TYPE_HEADERS:
+                    onHeaders(frame);
+                    break;
+
+                case TYPE_DATA:
+                    onData(frame);
+                    break;
+
+                case TYPE_SETTINGS:
+                    onSettings(frame);
+                    break;
+
+                case TYPE_WINDOW_UPDATE:
+                    onWindowUpdate(frame);
+                    break;
+
+                case TYPE_PING:
+                    onPing(frame);
+                    break;
+
+                case TYPE_RST_STREAM:
+                    onRstStream(frame);
+                    break;
+
+                case TYPE_PRIORITY:
+                    if (frame.getStreamId() == 0)
+                        throw new Http2Exception(PROTOCOL_ERROR, "PRIORITY on stream 0");
+                    if (frame.getLength() != 5)
+                        throw new Http2Exception(FRAME_SIZE_ERROR, frame.getStreamId(), "Invalid PRIORITY frame");
+                    break;
+
+                case TYPE_GOAWAY:
+                    return false;
+
+                case TYPE_PUSH_PROMISE:
+                case TYPE_CONTINUATION:
+                    throw new Http2Exception(PROTOCOL_ERROR, "Unexpected frame type: " + frame.getType());
+
+                default:
+                    // Unknown frame types must be ignored.
+            }
+        } catch (Http2Exception e) {
+            if (e.isConnectionError())
+                throw e;
+
+            resetStream(e.getStreamId(), e.getErrorCode());
+        }
+
+        return true;
+    }
+
+    private void onHeaders(Http2Frame frame) throws IOException {
+        int id = frame.getStreamId();
+
+        if (id == 0)
+            throw new Http2Exception(PROTOCOL_ERROR, "HEADERS on stream 0");
+
+        byte[] p = frame.getPayload();
+        int off = 0;
+        int len = p.length;
+
+        if (frame.hasFlag(FLAG_PADDED)) {
+            if (len < 1)
+                throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid HEADERS padding");
+
+            int pad = p[0] & 0xFF;
+            off++;
+            len -= pad + 1;
+        }
+
+        if (frame.hasFlag(FLAG_PRIORITY)) {
+            off += 5;
+            len -= 5;
+        }
+
+        if (len < 0)
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid HEADERS frame length");
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(len);
+        block.write(p, off, len);
+
+        boolean endHeaders = frame.hasFlag(FLAG_END_HEADERS);
+
+        while (!endHeaders) {
+            Http2Frame cont = Http2Frame.read(in, DFLT_MAX_FRAME_SIZE);
+
+            if (cont == null)
+                throw new EOFException("Connection closed in the middle of header block");
+
+            if (cont.getType() != TYPE_CONTINUATION || cont.getStreamId() != id)
+                throw new Http2Exception(PROTOCOL_ERROR, "CONTINUATION expected");
+
+            if (block.size() + cont.getLength() > MAX_HEADER_LIST_SIZE)
+                throw new Http2Exception(PROTOCOL_ERROR, "Header block too large");
+
+            block.write(cont.getPayload(), 0, cont.getLength());
+            endHeaders = cont.hasFlag(FLAG_END_HEADERS);
+        }
+
+        // Header block is decoded even if stream is refused to keep HPACK state in sync.
+        List<String[]> fields = new ArrayList<>();
+        byte[] buf = block.toByteArray();
+        decoder.decode(buf, 0, buf.length, (name, value) -> fields.add(new String[]{name, value}));
+
+        Stream stream = streams.get(id);
+
+        if (stream != null) {
+            // Trailers: accepted and ignored.
+            if (stream.remoteClosed || !frame.hasFlag(FLAG_END_STREAM))
+                throw new Http2Exception(PROTOCOL_ERROR, "Unexpected HEADERS on open stream " + id);
+
+            stream.remoteClosed = true;
+
+            if (stream.pipe != null)
+                stream.pipe.finish();
+            else
+                dispatch(stream);
+
+            return;
+        }
+
+        if (id % 2 == 0 || id <= lastStreamId)
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid stream id: " + id);
+
+        lastStreamId = id;
+
+        if (goingAway)
+            throw new Http2Exception(REFUSED_STREAM, id, "Server is stopping");
+
+        if (streams.size() >= maxConcurrentStreams)
+            throw new Http2Exception(REFUSED_STREAM, id, "Max concurrent streams exceeded");
+
+        stream = new Stream(id, fields);
+
+        synchronized (flowLock) {
+            stream.sendWindow = peerInitialWindow;
+        }
+
+        stream.recvWindow = localInitialWindow;
+        streams.put(id, stream);
+
+        if (frame.hasFlag(FLAG_END_STREAM)) {
+            stream.remoteClosed = true;
+            dispatch(stream);
+        } else if (isMultipart(fields)) {
+            stream.pipe = new BodyPipe(stream);
+            dispatch(stream);
+        }
+    }
+
+    private static boolean isMultipart(List<String[]> fields) {
+        for (String[] field : fields) {
+            if ("content-type".equals(field[0]))
+                return MultipartParser.boundary(field[1]) != null;
+        }
+
+        return false;
+    }
+
+    private void onData(Http2Frame frame) throws IOException {
+        int id = frame.getStreamId();
+
+        if (id == 0)
+            throw new Http2Exception(PROTOCOL_ERROR, "DATA on stream 0");
+
+        int len = frame.getLength();
+
+        synchronized (flowLock) {
+            connRecvWindow -= len;
+            if (connRecvWindow < 0)
+                throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection flow control window exceeded");
+        }
+
+        // Initial window can only be changed by WINDOW_UPDATE, it's sent once client sends any data.
+        if (!connWindowEnlarged) {
+            connWindowEnlarged = true;
+            credit(localConnWindow - DFLT_INITIAL_WINDOW_SIZE);
+        }
+
+        Stream stream = streams.get(id);
+
+        if (stream == null || stream.remoteClosed) {
+            if (id > lastStreamId)
+                throw new Http2Exception(PROTOCOL_ERROR, "DATA on idle stream " + id);
+
+            // Data of closed stream is dropped.
+            credit(len);
+
+            throw new Http2Exception(STREAM_CLOSED, id, "DATA on closed stream " + id);
+        }
+
+        int recvWindow;
+
+        // Credited once stream is processed or reset, or as handler reads piped body.
+        synchronized (flowLock) {
+            stream.unconsumed += len;
+            recvWindow = stream.recvWindow -= len;
+        }
+
+        int limit = settingsAcked ? 0 : Math.min(0, localInitialWindow - DFLT_INITIAL_WINDOW_SIZE);
+        if (recvWindow < limit)
+            throw new Http2Exception(FLOW_CONTROL_ERROR, id, "Stream flow control window exceeded");
+
+        byte[] p = frame.getPayload();
+        int off = 0;
+
+        if (frame.hasFlag(FLAG_PADDED)) {
+            if (len < 1 || (p[0] & 0xFF) >= len)
+                throw new Http2Exception(PROTOCOL_ERROR, "Invalid DATA padding");
+
+            off = 1;
+            len -= (p[0] & 0xFF) + 1;
+        }
+
+        if (stream.pipe != null) {
+            // Padding is never read by handler, it's credited with the next read data.
+            synchronized (flowLock) {
+                stream.consumed += frame.getLength() - len;
+            }
+
+            // Size of multipart body is limited by parser.
+            if (len > 0)
+                stream.pipe.add(Arrays.copyOfRange(p, off, off + len));
+        } else {
+            long maxBodySize = server.getConfig().getMaxBodySize();
+
+            if (stream.body == null)
+                stream.body = server.bodyBuilder();
+
+            if (maxBodySize > 0 && stream.body.size() + len > maxBodySize)
+                throw new Http2Exception(CANCEL, id, "Request body exceeds " + maxBodySize + " bytes");
+
+            try {
+                stream.body.write(p, off, len);
+            } catch (IOException e) {
+                LOG.error("Unable to buffer request body of HTTP/2 stream " + id, e);
+
+                throw new Http2Exception(INTERNAL_ERROR, id, "Unable to buffer request body");
+            }
+        }
+
+        if (frame.hasFlag(FLAG_END_STREAM)) {
+            stream.remoteClosed = true;
+
+            if (stream.pipe != null)
+                stream.pipe.finish();
+            else
+                dispatch(stream);
+        } else {
+            // Window of piped body is credited as handler reads it.
+            if (stream.pipe == null && recvWindow < localInitialWindow / 2) {
+                synchronized (flowLock) {
+                    stream.recvWindow = localInitialWindow;
+                }
+
+                writeWindowUpdate(id, localInitialWindow - recvWindow);
+            }
+
+            avoidStall();
+        }
+    }
+
+    /**
+     * Credits windows with piped body read by handler. Credit is batched until half of stream
+     * window is read or nothing is left to read, so client is never left without window.
+     *
+     * @param drained Whether all received data is read.
+     */
+    private void onConsumed(Stream stream, int n, boolean drained) throws IOException {
+        int inc;
+        int connInc;
+
+        synchronized (flowLock) {
+            stream.consumed += n;
+
+            if (stream.reset || closed || (stream.consumed < localInitialWindow / 2 && !drained))
+                return;
+
+            inc = stream.consumed;
+            stream.consumed = 0;
+            stream.recvWindow += inc;
+
+            connInc = Math.min(inc, stream.unconsumed);
+            stream.unconsumed -= connInc;
+        }
+
+        if (!stream.pipe.isFinished())
+            writeWindowUpdate(stream.id, inc);
+
+        credit(connInc);
+    }
+
+    /**
+     * Credits connection window with data of stream, once the data is consumed or discarded.
+     */
+    private void consume(Stream stream) throws IOException {
+        int n;
+
+        synchronized (flowLock) {
+            n = stream.unconsumed;
+            stream.unconsumed = 0;
+        }
+
+        credit(n);
+    }
+
+    private void credit(int n) throws IOException {
+        if (n <= 0)
+            return;
+
+        synchronized (flowLock) {
+            connRecvWindow += n;
+        }
+
+        writeWindowUpdate(0, n);
+    }
+
+    /**
+     * Credits data of incomplete streams if connection window runs low while no stream is
+     * processed. Otherwise client waiting for window and server waiting for whole bodies would
+     * deadlock when concurrent bodies don't fit the window together.
+     */
+    private void avoidStall() throws IOException {
+        synchronized (flowLock) {
+            if (connRecvWindow >= localConnWindow / 2)
+                return;
+        }
+
+        for (Stream stream : streams.values()) {
+            if (stream.remoteClosed)
+                return; // Window is credited once stream is processed.
+        }
+
+        for (Stream stream : streams.values())
+            consume(stream);
+    }
+
+    private void onSettings(Http2Frame frame) throws IOException {
+        if (frame.getStreamId() != 0)
+            throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS on stream " + frame.getStreamId());
+
+        if (frame.hasFlag(FLAG_ACK)) {
+            if (frame.getLength() != 0)
+                throw new Http2Exception(FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+
+            settingsAcked = true;
+            return;
+        }
+
+        if (frame.getLength() % 6 != 0)
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid SETTINGS length");
+
+        byte[] p = frame.getPayload();
+
+        for (int off = 0; off < p.length; off += 6) {
+            int id = (p[off] & 0xFF) << 8 | (p[off + 1] & 0xFF);
+            int val = Http2Frame.readInt(p, off + 2);
+
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    synchronized (out) {
+                        encoder.setMaxTableSize(Math.min(val < 0 ? Integer.MAX_VALUE : val, DFLT_HEADER_TABLE_SIZE));
+                    }
+                    break;
+
+                case SETTINGS_ENABLE_PUSH:
+                    if (val != 0 && val != 1)
+                        throw new Http2Exception(PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH: " + val);
+                    break;
+
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (val < 0)
+                        throw new Http2Exception(FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE: " + val);
+
+                    synchronized (flowLock) {
+                        int delta = val - peerInitialWindow;
+                        peerInitialWindow = val;
+
+                        for (Stream stream : streams.values()) {
+                            if ((long) stream.sendWindow + delta > MAX_WINDOW_SIZE)
+                                throw new Http2Exception(FLOW_CONTROL_ERROR, "Stream window overflow");
+
+                            stream.sendWindow += delta;
+                        }
+
+                        flowLock.notifyAll();
+                    }
+                    break;
+
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (val < DFLT_MAX_FRAME_SIZE || val > MAX_MAX_FRAME_SIZE)
+                        throw new Http2Exception(PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE: " + val);
+
+                    peerMaxFrameSize = val;
+                    break;
+
+                default:
+                    // SETTINGS_MAX_CONCURRENT_STREAMS and SETTINGS_MAX_HEADER_LIST_SIZE don't
+                    // affect server without push, unknown settings must be ignored.
+            }
+        }
+
+        writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, null, 0, 0);
+    }
+
+    private void onWindowUpdate(Http2Frame frame) {
+        if (frame.getLength() != 4)
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE length");
+
+        int id = frame.getStreamId();
+        int inc = Http2Frame.readInt(frame.getPayload(), 0) & 0x7FFFFFFF;
+
+        if (inc == 0)
+            throw new Http2Exception(PROTOCOL_ERROR, id, "Zero WINDOW_UPDATE increment");
+
+        synchronized (flowLock) {
+            if (id == 0) {
+                if ((long) connSendWindow + inc > MAX_WINDOW_SIZE)
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection window overflow");
+
+                connSendWindow += inc;
+            } else {
+                Stream stream = streams.get(id);
+
+                if (stream == null)
+                    return; // Stream may be already completed.
+
+                if ((long) stream.sendWindow + inc > MAX_WINDOW_SIZE)
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, id, "Stream window overflow");
+
+                stream.sendWindow += inc;
+            }
+
+            flowLock.notifyAll();
+        }
+    }
+
+    private void onPing(Http2Frame frame) throws IOException {
+        if (frame.getStreamId() != 0)
+            throw new Http2Exception(PROTOCOL_ERROR, "PING on stream " + frame.getStreamId());
+
+        if (frame.getLength() != 8)
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid PING length");
+
+        if (!frame.hasFlag(FLAG_ACK))
+            writeFrame(TYPE_PING, FLAG_ACK, 0, frame.getPayload(), 0, 8);
+    }
+
+    private void onRstStream(Http2Frame frame) throws IOException {
+        int id = frame.getStreamId();
+
+        if (id == 0)
+            throw new Http2Exception(PROTOCOL_ERROR, "RST_STREAM on stream 0");
+
+        if (frame.getLength() != 4)
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid RST_STREAM length");
+
+        if (id > lastStreamId)
+            throw new Http2Exception(PROTOCOL_ERROR, "RST_STREAM on idle stream " + id);
+
+        Stream stream = streams.remove(id);
+
+        if (stream != null) {
+            synchronized (flowLock) {
+                stream.reset = true;
+                flowLock.notifyAll();
+            }
+
+            abortBody(stream);
+            consume(stream);
+        }
+    }
+
+    private void dispatch(Stream stream) {
+        try {
+            server.getConnectionProcessingPool().submit(() -> processStream(stream));
+        } catch (RejectedExecutionException e) {
+            throw new Http2Exception(REFUSED_STREAM, stream.id, "Server is stopping");
+        }
+    }
+
+    private void processStream(Stream stream) {
+        try {
+            Response resp = new Response(sock);
+            Request req = null;
+
+            try {
+                req = toRequest(stream);
+            } catch (URISyntaxException e) {
+                if (LOG.isDebugEnabled())
+                    LOG.error("Malformed URL", e);
+
+                resp.setStatusCode(SC_BAD_REQUEST);
+                resp.getOutputStream().write(htmlMessage(SC_BAD_REQUEST + " Malformed URL").getBytes());
+            } catch (IllegalArgumentException e) {
+                resp.setStatusCode(SC_NOT_IMPLEMENTED);
+                resp.getOutputStream().write(htmlMessage(SC_NOT_IMPLEMENTED + " Method is not supported").getBytes());
+            }
+
+            if (req != null)
+                server.processStream(req, resp);
+            else
+                resp.setContentLength(resp.byteOut.size());
+
+            writeResponse(stream, resp, req != null && req.method == HttpMethod.HEAD);
+            server.onRequestCompleted();
+
+            // Response is complete before request, client is told to stop sending (RFC 7540, section 8.1).
+            if (stream.pipe != null && !stream.pipe.isFinished() && streams.containsKey(stream.id))
+                resetStream(stream.id, NO_ERROR);
+        } catch (Exception e) {
+            if (!isClosed())
+                LOG.error("Error processing HTTP/2 stream " + stream.id, e);
+
+            try {
+                resetStream(stream.id, INTERNAL_ERROR);
+            } catch (IOException ignored) {
+                // Connection is broken.
+            }
+        } finally {
+            streams.remove(stream.id);
+
+            if (stream.requestBody != null)
+                stream.requestBody.release();
+
+            synchronized (flowLock) {
+                flowLock.notifyAll();
+            }
+
+            try {
+                consume(stream);
+                avoidStall();
+            } catch (IOException ignored) {
+                // Connection is broken.
+            }
+        }
+    }
+
+    /**
+     * Converts stream headers into request reusing HTTP/1 parsing routines, so
+     * handlers see the same request representation.
+     */
+    private Request toRequest(Stream stream) throws URISyntaxException, IOException {
+        if (stream.body != null)
+            stream.requestBody = stream.body.build();
+
+        Request req = server.newRequest(sock, stream.pipe != null ? stream.pipe : new ByteArrayInputStream(new byte[0]));
+
+        String method = null;
+        String path = null;
+        StringBuilder cookie = null;
+        StringBuilder sb = new StringBuilder();
+
+        for (String[] field : stream.fields) {
+            String name = field[0];
+            String value = field[1];
+
+            if (name.startsWith(":")) {
+                if (":method".equals(name))
+                    method = value;
+                else if (":path".equals(name))
+                    path = value;
+            } else if ("cookie".equals(name)) {
+                // Split cookie fields are joined back (RFC 7540, section 8.1.2.5).
+                if (cookie == null)
+                    cookie = new StringBuilder(value);
+                else
+                    cookie.append("; ").append(value);
+            } else {
+                sb.setLength(0);
+                appendCanonicalName(sb, name);
+                server.parseHeader(req, sb.append(": ").append(value));
+            }
+        }
+
+        if (method == null || path == null)
+            throw new URISyntaxException(String.valueOf(path), "Missing :method or :path pseudo header");
+
+        if (cookie != null) {
+            sb.setLength(0);
+            server.parseHeader(req, sb.append("Cookie: ").append(cookie));
+        }
+
+        sb.setLength(0);
+        server.parseRequestLine(req, sb.append(method).append(' ').append(path).append(" HTTP/2.0"));
+
+        if (server.isPOSTorPUT(req))
+            req.body = stream.requestBody != null ? stream.requestBody : RequestBody.of(new byte[0]);
+        else if (stream.requestBody != null)
+            req.in = stream.requestBody.getInputStream();
+
+        return req;
+    }
+
+    private void writeResponse(Stream stream, Response resp, boolean head) throws IOException, InterruptedException {
+        byte[] body = head || resp.byteOut == null ? null : resp.byteOut.toByteArray();
+        boolean hasBody = body != null && body.length > 0;
+
+        synchronized (out) {
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+            encoder.encode(":status", String.valueOf(resp.getStatusCode()), true, block);
+
+            if (resp.headers != null) {
+                for (int i = 0; i < resp.headers.size(); i++) {
+                    String name = resp.headers.name(i).toLowerCase(Locale.ROOT);
+                    String val = resp.headers.value(i);
+
+                    if (!isConnectionHeader(name) && val != null)
+                        encoder.encode(name, val, !CONTENT_LENGTH.equalsIgnoreCase(name), block);
+                }
+            }
+
+            if (resp.cookieMap != null) {
+                for (Cookie cookie : resp.cookieMap.values())
+                    encoder.encode("set-cookie", Server.cookieLine(cookie), false, block);
+            }
+
+            byte[] buf = block.toByteArray();
+            int maxFrame = peerMaxFrameSize;
+            int off = 0;
+            boolean first = true;
+
+            do {
+                int len = Math.min(buf.length - off, maxFrame);
+                boolean last = off + len == buf.length;
+                int flags = last ? FLAG_END_HEADERS : 0;
+
+                if (first && !hasBody)
+                    flags |= FLAG_END_STREAM;
+
+                Http2Frame.write(out, first ? TYPE_HEADERS : TYPE_CONTINUATION, flags, stream.id, buf, off, len);
+
+                off += len;
+                first = false;
+            } while (off < buf.length);
+
+            out.flush();
+        }
+
+        if (hasBody)
+            writeData(stream, body);
+    }
+
+    private void writeData(Stream stream, byte[] body) throws IOException, InterruptedException {
+        int off = 0;
+
+        while (off < body.length) {
+            int len;
+
+            synchronized (flowLock) {
+                while (!closed && !stream.reset && (connSendWindow <= 0 || stream.sendWindow <= 0))
+                    flowLock.wait();
+
+                if (closed || stream.reset)
+                    return;
+
+                len = Math.min(body.length - off, Math.min(peerMaxFrameSize, Math.min(connSendWindow, stream.sendWindow)));
+
+                connSendWindow -= len;
+                stream.sendWindow -= len;
+            }
+
+            boolean last = off + len == body.length;
+
+            writeFrame(TYPE_DATA, last ? FLAG_END_STREAM : 0, stream.id, body, off, len);
+
+            off += len;
+        }
+    }
+
+    /**
+     * Starts graceful shutdown: sends GOAWAY, so client opens no more streams here.
+     * Streams already opened are processed.
+     */
+    void goAway() {
+        goingAway = true;
+        writeGoAway(NO_ERROR, "Server is stopping");
+    }
+
+    /**
+     * @return Number of open streams.
+     */
+    int getActiveStreams() {
+        return streams.size();
+    }
+
+    private void writeSettings() throws IOException {
+        byte[] p = new byte[12];
+
+        p[1] = SETTINGS_MAX_CONCURRENT_STREAMS;
+        Http2Frame.writeInt(p, 2, maxConcurrentStreams);
+        p[7] = SETTINGS_INITIAL_WINDOW_SIZE;
+        Http2Frame.writeInt(p, 8, localInitialWindow);
+
+        writeFrame(TYPE_SETTINGS, 0, 0, p, 0, p.length);
+    }
+
+    private void writeWindowUpdate(int streamId, int inc) throws IOException {
+        byte[] p = new byte[4];
+        Http2Frame.writeInt(p, 0, inc);
+
+        writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, p, 0, 4);
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        Stream stream = streams.remove(streamId);
+
+        if (stream != null) {
+            synchronized (flowLock) {
+                stream.reset = true;
+                flowLock.notifyAll();
+            }
+
+            abortBody(stream);
+            consume(stream);
+        }
+
+        byte[] p = new byte[4];
+        Http2Frame.writeInt(p, 0, errorCode);
+
+        writeFrame(TYPE_RST_STREAM, 0, streamId, p, 0, 4);
+    }
+
+    private void writeGoAway(int errorCode, String debug) {
+        byte[] msg = debug == null ? new byte[0] : debug.getBytes(StandardCharsets.UTF_8);
+        byte[] p = new byte[8 + msg.length];
+
+        Http2Frame.writeInt(p, 0, lastStreamId);
+        Http2Frame.writeInt(p, 4, errorCode);
+        System.arraycopy(msg, 0, p, 8, msg.length);
+
+        try {
+            writeFrame(TYPE_GOAWAY, 0, 0, p, 0, p.length);
+        } catch (IOException e) {
+            // Peer is gone already.
+        }
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int off, int len) throws IOException {
+        synchronized (out) {
+            Http2Frame.write(out, type, flags, streamId, payload, off, len);
+            out.flush();
+        }
+    }
+
+    private void awaitStreams() {
+        // Streams client didn't finish will never be dispatched, handlers reading piped bodies fail.
+        streams.values().removeIf(stream -> {
+            if (stream.remoteClosed)
+                return false;
+
+            abortBody(stream);
+
+            return stream.pipe == null;
+        });
+
+        synchronized (flowLock) {
+            while (!closed && !streams.isEmpty()) {
+                try {
+                    flowLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void close() {
+        synchronized (flowLock) {
+            closed = true;
+            flowLock.notifyAll();
+        }
+    }
+
+    private boolean isClosed() {
+        synchronized (flowLock) {
+            return closed;
+        }
+    }
+
+    /**
+     * HTTP/2 header names are lower case, handlers look up HTTP/1 style names,
+     * so {@code content-type} is converted to {@code Content-Type}.
+     */
+    private static void appendCanonicalName(StringBuilder sb, String name) {
+        boolean upper = true;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            sb.append(upper ? Character.toUpperCase(c) : c);
+            upper = c == '-';
+        }
+    }
+
+    /**
+     * Drops body of stream client won't complete. Body of dispatched stream is released
+     * once it's processed, handler reading piped body gets an error.
+     */
+    private static void abortBody(Stream stream) {
+        if (stream.pipe != null)
+            stream.pipe.fail();
+        else if (!stream.remoteClosed && stream.body != null)
+            stream.body.discard();
+    }
+
+    private static boolean isConnectionHeader(String name) {
+        for (String hdr : CONNECTION_HEADERS) {
+            if (hdr.equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stream state. Request fields are accessed by connection thread only,
+     * send window is guarded by {@link #flowLock}.
+     */
+    private static class Stream {
+        final int id;
+        final List<String[]> fields;
+
+        /** Body collected until stream is complete, created on first DATA. */
+        RequestBody.Builder body;
+
+        /** Body read by handler as it arrives, set if stream is dispatched before it's complete. */
+        BodyPipe pipe;
+
+        /** Body handed to request, released once stream is processed. */
+        RequestBody requestBody;
+
+        boolean remoteClosed;
+
+        /** Guarded by {@link #flowLock}. */
+        int recvWindow;
+
+        /** Received bytes not credited to connection window yet, guarded by {@link #flowLock}. */
+        int unconsumed;
+
+        /** Piped bytes read by handler and not credited yet, guarded by {@link #flowLock}. */
+        int consumed;
+
+        int sendWindow;
+        boolean reset;
+
+        Stream(int id, List<String[]> fields) {
+            this.id = id;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Body of stream dispatched before it's complete. DATA is queued by connection thread
+     * and read by handler, queue never exceeds stream window, which is credited as handler
+     * reads it.
+     */
+    private class BodyPipe extends InputStream {
+        private final Stream stream;
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+
+        /** Position in the first chunk. */
+        private int pos;
+
+        private boolean finished;
+        private boolean failed;
+
+        BodyPipe(Stream stream) {
+            this.stream = stream;
+        }
+
+        synchronized void add(byte[] chunk) {
+            chunks.add(chunk);
+            notifyAll();
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        synchronized void fail() {
+            if (!finished)
+                failed = true;
+
+            notifyAll();
+        }
+
+        synchronized boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            int n;
+            boolean drained;
+
+            synchronized (this) {
+                int timeout = server.getConfig().getSocketTimeout();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+                while (chunks.isEmpty()) {
+                    if (failed)
+                        throw new EOFException("HTTP/2 stream " + stream.id + " is closed before body is complete");
+
+                    if (finished)
+                        return -1;
+
+                    long left = timeout == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+                    if (timeout > 0 && left <= 0)
+                        throw new SocketTimeoutException("Timed out waiting for body of HTTP/2 stream " + stream.id);
+
+                    try {
+                        wait(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        throw new InterruptedIOException("Interrupted waiting for body of HTTP/2 stream " + stream.id);
+                    }
+                }
+
+                byte[] chunk = chunks.peek();
+                n = Math.min(len, chunk.length - pos);
+
+                System.arraycopy(chunk, pos, b, off, n);
+                pos += n;
+
+                if (pos == chunk.length) {
+                    chunks.poll();
+                    pos = 0;
+                }
+
+                drained = chunks.isEmpty();
+            }
+
+            onConsumed(stream, n, drained);
+
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            return chunks.isEmpty() ? 0 : chunks.peek().length - pos;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ru.ifmo.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default session store keeping sessions in memory. Sessions are lost on stop.
+ */
+public class InMemorySessionStore implements SessionStore {
+    private final Map<String, Session> sessions;
+
+    public InMemorySessionStore() {
+        this(new ConcurrentHashMap<>());
+    }
+
+    InMemorySessionStore(Map<String, Session> sessions) {
+        this.sessions = sessions;
+    }
+
+    @Override
+    public void stop() {
+        sessions.clear();
+    }
+
+    @Override
+    public Session get(String id) {
+        return sessions.get(id);
+    }
+
+    @Override
+    public void put(Session session) {
+        sessions.put(session.getId(), session);
+    }
+
+    @Override
+    public void touch(Session session) {
+        // No-op.
+    }
+
+    @Override
+    public void update(Session session, String key) {
+        // No-op.
+    }
+
+    @Override
+    public Session remove(String id) {
+        return sessions.remove(id);
+    }
+
+    @Override
+    public boolean expire(Session session) {
+        return sessions.remove(session.getId(), session);
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public long estimatedBytes() {
+        long size = 0;
+
+        for (Session s : sessions.values())
+            size += s.estimateSize();
+
+        return size;
+    }
+
+    /**
+     * @return Live view of stored sessions.
+     */
+    Iterable<Session> sessions() {
+        return sessions.values();
+    }
+}
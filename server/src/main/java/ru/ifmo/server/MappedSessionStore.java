@@ -0,0 +1,452 @@
+package ru.ifmo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Session store persisting sessions to memory-mapped append log, so sessions
+ * survive server restart.
+ * <p>
+ * Sessions are served from memory. Every new session, data change and removal is
+ * appended to the log as length-prefixed record, length is written last, so record
+ * torn by process crash is never replayed. When log is full or server stops, log is
+ * compacted: snapshot of live sessions is written to new file which atomically
+ * replaces the old one. On start the log is replayed and compacted.
+ * </p>
+ * <p>
+ * Session accesses aren't logged: after clean stop sessions are restored with
+ * their exact deadlines, after crash deadlines are the ones of the last logged change.
+ * Data values are encoded with {@link SessionDataCodec}, values which can't be
+ * encoded stay in memory only. Value mutated in place without
+ * {@link Session#setData(String, Object)} call is saved on next compaction only.
+ * </p>
+ */
+public class MappedSessionStore implements SessionStore {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedSessionStore.class);
+
+    /** Default initial log size. */
+    public static final int DFLT_CAPACITY = 16 * 1024 * 1024;
+
+    private static final int MAGIC = 0x49534C31;
+    private static final byte PUT = 1;
+    private static final byte DATA = 2;
+    private static final byte REMOVE = 3;
+
+    private final Path path;
+    private final int capacity;
+    private final SessionDataCodec codec;
+    private final InMemorySessionStore mem = new InMemorySessionStore();
+
+    /** Guarded by {@code this}. */
+    private FileChannel ch;
+
+    /** Log mapping positioned at the end of the last record. Guarded by {@code this}. */
+    private MappedByteBuffer buf;
+
+    /**
+     * @param file Log file.
+     */
+    public MappedSessionStore(File file) {
+        this(file, DFLT_CAPACITY, new SerializableSessionDataCodec());
+    }
+
+    /**
+     * @param file Log file.
+     * @param capacity Initial log size in bytes.
+     * @param codec Session data codec.
+     */
+    public MappedSessionStore(File file, int capacity, SessionDataCodec codec) {
+        this.path = file.toPath();
+        this.capacity = capacity;
+        this.codec = codec;
+    }
+
+    @Override
+    public synchronized Iterable<Session> start() {
+        long start = System.nanoTime();
+
+        try {
+            if (Files.exists(path))
+                replay();
+
+            compact(0);
+        } catch (IOException e) {
+            throw new SessionException("Unable to open session log: " + path, e);
+        }
+
+        List<Session> loaded = new ArrayList<>(mem.size());
+        for (Session s : mem.sessions())
+            loaded.add(s);
+
+        LOG.info("Loaded {} sessions from {} in {} ms", loaded.size(), path, (System.nanoTime() - start) / 1_000_000);
+
+        return loaded;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (ch == null)
+            return;
+
+        try {
+            compact(0);
+            buf.force();
+            ch.close();
+        } catch (IOException e) {
+            LOG.error("Unable to save sessions to " + path, e);
+        } finally {
+            ch = null;
+            buf = null;
+            mem.stop();
+        }
+    }
+
+    @Override
+    public Session get(String id) {
+        return mem.get(id);
+    }
+
+    @Override
+    public void put(Session session) {
+        session.store = this;
+        mem.put(session);
+        append(encodeSession(session));
+    }
+
+    @Override
+    public void touch(Session session) {
+        // Not logged, see class description.
+    }
+
+    @Override
+    public void update(Session session, String key) {
+        Object val = session.getData(key);
+
+        if (val == null)
+            return;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(DATA);
+            writeString(out, session.getId());
+            out.writeLong(session.expireMillis());
+            writeString(out, key);
+            writeBytes(out, codec.encode(val));
+
+            append(bytes.toByteArray());
+        } catch (IOException | SessionException e) {
+            LOG.warn("Session value '{}' is not persisted: {}", key, e.toString());
+        }
+    }
+
+    @Override
+    public Session remove(String id) {
+        Session s = mem.remove(id);
+
+        if (s != null)
+            appendRemove(id);
+
+        return s;
+    }
+
+    @Override
+    public boolean expire(Session session) {
+        if (!mem.expire(session))
+            return false;
+
+        appendRemove(session.getId());
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return mem.size();
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return mem.estimatedBytes();
+    }
+
+    private void appendRemove(String id) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(REMOVE);
+            writeString(out, id);
+
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private synchronized void append(byte[] rec) {
+        if (buf == null)
+            return;
+
+        // Record, its length and zero length marking end of log.
+        int need = rec.length + 8;
+
+        try {
+            if (buf.remaining() < need)
+                compact(need);
+
+            int pos = buf.position();
+            buf.position(pos + 4);
+            buf.put(rec);
+            buf.putInt(pos, rec.length);
+        } catch (IOException e) {
+            LOG.error("Unable to write session log " + path, e);
+        }
+    }
+
+    /**
+     * Writes live sessions to new log which replaces current one.
+     *
+     * @param reserve Bytes to reserve for upcoming record.
+     */
+    private void compact(int reserve) throws IOException {
+        long now = System.nanoTime();
+        List<byte[]> recs = new ArrayList<>(mem.size());
+        long size = 4 + 4 + reserve;
+
+        for (Session s : mem.sessions()) {
+            if (s.isExpired(now))
+                continue;
+
+            byte[] rec = encodeSession(s);
+
+            if (rec != null) {
+                recs.add(rec);
+                size += 4 + rec.length;
+            }
+        }
+
+        long cap = Math.max(capacity, size * 2);
+
+        if (cap > Integer.MAX_VALUE)
+            throw new IOException("Session log is too large: " + size);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel newCh = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        MappedByteBuffer newBuf = newCh.map(FileChannel.MapMode.READ_WRITE, 0, cap);
+
+        newBuf.putInt(MAGIC);
+        for (byte[] rec : recs) {
+            newBuf.putInt(rec.length);
+            newBuf.put(rec);
+        }
+        newBuf.force();
+
+        if (ch != null)
+            ch.close();
+
+        try {
+            Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, REPLACE_EXISTING);
+        }
+
+        ch = newCh;
+        buf = newBuf;
+    }
+
+    private byte[] encodeSession(Session s) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(PUT);
+            writeString(out, s.getId());
+            out.writeLong(s.timeoutMillis());
+            out.writeLong(s.expireMillis());
+
+            Map<String, Object> data = s.data();
+            Map<String, byte[]> encoded = new LinkedHashMap<>();
+
+            if (data != null) {
+                for (Map.Entry<String, Object> e : data.entrySet()) {
+                    try {
+                        encoded.put(e.getKey(), codec.encode(e.getValue()));
+                    } catch (SessionException ex) {
+                        LOG.warn("Session value '{}' is not persisted: {}", e.getKey(), ex.toString());
+                    }
+                }
+            }
+
+            out.writeInt(encoded.size());
+
+            for (Map.Entry<String, byte[]> e : encoded.entrySet()) {
+                writeString(out, e.getKey());
+                writeBytes(out, e.getValue());
+            }
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] b = str.getBytes(StandardCharsets.UTF_8);
+
+        if (b.length > 0xFFFF)
+            throw new SessionException("String is too long: " + b.length);
+
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Reads existing log into memory.
+     */
+    private void replay() throws IOException {
+        Map<String, Restored> restored = new HashMap<>();
+
+        try (FileChannel in = FileChannel.open(path, READ)) {
+            ByteBuffer log = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+
+            if (log.remaining() < 4 || log.getInt() != MAGIC) {
+                LOG.warn("Ignoring session log {} with unknown format", path);
+                return;
+            }
+
+            while (log.remaining() >= 4) {
+                int len = log.getInt();
+
+                if (len <= 0 || len > log.remaining())
+                    break;
+
+                ByteBuffer rec = log.slice();
+                rec.limit(len);
+                log.position(log.position() + len);
+
+                try {
+                    replayRecord(rec, restored);
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    LOG.warn("Corrupted session log record, stopping replay of {}", path);
+                    break;
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<String, Restored> e : restored.entrySet()) {
+            Restored r = e.getValue();
+
+            if (r.expireMillis <= now)
+                continue;
+
+            Map<String, Object> data = new HashMap<>();
+
+            for (Map.Entry<String, byte[]> d : r.data.entrySet()) {
+                try {
+                    data.put(d.getKey(), codec.decode(d.getValue()));
+                } catch (SessionException ex) {
+                    LOG.warn("Unable to restore session value '{}': {}", d.getKey(), ex.toString());
+                }
+            }
+
+            Session s = new Session(e.getKey(), r.timeoutMillis, r.expireMillis, data);
+            s.store = this;
+            mem.put(s);
+        }
+    }
+
+    private static void replayRecord(ByteBuffer rec, Map<String, Restored> restored) {
+        byte type = rec.get();
+        String id = readString(rec);
+
+        switch (type) {
+            case PUT: {
+                Restored r = new Restored();
+                r.timeoutMillis = rec.getLong();
+                r.expireMillis = rec.getLong();
+
+                for (int n = rec.getInt(); n > 0; n--)
+                    r.data.put(readString(rec), readBytes(rec));
+
+                restored.put(id, r);
+                break;
+            }
+
+            case DATA: {
+                Restored r = restored.get(id);
+                long expire = rec.getLong();
+                String key = readString(rec);
+                byte[] val = readBytes(rec);
+
+                if (r != null) {
+                    r.expireMillis = expire;
+                    r.data.put(key, val);
+                }
+                break;
+            }
+
+            case REMOVE:
+                restored.remove(id);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown record type: " + type);
+        }
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] b = new byte[buf.getShort() & 0xFFFF];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buf) {
+        int len = buf.getInt();
+
+        if (len < 0 || len > buf.remaining())
+            throw new IllegalArgumentException("Invalid length: " + len);
+
+        byte[] b = new byte[len];
+        buf.get(b);
+        return b;
+    }
+
+    private static class Restored {
+        long timeoutMillis;
+        long expireMillis;
+        final Map<String, byte[]> data = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,48 @@
+package ru.ifmo.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide limit of memory used by buffered request bodies.
+ */
+class MemoryBudget {
+    private final long max;
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * @param max Max bytes, {@code 0} means unlimited.
+     */
+    MemoryBudget(long max) {
+        this.max = max;
+    }
+
+    /**
+     * @param bytes Bytes to reserve.
+     * @return {@code True} if bytes are reserved, {@code false} if budget is exhausted.
+     */
+    boolean tryAcquire(long bytes) {
+        for (;;) {
+            long cur = used.get();
+
+            if (max > 0 && cur + bytes > max)
+                return false;
+
+            if (used.compareAndSet(cur, cur + bytes))
+                return true;
+        }
+    }
+
+    /**
+     * @param bytes Bytes to return.
+     */
+    void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    /**
+     * @return Reserved bytes.
+     */
+    long getUsed() {
+        return used.get();
+    }
+}
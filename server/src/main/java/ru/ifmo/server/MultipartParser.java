@@ -0,0 +1,519 @@
+package ru.ifmo.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming parser of {@code multipart/form-data} body (RFC 7578). Parts are read from
+ * client one by one as iterator advances. Part not larger than memory threshold is kept
+ * in memory, larger one is written to temporary file with {@link FileChannel#transferFrom},
+ * so big uploads never land on heap. Size of every part and of the whole body is limited.
+ * <p>
+ * Preamble before the first boundary and epilogue after the closing one are ignored.
+ * Malformed body or failure to read it from client fails iteration with
+ * {@link BadRequestException}, body exceeding a limit with {@link PayloadTooLargeException}.
+ * </p>
+ */
+class MultipartParser implements Iterator<Part>, Closeable {
+    private static final int BUF_SIZE = 8192;
+
+    /** Max size of headers of single part. */
+    private static final int MAX_HEADERS_SIZE = 8192;
+
+    /** Max boundary length (RFC 2046, section 5.1.1). */
+    private static final int MAX_BOUNDARY_LENGTH = 70;
+
+    private final InputStream in;
+
+    /** Delimiter preceding every part: {@code CRLF--boundary}. */
+    private final byte[] delim;
+
+    private final int memoryThreshold;
+    private final long maxPartSize;
+    private final long maxSize;
+
+    /** Directory of temporary files or {@code null} for default one. */
+    private final Path dir;
+
+    private final byte[] buf;
+    private int pos;
+    private int lim;
+
+    /** Bytes read from client. */
+    private long read;
+
+    private final PartInputStream partIn = new PartInputStream();
+
+    /** Parts read so far, to delete their files. */
+    private final List<Part> parts = new ArrayList<>();
+
+    private Part next;
+    private boolean started;
+    private boolean done;
+
+    /**
+     * @param in Body stream.
+     * @param boundary Boundary from {@code Content-Type}.
+     * @param memoryThreshold Max size of part kept in memory.
+     * @param maxPartSize Max size of part, {@code 0} means unlimited.
+     * @param maxSize Max size of body, {@code 0} means unlimited.
+     * @param dir Directory of temporary files or {@code null} for default one.
+     */
+    MultipartParser(InputStream in, String boundary, int memoryThreshold, long maxPartSize, long maxSize, Path dir) {
+        this.in = in;
+        this.delim = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.memoryThreshold = maxPartSize > 0 ? (int) Math.min(memoryThreshold, maxPartSize) : memoryThreshold;
+        this.maxPartSize = maxPartSize;
+        this.maxSize = maxSize;
+        this.dir = dir;
+
+        buf = new byte[Math.max(BUF_SIZE, delim.length * 2)];
+
+        // The first boundary may start body without preceding line break.
+        buf[lim++] = '\r';
+        buf[lim++] = '\n';
+    }
+
+    /**
+     * @param contentType Value of {@code Content-Type} header, may be {@code null}.
+     * @return Boundary or {@code null} if body is not {@code multipart/form-data}.
+     */
+    static String boundary(String contentType) {
+        if (contentType == null)
+            return null;
+
+        int len = Http.MULTIPART_FORM_DATA.length();
+
+        if (!contentType.regionMatches(true, 0, Http.MULTIPART_FORM_DATA, 0, len) ||
+            (contentType.length() > len && contentType.charAt(len) != ';' && contentType.charAt(len) > ' '))
+            return null;
+
+        String boundary = parameter(contentType, "boundary");
+
+        return boundary == null || boundary.isEmpty() || boundary.length() > MAX_BOUNDARY_LENGTH ? null : boundary;
+    }
+
+    /**
+     * @param header Header value with parameters, e.g. {@code form-data; name="file"}.
+     * @param name Parameter name, case-insensitive.
+     * @return Unquoted parameter value or {@code null}.
+     */
+    static String parameter(String header, String name) {
+        int len = header.length();
+        int i = header.indexOf(';');
+
+        while (i >= 0 && i < len) {
+            i++;
+
+            while (i < len && header.charAt(i) <= ' ')
+                i++;
+
+            int nameStart = i;
+
+            while (i < len && header.charAt(i) != '=' && header.charAt(i) != ';')
+                i++;
+
+            int nameEnd = i;
+
+            while (nameEnd > nameStart && header.charAt(nameEnd - 1) <= ' ')
+                nameEnd--;
+
+            boolean match = nameEnd - nameStart == name.length() &&
+                header.regionMatches(true, nameStart, name, 0, name.length());
+
+            if (i == len || header.charAt(i) == ';') {
+                if (match)
+                    return "";
+
+                continue;
+            }
+
+            i++;
+
+            while (i < len && header.charAt(i) <= ' ')
+                i++;
+
+            String val;
+
+            if (i < len && header.charAt(i) == '"') {
+                StringBuilder sb = new StringBuilder();
+
+                for (i++; i < len && header.charAt(i) != '"'; i++) {
+                    char c = header.charAt(i);
+
+                    if (c == '\\' && i + 1 < len)
+                        c = header.charAt(++i);
+
+                    sb.append(c);
+                }
+
+                val = sb.toString();
+                i = header.indexOf(';', i);
+            } else {
+                int valStart = i;
+
+                i = header.indexOf(';', i);
+
+                int valEnd = i < 0 ? len : i;
+
+                while (valEnd > valStart && header.charAt(valEnd - 1) <= ' ')
+                    valEnd--;
+
+                val = header.substring(valStart, valEnd);
+            }
+
+            if (match)
+                return val;
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            boolean ok = false;
+
+            try {
+                next = readPart();
+                ok = true;
+            } catch (IOException e) {
+                throw new ServerException("Unable to store multipart body", e);
+            } finally {
+                if (!ok)
+                    done = true;
+            }
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public Part next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        Part p = next;
+        next = null;
+
+        return p;
+    }
+
+    /**
+     * Stops parsing and deletes temporary files of all parts.
+     */
+    @Override
+    public void close() {
+        done = true;
+
+        for (Part p : parts)
+            p.delete();
+    }
+
+    /**
+     * @return Next part or {@code null} after closing boundary.
+     */
+    private Part readPart() throws IOException {
+        if (!started) {
+            started = true;
+
+            skipData(); // Preamble.
+        }
+
+        pos += delim.length;
+
+        ensure(2);
+
+        if (buf[pos] == '-' && buf[pos + 1] == '-') {
+            done = true; // Epilogue is never read.
+
+            return null;
+        }
+
+        for (ensure(1); buf[pos] == ' ' || buf[pos] == '\t'; ensure(1))
+            pos++;
+
+        ensure(2);
+
+        if (buf[pos] != '\r' || buf[pos + 1] != '\n')
+            throw malformed("Boundary is not followed by line break");
+
+        pos += 2;
+
+        Part p = readBody(readHeaders());
+
+        parts.add(p);
+
+        return p;
+    }
+
+    private Headers readHeaders() throws IOException {
+        Headers headers = new Headers();
+        int size = 0;
+
+        for (;;) {
+            int lf = lineEnd();
+            int end = lf > pos && buf[lf - 1] == '\r' ? lf - 1 : lf;
+
+            if (end == pos) {
+                pos = lf + 1;
+
+                return headers;
+            }
+
+            size += lf + 1 - pos;
+
+            if (size > MAX_HEADERS_SIZE)
+                throw malformed("Part headers are too large");
+
+            String line = new String(buf, pos, end - pos, StandardCharsets.UTF_8);
+            int colon = line.indexOf(':');
+
+            if (colon <= 0)
+                throw malformed("Malformed part header: " + line);
+
+            int nameStart = 0;
+            int nameEnd = colon;
+
+            while (nameStart < nameEnd && line.charAt(nameStart) <= ' ')
+                nameStart++;
+
+            while (nameEnd > nameStart && line.charAt(nameEnd - 1) <= ' ')
+                nameEnd--;
+
+            headers.add(Headers.name(line, nameStart, nameEnd), line.substring(colon + 1).trim());
+
+            pos = lf + 1;
+        }
+    }
+
+    private Part readBody(Headers headers) throws IOException {
+        partIn.start();
+
+        byte[] mem = new byte[Math.min(memoryThreshold, 512)];
+        int n = 0;
+
+        for (;;) {
+            if (n == mem.length) {
+                if (n == memoryThreshold)
+                    break;
+
+                mem = Arrays.copyOf(mem, Math.min(memoryThreshold, n * 2));
+            }
+
+            int r = partIn.read(mem, n, mem.length - n);
+
+            if (r < 0)
+                return new Part(headers, n == mem.length ? mem : Arrays.copyOf(mem, n), null, n);
+
+            n += r;
+        }
+
+        if (!partIn.hasMore())
+            return new Part(headers, mem, null, n);
+
+        return spill(headers, mem, n);
+    }
+
+    /**
+     * Writes part to temporary file: buffered head, then the rest directly from client.
+     */
+    private Part spill(Headers headers, byte[] head, int headLen) throws IOException {
+        Path file = dir == null ? Files.createTempFile("upload", ".part") : Files.createTempFile(dir, "upload", ".part");
+        boolean ok = false;
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(head, 0, headLen));
+
+            long size = headLen;
+            ReadableByteChannel src = Channels.newChannel(partIn);
+
+            while (partIn.hasMore()) {
+                size += ch.transferFrom(src, size, maxPartSize > 0 ? maxPartSize - size + 1 : Long.MAX_VALUE);
+
+                if (maxPartSize > 0 && size > maxPartSize)
+                    throw new PayloadTooLargeException("Multipart part exceeds " + maxPartSize + " bytes");
+            }
+
+            ok = true;
+
+            return new Part(headers, null, file, size);
+        } finally {
+            if (!ok)
+                Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Skips data up to the next delimiter.
+     */
+    private void skipData() throws IOException {
+        partIn.start();
+
+        while (partIn.hasMore())
+            pos = partIn.scanEnd;
+    }
+
+    /**
+     * @return Index of next {@code LF}.
+     */
+    private int lineEnd() throws IOException {
+        for (;;) {
+            for (int i = pos; i < lim; i++) {
+                if (buf[i] == '\n')
+                    return i;
+            }
+
+            if (lim - pos == buf.length)
+                throw malformed("Part header line is too long");
+
+            if (!fill())
+                throw malformed("Unexpected end of multipart body");
+        }
+    }
+
+    private void ensure(int n) throws IOException {
+        while (lim - pos < n) {
+            if (!fill())
+                throw malformed("Unexpected end of multipart body");
+        }
+    }
+
+    /**
+     * Reads more bytes from client, compacting buffer first.
+     *
+     * @return {@code False} on end of stream.
+     */
+    private boolean fill() {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, lim - pos);
+
+            lim -= pos;
+            partIn.scanEnd -= pos;
+            pos = 0;
+        }
+
+        int n;
+
+        try {
+            n = in.read(buf, lim, buf.length - lim);
+        } catch (IOException e) {
+            throw new BadRequestException("Unable to read multipart body", e);
+        }
+
+        if (n < 0)
+            return false;
+
+        lim += n;
+        read += n;
+
+        if (maxSize > 0 && read > maxSize)
+            throw new PayloadTooLargeException("Multipart body exceeds " + maxSize + " bytes");
+
+        return true;
+    }
+
+    /**
+     * @return Index of delimiter in buffer or {@code -1}.
+     */
+    private int indexOfDelim(int from, int to) {
+        byte first = delim[0];
+
+        for (int i = from, last = to - delim.length; i <= last; i++) {
+            if (buf[i] != first)
+                continue;
+
+            int j = 1;
+
+            while (j < delim.length && buf[i + j] == delim[j])
+                j++;
+
+            if (j == delim.length)
+                return i;
+        }
+
+        return -1;
+    }
+
+    private static BadRequestException malformed(String msg) {
+        return new BadRequestException("Malformed multipart body: " + msg);
+    }
+
+    /**
+     * Data of current part: ends at delimiter, which is left in buffer.
+     */
+    private class PartInputStream extends InputStream {
+        /** End of buffered bytes known to be data. */
+        int scanEnd;
+
+        /** Whether delimiter starts at {@link #scanEnd}. */
+        boolean delimFound;
+
+        void start() {
+            scanEnd = pos;
+            delimFound = false;
+        }
+
+        /**
+         * @return {@code False} if delimiter is reached.
+         */
+        boolean hasMore() throws IOException {
+            while (pos == scanEnd && !delimFound) {
+                int idx = indexOfDelim(pos, lim);
+
+                if (idx >= 0) {
+                    scanEnd = idx;
+                    delimFound = true;
+                } else {
+                    // Tail may be a prefix of delimiter.
+                    scanEnd = Math.max(pos, lim - delim.length + 1);
+
+                    if (pos == scanEnd && !fill())
+                        throw malformed("Unexpected end of multipart body");
+                }
+            }
+
+            return pos < scanEnd;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return hasMore() ? buf[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            if (!hasMore())
+                return -1;
+
+            int n = Math.min(len, scanEnd - pos);
+
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return Math.max(scanEnd - pos, 0);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ru.ifmo.server;
+
+/**
+ * Thin view of session kept by {@link OffHeapSessionStore}. Created on each lookup,
+ * data values are decoded on {@link #getData(String)} call and written through on
+ * {@link #setData(String, Object)} call.
+ */
+class OffHeapSession extends Session {
+    private final OffHeapSessionStore owner;
+
+    OffHeapSession(OffHeapSessionStore owner, String id, long timeoutNanos, long deadline) {
+        super(id, 0);
+
+        this.owner = owner;
+        this.timeout = timeoutNanos;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public <T> void setData(String key, T value) throws SessionException {
+        if (expired)
+            throw new SessionException("Session is expired!");
+
+        owner.setValue(getId(), key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getData(String key) {
+        return (T) owner.getValue(getId(), key);
+    }
+}
@@ -0,0 +1,653 @@
+package ru.ifmo.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session store keeping sessions outside of Java heap, so large number of live
+ * sessions doesn't grow old generation and GC pauses.
+ * <p>
+ * Session ID, timeout, deadline and serialized data of each session are kept in
+ * direct memory slabs: fixed size entries in entry slabs and data blobs in
+ * power-of-two size classes carved from data slabs. Entries are indexed by
+ * open-addressing hash table built of {@code int} arrays. Heap holds only slab
+ * references and the index, {@link Session} objects are thin views created on lookup.
+ * </p>
+ * <p>
+ * Data values are copies: decoded by {@link SessionDataCodec} on each
+ * {@link Session#getData(String)} call, so value modified in place must be saved
+ * with {@link Session#setData(String, Object)}.
+ * </p>
+ * <p>
+ * Store limits number of sessions, encoded data size of single session and total
+ * direct memory it reserves. Exceeding limit fails with {@link SessionException}.
+ * Timed out sessions are never returned and their memory is reclaimed by
+ * incremental sweep driven by {@link SessionKiller}.
+ * </p>
+ */
+public class OffHeapSessionStore implements SessionStore {
+    /** Default max number of sessions. */
+    public static final int DFLT_MAX_SESSIONS = 1 << 20;
+
+    /** Default max encoded data size of single session. */
+    public static final int DFLT_MAX_SESSION_BYTES = 64 * 1024;
+
+    /** Default max direct memory reserved by store. */
+    public static final long DFLT_MAX_BYTES = 512L * 1024 * 1024;
+
+    /** Max session ID length in bytes. */
+    public static final int MAX_ID_LEN = 64;
+
+    /* Entry layout. */
+    private static final int E_ID_LEN = 0;
+    private static final int E_HASH = 4;
+    private static final int E_ID = 8;
+    private static final int E_DATA_LEN = E_ID + MAX_ID_LEN;
+    private static final int E_TIMEOUT = E_DATA_LEN + 8;
+    private static final int E_DEADLINE = E_TIMEOUT + 8;
+    private static final int E_DATA_ADDR = E_DEADLINE + 8;
+    private static final int ENTRY_SIZE = E_DATA_ADDR + 8;
+
+    private static final int ENTRY_SLAB_BITS = 12;
+    private static final int ENTRY_SLAB_MASK = (1 << ENTRY_SLAB_BITS) - 1;
+
+    private static final int MIN_DATA_SLAB_BITS = 20;
+    private static final int MIN_CLASS_BITS = 6;
+    private static final long NO_DATA = -1;
+
+    /** Part of entries checked by single sweep. */
+    private static final int SWEEP_DIVISOR = 64;
+    private static final int MIN_SWEEP_BATCH = 256;
+
+    private final int maxSessions;
+    private final int maxSessionBytes;
+    private final long maxBytes;
+    private final SessionDataCodec codec;
+    private final int dataSlabBits;
+
+    /* All state below is guarded by {@code this}. */
+
+    private final List<ByteBuffer> entrySlabs = new ArrayList<>();
+    private int nextSlot;
+    private int[] freeSlots = new int[16];
+    private int freeSlotCnt;
+    private int size;
+
+    /** Entry slot + 1 or 0 for empty cell. */
+    private int[] index = new int[1024];
+    private int[] indexHash = new int[1024];
+
+    private final List<ByteBuffer> dataSlabs = new ArrayList<>();
+    private int dataSlabPos;
+    private final long[][] freeBlocks = new long[32][];
+    private final int[] freeBlockCnt = new int[32];
+
+    private long reservedBytes;
+    private long usedBytes;
+    private int sweepCursor;
+
+    public OffHeapSessionStore() {
+        this(DFLT_MAX_SESSIONS, DFLT_MAX_SESSION_BYTES, DFLT_MAX_BYTES, new SerializableSessionDataCodec());
+    }
+
+    /**
+     * @param maxSessions Max number of sessions.
+     * @param maxSessionBytes Max encoded data size of single session.
+     * @param maxBytes Max direct memory reserved by store.
+     * @param codec Session data codec.
+     */
+    public OffHeapSessionStore(int maxSessions, int maxSessionBytes, long maxBytes, SessionDataCodec codec) {
+        if (maxSessions <= 0 || maxSessionBytes <= 0 || maxBytes <= 0)
+            throw new IllegalArgumentException("Limits must be positive");
+
+        this.maxSessions = maxSessions;
+        this.maxSessionBytes = maxSessionBytes;
+        this.maxBytes = maxBytes;
+        this.codec = codec;
+        this.dataSlabBits = Math.max(MIN_DATA_SLAB_BITS, classBits(maxSessionBytes));
+    }
+
+    @Override
+    public synchronized void stop() {
+        entrySlabs.clear();
+        dataSlabs.clear();
+        nextSlot = 0;
+        freeSlotCnt = 0;
+        size = 0;
+        index = new int[1024];
+        indexHash = new int[1024];
+        dataSlabPos = 0;
+        Arrays.fill(freeBlockCnt, 0);
+        reservedBytes = 0;
+        usedBytes = 0;
+        sweepCursor = 0;
+    }
+
+    @Override
+    public synchronized Session get(String id) {
+        int slot = find(id);
+
+        if (slot < 0)
+            return null;
+
+        ByteBuffer e = entrySlab(slot);
+        int base = entryBase(slot);
+
+        return new OffHeapSession(this, id, e.getLong(base + E_TIMEOUT), e.getLong(base + E_DEADLINE));
+    }
+
+    @Override
+    public void put(Session session) {
+        byte[] id = session.getId().getBytes(StandardCharsets.UTF_8);
+
+        if (id.length > MAX_ID_LEN)
+            throw new SessionException("Session ID is too long: " + id.length);
+
+        byte[] blob = encode(session.data());
+
+        synchronized (this) {
+            int old = find(session.getId());
+
+            if (old >= 0)
+                delete(old);
+
+            if (size >= maxSessions)
+                throw new SessionException("Session limit reached: " + maxSessions);
+
+            int slot = allocSlot();
+            int hash = hash(id);
+            ByteBuffer e = entrySlab(slot);
+            int base = entryBase(slot);
+
+            e.putInt(base + E_ID_LEN, id.length);
+            e.putInt(base + E_HASH, hash);
+            for (int i = 0; i < id.length; i++)
+                e.put(base + E_ID + i, id[i]);
+            e.putLong(base + E_TIMEOUT, session.timeout);
+            e.putLong(base + E_DEADLINE, session.deadline);
+            e.putLong(base + E_DATA_ADDR, NO_DATA);
+            e.putInt(base + E_DATA_LEN, 0);
+
+            insert(slot, hash);
+            size++;
+
+            if (blob != null) {
+                try {
+                    writeBlob(slot, blob, blob.length);
+                } catch (SessionException ex) {
+                    delete(slot);
+                    throw ex;
+                }
+            }
+        }
+
+        session.store = this;
+    }
+
+    @Override
+    public synchronized void touch(Session session) {
+        int slot = find(session.getId());
+
+        if (slot >= 0)
+            entrySlab(slot).putLong(entryBase(slot) + E_DEADLINE, session.deadline);
+    }
+
+    /**
+     * Writes through data change of heap session registered by {@link #put(Session)}.
+     */
+    @Override
+    public void update(Session session, String key) {
+        setValue(session.getId(), key, session.getData(key));
+    }
+
+    @Override
+    public synchronized Session remove(String id) {
+        Session s = get(id);
+
+        if (s != null)
+            delete(find(id));
+
+        return s;
+    }
+
+    @Override
+    public synchronized boolean expire(Session session) {
+        int slot = find(session.getId());
+
+        // Session may have been prolonged through another view.
+        if (slot < 0 || entrySlab(slot).getLong(entryBase(slot) + E_DEADLINE) - System.nanoTime() > 0)
+            return false;
+
+        delete(slot);
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Reserved direct memory, see {@link #getReservedBytes()}.
+     */
+    @Override
+    public long estimatedBytes() {
+        return getReservedBytes();
+    }
+
+    @Override
+    public boolean isSelfExpiring() {
+        return true;
+    }
+
+    @Override
+    public synchronized int sweep(long now) {
+        int batch = Math.max(MIN_SWEEP_BATCH, nextSlot / SWEEP_DIVISOR);
+        int expired = 0;
+
+        for (int i = 0; i < batch && nextSlot > 0; i++) {
+            if (sweepCursor >= nextSlot)
+                sweepCursor = 0;
+
+            int slot = sweepCursor++;
+            ByteBuffer e = entrySlab(slot);
+            int base = entryBase(slot);
+
+            if (e.getInt(base + E_ID_LEN) != 0 && now - e.getLong(base + E_DEADLINE) >= 0) {
+                delete(slot);
+                expired++;
+            }
+        }
+
+        return expired;
+    }
+
+    /**
+     * @return Direct memory reserved by slabs.
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return Direct memory occupied by session data blocks.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return Decoded value or {@code null} if session or key is not found.
+     */
+    Object getValue(String id, String key) {
+        byte[] val;
+
+        synchronized (this) {
+            int slot = find(id);
+
+            if (slot < 0)
+                return null;
+
+            val = findValue(slot, key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return val == null ? null : codec.decode(val);
+    }
+
+    /**
+     * Replaces value in session blob.
+     *
+     * @throws SessionException If session is not found or limits are exceeded.
+     */
+    void setValue(String id, String key, Object value) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] v = value == null ? null : codec.encode(value);
+
+        if (k.length > 0xFFFF)
+            throw new SessionException("Session data key is too long: " + k.length);
+
+        synchronized (this) {
+            int slot = find(id);
+
+            if (slot < 0)
+                throw new SessionException("Session is expired!");
+
+            ByteBuffer e = entrySlab(slot);
+            int base = entryBase(slot);
+            int len = e.getInt(base + E_DATA_LEN);
+            long addr = e.getLong(base + E_DATA_ADDR);
+
+            byte[] blob = new byte[len + 6 + k.length + (v == null ? 0 : v.length)];
+            int pos = 0;
+
+            // Copy other values.
+            if (addr != NO_DATA) {
+                ByteBuffer d = dataSlab(addr);
+                int off = dataOffset(addr);
+                int end = off + len;
+
+                while (off < end) {
+                    int recLen = 6 + (d.getShort(off) & 0xFFFF) + d.getInt(off + 2 + (d.getShort(off) & 0xFFFF));
+
+                    if (!keyEquals(d, off, k)) {
+                        d.position(off);
+                        d.get(blob, pos, recLen);
+                        pos += recLen;
+                    }
+
+                    off += recLen;
+                }
+            }
+
+            if (v != null) {
+                blob[pos++] = (byte) (k.length >>> 8);
+                blob[pos++] = (byte) k.length;
+                System.arraycopy(k, 0, blob, pos, k.length);
+                pos += k.length;
+                blob[pos++] = (byte) (v.length >>> 24);
+                blob[pos++] = (byte) (v.length >>> 16);
+                blob[pos++] = (byte) (v.length >>> 8);
+                blob[pos++] = (byte) v.length;
+                System.arraycopy(v, 0, blob, pos, v.length);
+                pos += v.length;
+            }
+
+            writeBlob(slot, blob, pos);
+        }
+    }
+
+    /**
+     * Encodes heap session data to blob.
+     */
+    private byte[] encode(Map<String, Object> data) {
+        if (data == null || data.isEmpty())
+            return null;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            for (Map.Entry<String, Object> e : data.entrySet()) {
+                byte[] k = e.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] v = codec.encode(e.getValue());
+
+                out.writeShort(k.length);
+                out.write(k);
+                out.writeInt(v.length);
+                out.write(v);
+            }
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Replaces data blob of entry.
+     */
+    private void writeBlob(int slot, byte[] blob, int len) {
+        if (len > maxSessionBytes)
+            throw new SessionException("Session data limit exceeded: " + len + " > " + maxSessionBytes);
+
+        long addr = len == 0 ? NO_DATA : allocBlock(len);
+
+        if (addr != NO_DATA) {
+            ByteBuffer d = dataSlab(addr);
+            d.position(dataOffset(addr));
+            d.put(blob, 0, len);
+        }
+
+        ByteBuffer e = entrySlab(slot);
+        int base = entryBase(slot);
+
+        freeBlock(e.getLong(base + E_DATA_ADDR), e.getInt(base + E_DATA_LEN));
+
+        e.putLong(base + E_DATA_ADDR, addr);
+        e.putInt(base + E_DATA_LEN, len);
+    }
+
+    private byte[] findValue(int slot, byte[] k) {
+        ByteBuffer e = entrySlab(slot);
+        int base = entryBase(slot);
+        long addr = e.getLong(base + E_DATA_ADDR);
+
+        if (addr == NO_DATA)
+            return null;
+
+        ByteBuffer d = dataSlab(addr);
+        int off = dataOffset(addr);
+        int end = off + e.getInt(base + E_DATA_LEN);
+
+        while (off < end) {
+            int keyLen = d.getShort(off) & 0xFFFF;
+            int valLen = d.getInt(off + 2 + keyLen);
+
+            if (keyEquals(d, off, k)) {
+                byte[] val = new byte[valLen];
+                d.position(off + 6 + keyLen);
+                d.get(val);
+                return val;
+            }
+
+            off += 6 + keyLen + valLen;
+        }
+
+        return null;
+    }
+
+    private static boolean keyEquals(ByteBuffer d, int off, byte[] k) {
+        if ((d.getShort(off) & 0xFFFF) != k.length)
+            return false;
+
+        for (int i = 0; i < k.length; i++) {
+            if (d.get(off + 2 + i) != k[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /* Entries. */
+
+    private ByteBuffer entrySlab(int slot) {
+        return entrySlabs.get(slot >>> ENTRY_SLAB_BITS);
+    }
+
+    private static int entryBase(int slot) {
+        return (slot & ENTRY_SLAB_MASK) * ENTRY_SIZE;
+    }
+
+    private int allocSlot() {
+        if (freeSlotCnt > 0)
+            return freeSlots[--freeSlotCnt];
+
+        if ((nextSlot & ENTRY_SLAB_MASK) == 0) {
+            reserve(ENTRY_SIZE << ENTRY_SLAB_BITS);
+            entrySlabs.add(ByteBuffer.allocateDirect(ENTRY_SIZE << ENTRY_SLAB_BITS));
+        }
+
+        return nextSlot++;
+    }
+
+    private void delete(int slot) {
+        ByteBuffer e = entrySlab(slot);
+        int base = entryBase(slot);
+
+        removeFromIndex(slot, e.getInt(base + E_HASH));
+        freeBlock(e.getLong(base + E_DATA_ADDR), e.getInt(base + E_DATA_LEN));
+        e.putInt(base + E_ID_LEN, 0);
+
+        if (freeSlotCnt == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, freeSlotCnt * 2);
+
+        freeSlots[freeSlotCnt++] = slot;
+        size--;
+    }
+
+    /* Index: linear probing with backward shift deletion. */
+
+    private static int hash(byte[] id) {
+        int h = 0x811C9DC5;
+
+        for (byte b : id)
+            h = (h ^ b) * 0x01000193;
+
+        return h ^ (h >>> 16);
+    }
+
+    private int find(String id) {
+        byte[] k = id.getBytes(StandardCharsets.UTF_8);
+        int h = hash(k);
+        int mask = index.length - 1;
+
+        for (int i = h & mask; index[i] != 0; i = (i + 1) & mask) {
+            if (indexHash[i] == h && idEquals(index[i] - 1, k))
+                return index[i] - 1;
+        }
+
+        return -1;
+    }
+
+    private boolean idEquals(int slot, byte[] k) {
+        ByteBuffer e = entrySlab(slot);
+        int base = entryBase(slot);
+
+        if (e.getInt(base + E_ID_LEN) != k.length)
+            return false;
+
+        for (int i = 0; i < k.length; i++) {
+            if (e.get(base + E_ID + i) != k[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    private void insert(int slot, int hash) {
+        if ((size + 1) * 2 > index.length)
+            growIndex();
+
+        int mask = index.length - 1;
+        int i = hash & mask;
+
+        while (index[i] != 0)
+            i = (i + 1) & mask;
+
+        index[i] = slot + 1;
+        indexHash[i] = hash;
+    }
+
+    private void growIndex() {
+        int[] oldIdx = index;
+        int[] oldHash = indexHash;
+
+        index = new int[oldIdx.length * 2];
+        indexHash = new int[oldIdx.length * 2];
+
+        int mask = index.length - 1;
+
+        for (int j = 0; j < oldIdx.length; j++) {
+            if (oldIdx[j] == 0)
+                continue;
+
+            int i = oldHash[j] & mask;
+
+            while (index[i] != 0)
+                i = (i + 1) & mask;
+
+            index[i] = oldIdx[j];
+            indexHash[i] = oldHash[j];
+        }
+    }
+
+    private void removeFromIndex(int slot, int hash) {
+        int mask = index.length - 1;
+        int i = hash & mask;
+
+        while (index[i] != slot + 1)
+            i = (i + 1) & mask;
+
+        index[i] = 0;
+
+        // Shift following cells of the cluster which can't be found otherwise.
+        for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+            int home = indexHash[j] & mask;
+
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                index[i] = index[j];
+                indexHash[i] = indexHash[j];
+                index[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    /* Data blocks. */
+
+    private ByteBuffer dataSlab(long addr) {
+        return dataSlabs.get((int) (addr >>> dataSlabBits));
+    }
+
+    private int dataOffset(long addr) {
+        return (int) (addr & ((1L << dataSlabBits) - 1));
+    }
+
+    private static int classBits(int len) {
+        return Math.max(MIN_CLASS_BITS, 32 - Integer.numberOfLeadingZeros(len - 1));
+    }
+
+    private long allocBlock(int len) {
+        int cls = classBits(len);
+        int blockSize = 1 << cls;
+
+        if (freeBlockCnt[cls] > 0) {
+            usedBytes += blockSize;
+            return freeBlocks[cls][--freeBlockCnt[cls]];
+        }
+
+        int slabSize = 1 << dataSlabBits;
+
+        if (dataSlabs.isEmpty() || dataSlabPos + blockSize > slabSize) {
+            reserve(slabSize);
+            dataSlabs.add(ByteBuffer.allocateDirect(slabSize));
+            dataSlabPos = 0;
+        }
+
+        long addr = ((long) (dataSlabs.size() - 1) << dataSlabBits) | dataSlabPos;
+
+        dataSlabPos += blockSize;
+        usedBytes += blockSize;
+
+        return addr;
+    }
+
+    private void freeBlock(long addr, int len) {
+        if (addr == NO_DATA)
+            return;
+
+        int cls = classBits(len);
+
+        if (freeBlocks[cls] == null)
+            freeBlocks[cls] = new long[16];
+        else if (freeBlockCnt[cls] == freeBlocks[cls].length)
+            freeBlocks[cls] = Arrays.copyOf(freeBlocks[cls], freeBlockCnt[cls] * 2);
+
+        freeBlocks[cls][freeBlockCnt[cls]++] = addr;
+        usedBytes -= 1 << cls;
+    }
+
+    private void reserve(long bytes) {
+        if (reservedBytes + bytes > maxBytes)
+            throw new SessionException("Off-heap session memory limit reached: " + maxBytes);
+
+        reservedBytes += bytes;
+    }
+}
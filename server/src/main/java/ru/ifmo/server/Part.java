@@ -0,0 +1,124 @@
+package ru.ifmo.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Part of {@code multipart/form-data} request body. Content of small part is kept in
+ * memory, larger one is stored in temporary file deleted once request is processed.
+ */
+public class Part {
+    private final Headers headers;
+    private final String name;
+    private final String fileName;
+    private final byte[] data;
+    private final Path file;
+    private final long size;
+
+    /**
+     * @param headers Part headers.
+     * @param data Content or {@code null} if it's stored in file.
+     * @param file Temporary file with content or {@code null}.
+     * @param size Content size.
+     */
+    Part(Headers headers, byte[] data, Path file, long size) {
+        this.headers = headers;
+        this.data = data;
+        this.file = file;
+        this.size = size;
+
+        String disposition = headers.get("Content-Disposition");
+
+        name = disposition == null ? null : MultipartParser.parameter(disposition, "name");
+        fileName = disposition == null ? null : MultipartParser.parameter(disposition, "filename");
+    }
+
+    /**
+     * @return Form field name or {@code null} if part has no {@code Content-Disposition}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Name of uploaded file or {@code null} if part is a plain field.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return Content type or {@code null} if not sent.
+     */
+    public String getContentType() {
+        return headers.get(Http.CONTENT_TYPE);
+    }
+
+    /**
+     * @param name Header name, case-insensitive.
+     * @return First header value or {@code null}.
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * @return Content size in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return {@code True} if content is kept in memory, {@code false} if it's stored in file.
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * @return Temporary file with content or {@code null} if it's kept in memory. File is
+     * deleted once request is processed, handler should copy or move it to keep.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return Stream of content.
+     * @throws IOException If temporary file can't be opened.
+     */
+    public InputStream getInputStream() throws IOException {
+        return file == null ? new ByteArrayInputStream(data) : Files.newInputStream(file);
+    }
+
+    /**
+     * @return Content decoded as UTF-8, e.g. value of form field.
+     * @throws IOException If temporary file can't be read.
+     */
+    public String getString() throws IOException {
+        return new String(file == null ? data : Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deletes temporary file, if any.
+     */
+    void delete() {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // Temporary directory is cleaned up by OS.
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Part{name=" + name + ", fileName=" + fileName + ", size=" + size + ", inMemory=" + isInMemory() + '}';
+    }
+}
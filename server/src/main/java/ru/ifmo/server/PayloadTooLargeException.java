@@ -0,0 +1,14 @@
+package ru.ifmo.server;
+
+/**
+ * Thrown when request body exceeds configured size limit. Request failed with it is
+ * answered with {@code 413 Payload Too Large}.
+ */
+public class PayloadTooLargeException extends ServerException {
+    /**
+     * @param message Exception message.
+     */
+    public PayloadTooLargeException(String message) {
+        super(message);
+    }
+}
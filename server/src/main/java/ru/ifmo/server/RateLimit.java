@@ -0,0 +1,145 @@
+package ru.ifmo.server;
+
+/**
+ * Request rate limit. Requests are grouped by key: client address, request path
+ * or value of a header, each key gets its own token bucket holding up to
+ * {@code burst} tokens refilled at {@code rate} tokens per second. Request takes
+ * one token, requests finding bucket empty are answered with
+ * {@code 429 Too Many Requests}.
+ * <p>
+ * Example: <pre>{@code
+ * new ServerConfig()
+ *     .addRateLimit(RateLimit.perClient(100, 200))
+ *     .addRateLimit(RateLimit.perHeader("X-Api-Key", 10, 10).setPath("/api/"));
+ * }</pre>
+ * </p>
+ *
+ * @see ServerConfig#addRateLimit(RateLimit)
+ */
+public class RateLimit {
+    /** What requests are grouped by. */
+    public enum Key {
+        /** Client IP address. */
+        CLIENT,
+
+        /** Request path. */
+        ROUTE,
+
+        /** Header value, requests without the header share one bucket. */
+        HEADER
+    }
+
+    private final Key key;
+    private final String header;
+    private final double rate;
+    private final int burst;
+    private String path;
+
+    /**
+     * @param key What requests are grouped by.
+     * @param header Header name if key is {@link Key#HEADER}.
+     * @param rate Tokens per second.
+     * @param burst Bucket capacity.
+     */
+    public RateLimit(Key key, String header, double rate, int burst) {
+        if (key == null)
+            throw new ServerException("Rate limit key is not specified");
+
+        if (key == Key.HEADER && (header == null || header.isEmpty()))
+            throw new ServerException("Header of rate limit is not specified");
+
+        if (!(rate > 0) || burst <= 0)
+            throw new ServerException("Rate limit must be positive, rate: " + rate + ", burst: " + burst);
+
+        this.key = key;
+        this.header = header;
+        this.rate = rate;
+        this.burst = burst;
+    }
+
+    /**
+     * @param rate Requests per second.
+     * @param burst Requests allowed at once.
+     * @return Limit of requests from a client address.
+     */
+    public static RateLimit perClient(double rate, int burst) {
+        return new RateLimit(Key.CLIENT, null, rate, burst);
+    }
+
+    /**
+     * @param rate Requests per second.
+     * @param burst Requests allowed at once.
+     * @return Limit of requests to a path.
+     */
+    public static RateLimit perRoute(double rate, int burst) {
+        return new RateLimit(Key.ROUTE, null, rate, burst);
+    }
+
+    /**
+     * @param header Header name, e.g. API key header.
+     * @param rate Requests per second.
+     * @param burst Requests allowed at once.
+     * @return Limit of requests with the same header value.
+     */
+    public static RateLimit perHeader(String header, double rate, int burst) {
+        return new RateLimit(Key.HEADER, header, rate, burst);
+    }
+
+    /**
+     * Define path prefix limit applies to. By default limit applies to all requests.
+     *
+     * @param path Path prefix.
+     * @return Itself for chaining.
+     */
+    public RateLimit setPath(String path) {
+        this.path = path;
+
+        return this;
+    }
+
+    /**
+     * @return Path prefix limit applies to or {@code null} if it applies to all requests.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return What requests are grouped by.
+     */
+    public Key getKey() {
+        return key;
+    }
+
+    /**
+     * @return Header name if key is {@link Key#HEADER}.
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * @return Tokens per second.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return Bucket capacity.
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimit{" +
+                "key=" + key +
+                (header != null ? ", header=" + header : "") +
+                (path != null ? ", path=" + path : "") +
+                ", rate=" + rate +
+                ", burst=" + burst +
+                '}';
+    }
+}
@@ -0,0 +1,173 @@
+package ru.ifmo.server;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates {@link RateLimit}s against requests.
+ * <p>
+ * Token bucket is stored as single {@code nanoTime} value, the time it will be full
+ * again (GCRA form of token bucket): taking a token moves it forward by one token
+ * interval, bucket is empty when it's more than {@code burst} intervals ahead of now.
+ * So refill is computed lazily on access, update is one CAS and no background
+ * thread is needed.
+ * </p>
+ * <p>
+ * Number of buckets per limit is bounded. When bound is reached, full buckets are
+ * dropped, that doesn't change limiting as missing bucket is the same as full one.
+ * If all buckets are in use, new keys share one overflow bucket.
+ * </p>
+ */
+class RateLimiter {
+    private final Limit[] limits;
+
+    /**
+     * @param limits Limits.
+     * @param maxKeys Max number of buckets per limit.
+     */
+    RateLimiter(List<RateLimit> limits, int maxKeys) {
+        this.limits = new Limit[limits.size()];
+
+        for (int i = 0; i < limits.size(); i++)
+            this.limits[i] = new Limit(limits.get(i), maxKeys);
+    }
+
+    /**
+     * Takes token from bucket of every limit applicable to request.
+     *
+     * @param req Request with parsed request line and headers.
+     * @return {@code 0} if request is allowed, otherwise seconds until client may retry.
+     */
+    long acquire(Request req) {
+        long now = System.nanoTime();
+
+        for (Limit limit : limits) {
+            if (!limit.appliesTo(req))
+                continue;
+
+            long wait = limit.bucket(limit.key(req), now).acquire(now, limit.interval, limit.tolerance);
+
+            if (wait > 0)
+                return Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return Total number of buckets, for tests.
+     */
+    int size() {
+        int size = 0;
+
+        for (Limit limit : limits)
+            size += limit.buckets.size();
+
+        return size;
+    }
+
+    private static class Limit {
+        final RateLimit cfg;
+        final int maxKeys;
+
+        /** Nanoseconds per token. */
+        final long interval;
+
+        /** How far ahead of now bucket may be before it's empty. */
+        final long tolerance;
+
+        final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+        final Bucket overflow = new Bucket(System.nanoTime());
+        final AtomicBoolean sweeping = new AtomicBoolean();
+
+        Limit(RateLimit cfg, int maxKeys) {
+            this.cfg = cfg;
+            this.maxKeys = maxKeys;
+
+            interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / cfg.getRate()));
+            tolerance = interval * (cfg.getBurst() - 1);
+        }
+
+        boolean appliesTo(Request req) {
+            return cfg.getPath() == null || req.getPath().startsWith(cfg.getPath());
+        }
+
+        String key(Request req) {
+            switch (cfg.getKey()) {
+                case CLIENT:
+                    InetAddress addr = req.socket.getInetAddress();
+
+                    return addr == null ? "" : addr.getHostAddress();
+
+                case ROUTE:
+                    return req.getPath();
+
+                default:
+                    String val = req.getHeader(cfg.getHeader());
+
+                    return val == null ? "" : val;
+            }
+        }
+
+        Bucket bucket(String key, long now) {
+            Bucket b = buckets.get(key);
+
+            if (b != null)
+                return b;
+
+            if (buckets.size() >= maxKeys && !sweep(now))
+                return overflow;
+
+            return buckets.computeIfAbsent(key, k -> new Bucket(now));
+        }
+
+        /**
+         * Drops full buckets. Request holding dropped bucket may get one extra token.
+         *
+         * @return {@code True} if there is room for new bucket.
+         */
+        private boolean sweep(long now) {
+            if (!sweeping.compareAndSet(false, true))
+                return false;
+
+            try {
+                buckets.values().removeIf(b -> b.get() - now <= 0);
+
+                return buckets.size() < maxKeys;
+            } finally {
+                sweeping.set(false);
+            }
+        }
+    }
+
+    /**
+     * Token bucket, value is the time bucket is full again.
+     */
+    private static class Bucket extends AtomicLong {
+        Bucket(long now) {
+            super(now);
+        }
+
+        /**
+         * @return {@code 0} if token was taken, otherwise nanoseconds until it's available.
+         */
+        long acquire(long now, long interval, long tolerance) {
+            while (true) {
+                long full = get();
+                long base = full - now > 0 ? full : now;
+                long ahead = base - now;
+
+                if (ahead > tolerance)
+                    return ahead - tolerance;
+
+                if (compareAndSet(full, base + interval))
+                    return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package ru.ifmo.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.ifmo.server.replication.HashRing;
+import ru.ifmo.server.replication.ReplicationStats;
+import ru.ifmo.server.replication.ReplicationTransport;
+import ru.ifmo.server.replication.SessionDelta;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Session store decorator replicating sessions between server nodes, so requests
+ * of a user may be served by any node.
+ * <p>
+ * Each session is owned by {@code 1 + backups} nodes chosen by consistent hashing of
+ * session ID, the first of them is primary. Changes made on a node are applied
+ * locally and shipped asynchronously to primary, which applies them and forwards
+ * to backups and to other nodes holding the session. Session missing locally is
+ * fetched from its owners synchronously, node fetching session from primary
+ * receives its further changes. Only primary announces expiration of session, other
+ * nodes just drop their copies, as accesses are replicated too.
+ * </p>
+ * <p>
+ * To keep replication traffic off the request path, access is shipped only once it moves
+ * expiration by more than a quarter of session timeout, so idle session may expire on
+ * other nodes that much earlier. Session not found at its owners is remembered as missing
+ * for a short time and number of concurrent fetches is bounded, so requests with stale or
+ * made-up session IDs don't block workers on remote lookups.
+ * </p>
+ * <p>
+ * Replication is best effort: deltas for unreachable nodes are dropped. Changes of
+ * the same session made concurrently on different nodes are ordered by primary.
+ * </p>
+ */
+public class ReplicatingSessionStore implements SessionStore, ReplicationTransport.Handler {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicatingSessionStore.class);
+
+    /** Default number of backup owners. */
+    public static final int DFLT_BACKUPS = 1;
+
+    /** Default time to wait for session fetched from owner. */
+    public static final long DFLT_FETCH_TIMEOUT_MILLIS = 200;
+
+    /** Default time session not found at owners is remembered as missing. */
+    public static final long DFLT_MISS_TTL_MILLIS = 1000;
+
+    /** Max number of remembered missing session IDs. */
+    private static final int MAX_MISSES = 10_000;
+
+    /** Max number of concurrent fetches, lookups beyond it don't go to owners. */
+    private static final int MAX_CONCURRENT_FETCHES = 16;
+
+    /** Access is shipped once it moves expiration by more than this fraction of timeout. */
+    private static final int TOUCH_FRACTION = 4;
+
+    private final SessionStore delegate;
+    private final ReplicationTransport transport;
+    private final HashRing ring;
+    private final int owners;
+    private final SessionDataCodec codec;
+    private final String localId;
+
+    /** Number of session lock stripes, power of 2. */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Locks by session ID hash. Primary applies and forwards remote change, or reads
+     * and ships local one, under session lock, so other nodes receive changes in the
+     * order primary applied them.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /** Non-owner nodes holding session, tracked by primary. */
+    private final Map<String, Set<String>> subscribers = new ConcurrentHashMap<>();
+
+    /** Session IDs not found at owners, mapped to {@code System.nanoTime()} they are forgotten at. */
+    private final Map<String, Long> misses = new ConcurrentHashMap<>();
+
+    private final Semaphore fetches = new Semaphore(MAX_CONCURRENT_FETCHES);
+
+    private volatile Consumer<Session> scheduler = s -> {};
+
+    /**
+     * @param local Replication address of this node.
+     * @param peers Replication addresses of other nodes.
+     * @param secret Secret shared by all nodes to authenticate each other, at least
+     *               {@link ReplicationTransport#MIN_SECRET_LENGTH} bytes.
+     */
+    public ReplicatingSessionStore(InetSocketAddress local, Collection<InetSocketAddress> peers, byte[] secret) {
+        this(new InMemorySessionStore(), new ReplicationTransport(local, peers, secret), DFLT_BACKUPS,
+            new SerializableSessionDataCodec());
+    }
+
+    /**
+     * @param delegate Local store.
+     * @param transport Transport.
+     * @param backups Number of backup owners of each session.
+     * @param codec Session data codec.
+     */
+    public ReplicatingSessionStore(SessionStore delegate, ReplicationTransport transport, int backups,
+        SessionDataCodec codec) {
+        if (delegate.isSelfExpiring())
+            throw new IllegalArgumentException("Self-expiring session store can't be replicated: " + delegate);
+
+        this.delegate = delegate;
+        this.transport = transport;
+        this.ring = new HashRing(transport.getNodes());
+        this.owners = 1 + backups;
+        this.codec = codec;
+        this.localId = transport.getLocalId();
+
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    /**
+     * @return Replication statistics.
+     */
+    public ReplicationStats getReplicationStats() {
+        return transport.getStats();
+    }
+
+    @Override
+    public Iterable<Session> start() {
+        Iterable<Session> loaded = delegate.start();
+
+        for (Session s : loaded)
+            s.store = this;
+
+        transport.start(this);
+
+        return loaded;
+    }
+
+    @Override
+    public void stop() {
+        transport.stop();
+        delegate.stop();
+        subscribers.clear();
+        misses.clear();
+    }
+
+    @Override
+    public void setScheduler(Consumer<Session> scheduler) {
+        this.scheduler = scheduler;
+        delegate.setScheduler(scheduler);
+    }
+
+    /**
+     * Looks session up locally, then at its owners unless it was recently not found there.
+     */
+    @Override
+    public Session get(String id) {
+        Session s = delegate.get(id);
+
+        if (s != null || isMissing(id) || !fetches.tryAcquire())
+            return s;
+
+        boolean fetched = false;
+
+        try {
+            for (String node : ring.owners(id, owners)) {
+                if (node.equals(localId))
+                    continue;
+
+                SessionDelta d = transport.fetch(node, id, DFLT_FETCH_TIMEOUT_MILLIS);
+
+                if (d != null)
+                    return install(d);
+
+                fetched = true;
+            }
+        } finally {
+            fetches.release();
+        }
+
+        if (fetched)
+            addMiss(id);
+
+        return null;
+    }
+
+    @Override
+    public void put(Session session) {
+        delegate.put(session);
+        session.store = this;
+        misses.remove(session.getId());
+
+        SessionDelta d = toDelta(session);
+        session.replicatedExpireMillis = d.getExpireMillis();
+
+        publish(d);
+    }
+
+    @Override
+    public void touch(Session session) {
+        delegate.touch(session);
+
+        long expire = session.expireMillis();
+
+        if (expire - session.replicatedExpireMillis > session.timeoutMillis() / TOUCH_FRACTION) {
+            session.replicatedExpireMillis = expire;
+
+            publish(SessionDelta.touch(session.getId(), expire));
+        }
+    }
+
+    @Override
+    public void update(Session session, String key) {
+        delegate.update(session, key);
+
+        // Value is read under lock, it may be already overwritten by remote change.
+        synchronized (lock(session.getId())) {
+            Object val = session.getData(key);
+            long expire = session.expireMillis();
+
+            try {
+                publish(SessionDelta.data(session.getId(), expire, key, val == null ? null : codec.encode(val)));
+
+                session.replicatedExpireMillis = expire;
+            } catch (SessionException e) {
+                LOG.warn("Session value '{}' is not replicated: {}", key, e.toString());
+            }
+        }
+    }
+
+    @Override
+    public Session remove(String id) {
+        Session s = delegate.remove(id);
+
+        publish(SessionDelta.remove(id));
+        subscribers.remove(id);
+
+        return s;
+    }
+
+    @Override
+    public Session evict(String id) {
+        return delegate.evict(id);
+    }
+
+    @Override
+    public boolean expire(Session session) {
+        if (!delegate.expire(session))
+            return false;
+
+        if (isPrimary(session.getId()))
+            publish(SessionDelta.remove(session.getId()));
+
+        subscribers.remove(session.getId());
+
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return delegate.estimatedBytes();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onDeltas(String from, List<SessionDelta> deltas) {
+        for (SessionDelta d : deltas) {
+            misses.remove(d.getId());
+
+            if (isPrimary(d.getId())) {
+                if (!ring.owners(d.getId(), owners).contains(from))
+                    subscribe(d.getId(), from);
+
+                synchronized (lock(d.getId())) {
+                    apply(d, from);
+                    fanOut(d, from);
+                }
+            } else
+                apply(d, from);
+
+            if (d.getType() == SessionDelta.Type.REMOVE)
+                subscribers.remove(d.getId());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SessionDelta onFetch(String from, String id) {
+        Session s = delegate.get(id);
+
+        if (s == null || s.isExpired(System.nanoTime()))
+            return null;
+
+        if (isPrimary(id))
+            subscribe(id, from);
+
+        return toDelta(s);
+    }
+
+    private boolean isMissing(String id) {
+        Long until = misses.get(id);
+
+        if (until == null)
+            return false;
+
+        if (System.nanoTime() - until < 0)
+            return true;
+
+        misses.remove(id, until);
+
+        return false;
+    }
+
+    private void addMiss(String id) {
+        long now = System.nanoTime();
+
+        if (misses.size() >= MAX_MISSES) {
+            misses.values().removeIf(until -> now - until >= 0);
+
+            if (misses.size() >= MAX_MISSES)
+                misses.clear();
+        }
+
+        misses.put(id, now + TimeUnit.MILLISECONDS.toNanos(DFLT_MISS_TTL_MILLIS));
+    }
+
+    private Object lock(String id) {
+        return locks[id.hashCode() & (locks.length - 1)];
+    }
+
+    private boolean isPrimary(String id) {
+        return ring.primary(id).equals(localId);
+    }
+
+    private void subscribe(String id, String node) {
+        subscribers.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(node);
+    }
+
+    /**
+     * Ships local change: to primary or, on primary, to other holders.
+     */
+    private void publish(SessionDelta d) {
+        String primary = ring.primary(d.getId());
+
+        if (primary.equals(localId))
+            fanOut(d, null);
+        else
+            transport.send(primary, d);
+    }
+
+    /**
+     * Sends delta from primary to backups and subscribers. Data changes are echoed
+     * to origin, so it converges to the order chosen by primary.
+     */
+    private void fanOut(SessionDelta d, String origin) {
+        Set<String> targets = new LinkedHashSet<>(ring.owners(d.getId(), owners));
+        Set<String> subs = subscribers.get(d.getId());
+
+        if (subs != null)
+            targets.addAll(subs);
+
+        targets.remove(localId);
+
+        if (d.getType() != SessionDelta.Type.DATA && origin != null)
+            targets.remove(origin);
+
+        for (String node : targets)
+            transport.send(node, d);
+    }
+
+    private void apply(SessionDelta d, String from) {
+        try {
+            apply(d);
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to apply " + d + " from " + from, e);
+        }
+    }
+
+    private void apply(SessionDelta d) {
+        switch (d.getType()) {
+            case PUT: {
+                Session s = delegate.get(d.getId());
+
+                if (s == null)
+                    install(d);
+                else {
+                    for (Map.Entry<String, byte[]> e : d.getData().entrySet())
+                        s.applyData(e.getKey(), codec.decode(e.getValue()));
+
+                    s.prolongTo(d.getExpireMillis());
+                    s.replicatedExpireMillis = d.getExpireMillis();
+                }
+                break;
+            }
+
+            case DATA: {
+                Session s = delegate.get(d.getId());
+
+                if (s != null) {
+                    s.applyData(d.getKey(), d.getValue() == null ? null : codec.decode(d.getValue()));
+                    s.prolongTo(d.getExpireMillis());
+                    s.replicatedExpireMillis = d.getExpireMillis();
+                }
+                break;
+            }
+
+            case TOUCH: {
+                Session s = delegate.get(d.getId());
+
+                if (s != null) {
+                    s.prolongTo(d.getExpireMillis());
+                    s.replicatedExpireMillis = d.getExpireMillis();
+                    delegate.touch(s);
+                }
+                break;
+            }
+
+            case REMOVE: {
+                Session s = delegate.remove(d.getId());
+
+                if (s != null)
+                    s.setExpired(true);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds session received from other node.
+     */
+    private Session install(SessionDelta d) {
+        Map<String, Object> data = new HashMap<>();
+
+        for (Map.Entry<String, byte[]> e : d.getData().entrySet())
+            data.put(e.getKey(), codec.decode(e.getValue()));
+
+        Session s = new Session(d.getId(), d.getTimeoutMillis(), d.getExpireMillis(), data);
+
+        s.replicatedExpireMillis = d.getExpireMillis();
+
+        delegate.put(s);
+        s.store = this;
+        scheduler.accept(s);
+
+        return s;
+    }
+
+    private SessionDelta toDelta(Session s) {
+        Map<String, byte[]> data = new LinkedHashMap<>();
+        Map<String, Object> src = s.data();
+
+        if (src != null) {
+            for (Map.Entry<String, Object> e : src.entrySet()) {
+                try {
+                    data.put(e.getKey(), codec.encode(e.getValue()));
+                } catch (SessionException ex) {
+                    LOG.warn("Session value '{}' is not replicated: {}", e.getKey(), ex.toString());
+                }
+            }
+        }
+
+        return SessionDelta.put(s.getId(), s.timeoutMillis(), s.expireMillis(), data);
+    }
+}
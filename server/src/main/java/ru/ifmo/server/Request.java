@@ -1,13 +1,21 @@
 package ru.ifmo.server;
 
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.Socket;
-import java.net.URI;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
+import static java.util.Collections.emptyIterator;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.unmodifiableMap;
 import static ru.ifmo.server.Session.SESSION_COOKIENAME;
@@ -19,20 +27,41 @@ import static ru.ifmo.server.Session.SESSION_COOKIENAME;
  */
 public class Request {
     final Socket socket;
+    InputStream in;
     HttpMethod method;
-    URI path;
+    RequestTarget path;
+
+    /** Route request is mapped to, for metrics. */
+    String route;
+
+    /** Seconds client should wait before retry, set if request was rate limited. */
+    long retryAfter;
+
+    /** Client waits for {@code 100 Continue} before sending body, body is not read yet. */
+    boolean expectContinue;
 
 
-    private Map<String, Cookie> cookieMap;
+    /** Cookies, {@code null} if request has no {@code Cookie} header. */
+    private CookieJar cookies;
     private Session session;
-    private final Map<String, Session> sessions;
-    Map<String, String> headers;
-    Map<String, String> args;
-    String body;
+    private boolean newSession;
+    private final Server server;
+    Headers headers;
+
+    /** Body buffered by server, {@code null} if it's left in the stream. */
+    RequestBody body;
+
+    /** Raw query, parsed into arguments on first access. */
+    String query;
+
+    private Arguments args;
 
-    Request(Socket socket, Map<String, Session> sessions) {
+    /** Parser of multipart body, created on first access. */
+    private MultipartParser multipart;
+
+    Request(Socket socket, Server server) {
         this.socket = socket;
-        this.sessions = sessions;
+        this.server = server;
     }
 
     /**
@@ -40,11 +69,32 @@ public class Request {
      */
     public InputStream getInputStream() {
         try {
+            if (body != null)
+                return body.getInputStream();
+
+            if (in != null)
+                return in;
+
             return socket.getInputStream();
         } catch (IOException e) {
             throw new ServerException("Unable retrieve input stream.", e);
         }
     }
+    /**
+     * @return {@code True} if request was received over TLS.
+     */
+    public boolean isSecure() {
+        return socket instanceof TlsSocket;
+    }
+
+    /**
+     * @return Application protocol negotiated via TLS ALPN extension
+     * ({@code h2} or {@code http/1.1}) or {@code null}.
+     */
+    public String getApplicationProtocol() {
+        return isSecure() ? ((TlsSocket) socket).getApplicationProtocol() : null;
+    }
+
     /**
      * @return HTTP method of this request.
      */
@@ -52,59 +102,226 @@ public class Request {
         return method;
     }
     /**
-     * @return Request path.
+     * @return Percent-decoded request path without dot-segments.
      */
     public String getPath() {
         return path.getPath();
     }
+
+    /**
+     * @return Headers with case-insensitive names, a header sent several times has its first value.
+     */
     public Map<String, String> getHeaders() {
         if (headers == null){
             return emptyMap();}
-        return unmodifiableMap(headers);
+        return unmodifiableMap(headers.asMap());
     }
 
-    void addBody(String content) {
-        body = content;
+    /**
+     * @param name Header name, case-insensitive.
+     * @return First value of the header or {@code null}.
+     */
+    public String getHeader(String name) {
+        return headers == null ? null : headers.get(name);
     }
 
-    public String getBody(){
-        return this.body;
+    /**
+     * @param name Header name, case-insensitive.
+     * @return All values of the header in order they were sent.
+     */
+    public List<String> getHeaderValues(String name) {
+        return headers == null ? emptyList() : headers.getAll(name);
+    }
+
+    /**
+     * Returns body of {@code application/x-www-form-urlencoded} or {@code text/plain} request,
+     * other bodies are left for handler to read from {@link #getInputStream()}. Large body
+     * should be read from {@link #getInputStream()} too: decoded string takes server memory
+     * budget, so body written to temporary file may not fit it.
+     *
+     * @return Body decoded as UTF-8 or {@code null}.
+     * @throws PayloadTooLargeException If body doesn't fit
+     * {@link ServerConfig#setMaxBufferedBodyMemory(long) memory budget}.
+     */
+    public String getBody() {
+        return body == null ? null : body.asString();
     }
 
     void addHeader(String key, String value) {
         if (headers == null){
-            headers = new LinkedHashMap<>();}
-        headers.put(key, value);
-    }
-    void addArgument(String key, String value) {
-        if (args == null){
-            args = new LinkedHashMap<>();}
-        args.put(key, value);
+            headers = new Headers();}
+        headers.add(key, value);
     }
+
     /**
-     * @return Arguments passed to this request.
+     * @return Arguments passed to this request in query or urlencoded body,
+     * an argument sent several times has its first value.
      */
     public Map<String, String> getArguments() {
-        if (args == null)
-            return emptyMap();
-        return unmodifiableMap(args);
+        Arguments args = arguments();
+
+        return args.size() == 0 ? emptyMap() : args.asMap();
+    }
+
+    /**
+     * @param name Argument name.
+     * @return First value of the argument or {@code null}.
+     */
+    public String getArgument(String name) {
+        return arguments().get(name);
     }
-    void mapCookie(String name, Cookie cookie) {
-        if (cookieMap == null){
-            cookieMap = new HashMap<>();
+
+    /**
+     * @param name Argument name.
+     * @return All values of the argument in order they were sent.
+     */
+    public List<String> getArgumentValues(String name) {
+        return arguments().getAll(name);
+    }
+
+    /**
+     * Parses arguments on first access, so requests which handlers don't read them pay nothing.
+     * Urlencoded body is decoded from its buffer or temporary file as it's read.
+     */
+    private Arguments arguments() {
+        if (args == null) {
+            Arguments res = new Arguments();
+
+            if (query != null)
+                res.parse(query);
+
+            if (body != null && isUrlEncoded()) {
+                try (Reader r = new InputStreamReader(body.getInputStream(), StandardCharsets.UTF_8)) {
+                    res.parse(r);
+                } catch (IOException e) {
+                    throw new ServerException("Unable to read request body", e);
+                }
+            }
+
+            args = res;
         }
-        cookieMap.put(name, cookie);
+
+        return args;
     }
-    public Map<String, Cookie> getCookies() {
-        if (getHeaders().get("Cookie") == null) {
-            return emptyMap();
+
+    private boolean isUrlEncoded() {
+        String type = getHeader(Http.CONTENT_TYPE);
+
+        return type != null && type.contains(Http.URL_ENCODED);
+    }
+
+    /**
+     * Returns parts of {@code multipart/form-data} body. Parts are read from client as
+     * iterator advances, so they can be iterated only once. Part larger than
+     * {@link ServerConfig#setMultipartMemoryThreshold(int) memory threshold} is stored in
+     * temporary file deleted once request is processed.
+     * <p>
+     * Iterator throws {@link PayloadTooLargeException} if body exceeds configured size limits
+     * and {@link BadRequestException} if body is malformed.
+     * </p>
+     *
+     * @return Parts or empty iterator if body is not {@code multipart/form-data}.
+     */
+    public Iterator<Part> getParts() {
+        if (multipart == null) {
+            String boundary = MultipartParser.boundary(getHeader(Http.CONTENT_TYPE));
+
+            if (boundary == null)
+                return emptyIterator();
+
+            ServerConfig cfg = server.getConfig();
+            InputStream in = getInputStream();
+            String len = getHeader(Http.CONTENT_LENGTH);
+
+            // Body ends at declared length, so truncated one is malformed instead of awaiting more data.
+            if (len != null) {
+                BoundedInputStream bounded;
+
+                try {
+                    bounded = new BoundedInputStream(in, Long.parseLong(len.trim()));
+                } catch (NumberFormatException e) {
+                    throw new BadRequestException("Invalid Content-Length: " + len, e);
+                }
+
+                bounded.setPropagateClose(false);
+                in = bounded;
+            }
+
+            multipart = new MultipartParser(in, boundary, cfg.getMultipartMemoryThreshold(),
+                cfg.getMaxPartSize(), cfg.getMaxMultipartSize(),
+                cfg.getUploadDirectory() == null ? null : Paths.get(cfg.getUploadDirectory()));
+        }
+
+        return multipart;
+    }
+
+    /**
+     * Releases body once request is processed: returns its memory to server budget
+     * and deletes temporary files.
+     */
+    void release() {
+        if (multipart != null)
+            multipart.close();
+
+        if (body != null)
+            body.release();
+    }
+
+    /**
+     * @return Copy of request line, headers and cookies detached from connection and body,
+     * for handler invoked after this request is processed, e.g. background cache refresh.
+     */
+    Request detach() {
+        Request copy = new Request(socket, server);
+
+        copy.in = new ByteArrayInputStream(new byte[0]);
+        copy.method = method;
+        copy.path = path;
+        copy.route = route;
+        copy.query = query;
+
+        if (headers != null) {
+            copy.headers = new Headers(headers);
+
+            for (String cookie : headers.getAll("Cookie"))
+                copy.addCookieHeader(cookie);
         }
-        return unmodifiableMap(cookieMap);
+
+        return copy;
     }
+
+    /**
+     * @param header Value of {@code Cookie} header, parsed on first access.
+     */
+    void addCookieHeader(String header) {
+        if (cookies == null)
+            cookies = new CookieJar(header);
+        else
+            cookies.add(header);
+    }
+
+    /**
+     * @return Unmodifiable map of request cookies by name.
+     */
+    public Map<String, Cookie> getCookies() {
+        return cookies == null ? emptyMap() : cookies.asMap();
+    }
+
+    /**
+     * @param key Cookie name.
+     * @return Cookie value or {@code null} if request has no such cookie.
+     */
     public String getCookieValue(String key) {
-        return cookieMap.get(key).getValue();
+        return cookies == null ? null : cookies.get(key);
     }
 
+    /**
+     * Returns session of this request creating one if client has no live session.
+     * Session cookie is sent to client only if new session was created.
+     *
+     * @return Session.
+     * @throws SessionException If sessions are disabled in config.
+     */
     public Session getSession() {
         if (session == null) {
             session = getSession(false); //сначала проверим, нет ли в cookie id открытой сессии
@@ -112,18 +329,54 @@ public class Request {
         return session;
     }
 
+    /**
+     * @param open Whether to open new session even if client has live one.
+     * @return Session.
+     * @throws SessionException If sessions are disabled in config.
+     */
     public Session getSession(boolean open) {
-        if (!getCookies().containsKey(SESSION_COOKIENAME) || open) {
-            session = new Session();
-            sessions.put(session.getId(), session);
-        } else {
-            session = sessions.get(getCookieValue(SESSION_COOKIENAME)); //проверим, точно ли ещё есть на сервере
-            if (session == null) {
-                session = getSession(true);
-            }
+        if (!server.getConfig().isSessionsEnabled())
+            throw new SessionException("Sessions are disabled");
+
+        if (!open)
+            session = lookupSession();
+
+        if (session == null || open) {
+            session = server.openSession();
+            newSession = true;
         }
         return session;
     }
+
+    /**
+     * Returns live session referenced by request cookie without creating new one.
+     *
+     * @return Session or {@code null}.
+     */
+    public Session getExistingSession() {
+        if (session == null && server.getConfig().isSessionsEnabled())
+            session = lookupSession();
+
+        return session;
+    }
+
+    /**
+     * @return {@code True} if session was created while processing this request.
+     */
+    boolean isNewSession() {
+        return newSession;
+    }
+
+    private Session lookupSession() {
+        // Fast path: requests without cookies never hit session map.
+        if (cookies == null)
+            return null;
+
+        String sid = cookies.get(SESSION_COOKIENAME);
+
+        return sid == null ? null : server.findSession(sid); //проверим, точно ли ещё есть на сервере
+    }
+
     @Override
     public String toString() {
         return "Request{" +
@@ -131,7 +384,7 @@ public class Request {
                 ", method=" + method +
                 ", path=" + path +
                 ", headers=" + headers +
-                ", args=" + args +
+                ", query=" + query +
                 '}';
     }
 }
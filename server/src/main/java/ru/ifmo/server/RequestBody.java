@@ -0,0 +1,303 @@
+package ru.ifmo.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Request body buffered by server: small body is kept in memory, larger one or one
+ * not fitting server-wide memory budget is written to temporary file. Body decoded
+ * to string takes memory of the budget too.
+ */
+class RequestBody {
+    private final byte[] data;
+    private final Path file;
+    private final long size;
+
+    /** Budget memory of body is reserved in, {@code null} if it's not counted. */
+    private final MemoryBudget budget;
+
+    /** Bytes reserved in budget. */
+    private long reserved;
+
+    /** Body decoded as string, cached. */
+    private String str;
+
+    private boolean released;
+
+    private RequestBody(byte[] data, Path file, long size, MemoryBudget budget, long reserved) {
+        this.data = data;
+        this.file = file;
+        this.size = size;
+        this.budget = budget;
+        this.reserved = reserved;
+    }
+
+    /**
+     * @param data Body bytes, not counted in any memory budget.
+     * @return In-memory body.
+     */
+    static RequestBody of(byte[] data) {
+        return new RequestBody(data, null, data.length, null, 0);
+    }
+
+    /**
+     * Reads body of known length. Body shorter than declared is taken as is.
+     *
+     * @param in Stream.
+     * @param length Declared length.
+     * @param memoryThreshold Max length of body kept in memory.
+     * @param budget Server-wide budget of in-memory bodies.
+     * @param dir Directory of temporary files or {@code null} for default one.
+     * @return Body.
+     * @throws IOException If failed to read body or write it to file.
+     */
+    static RequestBody read(InputStream in, long length, int memoryThreshold, MemoryBudget budget, Path dir)
+        throws IOException {
+        if (length <= memoryThreshold && budget.tryAcquire(length)) {
+            byte[] data = new byte[(int) length];
+            int n = 0;
+
+            try {
+                for (int r; n < data.length && (r = in.read(data, n, data.length - n)) > 0; )
+                    n += r;
+            } catch (IOException | RuntimeException e) {
+                budget.release(length);
+                throw e;
+            }
+
+            if (n < data.length) {
+                budget.release(data.length - n);
+                data = Arrays.copyOf(data, n);
+            }
+
+            return new RequestBody(data, null, n, budget, n);
+        }
+
+        Path file = createTempFile(dir);
+        boolean ok = false;
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ReadableByteChannel src = Channels.newChannel(in);
+            long size = 0;
+
+            for (long n; size < length && (n = ch.transferFrom(src, size, length - size)) > 0; )
+                size += n;
+
+            ok = true;
+
+            return new RequestBody(null, file, size, budget, 0);
+        } finally {
+            if (!ok)
+                Files.deleteIfExists(file);
+        }
+    }
+
+    private static Path createTempFile(Path dir) throws IOException {
+        return dir == null ? Files.createTempFile("body", ".tmp") : Files.createTempFile(dir, "body", ".tmp");
+    }
+
+    /**
+     * @return Body size in bytes.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return {@code True} if body is kept in memory.
+     */
+    boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * @return New stream of body.
+     * @throws IOException If temporary file can't be opened.
+     */
+    InputStream getInputStream() throws IOException {
+        return file == null ? new ByteArrayInputStream(data) : Files.newInputStream(file);
+    }
+
+    /**
+     * Decodes body, body kept in file is read to memory reserved in budget.
+     *
+     * @return Body decoded as UTF-8.
+     * @throws PayloadTooLargeException If body kept in file doesn't fit memory budget.
+     */
+    String asString() {
+        if (str == null) {
+            if (file == null) {
+                str = new String(data, StandardCharsets.UTF_8);
+
+                return str;
+            }
+
+            if (budget != null && !budget.tryAcquire(size))
+                throw new PayloadTooLargeException("Request body of " + size + " bytes doesn't fit memory budget");
+
+            try {
+                str = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                if (budget != null)
+                    budget.release(size);
+
+                throw new ServerException("Unable to read request body", e);
+            }
+
+            if (budget != null)
+                reserved += size;
+        }
+
+        return str;
+    }
+
+    /**
+     * Returns memory to budget or deletes temporary file.
+     */
+    void release() {
+        if (released)
+            return;
+
+        released = true;
+
+        if (budget != null)
+            budget.release(reserved);
+
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // Temporary directory is cleaned up by OS.
+            }
+        }
+    }
+
+    /**
+     * Collects body arriving in chunks, e.g. in HTTP/2 DATA frames, with the same memory
+     * threshold and budget as {@link #read}: body is kept in memory while it fits both,
+     * then it's moved to temporary file.
+     */
+    static class Builder {
+        private final int memoryThreshold;
+        private final MemoryBudget budget;
+        private final Path dir;
+
+        private ByteArrayOutputStream mem = new ByteArrayOutputStream();
+        private long reserved;
+        private Path file;
+        private FileChannel ch;
+        private long size;
+
+        /**
+         * @param memoryThreshold Max length of body kept in memory.
+         * @param budget Server-wide budget of in-memory bodies.
+         * @param dir Directory of temporary files or {@code null} for default one.
+         */
+        Builder(int memoryThreshold, MemoryBudget budget, Path dir) {
+            this.memoryThreshold = memoryThreshold;
+            this.budget = budget;
+            this.dir = dir;
+        }
+
+        /**
+         * @return Bytes collected so far.
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * @throws IOException If failed to write body to file.
+         */
+        void write(byte[] b, int off, int len) throws IOException {
+            if (file == null) {
+                if (size + len <= memoryThreshold && budget.tryAcquire(len)) {
+                    mem.write(b, off, len);
+                    reserved += len;
+                    size += len;
+
+                    return;
+                }
+
+                spill();
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+
+            while (buf.hasRemaining())
+                ch.write(buf);
+
+            size += len;
+        }
+
+        private void spill() throws IOException {
+            Path f = createTempFile(dir);
+            FileChannel c = null;
+
+            try {
+                c = FileChannel.open(f, StandardOpenOption.WRITE);
+                mem.writeTo(Channels.newOutputStream(c));
+            } catch (IOException e) {
+                if (c != null)
+                    c.close();
+
+                Files.deleteIfExists(f);
+                throw e;
+            }
+
+            file = f;
+            ch = c;
+            mem = null;
+
+            budget.release(reserved);
+            reserved = 0;
+        }
+
+        /**
+         * @return Collected body, released by its owner.
+         * @throws IOException If failed to complete file.
+         */
+        RequestBody build() throws IOException {
+            if (file == null)
+                return new RequestBody(mem.toByteArray(), null, size, budget, reserved);
+
+            try {
+                ch.close();
+            } catch (IOException e) {
+                discard();
+                throw e;
+            }
+
+            return new RequestBody(null, file, size, budget, 0);
+        }
+
+        /**
+         * Drops body never built: returns its memory to budget and deletes temporary file.
+         */
+        void discard() {
+            budget.release(reserved);
+            reserved = 0;
+            mem = null;
+
+            if (file != null) {
+                try {
+                    ch.close();
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {
+                    // Temporary directory is cleaned up by OS.
+                }
+            }
+        }
+    }
+}
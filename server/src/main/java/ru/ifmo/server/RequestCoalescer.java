@@ -0,0 +1,130 @@
+package ru.ifmo.server;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent identical {@code GET} requests to configured routes (single-flight):
+ * first request of a key runs handler, requests of the same key arriving while it runs
+ * wait for it and get the same response bytes.
+ * <p>
+ * Key is the response cache key plus content encoding, so waiters get exactly what
+ * they would get from the handler. Response setting cookies, e.g. of new session,
+ * is not shared. Waiter runs handler itself if leader didn't finish in time, failed
+ * or its response can't be shared.
+ * </p>
+ */
+class RequestCoalescer {
+    private final Set<String> routes;
+    private final Collection<String> keyHeaders;
+    private final long timeout;
+
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * @param routes Coalesced routes.
+     * @param keyHeaders Request headers which values are part of the key.
+     * @param timeout Max time in milliseconds to wait for leader.
+     */
+    RequestCoalescer(Set<String> routes, Collection<String> keyHeaders, long timeout) {
+        this.routes = routes;
+        this.keyHeaders = keyHeaders;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param req Request with resolved route.
+     * @return {@code True} if request is coalesced.
+     */
+    boolean appliesTo(Request req) {
+        return req.method == HttpMethod.GET && routes.contains(req.route);
+    }
+
+    /**
+     * @param req Request.
+     * @param compress Whether client gets compressed response.
+     * @return Key.
+     */
+    String key(Request req, boolean compress) {
+        String key = ResponseCache.key(req, keyHeaders);
+
+        return compress ? key + "\ncompressed" : key;
+    }
+
+    /**
+     * @param key Key.
+     * @return Flight in progress or {@code null} if caller leads new flight and must {@link #complete} it.
+     */
+    Flight join(String key) {
+        return flights.putIfAbsent(key, new Flight());
+    }
+
+    /**
+     * Waits for leader.
+     *
+     * @param flight Flight in progress.
+     * @return Completed flight with shared response or {@code null} if caller should run handler itself.
+     * @throws InterruptedException If interrupted.
+     */
+    Flight await(Flight flight) throws InterruptedException {
+        if (!flight.done.await(timeout, TimeUnit.MILLISECONDS)) {
+            timeouts.increment();
+
+            return null;
+        }
+
+        if (flight.response == null)
+            return null;
+
+        coalesced.increment();
+
+        return flight;
+    }
+
+    /**
+     * Completes caller's flight and releases waiters.
+     *
+     * @param key Key.
+     * @param status Response status.
+     * @param response Complete HTTP response or {@code null} if it can't be shared.
+     */
+    void complete(String key, int status, byte[] response) {
+        Flight flight = flights.remove(key);
+
+        flight.status = status;
+        flight.response = response;
+        flight.done.countDown();
+    }
+
+    /**
+     * @return Requests served with response of concurrent identical request.
+     */
+    long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Requests which ran handler after waiting too long for leader.
+     */
+    long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    static class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /** Published by latch. */
+        int status;
+
+        /** Complete HTTP response or {@code null} if it can't be shared. */
+        byte[] response;
+    }
+}
@@ -0,0 +1,307 @@
+package ru.ifmo.server;
+
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request target of request line: raw path and query split once, path is
+ * percent-decoded and cleared of dot-segments (RFC 3986, section 5.2.4) on first
+ * access only.
+ * <p>
+ * Unlike {@link java.net.URI} target is not fully validated: unescaped characters
+ * common in real-world targets, like {@code |} or {@code "}, are accepted, only
+ * control characters, malformed percent-encoding and encoded separators
+ * ({@code %2F}, {@code %5C}, {@code %00}) are rejected.
+ * </p>
+ * <p>
+ * Decoded paths of recently requested targets are kept in a small direct-mapped
+ * cache, so request to a hot route doesn't allocate path string at all.
+ * </p>
+ */
+final class RequestTarget {
+    private static final int CACHE_BITS = 8;
+
+    /** Max length of cached path. */
+    private static final int MAX_CACHED_LENGTH = 256;
+
+    /**
+     * Raw and decoded paths by hash of raw path. Entries are immutable and replaced
+     * without synchronization, racing readers see either of them.
+     */
+    private static final PathEntry[] CACHE = new PathEntry[1 << CACHE_BITS];
+
+    private final String rawPath;
+    private final String rawQuery;
+
+    /** Decoded path, racy single-check caching of immutable value. */
+    private String path;
+
+    private RequestTarget(String rawPath, String rawQuery, String path) {
+        this.rawPath = rawPath;
+        this.rawQuery = rawQuery;
+        this.path = path;
+    }
+
+    /**
+     * Parses request target in origin form ({@code /path?query}), absolute form
+     * ({@code http://host/path?query}) or asterisk form ({@code *}). Fragment is ignored.
+     *
+     * @param s Chars.
+     * @param from Target start.
+     * @param to Target end, exclusive.
+     * @return Request target.
+     * @throws URISyntaxException If target is malformed.
+     */
+    static RequestTarget parse(CharSequence s, int from, int to) throws URISyntaxException {
+        if (from >= to)
+            throw new URISyntaxException("", "Empty request target");
+
+        int pathStart = from;
+        char first = s.charAt(from);
+
+        if (first != '/' && first != '*')
+            pathStart = skipAuthority(s, from, to);
+
+        int queryStart = -1;
+        int end = to;
+
+        for (int i = pathStart; i < to; i++) {
+            char c = s.charAt(i);
+
+            if (c <= ' ' || c == 0x7f)
+                throw new URISyntaxException(s.subSequence(from, to).toString(), "Illegal character", i - from);
+
+            if (c == '%') {
+                int b = i + 2 < to ? decodeByte(s, i) : -1;
+
+                if (b < 0)
+                    throw new URISyntaxException(s.subSequence(from, to).toString(), "Malformed escape", i - from);
+
+                if (queryStart < 0 && (b == '/' || b == '\\' || b == 0))
+                    throw new URISyntaxException(s.subSequence(from, to).toString(), "Encoded separator", i - from);
+
+                i += 2;
+            } else if (c == '?' && queryStart < 0)
+                queryStart = i + 1;
+            else if (c == '#') {
+                end = i;
+                break;
+            }
+        }
+
+        int pathEnd = queryStart < 0 ? end : queryStart - 1;
+        String query = queryStart < 0 ? null : s.subSequence(queryStart, end).toString();
+
+        if (pathStart == pathEnd)
+            return new RequestTarget("/", query, "/"); // Absolute form without path.
+
+        PathEntry e = CACHE[slot(hash(s, pathStart, pathEnd))];
+
+        if (e != null && regionEquals(e.raw, s, pathStart, pathEnd))
+            return new RequestTarget(e.raw, query, e.decoded);
+
+        return new RequestTarget(s.subSequence(pathStart, pathEnd).toString(), query, null);
+    }
+
+    /**
+     * @return Percent-decoded path without dot-segments.
+     */
+    String getPath() {
+        String p = path;
+
+        if (p == null) {
+            path = p = normalize(rawPath);
+
+            if (rawPath.length() <= MAX_CACHED_LENGTH)
+                CACHE[slot(rawPath.hashCode())] = new PathEntry(rawPath, p);
+        }
+
+        return p;
+    }
+
+    /**
+     * @return Path as sent by client.
+     */
+    String getRawPath() {
+        return rawPath;
+    }
+
+    /**
+     * @return Query as sent by client or {@code null}.
+     */
+    String getRawQuery() {
+        return rawQuery;
+    }
+
+    /**
+     * @param s Percent-encoded string.
+     * @param from Start.
+     * @param to End, exclusive.
+     * @param plus Whether {@code +} is decoded as space, as in {@code application/x-www-form-urlencoded}.
+     * @return Decoded string, substring if it has no escapes. Malformed escapes are kept as is.
+     */
+    static String decode(String s, int from, int to, boolean plus) {
+        int esc = from;
+
+        while (esc < to && s.charAt(esc) != '%' && (!plus || s.charAt(esc) != '+'))
+            esc++;
+
+        if (esc == to)
+            return from == 0 && to == s.length() ? s : s.substring(from, to);
+
+        StringBuilder sb = new StringBuilder(to - from).append(s, from, esc);
+        byte[] buf = null;
+        int i = esc;
+
+        while (i < to) {
+            char c = s.charAt(i);
+
+            if (c == '+' && plus) {
+                sb.append(' ');
+                i++;
+
+                continue;
+            }
+
+            int n = 0;
+            int b;
+
+            while (i + 2 < to && s.charAt(i) == '%' && (b = decodeByte(s, i)) >= 0) {
+                if (buf == null)
+                    buf = new byte[(to - i) / 3];
+
+                buf[n++] = (byte) b;
+                i += 3;
+            }
+
+            if (n > 0)
+                sb.append(new String(buf, 0, n, StandardCharsets.UTF_8));
+            else
+                sb.append(s.charAt(i++));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Decodes path segments and removes dot-segments.
+     */
+    private static String normalize(String raw) {
+        if (raw.charAt(0) != '/')
+            return raw; // Asterisk form.
+
+        if (raw.indexOf('%') < 0 && raw.indexOf("/.") < 0)
+            return raw;
+
+        StringBuilder sb = new StringBuilder(raw.length());
+        int len = raw.length();
+        int start = 1;
+
+        while (start <= len) {
+            int end = raw.indexOf('/', start);
+
+            if (end < 0)
+                end = len;
+
+            String seg = decode(raw, start, end, false);
+            boolean last = end == len;
+
+            if (seg.equals("..")) {
+                int slash = sb.lastIndexOf("/");
+
+                sb.setLength(Math.max(slash, 0));
+            }
+
+            if (seg.equals(".") || seg.equals("..")) {
+                if (last)
+                    sb.append('/');
+            } else
+                sb.append('/').append(seg);
+
+            start = end + 1;
+        }
+
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    /**
+     * @return Index of path of absolute form target.
+     */
+    private static int skipAuthority(CharSequence s, int from, int to) throws URISyntaxException {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+
+            if (c == ':') {
+                if (i == from || i + 2 >= to || s.charAt(i + 1) != '/' || s.charAt(i + 2) != '/')
+                    break;
+
+                for (int j = i + 3; j < to; j++) {
+                    char a = s.charAt(j);
+
+                    if (a == '/' || a == '?' || a == '#')
+                        return j;
+                }
+
+                return to;
+            }
+
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.')
+                break;
+        }
+
+        throw new URISyntaxException(s.subSequence(from, to).toString(), "Request target must be absolute path or URI");
+    }
+
+    /**
+     * @return Byte of escape at {@code i} or {@code -1} if it's malformed.
+     */
+    private static int decodeByte(CharSequence s, int i) {
+        int hi = Character.digit(s.charAt(i + 1), 16);
+        int lo = Character.digit(s.charAt(i + 2), 16);
+
+        return hi < 0 || lo < 0 ? -1 : hi << 4 | lo;
+    }
+
+    /**
+     * @return Hash equal to {@link String#hashCode()} of the region.
+     */
+    private static int hash(CharSequence s, int from, int to) {
+        int h = 0;
+
+        for (int i = from; i < to; i++)
+            h = 31 * h + s.charAt(i);
+
+        return h;
+    }
+
+    private static int slot(int h) {
+        return (h ^ (h >>> 16)) & (CACHE.length - 1);
+    }
+
+    private static boolean regionEquals(String str, CharSequence s, int from, int to) {
+        if (str.length() != to - from)
+            return false;
+
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) != s.charAt(from + i))
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return rawQuery == null ? rawPath : rawPath + '?' + rawQuery;
+    }
+
+    private static class PathEntry {
+        final String raw;
+        final String decoded;
+
+        PathEntry(String raw, String decoded) {
+            this.raw = raw;
+            this.decoded = decoded;
+        }
+    }
+}
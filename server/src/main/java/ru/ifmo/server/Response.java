@@ -16,20 +16,30 @@ import static ru.ifmo.server.Http.CONTENT_TYPE;
 public class Response {
 
     final Socket socket;
+    private final OutputStream socketOut;
     int statusCode;
-    Map<String, String> headers;
+    Headers headers;
     ByteArrayOutputStream byteOut;
     Writer printWriter;
     Map<String, Cookie> cookieMap;
 
     Response(Socket socket) {
+        this(socket, null);
+    }
+
+    /**
+     * @param socket Client socket.
+     * @param socketOut Stream to write response to instead of socket output stream.
+     */
+    Response(Socket socket, OutputStream socketOut) {
         this.socket = socket;
+        this.socketOut = socketOut;
     }
     public void setContentType (String s){
-        getHeaders().put(CONTENT_TYPE, s);
+        setHeader(CONTENT_TYPE, s);
     }
     public void setContentLength(long len){
-        getHeaders().put(CONTENT_LENGTH, String.valueOf(len));
+        setHeader(CONTENT_LENGTH, String.valueOf(len));
     }
     public void setStatusCode (int c){
         if (c < Http.SC_CONTINUE || c > Http.SC_NOT_IMPLEMENTED)
@@ -40,10 +50,13 @@ public class Response {
     public void setHeaders (Map<String, String> h){
         getHeaders().putAll(h);
     }
+    /**
+     * @return Modifiable view of headers with case-insensitive names.
+     */
     public Map<String, String> getHeaders() {
         if(headers == null){
-            headers = new HashMap<>();}
-        return headers;
+            headers = new Headers();}
+        return headers.asMap();
     }
     public int getStatusCode (){
         return statusCode;
@@ -56,11 +69,24 @@ public class Response {
         cookieMap.put(cookie.getKey(), cookie);
     }
 
+    /**
+     * Sets header replacing all its values.
+     */
     public void setHeader(String key, String val) {
         if (headers == null) {
-            headers = new HashMap<>();
+            headers = new Headers();
         }
-        headers.put(key, val);
+        headers.set(key, val);
+    }
+
+    /**
+     * Adds header value keeping previous ones, e.g. for {@code Vary} or {@code Link}.
+     */
+    public void addHeader(String key, String val) {
+        if (headers == null) {
+            headers = new Headers();
+        }
+        headers.add(key, val);
     }
 
     /**
@@ -68,6 +94,9 @@ public class Response {
      */
     // OutputStream для Server для отправки сформированного ответа
     OutputStream getSocketOutputStream() {
+        if (socketOut != null)
+            return socketOut;
+
         try {
             return socket.getOutputStream();
         } catch (IOException e) {
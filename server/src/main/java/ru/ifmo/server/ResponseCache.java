@@ -0,0 +1,357 @@
+package ru.ifmo.server;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of handler responses to {@code GET} requests, bounded by bytes with LRU eviction.
+ * <p>
+ * Only responses handler marked cacheable with {@code Cache-Control: max-age} or
+ * {@code s-maxage} are stored, {@code no-store}, {@code no-cache} and {@code private}
+ * responses and responses setting cookies are not. Key consists of path, all values of
+ * arguments sorted by name and values of configured request headers.
+ * </p>
+ * <p>
+ * Entry keeps handler output and lazily encoded complete HTTP responses, one per
+ * content encoding, so cache hit is a single write of ready bytes. Entry past
+ * {@code max-age} but within {@code stale-while-revalidate} is still served while
+ * one background refresh is running.
+ * </p>
+ */
+class ResponseCache {
+    /** Estimated memory of entry besides body and encoded responses. */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    /** Encoded response variants. */
+    private static final int IDENTITY = 0;
+    private static final int COMPRESSED = 1;
+
+    private final long maxBytes;
+    private final Collection<String> keyHeaders;
+
+    /* Guarded by {@code this}. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * @param maxBytes Max estimated memory.
+     * @param keyHeaders Request headers which values are part of the key.
+     */
+    ResponseCache(long maxBytes, Collection<String> keyHeaders) {
+        this.maxBytes = maxBytes;
+        this.keyHeaders = keyHeaders;
+    }
+
+    /**
+     * @param req Request.
+     * @return Cache key.
+     */
+    String key(Request req) {
+        return key(req, keyHeaders);
+    }
+
+    /**
+     * @param req Request.
+     * @param keyHeaders Request headers which values are part of the key.
+     * @return Key of path, all values of arguments sorted by name and header values. Each
+     * component is prefixed with its length, so different requests never share a key
+     * whatever characters decoded components contain.
+     */
+    static String key(Request req, Collection<String> keyHeaders) {
+        StringBuilder sb = new StringBuilder();
+
+        component(sb, req.getPath());
+
+        for (String name : new TreeSet<>(req.getArguments().keySet())) {
+            component(sb.append('&'), name);
+
+            for (String val : req.getArgumentValues(name))
+                component(sb.append('='), val);
+        }
+
+        for (String name : keyHeaders)
+            component(component(sb.append('\n'), name), req.getHeader(name));
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends {@code length:value} or {@code -} for {@code null}.
+     */
+    private static StringBuilder component(StringBuilder sb, String val) {
+        return val == null ? sb.append('-') : sb.append(val.length()).append(':').append(val);
+    }
+
+    /**
+     * @param key Key.
+     * @param now Current {@link System#nanoTime()}.
+     * @return Fresh entry, stale entry within revalidation window or {@code null}.
+     */
+    Entry get(String key, long now) {
+        Entry e;
+
+        synchronized (this) {
+            e = entries.get(key);
+
+            if (e != null && now - e.staleUntil >= 0) {
+                remove0(key);
+                e = null;
+            }
+        }
+
+        if (e == null)
+            misses.increment();
+        else if (e.isFresh(now))
+            hits.increment();
+        else
+            staleHits.increment();
+
+        return e;
+    }
+
+    /**
+     * Stores handler response if it's cacheable.
+     *
+     * @param key Key.
+     * @param req Request.
+     * @param resp Response filled by handler, not prepared for sending yet.
+     * @return {@code True} if response was stored.
+     * @throws IOException If failed to flush response writer.
+     */
+    boolean put(String key, Request req, Response resp) throws IOException {
+        int status = resp.getStatusCode() == 0 ? Http.SC_OK : resp.getStatusCode();
+
+        if (status != Http.SC_OK || req.isNewSession() || (resp.cookieMap != null && !resp.cookieMap.isEmpty()))
+            return false;
+
+        String cacheControl = resp.headers == null ? null : resp.headers.get(Http.CACHE_CONTROL);
+        long[] ttl = parseCacheControl(cacheControl);
+
+        if (ttl == null)
+            return false;
+
+        if (resp.printWriter != null)
+            resp.printWriter.flush();
+
+        byte[] body = resp.byteOut == null ? null : resp.byteOut.toByteArray();
+        long now = System.nanoTime();
+
+        Entry e = new Entry(key, status, new Headers(resp.headers), body,
+            now + TimeUnit.SECONDS.toNanos(ttl[0]), now + TimeUnit.SECONDS.toNanos(ttl[0] + ttl[1]),
+            key.length() * 2 + (body == null ? 0 : body.length) + ENTRY_OVERHEAD);
+
+        synchronized (this) {
+            remove0(key);
+
+            entries.put(key, e);
+            weight += e.weight;
+
+            evict();
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes entry if it wasn't replaced.
+     */
+    synchronized void remove(String key, Entry e) {
+        if (entries.get(key) == e)
+            remove0(key);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * @return Number of entries.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Estimated memory of entries.
+     */
+    synchronized long getWeight() {
+        return weight;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * Accounts response encoded after entry was stored.
+     */
+    private synchronized void onEncoded(Entry e, int len) {
+        e.weight += len;
+
+        if (entries.get(e.key) == e) {
+            weight += len;
+            evict();
+        }
+    }
+
+    private void remove0(String key) {
+        Entry old = entries.remove(key);
+
+        if (old != null)
+            weight -= old.weight;
+    }
+
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+
+        while (weight > maxBytes && it.hasNext()) {
+            Entry e = it.next();
+
+            it.remove();
+            weight -= e.weight;
+            evicted.increment();
+        }
+    }
+
+    /**
+     * @return Time to live and stale-while-revalidate window in seconds
+     * or {@code null} if response must not be cached.
+     */
+    static long[] parseCacheControl(String val) {
+        if (val == null)
+            return null;
+
+        long maxAge = -1;
+        long sMaxAge = -1;
+        long swr = 0;
+
+        for (String dir : val.split(",")) {
+            dir = dir.trim().toLowerCase();
+
+            if (dir.equals("no-store") || dir.equals("no-cache") || dir.equals("private"))
+                return null;
+
+            int eq = dir.indexOf('=');
+
+            if (eq < 0)
+                continue;
+
+            String name = dir.substring(0, eq).trim();
+            long num;
+
+            try {
+                num = Long.parseLong(dir.substring(eq + 1).trim().replace("\"", ""));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            if (name.equals("max-age"))
+                maxAge = num;
+            else if (name.equals("s-maxage"))
+                sMaxAge = num;
+            else if (name.equals("stale-while-revalidate"))
+                swr = Math.max(0, num);
+        }
+
+        long ttl = sMaxAge >= 0 ? sMaxAge : maxAge;
+
+        return ttl > 0 ? new long[] {ttl, swr} : null;
+    }
+
+    /**
+     * Response encoder, see {@link Server#encode(ResponseCache.Entry, boolean)}.
+     */
+    interface Encoder {
+        byte[] encode(Entry e, boolean compress) throws IOException;
+    }
+
+    class Entry {
+        final String key;
+        final int status;
+        final Headers headers;
+        final byte[] body;
+        final long expires;
+        final long staleUntil;
+
+        /** Guarded by cache. */
+        long weight;
+
+        private final AtomicReferenceArray<byte[]> encoded = new AtomicReferenceArray<>(2);
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(String key, int status, Headers headers, byte[] body, long expires, long staleUntil,
+            long weight) {
+            this.key = key;
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.expires = expires;
+            this.staleUntil = staleUntil;
+            this.weight = weight;
+        }
+
+        boolean isFresh(long now) {
+            return now - expires < 0;
+        }
+
+        /**
+         * @return {@code True} if caller should refresh the entry, only one caller gets it.
+         */
+        boolean startRefresh() {
+            return refreshing.compareAndSet(false, true);
+        }
+
+        /**
+         * Allows another refresh attempt after failed one.
+         */
+        void refreshFailed() {
+            refreshing.set(false);
+        }
+
+        /**
+         * @param compress Whether client gets compressed response.
+         * @param enc Encoder used on first request of the variant.
+         * @return Complete HTTP response.
+         */
+        byte[] encoded(boolean compress, Encoder enc) throws IOException {
+            int idx = compress ? COMPRESSED : IDENTITY;
+            byte[] res = encoded.get(idx);
+
+            if (res == null) {
+                res = enc.encode(this, compress);
+
+                if (encoded.compareAndSet(idx, null, res))
+                    onEncoded(this, res.length);
+                else
+                    res = encoded.get(idx);
+            }
+
+            return res;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ru.ifmo.server;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Default session ID generator. Encodes random bytes as base64url string
+ * (RFC 4648 alphabet without padding), so every ID is valid cookie value.
+ * <p>
+ * Each thread owns {@link SecureRandom} instance and fetches random bytes for
+ * several IDs at once, threads never contend on shared generator.
+ * </p>
+ */
+public class SecureSessionIdGenerator implements SessionIdGenerator {
+    /** Default number of random bytes in ID, gives 192 bits of entropy and 32 chars. */
+    public static final int DFLT_ID_BYTES = 24;
+
+    /** Number of IDs which random bytes are fetched at once. */
+    private static final int BATCH = 32;
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private final int idBytes;
+    private final int idChars;
+    private final ThreadLocal<State> state;
+
+    public SecureSessionIdGenerator() {
+        this(DFLT_ID_BYTES);
+    }
+
+    /**
+     * @param idBytes Number of random bytes in ID.
+     */
+    public SecureSessionIdGenerator(int idBytes) {
+        if (idBytes <= 0)
+            throw new IllegalArgumentException("Session ID length must be positive: " + idBytes);
+
+        this.idBytes = idBytes;
+        this.idChars = (idBytes * 8 + 5) / 6;
+        this.state = ThreadLocal.withInitial(State::new);
+    }
+
+    @Override
+    public String generate() {
+        State s = state.get();
+
+        if (s.pos == s.bytes.length) {
+            s.rnd.nextBytes(s.bytes);
+            s.pos = 0;
+        }
+
+        byte[] b = s.bytes;
+        char[] c = s.chars;
+        int i = s.pos;
+        int end = i + idBytes;
+        int j = 0;
+
+        for (; i + 3 <= end; i += 3) {
+            int v = (b[i] & 0xFF) << 16 | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF);
+
+            c[j++] = ALPHABET[v >>> 18];
+            c[j++] = ALPHABET[(v >>> 12) & 0x3F];
+            c[j++] = ALPHABET[(v >>> 6) & 0x3F];
+            c[j++] = ALPHABET[v & 0x3F];
+        }
+
+        if (i < end) {
+            int v = (b[i] & 0xFF) << 16 | (i + 1 < end ? (b[i + 1] & 0xFF) << 8 : 0);
+
+            c[j++] = ALPHABET[v >>> 18];
+            c[j++] = ALPHABET[(v >>> 12) & 0x3F];
+
+            if (i + 1 < end)
+                c[j++] = ALPHABET[(v >>> 6) & 0x3F];
+        }
+
+        s.pos = end;
+
+        return new String(c, 0, idChars);
+    }
+
+    private class State {
+        final SecureRandom rnd = newRandom();
+        final byte[] bytes = new byte[idBytes * BATCH];
+        final char[] chars = new char[idChars];
+        int pos = bytes.length;
+    }
+
+    private static SecureRandom newRandom() {
+        try {
+            // Unlike default NativePRNG, SHA1PRNG instances share no lock.
+            // Instance seeds itself from system entropy on first use.
+            return SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ru.ifmo.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Codec based on Java serialization, values must implement {@link java.io.Serializable}.
+ * <p>
+ * Only allowed classes are deserialized, so data coming from other nodes or files can't
+ * instantiate arbitrary classes. By default strings, boxed primitives, numbers, dates and
+ * collections of {@code java.util} are allowed, application classes must be listed explicitly.
+ * </p>
+ */
+public class SerializableSessionDataCodec implements SessionDataCodec {
+    /** Classes and packages allowed by default. */
+    public static final List<String> DFLT_ALLOWED = Arrays.asList(
+        "java.lang.String", "java.lang.Boolean", "java.lang.Character", "java.lang.Number", "java.lang.Byte",
+        "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+        "java.lang.Enum", "java.math.*", "java.time.*", "java.util.*");
+
+    private final List<String> allowed;
+
+    /**
+     * @param allowed Names of classes allowed in addition to default ones, name ending with
+     *                {@code .*} allows all classes of the package, e.g. {@code com.example.*}.
+     */
+    public SerializableSessionDataCodec(String... allowed) {
+        this.allowed = new ArrayList<>(DFLT_ALLOWED);
+        this.allowed.addAll(Arrays.asList(allowed));
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        } catch (IOException e) {
+            throw new SessionException("Unable to serialize session value", e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] data) {
+        try (ObjectInputStream in = new AllowListInputStream(data)) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new SessionException("Unable to deserialize session value", e);
+        }
+    }
+
+    /**
+     * @param name Class name as returned by {@link Class#getName()}.
+     * @return {@code True} if class may be deserialized.
+     */
+    boolean isAllowed(String name) {
+        int dims = 0;
+
+        while (dims < name.length() && name.charAt(dims) == '[')
+            dims++;
+
+        if (dims > 0) {
+            // Primitive arrays are allowed, element class of object array is checked.
+            if (name.charAt(dims) != 'L')
+                return true;
+
+            name = name.substring(dims + 1, name.length() - 1);
+        }
+
+        int pkgEnd = name.lastIndexOf('.');
+
+        for (String a : allowed) {
+            if (a.endsWith(".*") ? pkgEnd == a.length() - 2 && name.startsWith(a.substring(0, pkgEnd + 1)) :
+                a.equals(name))
+                return true;
+        }
+
+        return false;
+    }
+
+    private class AllowListInputStream extends ObjectInputStream {
+        AllowListInputStream(byte[] data) throws IOException {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName()))
+                throw new InvalidClassException(desc.getName(), "Class is not allowed in session data");
+
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed in session data");
+        }
+    }
+}
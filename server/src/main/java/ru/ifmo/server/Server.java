@@ -2,19 +2,31 @@ package ru.ifmo.server;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.ifmo.server.http2.Http2;
+import ru.ifmo.server.log.AccessLog;
+import ru.ifmo.server.metrics.ServerMetrics;
+import ru.ifmo.server.util.CountingInputStream;
+import ru.ifmo.server.util.CountingOutputStream;
 import ru.ifmo.server.util.Utils;
 
 import java.io.*;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -54,37 +66,177 @@ public class Server implements Closeable {
     private static final char LF = '\n';
     private static final char CR = '\r';
     private static final String CRLF = "" + CR + LF;
-    private static final char AMP = '&';
-    private static final char EQ = '=';
     private static final char HEADER_VALUE_SEPARATOR = ':';
     private static final char SPACE = ' ';
     private static final int READER_BUF_SIZE = 1024;
 
+    /** Interval of checking connections for completion during shutdown. */
+    private static final long DRAIN_POLL_MILLIS = 10;
+
+    /** Max time to wait for acceptor threads on stop. */
+    private static final long ACCEPTOR_STOP_MILLIS = 5_000;
+
+    /** Max bytes of rejected request body read before connection is closed. */
+    private static final int MAX_DISCARDED_BODY = 1024 * 1024;
+
+    /** Max time to wait for the rest of rejected request body. */
+    private static final int DISCARD_TIMEOUT_MILLIS = 2_000;
+
+    private static final String CONTINUE_EXPECTATION = "100-continue";
+
+    /** Interim response letting client send request body. */
+    private static final byte[] CONTINUE = ("HTTP/1.0 " + SC_CONTINUE + " Continue" + CRLF + CRLF)
+        .getBytes(StandardCharsets.US_ASCII);
+
+    /** Response to connections over per client limit, encoded once. */
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.0 " + SC_SERVICE_UNAVAILABLE + " Service Unavailable" +
+        CRLF + CONNECTION + ": close" + CRLF + CONTENT_TYPE + ": " + TEXT_HTML + CRLF + CRLF +
+        htmlMessage(SC_SERVICE_UNAVAILABLE + " Too many connections")).getBytes(StandardCharsets.US_ASCII);
+
+    /** Rate limited response is encoded once, except for {@code Retry-After} value between head and tail. */
+    private static final byte[] TOO_MANY_REQUESTS_HEAD = ("HTTP/1.0 " + SC_TOO_MANY_REQUESTS + " Too Many Requests" +
+        CRLF + RETRY_AFTER + ": ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOO_MANY_REQUESTS_TAIL = (CRLF + CONNECTION + ": close" + CRLF + CONTENT_TYPE + ": " +
+        TEXT_HTML + CRLF + CRLF + htmlMessage(SC_TOO_MANY_REQUESTS + " Too many requests"))
+        .getBytes(StandardCharsets.US_ASCII);
+
     private final ServerConfig config;
     private ServerSocket socket;
+    private ServerSocket httpsSocket;
+    private TlsContext tls;
     private ExecutorService acceptorPool;
     private ExecutorService connectionProcessingPool;
     private Map<String, ReflectHandler> classHandlers;
     private static final Logger LOG = LoggerFactory.getLogger(Server.class);
     private Thread killSess;
-    private Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private SessionKiller sessionKiller;
+    private final SessionStore sessions;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private AccessLog accessLog;
+
+    /** Open connections, tracked to drain them on stop. */
+    private final Set<NewConnection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopping;
+    private final LongAdder drainedRequests = new LongAdder();
+    private final LongAdder abortedRequests = new LongAdder();
+    private final ConnectionLimiter limiter;
+    private final RateLimiter rateLimiter;
+    private final ResponseCache responseCache;
+    private final RequestCoalescer coalescer;
+
+    /** Memory of buffered request bodies. */
+    private final MemoryBudget bodyBudget;
+
+    /** Directory of temporary files of request bodies or {@code null} for default one. */
+    private final Path uploadDir;
 
     private Server(ServerConfig config) {
         this.config = new ServerConfig(config);
+        limiter = new ConnectionLimiter(this.config.getMaxConnections(), this.config.getMaxConnectionsPerClient());
+        rateLimiter = this.config.getRateLimits().isEmpty() ? null :
+            new RateLimiter(this.config.getRateLimits(), this.config.getRateLimitMaxKeys());
+        responseCache = this.config.getResponseCacheSize() > 0 ?
+            new ResponseCache(this.config.getResponseCacheSize(), this.config.getResponseCacheKeyHeaders()) : null;
+        coalescer = this.config.getCoalescedRoutes().isEmpty() ? null :
+            new RequestCoalescer(this.config.getCoalescedRoutes(), this.config.getResponseCacheKeyHeaders(),
+                this.config.getCoalesceTimeout());
+        bodyBudget = new MemoryBudget(this.config.getMaxBufferedBodyMemory());
+        uploadDir = this.config.getUploadDirectory() == null ? null : Paths.get(this.config.getUploadDirectory());
         classHandlers = new HashMap<>();
+        sessions = createSessionStore(this.config);
+
+        if (this.config.getMetricsPath() != null)
+            this.config.addHandler(this.config.getMetricsPath(), new MetricsHandler());
+    }
+
+    private static SessionStore createSessionStore(ServerConfig config) {
+        SessionStore store = config.getSessionStore() != null ? config.getSessionStore() : new InMemorySessionStore();
+
+        if (config.getMaxSessions() > 0 || config.getMaxSessionMemory() > 0) {
+            if (store.isSelfExpiring())
+                throw new ServerException("Session limits can't be applied to " + store.getClass().getSimpleName() +
+                    ", configure limits of the store itself");
+
+            store = new EvictingSessionStore(store, config.getMaxSessions(), config.getMaxSessionMemory());
+        }
+
+        return store;
     }
 
     void setSessions(String key, Session session) {
-        sessions.put(key, session);
+        assert key.equals(session.getId());
+
+        sessions.put(session);
+
+        if (!sessions.isSelfExpiring())
+            sessionKiller.schedule(session);
     }
 
     void removeSession(String key) {
-        sessions.remove(key);
+        Session session = sessions.remove(key);
+
+        if (session != null)
+            session.setExpired(true);
+    }
+
+    /**
+     * Creates and registers new session.
+     */
+    Session openSession() {
+        String id = config.getSessionIdGenerator().generate();
+        Session session = new Session(id, config.getSessionTimeout());
+        setSessions(id, session);
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("New session opened " + id);
+
+        return session;
+    }
+
+    /**
+     * Looks up live session and prolongs it. Sessions which timed out
+     * but weren't swept yet are removed here.
+     *
+     * @param id Session ID.
+     * @return Session or {@code null} if not found or expired.
+     */
+    Session findSession(String id) {
+        Session session = sessions.get(id);
+
+        if (session == null)
+            return null;
+
+        if (session.isExpired(System.nanoTime())) {
+            session.setExpired(true);
+            sessions.expire(session);
+            return null;
+        }
+
+        session.touch();
+        sessions.touch(session);
+        return session;
+    }
+
+    /**
+     * @return Session expiry statistics.
+     */
+    public SessionStats getSessionStats() {
+        return sessionKiller == null ? new SessionStats(sessions) : sessionKiller.getStats();
     }
 
     private void startSessionKiller() {
-        SessionKiller sessionKiller = new SessionKiller(sessions);
-        killSess = new Thread(sessionKiller);
+        sessionKiller = new SessionKiller(sessions);
+
+        if (!sessions.isSelfExpiring())
+            sessions.setScheduler(sessionKiller::schedule);
+
+        for (Session session : sessions.start()) {
+            if (!sessions.isSelfExpiring())
+                sessionKiller.schedule(session);
+        }
+
+        killSess = new Thread(sessionKiller, "session-killer");
+        killSess.setDaemon(true);
         killSess.start();
 
         LOG.info("Session killer process started, session will be deleted by timeout.");
@@ -117,14 +269,19 @@ public class Server implements Closeable {
             Server server = new Server(config);
             server.addHandlerClass(config.getHandlerClasses());
             server.scanHandlersClass(config.getClasses());
+            if (server.config.isSessionsEnabled())
+                server.startSessionKiller();
             server.openConnection();
-            server.startAcceptor();
             server.connectionProcessingPool = Executors.newCachedThreadPool();
+            server.registerGauges();
+            server.startAccessLog();
+            server.startAcceptor();
             LOG.info("Server started on port: {}", config.getPort());
-            server.startSessionKiller();
+            if (server.httpsSocket != null)
+                LOG.info("HTTPS listener started on port: {}", config.getHttpsPort());
             return server;
         } catch (IOException e) {
-            throw new ServerException("Cannot start server on port: " + config.getPort());
+            throw new ServerException("Cannot start server on port: " + config.getPort(), e);
         }
     }
 
@@ -166,27 +323,174 @@ public class Server implements Closeable {
 
 
     private void openConnection() throws IOException {
-        socket = new ServerSocket(config.getPort());
+        socket = new ServerSocket(config.getPort(), config.getBacklog());
+
+        if (config.getHttpsPort() > 0) {
+            tls = TlsContext.create(config);
+            httpsSocket = new ServerSocket(config.getHttpsPort(), config.getBacklog());
+        }
+    }
+
+    private void registerGauges() {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) connectionProcessingPool;
+
+        metrics.registerGauge("http_worker_queue_depth", "Connections waiting for worker thread.",
+            () -> pool.getQueue().size());
+        metrics.registerGauge("http_worker_threads_active", "Worker threads processing connections.",
+            pool::getActiveCount);
+        metrics.registerGauge("http_connections_open", "Accepted connections counted against connection limit.",
+            limiter::getOpen);
+        metrics.registerGauge("http_accept_paused", "Acceptors waiting for connection limit.", limiter::getPaused);
+        metrics.registerGauge("http_buffered_body_bytes", "Memory used by buffered request bodies.",
+            bodyBudget::getUsed);
+
+        if (config.isSessionsEnabled())
+            metrics.registerGauge("http_sessions_active", "Live sessions.", sessions::size);
+
+        if (responseCache != null) {
+            metrics.registerGauge("http_response_cache_bytes", "Estimated memory of cached responses.",
+                responseCache::getWeight);
+            metrics.registerGauge("http_response_cache_hits", "Requests served from cache.", responseCache::getHits);
+            metrics.registerGauge("http_response_cache_stale_hits", "Requests served from stale cache entry.",
+                responseCache::getStaleHits);
+            metrics.registerGauge("http_response_cache_misses", "Cacheable requests passed to handler.",
+                responseCache::getMisses);
+            metrics.registerGauge("http_response_cache_evicted", "Cache entries evicted to fit size limit.",
+                responseCache::getEvicted);
+        }
+
+        if (coalescer != null) {
+            metrics.registerGauge("http_coalesced_requests", "Requests served with response of identical request.",
+                coalescer::getCoalesced);
+            metrics.registerGauge("http_coalesce_timeouts", "Coalesced requests which ran handler after timeout.",
+                coalescer::getTimeouts);
+        }
+    }
+
+    private void startAccessLog() throws IOException {
+        if (config.getAccessLogFile() == null)
+            return;
+
+        accessLog = new AccessLog(Paths.get(config.getAccessLogFile()), config.getAccessLogBufferSize(),
+            config.getAccessLogMaxFileSize(), config.getAccessLogMaxFiles(), config.isAccessLogBlocking());
+        accessLog.start();
+
+        metrics.registerGauge("http_access_log_dropped", "Access log records dropped on buffer overflow.",
+            accessLog::getDropped);
+    }
+
+    /**
+     * @return Access log or {@code null} if it is disabled.
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * @return Request metrics.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
     }
 
     private void startAcceptor() {
-        acceptorPool = Executors.newSingleThreadExecutor(new ServerThreadFactory("con-acceptor"));
-        acceptorPool.submit(new ConnectionHandler());
+        acceptorPool = Executors.newFixedThreadPool(httpsSocket == null ? 1 : 2, new ServerThreadFactory("con-acceptor"));
+        acceptorPool.submit(new ConnectionHandler(socket, null));
+
+        if (httpsSocket != null)
+            acceptorPool.submit(new ConnectionHandler(httpsSocket, tls));
     }
 
     /**
-     * Stops the server.
+     * Stops the server gracefully. New connections are not accepted, idle connections
+     * are closed, HTTP/2 clients receive GOAWAY. In-flight requests are given
+     * {@link ServerConfig#getShutdownTimeout()} to complete, then their connections are closed.
      */
     public void stop() {
+        stopping = true;
         acceptorPool.shutdownNow();
-        connectionProcessingPool.shutdownNow();
-        killSess.interrupt();
         Utils.closeQuiet(socket);
+        Utils.closeQuiet(httpsSocket);
         socket = null;
-        sessions.clear();
+        httpsSocket = null;
+        awaitAcceptors();
+        drain();
+        connectionProcessingPool.shutdownNow();
+        if (killSess != null) {
+            killSess.interrupt();
+            sessions.stop();
+        }
+        if (accessLog != null)
+            accessLog.close();
+    }
+
+    /**
+     * Waits for acceptors to return from {@code accept()}. Listening socket closed while
+     * a thread is blocked in it is released only when the thread returns, until then
+     * the port can't be bound again.
+     */
+    private void awaitAcceptors() {
+        try {
+            if (!acceptorPool.awaitTermination(ACCEPTOR_STOP_MILLIS, TimeUnit.MILLISECONDS))
+                LOG.warn("Acceptor threads didn't stop in {} ms", ACCEPTOR_STOP_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private class ReflectHandler {
+    private void drain() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getShutdownTimeout());
+
+        for (NewConnection conn : connections)
+            conn.goAway();
+
+        try {
+            while (true) {
+                for (NewConnection conn : connections) {
+                    if (conn.getInFlight() == 0)
+                        conn.close();
+                }
+
+                if (connections.isEmpty() || System.nanoTime() - deadline >= 0)
+                    break;
+
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (NewConnection conn : connections) {
+            abortedRequests.add(conn.getInFlight());
+            conn.close();
+        }
+
+        LOG.info("Server stopped, requests drained: {}, aborted: {}", drainedRequests.sum(), abortedRequests.sum());
+    }
+
+    /**
+     * Counts request completed while server is stopping.
+     */
+    void onRequestCompleted() {
+        if (stopping)
+            drainedRequests.increment();
+    }
+
+    /**
+     * @return Number of in-flight requests completed during {@link #stop()}.
+     */
+    public long getDrainedRequests() {
+        return drainedRequests.sum();
+    }
+
+    /**
+     * @return Number of in-flight requests aborted by {@link #stop()} on shutdown timeout.
+     */
+    public long getAbortedRequests() {
+        return abortedRequests.sum();
+    }
+
+    private class ReflectHandler implements Handler {
         Method meth;
         Object obj;
         HttpMethod[] httpMethods;
@@ -204,6 +508,11 @@ public class Server implements Closeable {
         boolean isApplicable(HttpMethod method) {
             return Arrays.stream(httpMethods).anyMatch(m -> m == method);
         }
+
+        @Override
+        public void handle(Request request, Response response) throws Exception {
+            meth.invoke(obj, request, response);
+        }
     }
 
     private void scanHandlersClass(Collection<Class<?>> classes) {
@@ -239,155 +548,613 @@ public class Server implements Closeable {
     }
 
 
-    private void processReflectHandler(ReflectHandler refHand, Request req, Response resp, Socket sock) throws IOException {
+    private void processConnection(NewConnection conn) throws IOException {
+        Socket sock = conn.sock;
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Accepting connection on: {}", sock);
+
+        long start = System.nanoTime();
+        CountingInputStream cin = new CountingInputStream(sock.getInputStream());
+        InputStream in = new BufferedInputStream(cin, READER_BUF_SIZE);
+        conn.in = cin;
+
+        if (config.isHttp2() && Http2.isPreface(in)) {
+            Http2Connection h2 = new Http2Connection(this, sock, in);
+            conn.h2 = h2;
+
+            if (stopping)
+                h2.goAway();
+
+            h2.serve();
+            return;
+        }
+
+        CountingOutputStream out = new CountingOutputStream(sock.getOutputStream());
+        String route = ServerMetrics.ROUTE_NONE;
+        int status = 0;
+        long parsed = 0;
+        long handled = 0;
+        Request req = null;
+
         try {
-            refHand.meth.invoke(refHand.obj, req, resp);
-            sendResponse(resp, req);
-        } catch (Exception e) {
-            if (LOG.isDebugEnabled())
-                LOG.error("Error invoke method:" + refHand.meth, e);
+            try {
+                req = parseRequest(sock, in);
+
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Parsed request: {}", req);
+            } catch (HeadersTooLargeException e) {
+                status = SC_REQUEST_HEADER_FIELDS_TOO_LARGE;
+                respond(SC_REQUEST_HEADER_FIELDS_TOO_LARGE, "Request Header Fields Too Large",
+                    htmlMessage(SC_REQUEST_HEADER_FIELDS_TOO_LARGE + " Request header fields too large"), out);
+                discardBody(sock, in);
+                return;
+            } catch (PayloadTooLargeException e) {
+                status = SC_PAYLOAD_TOO_LARGE;
+                respond(SC_PAYLOAD_TOO_LARGE, "Payload Too Large",
+                    htmlMessage(SC_PAYLOAD_TOO_LARGE + " Payload too large"), out);
+                discardBody(sock, in);
+                return;
+            } catch (NumberFormatException e) {
+                status = SC_BAD_REQUEST;
+                respond(SC_BAD_REQUEST, "Bad Request", htmlMessage(SC_BAD_REQUEST + " Invalid Content-Length"), out);
+                return;
+            } catch (URISyntaxException e) {
+                if (LOG.isDebugEnabled())
+                    LOG.error("Malformed URL", e);
+                String htmlMsg = CustomErrorResponse.coderespMap.get(SC_BAD_REQUEST) == null ? SC_BAD_REQUEST + " Malformed URL"
+                        : CustomErrorResponse.coderespMap.get(SC_BAD_REQUEST);
+                status = SC_BAD_REQUEST;
+                respond(SC_BAD_REQUEST, "Malformed URL", htmlMessage(htmlMsg), out);
+                return;
+            } catch (Exception e) {
+                LOG.error("Error parsing request", e);
+                String htmlMsg = CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR) == null ? SC_SERVER_ERROR + " Server error"
+                        : CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR);
+                status = SC_SERVER_ERROR;
+                respond(SC_SERVER_ERROR, "Server Error", htmlMessage(htmlMsg), out);
+                return;
+            }
+
+            parsed = System.nanoTime();
+
+            if (req.retryAfter > 0) {
+                status = SC_TOO_MANY_REQUESTS;
+                out.write(tooManyRequests(req.retryAfter));
+                out.flush();
+                return;
+            }
+
+            if (!isMethodSupported(req.method)) {
+                String htmlMsg = CustomErrorResponse.coderespMap.get(SC_NOT_IMPLEMENTED) == null ? SC_NOT_IMPLEMENTED + " Method \""
+                        + req.method + "\" is not supported" : CustomErrorResponse.coderespMap.get(SC_NOT_IMPLEMENTED);
+                status = SC_NOT_IMPLEMENTED;
+                respond(SC_NOT_IMPLEMENTED, "Not Implemented", htmlMessage(htmlMsg), out);
+                return;
+            }
+
+
+            Response resp = new Response(sock, out);
+            Handler handler = resolveHandler(req, resp);
+
+            if (req.expectContinue) {
+                int code = expectation(req, resp, handler);
+
+                if (code != SC_CONTINUE) {
+                    if (handler != null)
+                        route = req.route;
 
-            respond(SC_SERVER_ERROR, "Server Error", htmlMessage(SC_SERVER_ERROR + " Server error"),
-                    sock.getOutputStream());
+                    status = code;
+                    discardBody(sock, in);
+                    return;
+                }
+
+                out.write(CONTINUE);
+                out.flush();
+
+                readBody(req, in);
+            }
+
+            if (handler != null) {
+                route = req.route;
+
+                try {
+                    String cacheKey = responseCache != null && req.method == HttpMethod.GET ?
+                        responseCache.key(req) : null;
+                    ResponseCache.Entry cached = cacheKey != null ? cachedResponse(cacheKey, req, handler) : null;
+
+                    if (cached != null) {
+                        handled = System.nanoTime();
+                        // Shared encoded bytes lack Connection: close, so drained connection gets own copy.
+                        out.write(stopping ? encode(cached, isCompressed(req), true) :
+                            cached.encoded(isCompressed(req), this::encode));
+                        out.flush();
+                        status = cached.status;
+                    } else if (coalescer != null && coalescer.appliesTo(req)) {
+                        status = coalesce(req, resp, handler, cacheKey, out);
+                        handled = System.nanoTime();
+                    } else {
+                        handler.handle(req, resp);
+                        handled = System.nanoTime();
+
+                        if (cacheKey != null)
+                            responseCache.put(cacheKey, req, resp);
+
+                        sendResponse(resp, req);
+                        status = resp.getStatusCode();
+                    }
+                } catch (PayloadTooLargeException e) {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Payload too large: {}", e.getMessage());
+
+                    if (handled == 0)
+                        handled = System.nanoTime();
+
+                    status = SC_PAYLOAD_TOO_LARGE;
+                    respond(SC_PAYLOAD_TOO_LARGE, "Payload Too Large",
+                        htmlMessage(SC_PAYLOAD_TOO_LARGE + " Payload too large"), out);
+                    discardBody(sock, in);
+                } catch (BadRequestException e) {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Bad request: {}", e.getMessage());
+
+                    if (handled == 0)
+                        handled = System.nanoTime();
+
+                    status = SC_BAD_REQUEST;
+                    respond(SC_BAD_REQUEST, "Bad Request", htmlMessage(SC_BAD_REQUEST + " Bad request"), out);
+                    discardBody(sock, in);
+                } catch (Exception e) {
+                    if (LOG.isDebugEnabled())
+                        LOG.error("Server error:", e);
+
+                    if (handled == 0)
+                        handled = System.nanoTime();
+
+                    String htmlMsg = CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR) == null ? SC_SERVER_ERROR + " Server error"
+                            : CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR);
+                    status = SC_SERVER_ERROR;
+                    respond(SC_SERVER_ERROR, "Server Error", htmlMessage(htmlMsg), out);
+                }
+            } else {
+                String path = staticPath(req);
+                if (path != null) {
+                    route = ServerMetrics.ROUTE_STATIC;
+                    fileHandlers(path, resp);
+                    handled = System.nanoTime();
+                    sendResponse(resp, req);
+                    status = resp.getStatusCode();
+                } else {
+                    status = SC_NOT_FOUND;
+                    respond(SC_NOT_FOUND, "Not Found", htmlMessage(SC_NOT_FOUND + " Not found"), out);
+                }
+            }
+        } finally {
+            if (req != null)
+                req.release();
+
+            long end = System.nanoTime();
+            long respStart = handled != 0 ? handled : parsed != 0 ? parsed : end;
+
+            metrics.record(route, status, cin.getCount(), out.getCount(),
+                parsed != 0 ? parsed - start : -1,
+                handled != 0 ? handled - parsed : -1,
+                end - respStart);
+
+            if (accessLog != null) {
+                accessLog.log(sock.getInetAddress(), req != null ? req.method : null,
+                    req != null && req.path != null ? req.getPath() : null, status, out.getCount(), end - start);
+            }
         }
     }
 
-    private void processConnection(Socket sock) throws IOException {
-        if (LOG.isDebugEnabled())
-            LOG.debug("Accepting connection on: {}", sock);
+    /**
+     * Processes request received over HTTP/2 stream. Unlike {@link #processConnection(NewConnection)}
+     * nothing is written to the socket, response is left ready to be encoded by the caller.
+     */
+    void processStream(Request req, Response resp) {
+        long start = System.nanoTime();
 
-        Request req;
         try {
-            req = parseRequest(sock);
+            processStream0(req, resp);
+        } finally {
+            req.release();
 
-            if (LOG.isDebugEnabled())
-                LOG.debug("Parsed request: {}", req);
-        } catch (URISyntaxException e) {
-            if (LOG.isDebugEnabled())
-                LOG.error("Malformed URL", e);
-            String htmlMsg = CustomErrorResponse.coderespMap.get(SC_BAD_REQUEST) == null ? SC_BAD_REQUEST + " Malformed URL"
-                    : CustomErrorResponse.coderespMap.get(SC_BAD_REQUEST);
-            respond(SC_BAD_REQUEST, "Malformed URL", htmlMessage(htmlMsg),
-                    sock.getOutputStream());
-            return;
-        } catch (Exception e) {
-            LOG.error("Error parsing request", e);
-            String htmlMsg = CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR) == null ? SC_SERVER_ERROR + " Server error"
-                    : CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR);
-            respond(SC_SERVER_ERROR, "Server Error", htmlMessage(htmlMsg),
-                    sock.getOutputStream());
-            return;
+            long nanos = System.nanoTime() - start;
+            long bytesOut = resp.byteOut != null ? resp.byteOut.size() : 0;
+
+            metrics.record(req.route != null ? req.route : ServerMetrics.ROUTE_NONE, resp.getStatusCode(),
+                req.body != null ? req.body.size() : 0, bytesOut, -1, nanos, -1);
+
+            if (accessLog != null)
+                accessLog.log(req.socket.getInetAddress(), req.method, req.getPath(), resp.getStatusCode(), bytesOut, nanos);
+        }
+    }
+
+    private void processStream0(Request req, Response resp) {
+        if (rateLimiter != null) {
+            long retryAfter = rateLimiter.acquire(req);
+
+            if (retryAfter > 0) {
+                errorResponse(resp, SC_TOO_MANY_REQUESTS, SC_TOO_MANY_REQUESTS + " Too many requests");
+                resp.setHeader(RETRY_AFTER, String.valueOf(retryAfter));
+                return;
+            }
         }
 
         if (!isMethodSupported(req.method)) {
             String htmlMsg = CustomErrorResponse.coderespMap.get(SC_NOT_IMPLEMENTED) == null ? SC_NOT_IMPLEMENTED + " Method \""
                     + req.method + "\" is not supported" : CustomErrorResponse.coderespMap.get(SC_NOT_IMPLEMENTED);
-            respond(SC_NOT_IMPLEMENTED, "Not Implemented", htmlMessage(htmlMsg), sock.getOutputStream());
+            errorResponse(resp, SC_NOT_IMPLEMENTED, htmlMsg);
             return;
         }
 
+        try {
+            Handler handler = resolveHandler(req, resp);
+
+            if (handler != null)
+                handler.handle(req, resp);
+            else {
+                String path = staticPath(req);
+                if (path == null) {
+                    errorResponse(resp, SC_NOT_FOUND, SC_NOT_FOUND + " Not found");
+                    return;
+                }
+                req.route = ServerMetrics.ROUTE_STATIC;
+                fileHandlers(path, resp);
+            }
+
+            prepareResponse(resp, req);
+        } catch (PayloadTooLargeException e) {
+            errorResponse(resp, SC_PAYLOAD_TOO_LARGE, SC_PAYLOAD_TOO_LARGE + " Payload too large");
+        } catch (BadRequestException e) {
+            errorResponse(resp, SC_BAD_REQUEST, SC_BAD_REQUEST + " Bad request");
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled())
+                LOG.error("Server error:", e);
+
+            String htmlMsg = CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR) == null ? SC_SERVER_ERROR + " Server error"
+                    : CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR);
+            errorResponse(resp, SC_SERVER_ERROR, htmlMsg);
+        }
+    }
+
+    /**
+     * Decides whether client may send body of request expecting {@code 100 Continue}.
+     * Rejected request is answered with final response.
+     *
+     * @return {@link Http#SC_CONTINUE} if request is accepted or status code of sent response.
+     */
+    private int expectation(Request req, Response resp, Handler handler) throws IOException {
+        if (handler == null) {
+            if (staticPath(req) != null)
+                return SC_CONTINUE;
+
+            respond(SC_NOT_FOUND, "Not Found", htmlMessage(SC_NOT_FOUND + " Not found"), resp.getSocketOutputStream());
+            return SC_NOT_FOUND;
+        }
+
+        ExpectationHandler check = config.getExpectationHandler();
+
+        if (check == null)
+            return SC_CONTINUE;
+
+        int code;
+
+        try {
+            code = check.check(req, resp);
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled())
+                LOG.error("Server error:", e);
+
+            code = SC_SERVER_ERROR;
+            errorResponse(resp, code, SC_SERVER_ERROR + " Server error");
+        }
+
+        if (code == SC_CONTINUE)
+            return code;
 
+        // Keep headers set by check, e.g. WWW-Authenticate.
+        if (resp.byteOut == null && resp.printWriter == null) {
+            resp.setContentType(TEXT_HTML);
+            resp.getOutputStream().write(htmlMessage(code + " Request rejected").getBytes());
+        }
+
+        resp.setStatusCode(code);
+        sendResponse(resp, req);
+
+        return code;
+    }
+
+    private void errorResponse(Response resp, int code, String msg) {
+        resp.byteOut = null;
+        resp.printWriter = null;
+        resp.headers = null;
+        resp.cookieMap = null;
+        resp.setStatusCode(code);
+        resp.setContentType(TEXT_HTML);
+
+        try {
+            resp.getOutputStream().write(htmlMessage(msg).getBytes());
+        } catch (IOException e) {
+            throw new ServerException("Unable write error response", e); // Never happens for in-memory stream.
+        }
+
+        resp.setContentLength(resp.byteOut.size());
+    }
+
+    Handler resolveHandler(Request req, Response resp) {
         Dispatcher dispatcher = config.getDispatcher();
-        Response resp = new Response(sock);
         Handler handler;
+        String route;
         if (dispatcher != null) {
-            handler  = config.handler(dispatcher.dispatch(req, resp));
+            route = dispatcher.dispatch(req, resp);
+            handler = config.handler(route);
         } else {
-            handler = config.handler(req.getPath());
+            route = req.getPath();
+            handler = config.handler(route);
         }
 
-        if (handler != null) {
-            try {
-                handler.handle(req, resp);
-                sendResponse(resp, req);
-            } catch (Exception e) {
-                if (LOG.isDebugEnabled())
-                    LOG.error("Server error:", e);
+        if (handler == null) {
+            route = req.getPath();
+            ReflectHandler reflectHandler = classHandlers.get(route);
+            if (reflectHandler != null && reflectHandler.isApplicable(req.method))
+                handler = reflectHandler;
+        }
 
+        if (handler != null)
+            req.route = route;
 
-                String htmlMsg = CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR) == null ? SC_SERVER_ERROR + " Server error"
-                        : CustomErrorResponse.coderespMap.get(SC_SERVER_ERROR);
-                respond(SC_SERVER_ERROR, "Server Error", htmlMessage(htmlMsg),
-                        sock.getOutputStream());
-            }
-        } else if (classHandlers.get(req.getPath()) != null) {
-            ReflectHandler reflectHandler = classHandlers.get(req.getPath());
-            if (reflectHandler != null && reflectHandler.isApplicable(req.method))
-                processReflectHandler(reflectHandler, req, resp, sock);
-        } else {
-            String path = config.getStaticDirectory() + File.separatorChar + req.getPath().substring(1);
-            if (new File(path).exists()) {
-                fileHandlers(path, resp);
-                sendResponse(resp, req);
+        return handler;
+    }
 
-            } else {
-                respond(SC_NOT_FOUND, "Not Found", htmlMessage(SC_NOT_FOUND + " Not found"),
-                        sock.getOutputStream());
-            }
-        }
+    private String staticPath(Request req) {
+        if (config.getStaticDirectory() == null)
+            return null;
+
+        String path = config.getStaticDirectory() + File.separatorChar + req.getPath().substring(1);
+        return new File(path).exists() ? path : null;
     }
 
-    private void sendResponse(Response resp, Request req) {
+    /**
+     * Returns cached response, starts background refresh if it's stale.
+     *
+     * @return Cached response or {@code null}.
+     */
+    private ResponseCache.Entry cachedResponse(String key, Request req, Handler handler) {
+        ResponseCache.Entry e = responseCache.get(key, System.nanoTime());
+
+        if (e != null && !e.isFresh(System.nanoTime()) && e.startRefresh())
+            refresh(key, e, req, handler);
+
+        return e;
+    }
+
+    /**
+     * Runs handler in background to replace stale cache entry. Stale entry is removed
+     * if handler response is not cacheable anymore. Handler gets copy of request, as
+     * the original one is released once its connection is processed.
+     */
+    private void refresh(String key, ResponseCache.Entry stale, Request orig, Handler handler) {
+        Request req = orig.detach();
+
         try {
-            if (resp.printWriter != null)
-                resp.printWriter.flush();
+            connectionProcessingPool.submit(() -> {
+                try {
+                    Response resp = new Response(req.socket, new ByteArrayOutputStream());
+                    handler.handle(req, resp);
 
-            if (resp.byteOut != null) {
-                if (config.getCompressionType() != null && isCompressionSupported(req)) {
-                    resp.byteOut = compress(resp.byteOut);
-                    resp.setHeader(Http.CONTENT_ENCODING, config.getCompressionType().toString().toLowerCase());
+                    if (!responseCache.put(key, req, resp))
+                        responseCache.remove(key, stale);
+                } catch (Exception e) {
+                    LOG.error("Failed to refresh cached response: " + key, e);
+
+                    stale.refreshFailed();
                 }
-                resp.setContentLength(resp.byteOut.size());
-            }
+            });
+        } catch (RejectedExecutionException e) {
+            stale.refreshFailed(); // Server is stopping.
+        }
+    }
 
-            if (resp.getStatusCode() == 0) {
-                resp.setStatusCode(Http.SC_OK);
-            }
+    /**
+     * Runs handler once for concurrent identical requests, see {@link RequestCoalescer}.
+     *
+     * @return Response status.
+     */
+    private int coalesce(Request req, Response resp, Handler handler, String cacheKey, OutputStream out)
+        throws Exception {
+        String key = coalescer.key(req, isCompressed(req));
+        RequestCoalescer.Flight flight = coalescer.join(key);
 
-            OutputStream out = resp.getSocketOutputStream();
-            Writer pw = new BufferedWriter(new OutputStreamWriter(out));
-            pw.write((Http.OK_HEADER_PLUS + resp.getStatusCode() + CRLF));
-            if (resp.headers != null) {
-                for (Map.Entry e : resp.headers.entrySet()) {
-                    pw.write(e.getKey() + ": " + e.getValue() + CRLF);
-                }
+        if (flight != null) {
+            flight = coalescer.await(flight);
+
+            if (flight != null) {
+                out.write(flight.response);
+                out.flush();
+
+                return flight.status;
             }
+
+            handler.handle(req, resp);
+
+            if (cacheKey != null)
+                responseCache.put(cacheKey, req, resp);
+
+            sendResponse(resp, req);
+
+            return resp.getStatusCode();
+        }
+
+        ByteArrayOutputStream buf = null;
+
+        try {
+            handler.handle(req, resp);
+
+            if (cacheKey != null)
+                responseCache.put(cacheKey, req, resp);
+
+            prepareResponse(resp, req);
+
+            if (stopping)
+                resp.setHeader(Http.CONNECTION, "close");
+
+            buf = new ByteArrayOutputStream(resp.byteOut == null ? 256 : resp.byteOut.size() + 256);
+            writeResponse(resp, buf);
+        } finally {
+            boolean shared = buf != null && (resp.cookieMap == null || resp.cookieMap.isEmpty());
+
+            coalescer.complete(key, resp.getStatusCode(), shared ? buf.toByteArray() : null);
+        }
+
+        buf.writeTo(out);
+        out.flush();
+
+        return resp.getStatusCode();
+    }
+
+    /**
+     * Encodes cached response.
+     *
+     * @param e Cache entry.
+     * @param compress Whether body should be compressed.
+     * @return Complete HTTP response.
+     * @throws IOException If failed to compress.
+     */
+    byte[] encode(ResponseCache.Entry e, boolean compress) throws IOException {
+        return encode(e, compress, false);
+    }
+
+    /**
+     * Encodes cached response.
+     *
+     * @param e Cache entry.
+     * @param compress Whether body should be compressed.
+     * @param close Whether {@code Connection: close} header is added.
+     * @return Complete HTTP response.
+     * @throws IOException If failed to compress.
+     */
+    private byte[] encode(ResponseCache.Entry e, boolean compress, boolean close) throws IOException {
+        Response resp = new Response(null);
+        resp.statusCode = e.status;
+        resp.headers = new Headers(e.headers);
+
+        if (e.body != null)
+            resp.getOutputStream().write(e.body);
+
+        prepareResponse(resp, compress);
+
+        if (close)
+            resp.setHeader(Http.CONNECTION, "close");
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(resp.byteOut == null ? 256 : resp.byteOut.size() + 256);
+        writeResponse(resp, buf);
+
+        return buf.toByteArray();
+    }
+
+    /**
+     * Completes response: flushes writer, compresses body, sets content length,
+     * default status code and cookie of session opened by handler.
+     */
+    void prepareResponse(Response resp, Request req) throws IOException {
+        prepareResponse(resp, isCompressed(req));
+
+        if (req.isNewSession())
             resp.addCookie(new Cookie(SESSION_COOKIENAME, req.getSession().getId()));
+    }
 
-            for (Map.Entry<String, Cookie> entry : resp.cookieMap.entrySet()) {
-                StringBuilder cookieLine = new StringBuilder();
-                cookieLine.append(entry.getKey()).append("=").append(entry.getValue().getValue());
-                if (entry.getValue().getMaxAge() != 0) {
-                    cookieLine.append(";Max-Age=").append(entry.getValue().getMaxAge());
-                }
-                if (entry.getValue().getDomain() != null) {
-                    cookieLine.append(";DOMAIN=").append(entry.getValue().getDomain());
-                }
-                if (entry.getValue().getPath() != null) {
-                    cookieLine.append(";PATH=").append(entry.getValue().getPath());
-                }
-                pw.write("Set-Cookie:" + SPACE + cookieLine.toString() + CRLF);
-            }
+    private void prepareResponse(Response resp, boolean compress) throws IOException {
+        if (resp.printWriter != null)
+            resp.printWriter.flush();
 
-            pw.write(CRLF);
-            pw.flush();
-            if (resp.byteOut != null) {
-                System.out.println(resp.byteOut.toString());
-                out.write(resp.byteOut.toByteArray());
+        if (resp.byteOut != null) {
+            if (compress) {
+                resp.byteOut = compress(resp.byteOut);
+                resp.setHeader(Http.CONTENT_ENCODING, config.getCompressionType().toString().toLowerCase());
             }
-            out.flush();
+            resp.setContentLength(resp.byteOut.size());
+        }
+
+        if (resp.getStatusCode() == 0) {
+            resp.setStatusCode(Http.SC_OK);
+        }
+    }
+
+    private boolean isCompressed(Request req) {
+        return config.getCompressionType() != null && isCompressionSupported(req);
+    }
+
+    static String cookieLine(Cookie cookie) {
+        StringBuilder cookieLine = new StringBuilder();
+        cookieLine.append(cookie.getKey()).append("=").append(cookie.getValue());
+        if (cookie.getMaxAge() != 0) {
+            cookieLine.append(";Max-Age=").append(cookie.getMaxAge());
+        }
+        if (cookie.getDomain() != null) {
+            cookieLine.append(";DOMAIN=").append(cookie.getDomain());
+        }
+        if (cookie.getPath() != null) {
+            cookieLine.append(";PATH=").append(cookie.getPath());
+        }
+        return cookieLine.toString();
+    }
+
+    void sendResponse(Response resp, Request req) {
+        try {
+            prepareResponse(resp, req);
+
+            OutputStream out = resp.getSocketOutputStream();
+            if (stopping)
+                resp.setHeader(Http.CONNECTION, "close");
+
+            writeResponse(resp, out);
         } catch (Exception e) {
             throw new ServerException("Fail to get output stream", e);
         }
 
     }
 
-    private Request parseRequest(Socket socket) throws IOException, URISyntaxException {
-        InputStreamReader reader = new InputStreamReader(socket.getInputStream());
-        Request req = new Request(socket, sessions);
+    private void writeResponse(Response resp, OutputStream out) throws IOException {
+        Writer pw = new BufferedWriter(new OutputStreamWriter(out));
+        pw.write((Http.OK_HEADER_PLUS + resp.getStatusCode() + CRLF));
+        if (resp.headers != null) {
+            for (int i = 0; i < resp.headers.size(); i++) {
+                pw.write(resp.headers.name(i) + ": " + resp.headers.value(i) + CRLF);
+            }
+        }
+
+        if (resp.cookieMap != null) {
+            for (Cookie cookie : resp.cookieMap.values()) {
+                pw.write("Set-Cookie:" + SPACE + cookieLine(cookie) + CRLF);
+            }
+        }
+
+        pw.write(CRLF);
+        pw.flush();
+        if (resp.byteOut != null)
+            resp.byteOut.writeTo(out);
+        out.flush();
+    }
+
+    Request newRequest(Socket socket, InputStream in) {
+        Request req = new Request(socket, this);
+        req.in = in;
+        return req;
+    }
+
+    Request parseRequest(Socket socket, InputStream in) throws IOException, URISyntaxException {
+        Request req = newRequest(socket, in);
         StringBuilder sb = new StringBuilder(READER_BUF_SIZE);
 
-        while (readLine(reader, sb) > 0) {
+        int headLeft = config.getMaxHeaderSize();
+        int len;
+
+        // Head is read byte by byte, so body is left in the stream for multipart parser.
+        while ((len = readLine(in, sb, headLeft)) > 0) {
+            headLeft -= len + 2;
+
             if (req.method == null)
                 parseRequestLine(req, sb);
             else
@@ -395,22 +1162,84 @@ public class Server implements Closeable {
             sb.setLength(0);
         }
 
-        if (isPOSTorPUT(req)) {
-            readBody(reader, sb, req);
-            if (req.headers.get(CONTENT_TYPE).contains(URL_ENCODED)) {
-                parseArgs(req, req.body);
-            }
+        if (rateLimiter != null && req.method != null) {
+            req.retryAfter = rateLimiter.acquire(req);
+
+            if (req.retryAfter > 0)
+                return req; // Body is never read.
+        }
+
+        if (expectsContinue(req)) {
+            checkBodySize(req);
+            req.expectContinue = true;
+
+            return req; // Body is read once request is accepted.
         }
+
+        readBody(req, in);
         return req;
     }
 
-    private boolean isPOSTorPUT(Request req) {
+    private void readBody(Request req, InputStream in) throws IOException {
+        if (isPOSTorPUT(req)) {
+            long length = checkBodySize(req);
+
+            req.body = RequestBody.read(in, length, config.getBodyMemoryThreshold(), bodyBudget, uploadDir);
+        }
+    }
+
+    /**
+     * @return Builder of body arriving in chunks, buffered like body read by {@link #readBody}.
+     */
+    RequestBody.Builder bodyBuilder() {
+        return new RequestBody.Builder(config.getBodyMemoryThreshold(), bodyBudget, uploadDir);
+    }
+
+    /**
+     * Checks declared length of body, so request is rejected before body is read.
+     *
+     * @return Declared length of buffered body or {@code -1} if body is left in the stream.
+     * @throws PayloadTooLargeException If body exceeds limit.
+     * @throws NumberFormatException If {@code Content-Length} of buffered body is missing or invalid.
+     */
+    private long checkBodySize(Request req) {
+        if (isPOSTorPUT(req)) {
+            long length = contentLength(req);
+            long maxBodySize = config.getMaxBodySize();
+
+            if (maxBodySize > 0 && length > maxBodySize)
+                throw new PayloadTooLargeException("Request body of " + length + " bytes exceeds " + maxBodySize);
+
+            return length;
+        }
+
+        String val = req.getHeader(CONTENT_LENGTH);
+        long maxMultipartSize = config.getMaxMultipartSize();
+
+        // Streamed multipart body is checked as it's read, declared length lets reject it earlier.
+        if (val != null && maxMultipartSize > 0 && MultipartParser.boundary(req.getHeader(CONTENT_TYPE)) != null) {
+            long length = contentLength(req);
+
+            if (length > maxMultipartSize)
+                throw new PayloadTooLargeException("Multipart body of " + length + " bytes exceeds " + maxMultipartSize);
+        }
+
+        return -1;
+    }
+
+    private static boolean expectsContinue(Request req) {
+        String val = req.getHeader(EXPECT);
+
+        return val != null && val.trim().equalsIgnoreCase(CONTINUE_EXPECTATION);
+    }
+
+    boolean isPOSTorPUT(Request req) {
         return (req.getMethod() == HttpMethod.POST || req.getMethod() == HttpMethod.PUT) && req.headers.get(CONTENT_TYPE) != null && (
                 req.headers.get(CONTENT_TYPE).contains(URL_ENCODED)
                         || req.headers.get(CONTENT_TYPE).contains(TEXT_PLAIN));
     }
 
-    private void parseRequestLine(Request req, StringBuilder sb) throws URISyntaxException {
+    void parseRequestLine(Request req, StringBuilder sb) throws URISyntaxException {
         int start = 0;
         int len = sb.length();
 
@@ -419,7 +1248,7 @@ public class Server implements Closeable {
                 if (req.method == null)
                     req.method = HttpMethod.valueOf(sb.substring(start, i));
                 else if (req.path == null) {
-                    req.path = new URI(sb.substring(start, i));
+                    req.path = RequestTarget.parse(sb, start, i);
                     break; // Ignore protocol for now
                 }
                 start = i + 1;
@@ -429,92 +1258,126 @@ public class Server implements Closeable {
         assert req.method != null : "Request method can't be null";
         assert req.path != null : "Request path can't be null";
 
-        String query = req.path.getQuery();
-        parseArgs(req, query);
-    }
-
-    private void parseArgs(Request req, String query) {
-        int start;
-        if (query != null) {
-            start = 0;
-            String key = null;
-
-            for (int i = 0; i < query.length(); i++) {
-                boolean last = i == query.length() - 1;
-
-                if (key == null && query.charAt(i) == EQ) {
-                    key = query.substring(start, i);
-
-                    start = i + 1;
-                } else if (key != null && (query.charAt(i) == AMP || last)) {
-                    req.addArgument(key, query.substring(start, last ? i + 1 : i));
-                    key = null;
-                    start = i + 1;
-                }
-            }
-
-            if (key != null)
-                req.addArgument(key, null);
-        }
+        req.query = req.path.getRawQuery();
     }
 
-    private void parseHeader(Request req, StringBuilder sb) {
+    void parseHeader(Request req, StringBuilder sb) {
         String key = null;
         int len = sb.length();
         int start = 0;
 
         for (int i = 0; i < len; i++) {
             if (sb.charAt(i) == HEADER_VALUE_SEPARATOR) {
-                key = sb.substring(start, i).trim();
+                int end = i;
+
+                while (start < end && sb.charAt(start) <= ' ')
+                    start++;
+
+                while (end > start && sb.charAt(end - 1) <= ' ')
+                    end--;
+
+                key = Headers.name(sb, start, end);
                 start = i + 1;
                 break;
             }
         }
-        req.addHeader(key, sb.substring(start, len).trim());
 
-        if ("Cookie".equals(key)) {
-            String[] pairs = sb.substring(start, len).trim().split("; ");
-            for (int i = 0; i < pairs.length; i++) {
-                String pair = pairs[i];
-                String[] keyValue = pair.split("=");
-                req.mapCookie(keyValue[0], new Cookie(keyValue[0], keyValue[1]));
-            }
+        if (key == null || key.isEmpty()) {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Header line without name is ignored: {}", sb);
+
+            return;
         }
+
+        String value = sb.substring(start, len).trim();
+
+        req.addHeader(key, value);
+
+        if ("Cookie".equals(key))
+            req.addCookieHeader(value);
     }
 
-    private int readLine(InputStreamReader in, StringBuilder sb) throws IOException {
+    /**
+     * @throws HeadersTooLargeException If line is longer than {@code max}.
+     */
+    private int readLine(InputStream in, StringBuilder sb, int max) throws IOException {
         int c;
         int count = 0;
+        boolean ascii = true;
         while ((c = in.read()) >= 0) {
             if (c == LF)
                 break;
+            if (count >= max)
+                throw new HeadersTooLargeException("Request head exceeds " + config.getMaxHeaderSize() + " bytes");
             sb.append((char) c);
+            ascii &= c < 0x80;
             count++;
         }
         if (count > 0 && sb.charAt(count - 1) == CR)
             sb.setLength(--count);
 
+        // Raw non-ASCII bytes are taken as UTF-8.
+        if (!ascii) {
+            String line = new String(sb.toString().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+
+            sb.setLength(0);
+            sb.append(line);
+            count = line.length();
+        }
+
         if (LOG.isTraceEnabled())
             LOG.trace("Read line: {}", sb.toString());
         return count;
     }
 
-    private void readBody(InputStreamReader reader, StringBuilder sb, Request request) throws IOException {
-        int contentLength = Integer.parseInt(request.headers.get("Content-Length"));
+    /**
+     * @return Declared length of request body.
+     * @throws NumberFormatException If {@code Content-Length} is missing or invalid.
+     */
+    private static long contentLength(Request req) {
+        String val = req.getHeader(CONTENT_LENGTH);
 
-        char[] buf = new char[1024];
-        int len;
-        int count = 0;
+        if (val == null)
+            throw new NumberFormatException("Missing Content-Length");
 
-        while ((len = reader.read(buf)) > 0) {
-            sb.append(new String(buf, 0, len));
+        long len = Long.parseLong(val.trim());
 
-            count += len;
-            if (count == contentLength)
-                break;
-        }
+        if (len < 0)
+            throw new NumberFormatException("Negative Content-Length: " + len);
 
-        request.addBody(sb.toString());
+        return len;
+    }
+
+    private static byte[] tooManyRequests(long retryAfter) {
+        byte[] val = Long.toString(retryAfter).getBytes(StandardCharsets.US_ASCII);
+        byte[] res = Arrays.copyOf(TOO_MANY_REQUESTS_HEAD,
+            TOO_MANY_REQUESTS_HEAD.length + val.length + TOO_MANY_REQUESTS_TAIL.length);
+
+        System.arraycopy(val, 0, res, TOO_MANY_REQUESTS_HEAD.length, val.length);
+        System.arraycopy(TOO_MANY_REQUESTS_TAIL, 0, res, TOO_MANY_REQUESTS_HEAD.length + val.length,
+            TOO_MANY_REQUESTS_TAIL.length);
+
+        return res;
+    }
+
+    /**
+     * Half-closes connection after response to request which body is left unread and reads
+     * some of the rest, so client gets the response rather than connection reset.
+     */
+    private void discardBody(Socket sock, InputStream in) {
+        try {
+            sock.shutdownOutput();
+            sock.setSoTimeout(DISCARD_TIMEOUT_MILLIS);
+
+            byte[] buf = new byte[READER_BUF_SIZE];
+            long total = 0;
+            int n;
+
+            while (total < MAX_DISCARDED_BODY && (n = in.read(buf)) >= 0)
+                total += n;
+        } catch (IOException | UnsupportedOperationException ignored) {
+            // Client is gone or timed out.
+        }
     }
 
     private void respond(int code, String statusMsg, String content, OutputStream out) throws IOException {
@@ -523,7 +1386,10 @@ public class Server implements Closeable {
     }
 
     private boolean isCompressionSupported(Request req) {
-        String unPursedTypes = req.getHeaders().get(Http.ACCEPT_ENCODING);
+        String unPursedTypes = req.getHeader(Http.ACCEPT_ENCODING);
+        if (unPursedTypes == null)
+            return false;
+
         String[] parsedTypes = unPursedTypes.replaceAll("\\p{Punct}", " ")
                 .trim().toUpperCase().split("\\s");
 
@@ -535,7 +1401,7 @@ public class Server implements Closeable {
         return false;
     }
 
-    private ByteArrayOutputStream compress(ByteArrayOutputStream bodyBytes) throws IOException {
+    ByteArrayOutputStream compress(ByteArrayOutputStream bodyBytes) throws IOException {
 
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         OutputStream compressor = null;
@@ -564,45 +1430,189 @@ public class Server implements Closeable {
         stop();
     }
 
+    /**
+     * @return TLS handshake statistics or {@code null} if HTTPS is not enabled.
+     */
+    public TlsStats getTlsStats() {
+        return tls == null ? null : tls.getStats();
+    }
+
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    ExecutorService getConnectionProcessingPool() {
+        return connectionProcessingPool;
+    }
+
     private boolean isMethodSupported(HttpMethod method) {
         return method == HttpMethod.GET || method == HttpMethod.POST || method == HttpMethod.HEAD || method == HttpMethod.PUT;
     }
 
+    /**
+     * Serves metrics in Prometheus text format.
+     */
+    private class MetricsHandler implements Handler {
+        @Override
+        public void handle(Request request, Response response) throws Exception {
+            response.setContentType(TEXT_PLAIN + "; version=0.0.4");
+            metrics.writePrometheus(response.getWriter());
+        }
+    }
+
     private class ConnectionHandler implements Runnable {
+        private final ServerSocket listener;
+        private final TlsContext tls;
+
+        ConnectionHandler(ServerSocket listener, TlsContext tls) {
+            this.listener = listener;
+            this.tls = tls;
+        }
 
         public void run() {
-            connectionProcessingPool = Executors.newCachedThreadPool();
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    Socket sock = socket.accept();
+                    limiter.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                Socket sock;
+
+                try {
+                    sock = listener.accept();
+                } catch (Exception e) {
+                    limiter.release();
+
+                    if (!Thread.currentThread().isInterrupted())
+                        LOG.error("Error accepting connection", e);
+
+                    continue;
+                }
+
+                InetAddress addr = sock.getInetAddress();
+
+                if (!limiter.acquireClient(addr)) {
+                    limiter.release();
+                    reject(sock);
+                    continue;
+                }
+
+                NewConnection conn = new NewConnection(sock, tls);
+
+                try {
                     sock.setSoTimeout(config.getSocketTimeout());
-                    connectionProcessingPool.submit(new NewConnection(sock));
+                    connections.add(conn);
+                    connectionProcessingPool.submit(conn);
                 } catch (Exception e) {
+                    connections.remove(conn);
+                    Utils.closeQuiet(sock);
+                    limiter.releaseClient(addr);
+                    limiter.release();
+
                     if (!Thread.currentThread().isInterrupted())
                         LOG.error("Error accepting connection", e);
                 }
             }
         }
+
+        /**
+         * Sends pre-encoded 503 to connection over per client limit. Response is
+         * small enough to fit socket send buffer, so acceptor never blocks here.
+         */
+        private void reject(Socket sock) {
+            metrics.onConnectionRejected();
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Too many connections from {}", sock.getInetAddress());
+
+            try {
+                sock.getOutputStream().write(SERVICE_UNAVAILABLE);
+                sock.shutdownOutput();
+            } catch (IOException e) {
+                // Client is gone.
+            } finally {
+                Utils.closeQuiet(sock);
+            }
+        }
     }
 
     private class NewConnection implements Runnable {
-        Socket sock;
+        volatile Socket sock;
+        TlsContext tls;
+        final InetAddress addr;
+
+        /** Socket input, set once connection is processed. */
+        volatile CountingInputStream in;
+
+        /** Set if client speaks HTTP/2. */
+        volatile Http2Connection h2;
 
-        NewConnection(Socket sock) {
+        /** Set when server closes connection on stop. */
+        volatile boolean closing;
+
+        NewConnection(Socket sock, TlsContext tls) {
             this.sock = sock;
+            this.tls = tls;
+
+            addr = sock.getInetAddress();
+        }
+
+        /**
+         * @return Number of requests being processed. HTTP/1 connection is busy
+         * since first byte of request is received until it's closed.
+         */
+        int getInFlight() {
+            Http2Connection h2 = this.h2;
+
+            if (h2 != null)
+                return h2.getActiveStreams();
+
+            CountingInputStream in = this.in;
+
+            return in != null && in.getCount() > 0 ? 1 : 0;
+        }
+
+        void goAway() {
+            Http2Connection h2 = this.h2;
+
+            if (h2 != null)
+                h2.goAway();
+        }
+
+        void close() {
+            closing = true;
+            Utils.closeQuiet(sock);
         }
 
         @Override
         public void run() {
+            metrics.onConnectionOpened();
+
             try {
                 if (LOG.isDebugEnabled())
                     LOG.debug("New connection opened " + Thread.currentThread().getName());
 
-                processConnection(sock);
+                if (tls != null) {
+                    TlsSocket tlsSock = tls.wrap(sock);
+                    sock = tlsSock;
+                    tls.handshake(tlsSock);
+                }
+
+                processConnection(this);
+
+                if (h2 == null && !closing)
+                    onRequestCompleted();
 //                Thread.currentThread().interrupt();
             } catch (IOException e) {
-                LOG.error("Error input / output during data transfer", e);
+                if (!closing)
+                    LOG.error("Error input / output during data transfer", e);
             } finally {
+                connections.remove(this);
+                limiter.releaseClient(addr);
+                limiter.release();
+                metrics.onConnectionClosed();
+
                 try {
                     sock.close();
                     if (LOG.isDebugEnabled())
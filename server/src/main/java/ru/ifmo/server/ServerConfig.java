@@ -1,5 +1,8 @@
 package ru.ifmo.server;
 
+import ru.ifmo.server.http2.Http2;
+import ru.ifmo.server.log.AccessLog;
+
 import java.io.File;
 import java.util.*;
 import java.io.BufferedReader;
@@ -18,6 +21,54 @@ public class ServerConfig {
     /** Default local port. */
     public static final int DFLT_PORT = 8080;
 
+    /** Default key store type. */
+    public static final String DFLT_KEY_STORE_TYPE = "PKCS12";
+
+    /** Default number of TLS sessions kept for resumption. */
+    public static final int DFLT_TLS_SESSION_CACHE_SIZE = 20480;
+
+    /** Default TLS session lifetime in seconds. */
+    public static final int DFLT_TLS_SESSION_TIMEOUT = 24 * 60 * 60;
+
+    /** Default limit of concurrently processed HTTP/2 streams per connection. */
+    public static final int DFLT_HTTP2_MAX_CONCURRENT_STREAMS = 100;
+
+    /** Default session idle timeout in milliseconds. */
+    public static final int DFLT_SESSION_TIMEOUT = Session.SESSION_OPENTIME * 60 * 1000;
+
+    /** Default time in milliseconds given to in-flight requests to complete on stop. */
+    public static final int DFLT_SHUTDOWN_TIMEOUT = 30_000;
+
+    /** Default length of queue of connections waiting to be accepted. */
+    public static final int DFLT_BACKLOG = 50;
+
+    /** Default max number of token buckets kept per rate limit. */
+    public static final int DFLT_RATE_LIMIT_MAX_KEYS = 65536;
+
+    /** Default max time in milliseconds coalesced request waits for identical one. */
+    public static final int DFLT_COALESCE_TIMEOUT = 5_000;
+
+    /** Default max size in bytes of request line and headers. */
+    public static final int DFLT_MAX_HEADER_SIZE = 16 * 1024;
+
+    /** Default max size in bytes of request body buffered by server. */
+    public static final long DFLT_MAX_BODY_SIZE = 10L * 1024 * 1024;
+
+    /** Default max size in bytes of request body kept in memory. */
+    public static final int DFLT_BODY_MEMORY_THRESHOLD = 64 * 1024;
+
+    /** Default max memory in bytes used by request bodies of all requests being processed. */
+    public static final long DFLT_MAX_BUFFERED_BODY_MEMORY = 64L * 1024 * 1024;
+
+    /** Default max size in bytes of multipart part kept in memory. */
+    public static final int DFLT_MULTIPART_MEMORY_THRESHOLD = 16 * 1024;
+
+    /** Default max size in bytes of multipart part. */
+    public static final long DFLT_MAX_PART_SIZE = 64L * 1024 * 1024;
+
+    /** Default max size in bytes of multipart body. */
+    public static final long DFLT_MAX_MULTIPART_SIZE = 256L * 1024 * 1024;
+
     private int port = DFLT_PORT;
     private Map<String, Handler> handlers;
     private Map<String, Class<? extends Handler>> handlerClasses;
@@ -25,6 +76,46 @@ public class ServerConfig {
     private Collection<Class<?>> classes;
     private CompressionType compressionType;
     private String staticDirectory;
+    private int httpsPort;
+    private String keyStore;
+    private String keyStorePassword;
+    private String keyStoreType = DFLT_KEY_STORE_TYPE;
+    private int tlsSessionCacheSize = DFLT_TLS_SESSION_CACHE_SIZE;
+    private int tlsSessionTimeout = DFLT_TLS_SESSION_TIMEOUT;
+    private boolean http2 = true;
+    private int http2MaxConcurrentStreams = DFLT_HTTP2_MAX_CONCURRENT_STREAMS;
+    private int http2InitialWindowSize = Http2.DFLT_INITIAL_WINDOW_SIZE;
+    private int sessionTimeout = DFLT_SESSION_TIMEOUT;
+    private boolean sessionsEnabled = true;
+    private SessionIdGenerator sessionIdGenerator = new SecureSessionIdGenerator();
+    private SessionStore sessionStore;
+    private int maxSessions;
+    private long maxSessionMemory;
+    private String metricsPath;
+    private String accessLogFile;
+    private int accessLogBufferSize = AccessLog.DFLT_BUFFER_SIZE;
+    private long accessLogMaxFileSize = AccessLog.DFLT_MAX_FILE_SIZE;
+    private int accessLogMaxFiles = AccessLog.DFLT_MAX_FILES;
+    private boolean accessLogBlocking;
+    private int shutdownTimeout = DFLT_SHUTDOWN_TIMEOUT;
+    private int backlog = DFLT_BACKLOG;
+    private int maxConnections;
+    private int maxConnectionsPerClient;
+    private List<RateLimit> rateLimits = new ArrayList<>();
+    private int rateLimitMaxKeys = DFLT_RATE_LIMIT_MAX_KEYS;
+    private long responseCacheSize;
+    private List<String> responseCacheKeyHeaders = new ArrayList<>();
+    private Set<String> coalescedRoutes = new HashSet<>();
+    private int coalesceTimeout = DFLT_COALESCE_TIMEOUT;
+    private int maxHeaderSize = DFLT_MAX_HEADER_SIZE;
+    private long maxBodySize = DFLT_MAX_BODY_SIZE;
+    private int bodyMemoryThreshold = DFLT_BODY_MEMORY_THRESHOLD;
+    private long maxBufferedBodyMemory = DFLT_MAX_BUFFERED_BODY_MEMORY;
+    private int multipartMemoryThreshold = DFLT_MULTIPART_MEMORY_THRESHOLD;
+    private long maxPartSize = DFLT_MAX_PART_SIZE;
+    private long maxMultipartSize = DFLT_MAX_MULTIPART_SIZE;
+    private String uploadDirectory;
+    private ExpectationHandler expectationHandler;
 
     public Dispatcher getDispatcher() {
         return dispatcher;
@@ -52,6 +143,46 @@ public class ServerConfig {
         compressionType = config.compressionType;
         staticDirectory = config.staticDirectory;
         dispatcher = config.dispatcher;
+        expectationHandler = config.expectationHandler;
+        httpsPort = config.httpsPort;
+        keyStore = config.keyStore;
+        keyStorePassword = config.keyStorePassword;
+        keyStoreType = config.keyStoreType;
+        tlsSessionCacheSize = config.tlsSessionCacheSize;
+        tlsSessionTimeout = config.tlsSessionTimeout;
+        http2 = config.http2;
+        http2MaxConcurrentStreams = config.http2MaxConcurrentStreams;
+        http2InitialWindowSize = config.http2InitialWindowSize;
+        sessionTimeout = config.sessionTimeout;
+        sessionsEnabled = config.sessionsEnabled;
+        sessionIdGenerator = config.sessionIdGenerator;
+        sessionStore = config.sessionStore;
+        maxSessions = config.maxSessions;
+        maxSessionMemory = config.maxSessionMemory;
+        metricsPath = config.metricsPath;
+        accessLogFile = config.accessLogFile;
+        accessLogBufferSize = config.accessLogBufferSize;
+        accessLogMaxFileSize = config.accessLogMaxFileSize;
+        accessLogMaxFiles = config.accessLogMaxFiles;
+        accessLogBlocking = config.accessLogBlocking;
+        shutdownTimeout = config.shutdownTimeout;
+        backlog = config.backlog;
+        maxConnections = config.maxConnections;
+        maxConnectionsPerClient = config.maxConnectionsPerClient;
+        rateLimits = new ArrayList<>(config.rateLimits);
+        rateLimitMaxKeys = config.rateLimitMaxKeys;
+        responseCacheSize = config.responseCacheSize;
+        responseCacheKeyHeaders = new ArrayList<>(config.responseCacheKeyHeaders);
+        coalescedRoutes = new HashSet<>(config.coalescedRoutes);
+        coalesceTimeout = config.coalesceTimeout;
+        maxHeaderSize = config.maxHeaderSize;
+        maxBodySize = config.maxBodySize;
+        bodyMemoryThreshold = config.bodyMemoryThreshold;
+        maxBufferedBodyMemory = config.maxBufferedBodyMemory;
+        multipartMemoryThreshold = config.multipartMemoryThreshold;
+        maxPartSize = config.maxPartSize;
+        maxMultipartSize = config.maxMultipartSize;
+        uploadDirectory = config.uploadDirectory;
     }
 
     /**
@@ -185,9 +316,807 @@ public class ServerConfig {
                 ", handlers=" + handlers +
                 ", socketTimeout=" + socketTimeout +
                 ", compressionType=" + compressionType +
+                ", httpsPort=" + httpsPort +
+                ", http2=" + http2 +
                 '}';
     }
 
+    /**
+     * @return HTTPS port or {@code 0} if HTTPS is disabled.
+     */
+    public int getHttpsPort() {
+        return httpsPort;
+    }
+
+    /**
+     * Define HTTPS port. HTTPS listener is started only if port is positive,
+     * key store must be set too.
+     *
+     * @param httpsPort TCP port.
+     * @return Itself for chaining.
+     * @see #setKeyStore(String)
+     */
+    public ServerConfig setHttpsPort(int httpsPort) {
+        this.httpsPort = httpsPort;
+
+        return this;
+    }
+
+    /**
+     * @return Path to key store with server certificate.
+     */
+    public String getKeyStore() {
+        return keyStore;
+    }
+
+    /**
+     * Define key store with server private key and certificate chain.
+     *
+     * @param keyStore Path to key store file.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setKeyStore(String keyStore) {
+        this.keyStore = keyStore;
+
+        return this;
+    }
+
+    public String getKeyStorePassword() {
+        return keyStorePassword;
+    }
+
+    /**
+     * Define password of key store and private key.
+     *
+     * @param keyStorePassword Password.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setKeyStorePassword(String keyStorePassword) {
+        this.keyStorePassword = keyStorePassword;
+
+        return this;
+    }
+
+    public String getKeyStoreType() {
+        return keyStoreType;
+    }
+
+    /**
+     * Define key store type, {@link #DFLT_KEY_STORE_TYPE} by default.
+     *
+     * @param keyStoreType Key store type, e.g. PKCS12 or JKS.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setKeyStoreType(String keyStoreType) {
+        this.keyStoreType = keyStoreType;
+
+        return this;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Define number of TLS sessions cached for resumption, 0 means no limit.
+     *
+     * @param tlsSessionCacheSize Cache size.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+
+        return this;
+    }
+
+    public int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Define how long TLS session may be resumed.
+     *
+     * @param tlsSessionTimeout Timeout in seconds, 0 means no limit.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setTlsSessionTimeout(int tlsSessionTimeout) {
+        this.tlsSessionTimeout = tlsSessionTimeout;
+
+        return this;
+    }
+
+    /**
+     * @return {@code True} if HTTP/2 with prior knowledge (h2c) is accepted.
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * Enables or disables HTTP/2. Connections starting with HTTP/2 preface are served
+     * by HTTP/2 codec, all others are processed as HTTP/1. HTTPS listener offers
+     * {@code h2} via ALPN only if HTTP/2 is enabled and JVM supports ALPN (Java 9+ or
+     * 8u252+). Enabled by default.
+     *
+     * @param http2 Whether HTTP/2 is enabled.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setHttp2(boolean http2) {
+        this.http2 = http2;
+
+        return this;
+    }
+
+    /**
+     * @return Max number of concurrently processed streams per HTTP/2 connection.
+     */
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    /**
+     * Define SETTINGS_MAX_CONCURRENT_STREAMS announced to HTTP/2 clients. Streams
+     * above the limit are refused.
+     *
+     * @param http2MaxConcurrentStreams Max concurrent streams.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setHttp2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+        this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+
+        return this;
+    }
+
+    /**
+     * @return HTTP/2 stream flow control window announced to clients.
+     */
+    public int getHttp2InitialWindowSize() {
+        return http2InitialWindowSize;
+    }
+
+    /**
+     * Define SETTINGS_INITIAL_WINDOW_SIZE announced to HTTP/2 clients, i.e. how many
+     * request body bytes per stream client may send before server acknowledges them.
+     *
+     * @param http2InitialWindowSize Window size in bytes.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setHttp2InitialWindowSize(int http2InitialWindowSize) {
+        this.http2InitialWindowSize = http2InitialWindowSize;
+
+        return this;
+    }
+
+    /**
+     * @return Session idle timeout in milliseconds.
+     */
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Define how long session lives without being accessed. Expired sessions are
+     * removed with {@link SessionKiller#DFLT_TICK_MILLIS} precision.
+     *
+     * @param sessionTimeout Timeout in milliseconds.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+
+        return this;
+    }
+
+    /**
+     * @return {@code True} if server keeps sessions.
+     */
+    public boolean isSessionsEnabled() {
+        return sessionsEnabled;
+    }
+
+    /**
+     * Enables or disables sessions. Stateless deployments may disable them, then
+     * session killer is not started and {@link Request#getSession()} throws
+     * {@link SessionException}. Enabled by default.
+     *
+     * @param sessionsEnabled Whether sessions are enabled.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setSessionsEnabled(boolean sessionsEnabled) {
+        this.sessionsEnabled = sessionsEnabled;
+
+        return this;
+    }
+
+    /**
+     * @return Session ID generator.
+     */
+    public SessionIdGenerator getSessionIdGenerator() {
+        return sessionIdGenerator;
+    }
+
+    /**
+     * Define session ID generator, {@link SecureSessionIdGenerator} by default.
+     *
+     * @param sessionIdGenerator Generator.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        this.sessionIdGenerator = sessionIdGenerator;
+
+        return this;
+    }
+
+    /**
+     * @return Session store or {@code null} if sessions are kept in memory.
+     */
+    public SessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    /**
+     * Define session store. By default sessions are kept in memory and lost on stop,
+     * {@link MappedSessionStore} keeps them across restarts.
+     *
+     * @param sessionStore Session store.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setSessionStore(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
+
+        return this;
+    }
+
+    /**
+     * @return Max number of sessions or {@code 0} if not limited.
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * Define max number of sessions. When limit is reached, new or rarely used
+     * sessions are evicted (W-TinyLFU), frequently used sessions are kept.
+     * Not applicable to {@link OffHeapSessionStore}, which has limits of its own.
+     *
+     * @param maxSessions Max number of sessions, {@code 0} means no limit.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+
+        return this;
+    }
+
+    /**
+     * @return Max estimated session memory or {@code 0} if not limited.
+     */
+    public long getMaxSessionMemory() {
+        return maxSessionMemory;
+    }
+
+    /**
+     * Define approximate heap budget of sessions and their data. Sessions are
+     * evicted the same way as with {@link #setMaxSessions(int)} limit.
+     *
+     * @param maxSessionMemory Budget in bytes, {@code 0} means no limit.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMaxSessionMemory(long maxSessionMemory) {
+        this.maxSessionMemory = maxSessionMemory;
+
+        return this;
+    }
+
+    /**
+     * @return Path of metrics endpoint or {@code null} if it is disabled.
+     */
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    /**
+     * Define path serving metrics in Prometheus text format, e.g. {@code /metrics}.
+     * Metrics are collected regardless of this setting, see {@link Server#getMetrics()}.
+     *
+     * @param metricsPath Path or {@code null} to disable endpoint.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMetricsPath(String metricsPath) {
+        this.metricsPath = metricsPath;
+
+        return this;
+    }
+
+    /**
+     * @return Access log file or {@code null} if access log is disabled.
+     */
+    public String getAccessLogFile() {
+        return accessLogFile;
+    }
+
+    /**
+     * Define access log file. Requests are logged asynchronously, see {@link AccessLog}.
+     *
+     * @param accessLogFile File path or {@code null} to disable access log.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setAccessLogFile(String accessLogFile) {
+        this.accessLogFile = accessLogFile;
+
+        return this;
+    }
+
+    /**
+     * @return Number of access log records buffered for writing.
+     */
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
+
+    /**
+     * Define number of access log records buffered for writing, rounded up to power of two.
+     *
+     * @param accessLogBufferSize Buffer size.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setAccessLogBufferSize(int accessLogBufferSize) {
+        this.accessLogBufferSize = accessLogBufferSize;
+
+        return this;
+    }
+
+    /**
+     * @return Max access log file size before rotation.
+     */
+    public long getAccessLogMaxFileSize() {
+        return accessLogMaxFileSize;
+    }
+
+    /**
+     * Define max access log file size, file is rotated when it's exceeded.
+     *
+     * @param accessLogMaxFileSize Size in bytes, {@code 0} disables rotation.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setAccessLogMaxFileSize(long accessLogMaxFileSize) {
+        this.accessLogMaxFileSize = accessLogMaxFileSize;
+
+        return this;
+    }
+
+    /**
+     * @return Number of rotated access log files kept.
+     */
+    public int getAccessLogMaxFiles() {
+        return accessLogMaxFiles;
+    }
+
+    /**
+     * Define number of rotated access log files kept, older files are deleted.
+     *
+     * @param accessLogMaxFiles Number of files.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setAccessLogMaxFiles(int accessLogMaxFiles) {
+        this.accessLogMaxFiles = accessLogMaxFiles;
+
+        return this;
+    }
+
+    /**
+     * @return Whether requests wait for access log buffer space instead of dropping records.
+     */
+    public boolean isAccessLogBlocking() {
+        return accessLogBlocking;
+    }
+
+    /**
+     * Define access log overflow policy. By default records are dropped when buffer
+     * is full, so slow disk never slows requests down.
+     *
+     * @param accessLogBlocking {@code true} to wait for buffer space.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setAccessLogBlocking(boolean accessLogBlocking) {
+        this.accessLogBlocking = accessLogBlocking;
+
+        return this;
+    }
+
+    /**
+     * @return Time in milliseconds given to in-flight requests to complete on stop.
+     */
+    public int getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * Define how long {@link Server#stop()} waits for in-flight requests before closing
+     * their connections, {@link #DFLT_SHUTDOWN_TIMEOUT} by default.
+     *
+     * @param shutdownTimeout Timeout in milliseconds, {@code 0} aborts requests immediately.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setShutdownTimeout(int shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+
+        return this;
+    }
+
+    /**
+     * @return Length of queue of connections waiting to be accepted.
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Define listen backlog, {@link #DFLT_BACKLOG} by default. Connections wait there
+     * while {@link #setMaxConnections(int) connection limit} is reached.
+     *
+     * @param backlog Queue length.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setBacklog(int backlog) {
+        this.backlog = backlog;
+
+        return this;
+    }
+
+    /**
+     * @return Max number of open connections or {@code 0} if unlimited.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Define max number of open connections. When it's reached server stops accepting
+     * until some connection is closed. Unlimited by default.
+     *
+     * @param maxConnections Max connections, {@code 0} means unlimited.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+
+        return this;
+    }
+
+    /**
+     * @return Max number of open connections from single client address or {@code 0} if unlimited.
+     */
+    public int getMaxConnectionsPerClient() {
+        return maxConnectionsPerClient;
+    }
+
+    /**
+     * Define max number of open connections from single client address. Connections
+     * above the limit are answered with {@code 503 Service Unavailable} and closed.
+     * Unlimited by default.
+     *
+     * @param maxConnectionsPerClient Max connections, {@code 0} means unlimited.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMaxConnectionsPerClient(int maxConnectionsPerClient) {
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+
+        return this;
+    }
+
+    /**
+     * Add request rate limit. Limits are checked once request headers are parsed,
+     * before body is read, request must pass all limits applicable to it.
+     *
+     * @param rateLimit Rate limit.
+     * @return Itself for chaining.
+     */
+    public ServerConfig addRateLimit(RateLimit rateLimit) {
+        rateLimits.add(rateLimit);
+
+        return this;
+    }
+
+    /**
+     * @return Request rate limits.
+     */
+    public List<RateLimit> getRateLimits() {
+        return Collections.unmodifiableList(rateLimits);
+    }
+
+    /**
+     * @return Max number of token buckets kept per rate limit.
+     */
+    public int getRateLimitMaxKeys() {
+        return rateLimitMaxKeys;
+    }
+
+    /**
+     * Define max number of token buckets kept per rate limit, {@link #DFLT_RATE_LIMIT_MAX_KEYS}
+     * by default. Bounds memory used by limits keyed by client address or header value.
+     *
+     * @param rateLimitMaxKeys Max number of buckets.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setRateLimitMaxKeys(int rateLimitMaxKeys) {
+        this.rateLimitMaxKeys = rateLimitMaxKeys;
+
+        return this;
+    }
+
+    /**
+     * @return Max memory of response cache in bytes or {@code 0} if cache is disabled.
+     */
+    public long getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    /**
+     * Enable cache of handler responses to {@code GET} requests. Handler opts in by setting
+     * {@code Cache-Control} header with {@code max-age}, optionally with
+     * {@code stale-while-revalidate}. Disabled by default.
+     *
+     * @param responseCacheSize Max memory in bytes, {@code 0} disables cache.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setResponseCacheSize(long responseCacheSize) {
+        this.responseCacheSize = responseCacheSize;
+
+        return this;
+    }
+
+    /**
+     * Add request header which value is part of response cache and request coalescing key,
+     * e.g. {@code Accept-Language} if handler response depends on it. Key always includes
+     * path and arguments.
+     *
+     * @param header Header name.
+     * @return Itself for chaining.
+     */
+    public ServerConfig addResponseCacheKeyHeader(String header) {
+        responseCacheKeyHeaders.add(header);
+
+        return this;
+    }
+
+    /**
+     * @return Request headers which values are part of response cache key.
+     */
+    public List<String> getResponseCacheKeyHeaders() {
+        return Collections.unmodifiableList(responseCacheKeyHeaders);
+    }
+
+    /**
+     * Enable coalescing of concurrent identical {@code GET} requests to the route: handler
+     * runs once for the first request, requests arriving while it runs wait for it and get
+     * the same response. Useful for expensive handlers, e.g. when hot cached response expires.
+     * Responses setting cookies are not shared.
+     *
+     * @param route Handler path.
+     * @return Itself for chaining.
+     */
+    public ServerConfig addCoalescedRoute(String route) {
+        coalescedRoutes.add(route);
+
+        return this;
+    }
+
+    /**
+     * @return Routes which concurrent identical requests are coalesced.
+     */
+    public Set<String> getCoalescedRoutes() {
+        return Collections.unmodifiableSet(coalescedRoutes);
+    }
+
+    /**
+     * @return Max time in milliseconds coalesced request waits for identical one.
+     */
+    public int getCoalesceTimeout() {
+        return coalesceTimeout;
+    }
+
+    /**
+     * Define max time coalesced request waits for identical one, {@link #DFLT_COALESCE_TIMEOUT}
+     * by default. Request waiting longer runs handler itself.
+     *
+     * @param coalesceTimeout Timeout in milliseconds.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setCoalesceTimeout(int coalesceTimeout) {
+        this.coalesceTimeout = coalesceTimeout;
+
+        return this;
+    }
+
+    /**
+     * @return Max size in bytes of request line and headers.
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * Define max size of request line and headers, {@link #DFLT_MAX_HEADER_SIZE} by default.
+     * Request with larger head is answered with {@code 431 Request Header Fields Too Large}.
+     *
+     * @param maxHeaderSize Size in bytes.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+
+        return this;
+    }
+
+    /**
+     * @return Max size in bytes of request body buffered by server or {@code 0} if unlimited.
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Define max size of request body buffered by server, {@link #DFLT_MAX_BODY_SIZE} by default.
+     * It limits {@code application/x-www-form-urlencoded} and {@code text/plain} bodies of
+     * HTTP/1 requests and all bodies of HTTP/2 requests. HTTP/1 request declaring larger
+     * {@code Content-Length} is answered with {@code 413 Payload Too Large} before body is read,
+     * HTTP/2 stream is reset once its body exceeds the limit.
+     *
+     * @param maxBodySize Size in bytes, {@code 0} means unlimited.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+
+        return this;
+    }
+
+    /**
+     * @return Max size in bytes of request body kept in memory.
+     */
+    public int getBodyMemoryThreshold() {
+        return bodyMemoryThreshold;
+    }
+
+    /**
+     * Define max size of request body kept in memory, {@link #DFLT_BODY_MEMORY_THRESHOLD}
+     * by default. Larger bodies are written to temporary files in
+     * {@link #setUploadDirectory(String) upload directory}.
+     *
+     * @param bodyMemoryThreshold Size in bytes.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setBodyMemoryThreshold(int bodyMemoryThreshold) {
+        this.bodyMemoryThreshold = bodyMemoryThreshold;
+
+        return this;
+    }
+
+    /**
+     * @return Max memory in bytes used by request bodies of all requests being processed
+     * or {@code 0} if unlimited.
+     */
+    public long getMaxBufferedBodyMemory() {
+        return maxBufferedBodyMemory;
+    }
+
+    /**
+     * Define max memory used by request bodies of all requests being processed,
+     * {@link #DFLT_MAX_BUFFERED_BODY_MEMORY} by default. Once it's reached, bodies are
+     * written to temporary files regardless of {@link #setBodyMemoryThreshold(int) threshold}.
+     *
+     * @param maxBufferedBodyMemory Size in bytes, {@code 0} means unlimited.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMaxBufferedBodyMemory(long maxBufferedBodyMemory) {
+        this.maxBufferedBodyMemory = maxBufferedBodyMemory;
+
+        return this;
+    }
+
+    /**
+     * @return Max size in bytes of multipart part kept in memory.
+     */
+    public int getMultipartMemoryThreshold() {
+        return multipartMemoryThreshold;
+    }
+
+    /**
+     * Define max size of {@code multipart/form-data} part kept in memory,
+     * {@link #DFLT_MULTIPART_MEMORY_THRESHOLD} by default. Larger parts are written
+     * to temporary files in {@link #setUploadDirectory(String) upload directory}.
+     *
+     * @param multipartMemoryThreshold Size in bytes.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMultipartMemoryThreshold(int multipartMemoryThreshold) {
+        this.multipartMemoryThreshold = multipartMemoryThreshold;
+
+        return this;
+    }
+
+    /**
+     * @return Max size in bytes of multipart part or {@code 0} if unlimited.
+     */
+    public long getMaxPartSize() {
+        return maxPartSize;
+    }
+
+    /**
+     * Define max size of {@code multipart/form-data} part, {@link #DFLT_MAX_PART_SIZE}
+     * by default. Request with larger part is answered with {@code 413 Payload Too Large}.
+     *
+     * @param maxPartSize Size in bytes, {@code 0} means unlimited.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMaxPartSize(long maxPartSize) {
+        this.maxPartSize = maxPartSize;
+
+        return this;
+    }
+
+    /**
+     * @return Max size in bytes of multipart body or {@code 0} if unlimited.
+     */
+    public long getMaxMultipartSize() {
+        return maxMultipartSize;
+    }
+
+    /**
+     * Define max size of {@code multipart/form-data} body, {@link #DFLT_MAX_MULTIPART_SIZE}
+     * by default. Request with larger body is answered with {@code 413 Payload Too Large}.
+     *
+     * @param maxMultipartSize Size in bytes, {@code 0} means unlimited.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setMaxMultipartSize(long maxMultipartSize) {
+        this.maxMultipartSize = maxMultipartSize;
+
+        return this;
+    }
+
+    /**
+     * @return Directory of temporary files of request bodies or {@code null} for default one.
+     */
+    public String getUploadDirectory() {
+        return uploadDirectory;
+    }
+
+    /**
+     * Define directory of temporary files of large request bodies and multipart parts,
+     * system temporary directory by default. Files are deleted once request is processed.
+     *
+     * @param uploadDirectory Directory path.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setUploadDirectory(String uploadDirectory) {
+        this.uploadDirectory = uploadDirectory;
+
+        return this;
+    }
+
+    /**
+     * @return Check of requests expecting {@code 100 Continue} or {@code null} if not set.
+     */
+    public ExpectationHandler getExpectationHandler() {
+        return expectationHandler;
+    }
+
+    /**
+     * Define check of requests sent with {@code Expect: 100-continue}. Such request is answered
+     * with {@code 100 Continue} only if it's routed to a handler, fits body size limits and
+     * passes the check, otherwise final response is sent and body is never read.
+     *
+     * @param expectationHandler Check or {@code null} to accept all routed requests.
+     * @return Itself for chaining.
+     */
+    public ServerConfig setExpectationHandler(ExpectationHandler expectationHandler) {
+        this.expectationHandler = expectationHandler;
+
+        return this;
+    }
+
     public ServerConfig setStaticDirectory(String path) {
         staticDirectory = path;
         return this;
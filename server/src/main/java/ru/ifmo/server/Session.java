@@ -1,40 +1,85 @@
 package ru.ifmo.server;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class Session {
 
-    private static final Logger LOG = LoggerFactory.getLogger(Server.class);
+    private static final SessionIdGenerator DFLT_ID_GENERATOR = new SecureSessionIdGenerator();
 
-    private static final String JSID_SYMBOLS = "123456789abcdefghijklmnopqrstuvwxyz";   //possible chars for session id
-    private static final int JSID_LENGTH = 32;                                          //max length of session id
+    /* Size estimation constants: session with ID string and map node holding it. */
+    private static final long SESSION_OVERHEAD = 200;
+    private static final long MAP_OVERHEAD = 64;
+    private static final long ENTRY_OVERHEAD = 32;
 
     public static int SESSION_OPENTIME = 1;                 //session livetime in minutes
     public static String SESSION_COOKIENAME = "JSESSIONID"; //common name for session cookie
 
     private Map<String, Object> sessionData;
     private String id;
-    private LocalDateTime expire;
+    volatile long timeout;     //idle timeout in nanos
+    volatile long deadline;    //System.nanoTime() based, slides on each access
     volatile boolean expired;
 
+    /** Next session in the same {@link SessionKiller} wheel bucket. */
+    Session wheelNext;
+
+    /** Store notified about data changes. */
+    volatile SessionStore store;
+
+    /** Wall clock expiration time last shipped to other nodes by replicating store. */
+    volatile long replicatedExpireMillis;
+
     public Session() {
-        this.id = generateSID();
-        this.setExpire(SESSION_OPENTIME);
+        this(TimeUnit.MINUTES.toMillis(SESSION_OPENTIME));
+    }
+
+    Session(long timeoutMillis) {
+        this(generateSID(), timeoutMillis);
+    }
+
+    Session(String id, long timeoutMillis) {
+        this.id = id;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.deadline = System.nanoTime() + timeout;
         this.expired = false;
     }
+
+    /**
+     * Restores persisted session.
+     *
+     * @param id Session ID.
+     * @param timeoutMillis Idle timeout.
+     * @param expireMillis Wall clock expiration time.
+     * @param data Session data or {@code null}.
+     */
+    Session(String id, long timeoutMillis, long expireMillis, Map<String, Object> data) {
+        this.id = id;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(expireMillis - System.currentTimeMillis());
+        this.sessionData = data == null || data.isEmpty() ? null : new ConcurrentHashMap<>(data);
+    }
+
+    /**
+     * @return Approximate wall clock time when session expires if not accessed.
+     */
     public LocalDateTime getExpire() {
-        return expire;
+        return LocalDateTime.now().plusNanos(deadline - System.nanoTime());
     }
 
+    /**
+     * Sets idle timeout and prolongs session for that time from now.
+     *
+     * @param minutes Timeout in minutes.
+     */
     public void setExpire(int minutes) {
-//        this.expire = LocalDateTime.now().plusMinutes(minutes);
-        this.expire = LocalDateTime.now().plusSeconds(minutes);
+        this.timeout = TimeUnit.MINUTES.toNanos(minutes);
+        touch();
     }
+
     public void setExpired(boolean expired) {
         this.expired = expired;
     }
@@ -43,6 +88,119 @@ public class Session {
         return id;
     }
 
+    /**
+     * Slides expiration deadline, invoked on each access.
+     */
+    void touch() {
+        deadline = System.nanoTime() + timeout;
+    }
+
+    /**
+     * @return Expiration deadline in {@link System#nanoTime()} terms.
+     */
+    long deadline() {
+        return deadline;
+    }
+
+    /**
+     * @return Idle timeout in milliseconds.
+     */
+    long timeoutMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timeout);
+    }
+
+    /**
+     * @return Wall clock expiration time in milliseconds.
+     */
+    long expireMillis() {
+        return System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    /**
+     * Moves expiration time forward if it is later than current one.
+     *
+     * @param expireMillis Wall clock expiration time.
+     */
+    void prolongTo(long expireMillis) {
+        long d = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(expireMillis - System.currentTimeMillis());
+
+        if (d - deadline > 0)
+            deadline = d;
+    }
+
+    /**
+     * Sets data value without notifying store, used to apply changes made elsewhere.
+     *
+     * @param key Key.
+     * @param value Value or {@code null} to remove.
+     */
+    void applyData(String key, Object value) {
+        if (value == null) {
+            if (sessionData != null)
+                sessionData.remove(key);
+
+            return;
+        }
+
+        if (sessionData == null) {
+            synchronized (this) {
+                if (sessionData == null)
+                    sessionData = new ConcurrentHashMap<>();
+            }
+        }
+
+        sessionData.put(key, value);
+    }
+
+    /**
+     * @return Session data, may be {@code null}.
+     */
+    Map<String, Object> data() {
+        return sessionData;
+    }
+
+    /**
+     * @return Rough estimate of heap occupied by session and its data.
+     */
+    long estimateSize() {
+        long size = SESSION_OVERHEAD;
+        Map<String, Object> data = sessionData;
+
+        if (data != null) {
+            size += MAP_OVERHEAD;
+
+            for (Map.Entry<String, Object> e : data.entrySet())
+                size += ENTRY_OVERHEAD + estimateSize(e.getKey()) + estimateSize(e.getValue());
+        }
+
+        return size;
+    }
+
+    private static long estimateSize(Object val) {
+        if (val instanceof String)
+            return 40 + 2L * ((String) val).length();
+        if (val instanceof byte[])
+            return 16 + ((byte[]) val).length;
+        if (val instanceof char[])
+            return 16 + 2L * ((char[]) val).length;
+        if (val instanceof Number || val instanceof Boolean || val instanceof Character)
+            return 16;
+        if (val instanceof Collection)
+            return 48 + ENTRY_OVERHEAD * ((Collection<?>) val).size();
+        if (val instanceof Map)
+            return MAP_OVERHEAD + ENTRY_OVERHEAD * ((Map<?, ?>) val).size();
+
+        return 64;
+    }
+
+    /**
+     * @param now Current {@link System#nanoTime()}.
+     * @return {@code True} if session is expired or its deadline has passed.
+     */
+    boolean isExpired(long now) {
+        return expired || now - deadline >= 0;
+    }
+
 //    public void invalidate() {
 //        expired = true;
 //        Server.removeSession(id);
@@ -58,6 +216,10 @@ public class Session {
                 }
             }
             sessionData.put(key, value);
+
+            SessionStore store = this.store;
+            if (store != null)
+                store.update(this, key);
         } else throw new SessionException("Session is expired!");
     }
 
@@ -66,22 +228,19 @@ public class Session {
         return sessionData == null ? null : (T) sessionData.get(key);
     }
 
+    /**
+     * @return New session ID produced by default generator.
+     * @see SecureSessionIdGenerator
+     */
     public static String generateSID() {
-        String symbols = JSID_SYMBOLS;
-
-        StringBuilder randString = new StringBuilder();
-        for (int i = 0; i < JSID_LENGTH; i++) {
-            randString.append(symbols.charAt((int) (Math.random() * symbols.length())));
-        }
-        LOG.info("New session opened " + randString);
-        return randString.toString();
+        return DFLT_ID_GENERATOR.generate();
     }
 
     @Override
     public String toString() {
         return "Session{" +
                 "sessionData=" + sessionData + ", " +
-                "expires=" + expire +
+                "expires=" + getExpire() +
                 "expired=" + expired +
                 '}';
     }
@@ -0,0 +1,22 @@
+package ru.ifmo.server;
+
+/**
+ * Converts session data values to bytes and back for persistent session stores.
+ *
+ * @see MappedSessionStore
+ */
+public interface SessionDataCodec {
+    /**
+     * @param value Session data value.
+     * @return Encoded value.
+     * @throws SessionException If value can't be encoded.
+     */
+    byte[] encode(Object value);
+
+    /**
+     * @param data Encoded value.
+     * @return Session data value.
+     * @throws SessionException If value can't be decoded.
+     */
+    Object decode(byte[] data);
+}
@@ -5,4 +5,8 @@ public class SessionException extends ServerException {
     public SessionException(String msg) {
         super(msg);
     }
+
+    public SessionException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
 }
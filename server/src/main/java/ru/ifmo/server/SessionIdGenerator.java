@@ -0,0 +1,15 @@
+package ru.ifmo.server;
+
+/**
+ * Generates session IDs. Implementations must be thread safe and should produce
+ * IDs which can't be guessed, session ID is the only credential of the session.
+ *
+ * @see ServerConfig#setSessionIdGenerator(SessionIdGenerator)
+ * @see SecureSessionIdGenerator
+ */
+public interface SessionIdGenerator {
+    /**
+     * @return New unique session ID, must be valid cookie value.
+     */
+    String generate();
+}
@@ -3,33 +3,146 @@ package ru.ifmo.server;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.LocalDateTime;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Expires idle sessions using hashed timing wheel.
+ * <p>
+ * Each session sits in the bucket of the tick its deadline falls into. Once per tick
+ * the killer detaches one bucket and either removes expired sessions or moves
+ * sessions whose deadline slid forward (see {@link Session#touch()}) to the bucket
+ * of their new deadline. Access only updates session deadline, so both scheduling
+ * and eviction cost O(1) per session and sweeps never scan the whole session map.
+ * </p>
+ * <p>
+ * Buckets are lock-free stacks linked through {@link Session#wheelNext}, a session
+ * is always in exactly one bucket.
+ * </p>
+ */
 public class SessionKiller implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Server.class);
-    private final Map<String, Session> sessions;
+
+    /** Default tick duration. */
+    public static final long DFLT_TICK_MILLIS = 1000;
+
+    /** Default number of buckets, must be power of two. */
+    public static final int DFLT_WHEEL_SIZE = 512;
+
+    private final SessionStore sessions;
+    private final AtomicReferenceArray<Session> wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final SessionStats stats;
+
+    /** Last tick processed by sweeper. */
+    private volatile long processedTick;
 
     public SessionKiller(Map<String, Session> sessions) {
+        this(new InMemorySessionStore(sessions));
+    }
+
+    public SessionKiller(SessionStore sessions) {
+        this(sessions, DFLT_TICK_MILLIS, DFLT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param sessions Session store, expired sessions are removed from it.
+     * @param tickMillis Wheel resolution.
+     * @param wheelSize Number of buckets, power of two.
+     */
+    public SessionKiller(SessionStore sessions, long tickMillis, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("Wheel size must be power of two: " + wheelSize);
+
         this.sessions = sessions;
+        this.stats = new SessionStats(sessions);
+        this.wheel = new AtomicReferenceArray<>(wheelSize);
+        this.mask = wheelSize - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.processedTick = tick(System.nanoTime());
+    }
+
+    /**
+     * Registers new session. Must be invoked once per session.
+     *
+     * @param session Session.
+     */
+    public void schedule(Session session) {
+        push(session, tick(session.deadline()));
+    }
+
+    /**
+     * @return Sweep statistics.
+     */
+    public SessionStats getStats() {
+        return stats;
     }
+
     @Override
     public void run() {
         while (!Thread.currentThread().isInterrupted()) {
-            try {
-                for (Map.Entry<String, Session> entry : sessions.entrySet()) {
-                    LocalDateTime curntTime = LocalDateTime.now();
-                    Thread.sleep(1000);
-                    if (entry.getValue().getExpire() != null && curntTime.isAfter(entry.getValue().getExpire())) {
-                        LOG.info("Deleting session '" + entry.getKey() + "'. Goodbye " );
-                        entry.getValue().setExpired(true);
-                        sessions.remove(entry.getKey());
-                    }
-                }
-            } catch (InterruptedException e) {
-                return;
+            long next = processedTick + 1;
+            long wait = next * tickNanos - System.nanoTime();
+
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
             }
+
+            sweep(next);
+            processedTick = next;
         }
     }
+
+    private void sweep(long tick) {
+        long start = System.nanoTime();
+        Session s = wheel.getAndSet((int) (tick & mask), null);
+        int expired = 0;
+        int moved = 0;
+
+        while (s != null) {
+            Session next = s.wheelNext;
+            s.wheelNext = null;
+
+            if (s.expired) {
+                // Already removed.
+            } else if (s.isExpired(start)) {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Deleting session '" + s.getId() + "'. Goodbye ");
+
+                s.setExpired(true);
+                sessions.expire(s);
+                expired++;
+            } else {
+                push(s, tick(s.deadline()));
+                moved++;
+            }
+
+            s = next;
+        }
+
+        expired += sessions.sweep(start);
+
+        stats.onSweep(System.nanoTime() - start, expired, moved);
+    }
+
+    private void push(Session session, long tick) {
+        // Deadlines in already swept ticks go to the next one.
+        tick = Math.max(tick, processedTick + 1);
+        int idx = (int) (tick & mask);
+
+        Session head;
+        do {
+            head = wheel.get(idx);
+            session.wheelNext = head;
+        } while (!wheel.compareAndSet(idx, head, session));
+    }
+
+    private long tick(long nanos) {
+        return Math.floorDiv(nanos, tickNanos) + 1;
+    }
 }
@@ -0,0 +1,114 @@
+package ru.ifmo.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session expiry statistics.
+ *
+ * @see Server#getSessionStats()
+ */
+public class SessionStats {
+    private final SessionStore store;
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rescheduled = new LongAdder();
+    private final LongAdder sweepNanos = new LongAdder();
+    private final LongAccumulator maxSweepNanos = new LongAccumulator(Math::max, 0);
+    private volatile int lastSweepExpired;
+
+    SessionStats(SessionStore store) {
+        this.store = store;
+    }
+
+    void onSweep(long nanos, int expiredCnt, int rescheduledCnt) {
+        sweeps.increment();
+        expired.add(expiredCnt);
+        rescheduled.add(rescheduledCnt);
+        sweepNanos.add(nanos);
+        maxSweepNanos.accumulate(nanos);
+        lastSweepExpired = expiredCnt;
+    }
+
+    /**
+     * @return Number of processed wheel ticks.
+     */
+    public long getSweeps() {
+        return sweeps.sum();
+    }
+
+    /**
+     * @return Total number of sessions removed by timeout.
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * @return Number of times a session was moved to a later bucket because
+     * it had been accessed since it was scheduled.
+     */
+    public long getRescheduled() {
+        return rescheduled.sum();
+    }
+
+    /**
+     * @return Sessions removed by the last sweep.
+     */
+    public int getLastSweepExpired() {
+        return lastSweepExpired;
+    }
+
+    /**
+     * @return Average sweep duration in microseconds.
+     */
+    public long getAvgSweepMicros() {
+        long cnt = sweeps.sum();
+        return cnt == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(sweepNanos.sum() / cnt);
+    }
+
+    /**
+     * @return Max sweep duration in microseconds.
+     */
+    public long getMaxSweepMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxSweepNanos.get());
+    }
+
+    /**
+     * @return Number of live sessions.
+     */
+    public int getActive() {
+        return store.size();
+    }
+
+    /**
+     * @return Estimated memory occupied by sessions in bytes. May require
+     * walking all sessions, so should be called sparingly.
+     */
+    public long getEstimatedBytes() {
+        return store.estimatedBytes();
+    }
+
+    /**
+     * @return Number of sessions evicted due to session limits.
+     * @see ServerConfig#setMaxSessions(int)
+     * @see ServerConfig#setMaxSessionMemory(long)
+     */
+    public long getEvicted() {
+        return store instanceof EvictingSessionStore ? ((EvictingSessionStore) store).evicted() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionStats{" +
+                "active=" + getActive() +
+                ", sweeps=" + getSweeps() +
+                ", expired=" + getExpired() +
+                ", evicted=" + getEvicted() +
+                ", rescheduled=" + getRescheduled() +
+                ", avgSweepMicros=" + getAvgSweepMicros() +
+                ", maxSweepMicros=" + getMaxSweepMicros() +
+                '}';
+    }
+}
@@ -0,0 +1,132 @@
+package ru.ifmo.server;
+
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * Storage of server sessions.
+ * <p>
+ * Server looks sessions up by ID taken from request cookie, registers sessions opened
+ * by handlers and removes sessions which timed out. Expiration itself is driven by
+ * {@link SessionKiller}, store only keeps sessions and, optionally, persists them.
+ * </p>
+ * <p>
+ * Implementations must be thread safe.
+ * </p>
+ *
+ * @see ServerConfig#setSessionStore(SessionStore)
+ * @see InMemorySessionStore
+ * @see MappedSessionStore
+ */
+public interface SessionStore {
+    /**
+     * Invoked on server start. Persistent stores load saved sessions here.
+     *
+     * @return Sessions loaded from storage, they are scheduled for expiration by server.
+     */
+    default Iterable<Session> start() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Invoked on server stop. Persistent stores save sessions here.
+     */
+    default void stop() {
+        // No-op.
+    }
+
+    /**
+     * @param id Session ID.
+     * @return Session or {@code null} if not found. Returned session may be timed out already.
+     */
+    Session get(String id);
+
+    /**
+     * Adds new session.
+     *
+     * @param session Session.
+     */
+    void put(Session session);
+
+    /**
+     * Invoked when session was accessed and its deadline prolonged.
+     *
+     * @param session Session.
+     */
+    void touch(Session session);
+
+    /**
+     * Invoked when session data changed.
+     *
+     * @param session Session.
+     * @param key Changed data key.
+     */
+    void update(Session session, String key);
+
+    /**
+     * Removes session regardless of its state.
+     *
+     * @param id Session ID.
+     * @return Removed session or {@code null}.
+     */
+    Session remove(String id);
+
+    /**
+     * Removes session to free memory. Unlike {@link #remove(String)}, the removal is
+     * local to this store, e.g. it isn't replicated.
+     *
+     * @param id Session ID.
+     * @return Removed session or {@code null}.
+     */
+    default Session evict(String id) {
+        return remove(id);
+    }
+
+    /**
+     * Removes timed out session if it is still mapped to its ID.
+     *
+     * @param session Session.
+     * @return {@code True} if session was removed.
+     */
+    boolean expire(Session session);
+
+    /**
+     * @return Number of stored sessions.
+     */
+    int size();
+
+    /**
+     * @return Estimated memory occupied by sessions in bytes, may be expensive to compute.
+     */
+    long estimatedBytes();
+
+    /**
+     * Sets callback scheduling expiration of sessions which store adds by itself, e.g.
+     * received from other nodes. Invoked by server before {@link #start()} unless
+     * store is {@link #isSelfExpiring() self-expiring}.
+     *
+     * @param scheduler Callback.
+     */
+    default void setScheduler(Consumer<Session> scheduler) {
+        // No-op.
+    }
+
+    /**
+     * @return {@code True} if store tracks session deadlines itself and removes timed out
+     * sessions in {@link #sweep(long)}. Sessions of such store aren't scheduled in
+     * {@link SessionKiller} wheel.
+     */
+    default boolean isSelfExpiring() {
+        return false;
+    }
+
+    /**
+     * Invoked by {@link SessionKiller} on each tick.
+     *
+     * @param now Current {@link System#nanoTime()}.
+     * @return Number of removed sessions.
+     */
+    default int sweep(long now) {
+        return 0;
+    }
+}
@@ -0,0 +1,165 @@
+package ru.ifmo.server;
+
+import ru.ifmo.server.util.BufferPool;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * TLS state shared by all connections of HTTPS listener: SSL context with
+ * server session cache, network buffer pools and handshake statistics.
+ */
+class TlsContext {
+    /** Max idle buffers of each kind kept in pools. */
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    private static final String[] ALPN_H2 = {"h2", "http/1.1"};
+    private static final String[] ALPN_HTTP1 = {"http/1.1"};
+
+    /**
+     * ALPN API of Java 9 and 8u252, {@code null} on older JVMs: they negotiate no
+     * protocol, so clients use HTTP/1.1.
+     */
+    private static final Method SET_APPLICATION_PROTOCOLS =
+        method(SSLParameters.class, "setApplicationProtocols", String[].class);
+    private static final Method GET_APPLICATION_PROTOCOL = method(SSLEngine.class, "getApplicationProtocol");
+
+    private final SSLContext sslCtx;
+    private final String[] alpn;
+    private final BufferPool netPool;
+    private final BufferPool appPool;
+    private final TlsStats stats = new TlsStats();
+
+    private TlsContext(SSLContext sslCtx, String[] alpn) {
+        this.sslCtx = sslCtx;
+        this.alpn = alpn;
+
+        SSLEngine probe = sslCtx.createSSLEngine();
+        netPool = new BufferPool(probe.getSession().getPacketBufferSize(), MAX_POOLED_BUFFERS, false);
+        appPool = new BufferPool(probe.getSession().getApplicationBufferSize(), MAX_POOLED_BUFFERS, false);
+    }
+
+    /**
+     * Creates TLS context from key store defined in config.
+     *
+     * @param config Server config.
+     * @return TLS context.
+     * @throws ServerException If key store can't be loaded.
+     */
+    static TlsContext create(ServerConfig config) {
+        if (config.getKeyStore() == null)
+            throw new ServerException("Key store must be set to enable HTTPS");
+
+        char[] pwd = config.getKeyStorePassword() == null ? null : config.getKeyStorePassword().toCharArray();
+
+        try (InputStream in = new FileInputStream(config.getKeyStore())) {
+            KeyStore ks = KeyStore.getInstance(config.getKeyStoreType());
+            ks.load(in, pwd);
+
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(ks, pwd);
+
+            SSLContext sslCtx = SSLContext.getInstance("TLS");
+            sslCtx.init(kmf.getKeyManagers(), null, null);
+
+            // Resumption via server session cache; JVMs supporting stateless
+            // session tickets use them on top of it.
+            SSLSessionContext sessions = sslCtx.getServerSessionContext();
+            sessions.setSessionCacheSize(config.getTlsSessionCacheSize());
+            sessions.setSessionTimeout(config.getTlsSessionTimeout());
+
+            return new TlsContext(sslCtx, config.isHttp2() ? ALPN_H2 : ALPN_HTTP1);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new ServerException("Unable to load key store: " + config.getKeyStore(), e);
+        }
+    }
+
+    /**
+     * Wraps accepted connection. Handshake is performed by {@link #handshake(TlsSocket)}.
+     */
+    TlsSocket wrap(Socket raw) throws IOException {
+        SSLEngine engine = sslCtx.createSSLEngine(raw.getInetAddress().getHostAddress(), raw.getPort());
+        engine.setUseClientMode(false);
+
+        if (SET_APPLICATION_PROTOCOLS != null) {
+            SSLParameters params = engine.getSSLParameters();
+            invoke(SET_APPLICATION_PROTOCOLS, params, (Object) alpn);
+            engine.setSSLParameters(params);
+        }
+
+        return new TlsSocket(raw, engine, this);
+    }
+
+    /**
+     * Performs handshake recording statistics.
+     */
+    void handshake(TlsSocket sock) throws IOException {
+        long start = System.nanoTime();
+
+        try {
+            boolean resumed = sock.handshake();
+            stats.onHandshake(System.nanoTime() - start, resumed, sock.getApplicationProtocol());
+        } catch (IOException | RuntimeException e) {
+            stats.onFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * @param engine Engine.
+     * @return Protocol negotiated via ALPN, {@code null} or empty string if none.
+     */
+    static String applicationProtocol(SSLEngine engine) {
+        return GET_APPLICATION_PROTOCOL == null ? null : (String) invoke(GET_APPLICATION_PROTOCOL, engine);
+    }
+
+    private static Method method(Class<?> cls, String name, Class<?>... params) {
+        try {
+            return cls.getMethod(name, params);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method meth, Object target, Object... args) {
+        try {
+            return meth.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new ServerException("Unable to call " + meth, e);
+        } catch (InvocationTargetException e) {
+            throw new ServerException("Unable to call " + meth, e.getCause());
+        }
+    }
+
+    TlsStats getStats() {
+        return stats;
+    }
+
+    ByteBuffer acquireNetBuffer() {
+        return netPool.acquire();
+    }
+
+    void releaseNetBuffer(ByteBuffer buf) {
+        netPool.release(buf);
+    }
+
+    ByteBuffer acquireAppBuffer() {
+        return appPool.acquire();
+    }
+
+    void releaseAppBuffer(ByteBuffer buf) {
+        appPool.release(buf);
+    }
+}
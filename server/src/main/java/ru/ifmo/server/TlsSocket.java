@@ -0,0 +1,387 @@
+package ru.ifmo.server;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.FINISHED;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_TASK;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_WRAP;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+
+/**
+ * Socket encrypting traffic of accepted plain socket with {@link SSLEngine}.
+ * <p>
+ * Presents decrypted streams through regular {@link Socket} API, so HTTP/1 and
+ * HTTP/2 processing code works with TLS connections unchanged. Network buffers
+ * are borrowed from {@link TlsContext} pools and returned on close.
+ * </p>
+ * <p>
+ * Reads and writes may be performed concurrently from different threads
+ * (which is the case for HTTP/2), each direction is guarded by its own lock.
+ * </p>
+ */
+class TlsSocket extends Socket {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Socket raw;
+    private final SSLEngine engine;
+    private final TlsContext ctx;
+    private final InputStream rawIn;
+    private final OutputStream rawOut;
+
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+
+    /** Received encrypted data, write mode. Guarded by {@link #readLock}. */
+    private ByteBuffer netIn;
+
+    /** Decrypted data, read mode. Guarded by {@link #readLock}. */
+    private ByteBuffer appIn;
+
+    /** Encrypted data to send. Guarded by {@link #writeLock}. */
+    private ByteBuffer netOut;
+
+    private final InputStream in = new TlsInputStream();
+    private final OutputStream out = new TlsOutputStream();
+
+    private volatile boolean closed;
+
+    TlsSocket(Socket raw, SSLEngine engine, TlsContext ctx) throws IOException {
+        this.raw = raw;
+        this.engine = engine;
+        this.ctx = ctx;
+
+        rawIn = raw.getInputStream();
+        rawOut = raw.getOutputStream();
+
+        netIn = ctx.acquireNetBuffer();
+        netOut = ctx.acquireNetBuffer();
+        appIn = ctx.acquireAppBuffer();
+        appIn.flip();
+    }
+
+    /**
+     * Performs TLS handshake.
+     *
+     * @return {@code True} if this handshake resumed earlier session.
+     * @throws IOException If handshake failed.
+     */
+    boolean handshake() throws IOException {
+        long startMillis = System.currentTimeMillis();
+
+        engine.beginHandshake();
+
+        synchronized (readLock) {
+            SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+
+            while (hs != FINISHED && hs != NOT_HANDSHAKING) {
+                switch (hs) {
+                    case NEED_WRAP:
+                        wrap(EMPTY);
+                        break;
+
+                    case NEED_TASK:
+                        runTasks();
+                        break;
+
+                    default:
+                        if (unwrap() < 0)
+                            throw new SSLException("Connection closed during handshake");
+                }
+
+                hs = engine.getHandshakeStatus();
+            }
+        }
+
+        // Resumed sessions keep creation time of the handshake which established them.
+        return engine.getSession().getCreationTime() < startMillis;
+    }
+
+    /**
+     * @return Protocol negotiated via ALPN or {@code null}.
+     */
+    String getApplicationProtocol() {
+        String proto = TlsContext.applicationProtocol(engine);
+        return proto == null || proto.isEmpty() ? null : proto;
+    }
+
+    SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    /**
+     * Unwraps single TLS record. Must be called under {@link #readLock}.
+     *
+     * @return Number of application bytes produced or {@code -1} if connection is closed.
+     */
+    private int unwrap() throws IOException {
+        netIn.flip();
+        appIn.compact();
+
+        SSLEngineResult res;
+        try {
+            res = engine.unwrap(netIn, appIn);
+        } finally {
+            netIn.compact();
+            appIn.flip();
+        }
+
+        switch (res.getStatus()) {
+            case OK:
+                if (res.getHandshakeStatus() == NEED_TASK)
+                    runTasks();
+
+                // Post-handshake messages, e.g. TLSv1.3 key update, may require a response.
+                if (engine.getHandshakeStatus() == NEED_WRAP && res.getHandshakeStatus() != FINISHED)
+                    wrap(EMPTY);
+
+                return res.bytesProduced();
+
+            case BUFFER_UNDERFLOW:
+                if (!netIn.hasRemaining())
+                    netIn = enlarge(netIn, engine.getSession().getPacketBufferSize(), true);
+
+                int n = rawIn.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+
+                if (n < 0)
+                    return -1;
+
+                netIn.position(netIn.position() + n);
+                return 0;
+
+            case BUFFER_OVERFLOW:
+                appIn.compact();
+                appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize(), false);
+                appIn.flip();
+                return 0;
+
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Encrypts and sends data.
+     */
+    private void wrap(ByteBuffer src) throws IOException {
+        synchronized (writeLock) {
+            do {
+                if (netOut == null)
+                    throw new SocketException("Socket is closed");
+
+                netOut.clear();
+
+                SSLEngineResult res = engine.wrap(src, netOut);
+
+                switch (res.getStatus()) {
+                    case BUFFER_OVERFLOW:
+                        netOut = enlarge(netOut, engine.getSession().getPacketBufferSize(), true);
+                        continue;
+
+                    case CLOSED:
+                        if (res.bytesProduced() == 0)
+                            throw new SocketException("Socket is closed");
+                        break;
+
+                    default:
+                        if (res.getHandshakeStatus() == NEED_TASK)
+                            runTasks();
+                }
+
+                rawOut.write(netOut.array(), netOut.arrayOffset(), netOut.position());
+            } while (src.hasRemaining());
+
+            rawOut.flush();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null)
+            task.run();
+    }
+
+    /**
+     * Replaces buffer with larger one keeping its content. Pooled buffer is returned to pool.
+     */
+    private ByteBuffer enlarge(ByteBuffer buf, int size, boolean net) {
+        ByteBuffer res = ByteBuffer.allocate(Math.max(size, buf.capacity() * 2));
+
+        buf.flip();
+        res.put(buf);
+
+        if (net)
+            ctx.releaseNetBuffer(buf);
+        else
+            ctx.releaseAppBuffer(buf);
+
+        return res;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+
+        try {
+            engine.closeOutbound();
+            wrap(EMPTY);
+        } catch (IOException ignored) {
+            // Peer may already be gone, close_notify is best effort.
+        } finally {
+            raw.close();
+        }
+
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                ctx.releaseNetBuffer(netIn);
+                ctx.releaseNetBuffer(netOut);
+                ctx.releaseAppBuffer(appIn);
+
+                netIn = null;
+                netOut = null;
+                appIn = null;
+            }
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return raw.isConnected();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return raw.getInetAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return raw.getLocalAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return raw.getPort();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return raw.getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return raw.getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return raw.getLocalSocketAddress();
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        raw.setSoTimeout(timeout);
+    }
+
+    @Override
+    public int getSoTimeout() throws SocketException {
+        return raw.getSoTimeout();
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) throws SocketException {
+        raw.setTcpNoDelay(on);
+    }
+
+    @Override
+    public String toString() {
+        return "TlsSocket{" + raw + ", protocol=" + getApplicationProtocol() + '}';
+    }
+
+    private class TlsInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            synchronized (readLock) {
+                if (appIn == null)
+                    throw new SocketException("Socket is closed");
+
+                while (!appIn.hasRemaining()) {
+                    if (engine.isInboundDone() || unwrap() < 0)
+                        return -1;
+                }
+
+                int n = Math.min(len, appIn.remaining());
+                appIn.get(b, off, n);
+                return n;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (readLock) {
+                return appIn == null ? 0 : appIn.remaining();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            TlsSocket.this.close();
+        }
+    }
+
+    private class TlsOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0)
+                wrap(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            TlsSocket.this.close();
+        }
+    }
+}
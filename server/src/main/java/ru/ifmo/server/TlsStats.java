@@ -0,0 +1,98 @@
+package ru.ifmo.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TLS handshake statistics of HTTPS listener.
+ *
+ * @see Server#getTlsStats()
+ */
+public class TlsStats {
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder handshakeNanos = new LongAdder();
+    private final LongAccumulator maxHandshakeNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder http2 = new LongAdder();
+
+    void onHandshake(long nanos, boolean resumption, String protocol) {
+        handshakes.increment();
+        handshakeNanos.add(nanos);
+        maxHandshakeNanos.accumulate(nanos);
+
+        if (resumption)
+            resumed.increment();
+
+        if ("h2".equals(protocol))
+            http2.increment();
+    }
+
+    void onFailure() {
+        failures.increment();
+    }
+
+    /**
+     * @return Number of successfully completed handshakes.
+     */
+    public long getHandshakes() {
+        return handshakes.sum();
+    }
+
+    /**
+     * @return Number of handshakes which resumed previous session.
+     */
+    public long getResumedHandshakes() {
+        return resumed.sum();
+    }
+
+    /**
+     * @return Number of failed handshakes.
+     */
+    public long getFailedHandshakes() {
+        return failures.sum();
+    }
+
+    /**
+     * @return Number of connections negotiated {@code h2} via ALPN.
+     */
+    public long getHttp2Handshakes() {
+        return http2.sum();
+    }
+
+    /**
+     * @return Share of resumed handshakes from 0 to 1.
+     */
+    public double getResumptionRate() {
+        long total = handshakes.sum();
+        return total == 0 ? 0 : (double) resumed.sum() / total;
+    }
+
+    /**
+     * @return Average handshake time in microseconds.
+     */
+    public long getAvgHandshakeMicros() {
+        long total = handshakes.sum();
+        return total == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(handshakeNanos.sum() / total);
+    }
+
+    /**
+     * @return Max handshake time in microseconds.
+     */
+    public long getMaxHandshakeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxHandshakeNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "TlsStats{" +
+                "handshakes=" + getHandshakes() +
+                ", resumed=" + getResumedHandshakes() +
+                ", failed=" + getFailedHandshakes() +
+                ", h2=" + getHttp2Handshakes() +
+                ", avgHandshakeMicros=" + getAvgHandshakeMicros() +
+                ", maxHandshakeMicros=" + getMaxHandshakeMicros() +
+                '}';
+    }
+}
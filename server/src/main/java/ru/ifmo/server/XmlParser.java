@@ -41,7 +41,8 @@ public class XmlParser extends AbstractParser {
                             break;
                         }
                     }
-                }
+                } else if ("rateLimit".equals(qName))
+                    config.addRateLimit(parseRateLimit(reader));
 
             } else if (reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
                 String qName = reader.getName().getLocalPart();
@@ -51,7 +52,8 @@ public class XmlParser extends AbstractParser {
                     config.addHandler(url, handler);
                 } else if ("handlersclass".equals(qName)) {
                     config.addClass(Class.forName(val));
-                } else if ("handlers".equals(qName) || "classes".equals(qName)) {
+                } else if ("handlers".equals(qName) || "classes".equals(qName) || "rateLimits".equals(qName)
+                        || "rateLimit".equals(qName)) {
                     continue;
                 } else {
                     reflectiveSetParam(config, qName, val);
@@ -62,4 +64,22 @@ public class XmlParser extends AbstractParser {
         return config;
     }
 
+    /**
+     * Parses rate limit element, e.g.
+     * {@code <rateLimit key="header" header="X-Api-Key" path="/api/" rate="10" burst="20"/>}.
+     */
+    private RateLimit parseRateLimit(XMLStreamReader reader) {
+        String key = reader.getAttributeValue(null, "key");
+        String rate = reader.getAttributeValue(null, "rate");
+        String burst = reader.getAttributeValue(null, "burst");
+
+        if (key == null || rate == null || burst == null)
+            throw new ServerException("Rate limit requires key, rate and burst attributes");
+
+        RateLimit limit = new RateLimit(RateLimit.Key.valueOf(key.toUpperCase()),
+                reader.getAttributeValue(null, "header"), Double.parseDouble(rate), Integer.parseInt(burst));
+
+        return limit.setPath(reader.getAttributeValue(null, "path"));
+    }
+
 }
@@ -0,0 +1,139 @@
+package ru.ifmo.server.http2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+import static ru.ifmo.server.http2.Http2.COMPRESSION_ERROR;
+
+/**
+ * HPACK header block decoder (RFC 7541). One instance per connection, not thread safe.
+ */
+public class HpackDecoder {
+    private final HpackTable table;
+    private final int maxHeaderListSize;
+    private int maxTableSize;
+
+    /**
+     * @param maxTableSize Value of SETTINGS_HEADER_TABLE_SIZE announced by this side.
+     * @param maxHeaderListSize Upper bound for decoded header list size.
+     */
+    public HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+        this.table = new HpackTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    /**
+     * Changes upper bound of dynamic table size encoder is allowed to use.
+     */
+    public void setMaxTableSize(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        if (table.maxSize() > maxTableSize)
+            table.setMaxSize(maxTableSize);
+    }
+
+    HpackTable table() {
+        return table;
+    }
+
+    /**
+     * Decodes complete header block.
+     *
+     * @param buf Buffer.
+     * @param off Block offset.
+     * @param len Block length.
+     * @param consumer Receives decoded fields in order.
+     * @throws Http2Exception With {@link Http2#COMPRESSION_ERROR} if block is malformed.
+     */
+    public void decode(byte[] buf, int off, int len, BiConsumer<String, String> consumer) {
+        int[] pos = {off};
+        int end = off + len;
+        int listSize = 0;
+        boolean fieldSeen = false;
+
+        try {
+            while (pos[0] < end) {
+                int b = buf[pos[0]] & 0xFF;
+                String name;
+                String value;
+
+                if ((b & 0x80) != 0) {
+                    int idx = readInt(buf, pos, end, 7);
+                    name = table.name(idx);
+                    value = table.value(idx);
+                } else if ((b & 0x40) != 0) {
+                    int idx = readInt(buf, pos, end, 6);
+                    name = idx == 0 ? readString(buf, pos, end) : table.name(idx);
+                    value = readString(buf, pos, end);
+                    table.add(name, value);
+                } else if ((b & 0x20) != 0) {
+                    if (fieldSeen)
+                        throw new Http2Exception(COMPRESSION_ERROR, "Table size update after header field");
+
+                    int size = readInt(buf, pos, end, 5);
+                    if (size > maxTableSize)
+                        throw new Http2Exception(COMPRESSION_ERROR, "Table size update exceeds limit: " + size);
+
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    // Literal without indexing (0000) or never indexed (0001), both use 4-bit prefix.
+                    int idx = readInt(buf, pos, end, 4);
+                    name = idx == 0 ? readString(buf, pos, end) : table.name(idx);
+                    value = readString(buf, pos, end);
+                }
+
+                fieldSeen = true;
+                listSize += HpackTable.entrySize(name, value);
+
+                if (listSize > maxHeaderListSize)
+                    throw new Http2Exception(COMPRESSION_ERROR, "Header list too large");
+
+                consumer.accept(name, value);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new Http2Exception(COMPRESSION_ERROR, "Truncated header block");
+        }
+    }
+
+    static int readInt(byte[] buf, int[] pos, int end, int prefix) {
+        int mask = (1 << prefix) - 1;
+        int val = buf[pos[0]++] & mask;
+
+        if (val < mask)
+            return val;
+
+        int shift = 0;
+        int b;
+
+        do {
+            if (pos[0] >= end || shift > 21)
+                throw new Http2Exception(COMPRESSION_ERROR, "Invalid integer encoding");
+
+            b = buf[pos[0]++] & 0xFF;
+            val += (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        if (val < 0)
+            throw new Http2Exception(COMPRESSION_ERROR, "Integer overflow");
+
+        return val;
+    }
+
+    private static String readString(byte[] buf, int[] pos, int end) {
+        if (pos[0] >= end)
+            throw new Http2Exception(COMPRESSION_ERROR, "Truncated string literal");
+
+        boolean huffman = (buf[pos[0]] & 0x80) != 0;
+        int len = readInt(buf, pos, end, 7);
+
+        if (len > end - pos[0])
+            throw new Http2Exception(COMPRESSION_ERROR, "String literal exceeds header block");
+
+        String s = huffman ? Huffman.decode(buf, pos[0], len) : new String(buf, pos[0], len, StandardCharsets.ISO_8859_1);
+        pos[0] += len;
+
+        return s;
+    }
+}
@@ -0,0 +1,108 @@
+package ru.ifmo.server.http2;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * HPACK header block encoder (RFC 7541). One instance per connection, not thread safe:
+ * blocks must be written to the wire in the same order they were encoded.
+ */
+public class HpackEncoder {
+    private final HpackTable table;
+
+    /** Smallest table size set by peer since last block, {@code -1} if unchanged. */
+    private int minPendingSize = -1;
+    private int pendingSize = -1;
+
+    public HpackEncoder(int maxTableSize) {
+        table = new HpackTable(maxTableSize);
+    }
+
+    /**
+     * Applies SETTINGS_HEADER_TABLE_SIZE received from peer. Size update is
+     * signalled at the beginning of the next header block.
+     */
+    public void setMaxTableSize(int size) {
+        if (size == table.maxSize() && pendingSize == -1)
+            return;
+
+        minPendingSize = minPendingSize == -1 ? size : Math.min(minPendingSize, size);
+        pendingSize = size;
+    }
+
+    /**
+     * Encodes header field appending result to block.
+     *
+     * @param name Lower case header name.
+     * @param value Header value.
+     * @param index Whether field may be added to dynamic table. Pass {@code false}
+     *        for sensitive or frequently changing values.
+     * @param out Header block.
+     */
+    public void encode(String name, String value, boolean index, ByteArrayOutputStream out) {
+        flushTableSizeUpdate(out);
+
+        int idx = table.find(name, value);
+
+        if (idx > 0) {
+            writeInt(out, 0x80, 7, idx);
+            return;
+        }
+
+        if (index && HpackTable.entrySize(name, value) <= table.maxSize()) {
+            writeInt(out, 0x40, 6, -idx);
+            table.add(name, value);
+        } else
+            writeInt(out, 0x00, 4, -idx);
+
+        if (idx == 0)
+            writeString(out, name);
+
+        writeString(out, value);
+    }
+
+    private void flushTableSizeUpdate(ByteArrayOutputStream out) {
+        if (pendingSize == -1)
+            return;
+
+        if (minPendingSize < pendingSize)
+            writeInt(out, 0x20, 5, minPendingSize);
+
+        writeInt(out, 0x20, 5, pendingSize);
+        table.setMaxSize(pendingSize);
+
+        minPendingSize = -1;
+        pendingSize = -1;
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int mask, int prefix, int val) {
+        int max = (1 << prefix) - 1;
+
+        if (val < max) {
+            out.write(mask | val);
+            return;
+        }
+
+        out.write(mask | max);
+        val -= max;
+
+        while (val >= 0x80) {
+            out.write((val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+
+        out.write(val);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        int huffLen = Huffman.encodedLength(s);
+
+        if (huffLen < s.length()) {
+            writeInt(out, 0x80, 7, huffLen);
+            Huffman.encode(s, out);
+        } else {
+            writeInt(out, 0x00, 7, s.length());
+            for (int i = 0; i < s.length(); i++)
+                out.write(s.charAt(i));
+        }
+    }
+}
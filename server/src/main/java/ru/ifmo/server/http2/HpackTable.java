@@ -0,0 +1,229 @@
+package ru.ifmo.server.http2;
+
+import java.util.Arrays;
+
+import static ru.ifmo.server.http2.Http2.COMPRESSION_ERROR;
+
+/**
+ * HPACK indexing table: static table followed by dynamic table (RFC 7541, section 2.3).
+ * Not thread safe.
+ */
+public class HpackTable {
+    /** Per entry overhead defined by RFC 7541, section 4.1. */
+    public static final int ENTRY_OVERHEAD = 32;
+
+    static final String[][] STATIC = {
+            null,
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    /** Number of entries in static table. */
+    public static final int STATIC_SIZE = STATIC.length - 1;
+
+    /** Dynamic table ring buffer, names and values in adjacent slots. */
+    private String[] ring = new String[32];
+    private int head;
+    private int count;
+    private int size;
+    private int maxSize;
+
+    public HpackTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return Number of entries in dynamic table.
+     */
+    public int dynamicLength() {
+        return count;
+    }
+
+    /**
+     * @return Current dynamic table size in octets.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Changes dynamic table maximum size evicting entries if needed.
+     *
+     * @param maxSize New maximum size.
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(0);
+    }
+
+    public String name(int idx) {
+        return entry(idx, 0);
+    }
+
+    public String value(int idx) {
+        return entry(idx, 1);
+    }
+
+    /**
+     * Inserts new entry at the beginning of dynamic table.
+     */
+    public void add(String name, String value) {
+        int entrySize = entrySize(name, value);
+
+        if (entrySize > maxSize) {
+            clear();
+            return;
+        }
+
+        evict(entrySize);
+
+        if (count * 2 == ring.length)
+            grow();
+
+        head = (head - 2 + ring.length) % ring.length;
+        ring[head] = name;
+        ring[head + 1] = value;
+        count++;
+        size += entrySize;
+    }
+
+    /**
+     * Finds best matching index for header field.
+     *
+     * @return Positive index of full match, negative index of name only match or {@code 0}.
+     */
+    public int find(String name, String value) {
+        int nameIdx = 0;
+
+        for (int i = 1; i <= STATIC_SIZE; i++) {
+            if (STATIC[i][0].equals(name)) {
+                if (STATIC[i][1].equals(value))
+                    return i;
+                if (nameIdx == 0)
+                    nameIdx = i;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i * 2) % ring.length;
+            if (ring[slot].equals(name)) {
+                if (ring[slot + 1].equals(value))
+                    return STATIC_SIZE + 1 + i;
+                if (nameIdx == 0)
+                    nameIdx = STATIC_SIZE + 1 + i;
+            }
+        }
+
+        return -nameIdx;
+    }
+
+    public static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+    private String entry(int idx, int part) {
+        if (idx <= 0)
+            throw new Http2Exception(COMPRESSION_ERROR, "Invalid header index: " + idx);
+
+        if (idx <= STATIC_SIZE)
+            return STATIC[idx][part];
+
+        int dynIdx = idx - STATIC_SIZE - 1;
+
+        if (dynIdx >= count)
+            throw new Http2Exception(COMPRESSION_ERROR, "Invalid header index: " + idx);
+
+        return ring[(head + dynIdx * 2) % ring.length + part];
+    }
+
+    private void evict(int required) {
+        while (count > 0 && size + required > maxSize) {
+            int slot = (head + (count - 1) * 2) % ring.length;
+
+            size -= entrySize(ring[slot], ring[slot + 1]);
+            ring[slot] = null;
+            ring[slot + 1] = null;
+            count--;
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(ring, null);
+        head = 0;
+        count = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        String[] newRing = new String[ring.length * 2];
+
+        for (int i = 0; i < count * 2; i++)
+            newRing[i] = ring[(head + i) % ring.length];
+
+        ring = newRing;
+        head = 0;
+    }
+}
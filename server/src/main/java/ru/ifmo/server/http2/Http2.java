@@ -0,0 +1,88 @@
+package ru.ifmo.server.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP/2 constants (RFC 7540).
+ */
+public final class Http2 {
+    /** Client connection preface. */
+    public static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /** Frame header length. */
+    public static final int FRAME_HEADER_LENGTH = 9;
+
+    /** Frame types. */
+    public static final int TYPE_DATA = 0x0;
+    public static final int TYPE_HEADERS = 0x1;
+    public static final int TYPE_PRIORITY = 0x2;
+    public static final int TYPE_RST_STREAM = 0x3;
+    public static final int TYPE_SETTINGS = 0x4;
+    public static final int TYPE_PUSH_PROMISE = 0x5;
+    public static final int TYPE_PING = 0x6;
+    public static final int TYPE_GOAWAY = 0x7;
+    public static final int TYPE_WINDOW_UPDATE = 0x8;
+    public static final int TYPE_CONTINUATION = 0x9;
+
+    /** Frame flags. */
+    public static final int FLAG_ACK = 0x1;
+    public static final int FLAG_END_STREAM = 0x1;
+    public static final int FLAG_END_HEADERS = 0x4;
+    public static final int FLAG_PADDED = 0x8;
+    public static final int FLAG_PRIORITY = 0x20;
+
+    /** Settings identifiers. */
+    public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    public static final int SETTINGS_ENABLE_PUSH = 0x2;
+    public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    /** Error codes. */
+    public static final int NO_ERROR = 0x0;
+    public static final int PROTOCOL_ERROR = 0x1;
+    public static final int INTERNAL_ERROR = 0x2;
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+    public static final int STREAM_CLOSED = 0x5;
+    public static final int FRAME_SIZE_ERROR = 0x6;
+    public static final int REFUSED_STREAM = 0x7;
+    public static final int CANCEL = 0x8;
+    public static final int COMPRESSION_ERROR = 0x9;
+
+    /** Protocol defaults. */
+    public static final int DFLT_HEADER_TABLE_SIZE = 4096;
+    public static final int DFLT_INITIAL_WINDOW_SIZE = 65535;
+    public static final int DFLT_MAX_FRAME_SIZE = 16384;
+    public static final int MAX_MAX_FRAME_SIZE = (1 << 24) - 1;
+    public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    private Http2() {
+    }
+
+    /**
+     * Checks whether stream starts with HTTP/2 connection preface. Bytes are read only
+     * while they match the preface so short HTTP/1 requests never block here.
+     * Stream position is restored in any case.
+     *
+     * @param in Stream supporting mark/reset.
+     * @return {@code True} if the whole preface is present.
+     * @throws IOException If failed to read from stream.
+     */
+    public static boolean isPreface(InputStream in) throws IOException {
+        assert in.markSupported();
+
+        in.mark(PREFACE.length);
+        try {
+            for (byte b : PREFACE) {
+                if (in.read() != (b & 0xFF))
+                    return false;
+            }
+            return true;
+        } finally {
+            in.reset();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ru.ifmo.server.http2;
+
+import ru.ifmo.server.ServerException;
+
+/**
+ * HTTP/2 protocol error. Stream id {@code 0} means connection error.
+ */
+public class Http2Exception extends ServerException {
+    private final int errorCode;
+    private final int streamId;
+
+    /**
+     * Constructs connection error.
+     *
+     * @param errorCode HTTP/2 error code.
+     * @param message Exception message.
+     */
+    public Http2Exception(int errorCode, String message) {
+        this(errorCode, 0, message);
+    }
+
+    /**
+     * Constructs stream error.
+     *
+     * @param errorCode HTTP/2 error code.
+     * @param streamId Failed stream id.
+     * @param message Exception message.
+     */
+    public Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * @return {@code True} if error must terminate whole connection.
+     */
+    public boolean isConnectionError() {
+        return streamId == 0;
+    }
+}
@@ -0,0 +1,134 @@
+package ru.ifmo.server.http2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static ru.ifmo.server.http2.Http2.FRAME_HEADER_LENGTH;
+import static ru.ifmo.server.http2.Http2.FRAME_SIZE_ERROR;
+
+/**
+ * Single HTTP/2 frame: 9 bytes header and payload.
+ */
+public class Http2Frame {
+    private final int type;
+    private final int flags;
+    private final int streamId;
+    private final byte[] payload;
+
+    public Http2Frame(int type, int flags, int streamId, byte[] payload) {
+        this.type = type;
+        this.flags = flags;
+        this.streamId = streamId;
+        this.payload = payload;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getLength() {
+        return payload.length;
+    }
+
+    /**
+     * Reads next frame from stream.
+     *
+     * @param in Input stream.
+     * @param maxFrameSize Maximum payload length this side advertised.
+     * @return Frame or {@code null} if stream is closed between frames.
+     * @throws IOException If failed to read.
+     * @throws Http2Exception If frame exceeds max frame size.
+     */
+    public static Http2Frame read(InputStream in, int maxFrameSize) throws IOException {
+        byte[] hdr = new byte[FRAME_HEADER_LENGTH];
+
+        int first = in.read();
+        if (first < 0)
+            return null;
+
+        hdr[0] = (byte) first;
+        readFully(in, hdr, 1, FRAME_HEADER_LENGTH - 1);
+
+        int len = (hdr[0] & 0xFF) << 16 | (hdr[1] & 0xFF) << 8 | (hdr[2] & 0xFF);
+        int type = hdr[3] & 0xFF;
+        int flags = hdr[4] & 0xFF;
+        int streamId = readInt(hdr, 5) & 0x7FFFFFFF;
+
+        if (len > maxFrameSize)
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Frame too large: " + len);
+
+        byte[] payload = new byte[len];
+        readFully(in, payload, 0, len);
+
+        return new Http2Frame(type, flags, streamId, payload);
+    }
+
+    /**
+     * Writes frame header and payload slice. Not thread safe, callers must
+     * serialize writes to the same stream.
+     */
+    public static void write(OutputStream out, int type, int flags, int streamId, byte[] payload, int off, int len)
+            throws IOException {
+        byte[] hdr = new byte[FRAME_HEADER_LENGTH];
+
+        hdr[0] = (byte) (len >>> 16);
+        hdr[1] = (byte) (len >>> 8);
+        hdr[2] = (byte) len;
+        hdr[3] = (byte) type;
+        hdr[4] = (byte) flags;
+        writeInt(hdr, 5, streamId & 0x7FFFFFFF);
+
+        out.write(hdr);
+        if (len > 0)
+            out.write(payload, off, len);
+    }
+
+    public static int readInt(byte[] buf, int off) {
+        return (buf[off] & 0xFF) << 24 | (buf[off + 1] & 0xFF) << 16 | (buf[off + 2] & 0xFF) << 8 | (buf[off + 3] & 0xFF);
+    }
+
+    public static void writeInt(byte[] buf, int off, int val) {
+        buf[off] = (byte) (val >>> 24);
+        buf[off + 1] = (byte) (val >>> 16);
+        buf[off + 2] = (byte) (val >>> 8);
+        buf[off + 3] = (byte) val;
+    }
+
+    private static void readFully(InputStream in, byte[] buf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(buf, off, len);
+            if (n < 0)
+                throw new EOFException("Connection closed in the middle of a frame");
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Http2Frame{" +
+                "type=" + type +
+                ", flags=" + flags +
+                ", streamId=" + streamId +
+                ", length=" + payload.length +
+                '}';
+    }
+}
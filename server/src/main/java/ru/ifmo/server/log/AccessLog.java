@@ -0,0 +1,320 @@
+package ru.ifmo.server.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.ifmo.server.HttpMethod;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous access log.
+ * <p>
+ * Worker threads copy request attributes into pre-allocated slots of bounded
+ * multi-producer single-consumer ring buffer and return, nothing is formatted or
+ * allocated on their side. Single background thread drains the buffer, formats
+ * records and writes them in batches to {@link RotatingFile}, so disk stalls never
+ * delay request processing. When the buffer is full, records are dropped and
+ * counted, or producers wait for free slot if log is blocking.
+ * </p>
+ * <p>
+ * Line format is close to Common Log Format with latency added:
+ * {@code 127.0.0.1 - - [19/Oct/2026:13:26:28 +0000] "GET /path" 200 1024 350us}.
+ * </p>
+ */
+public class AccessLog implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(AccessLog.class);
+
+    /** Default number of ring buffer slots. */
+    public static final int DFLT_BUFFER_SIZE = 8192;
+
+    /** Default max size of log file before rotation. */
+    public static final long DFLT_MAX_FILE_SIZE = 64L * 1024 * 1024;
+
+    /** Default number of rotated files kept. */
+    public static final int DFLT_MAX_FILES = 5;
+
+    /** Max records formatted into one write. */
+    private static final int BATCH_SIZE = 256;
+
+    /** Consumer sleep when buffer is empty. */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final Slot[] slots;
+    private final int mask;
+    private final boolean blocking;
+    private final RotatingFile file;
+
+    /** Next slot to claim by producers. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Next slot to read, accessed by consumer only. */
+    private long head;
+
+    private final LongAdder logged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private final StringBuilder line = new StringBuilder(256);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer out = ByteBuffer.allocate(BATCH_SIZE * 128);
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+    private long lastSecond = -1;
+    private String lastDate;
+
+    private volatile Thread writer;
+    private volatile boolean stopped;
+
+    /**
+     * @param path Log file.
+     * @param bufferSize Number of ring buffer slots, rounded up to power of two.
+     * @param maxFileSize Max file size before rotation.
+     * @param maxFiles Number of rotated files kept.
+     * @param blocking Whether producers wait for free slot when buffer is full,
+     * otherwise record is dropped.
+     */
+    public AccessLog(Path path, int bufferSize, long maxFileSize, int maxFiles, boolean blocking) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+
+        int cap = 1;
+
+        while (cap < bufferSize)
+            cap <<= 1;
+
+        slots = new Slot[cap];
+        mask = cap - 1;
+
+        for (int i = 0; i < cap; i++)
+            slots[i] = new Slot(i);
+
+        this.blocking = blocking;
+        this.file = new RotatingFile(path, maxFileSize, maxFiles);
+    }
+
+    /**
+     * Opens file and starts writer thread.
+     *
+     * @throws IOException If failed to open file.
+     */
+    public void start() throws IOException {
+        file.open();
+
+        Thread t = new Thread(this::run, "access-log-writer");
+        t.setDaemon(true);
+        writer = t;
+        t.start();
+    }
+
+    /**
+     * Queues record. Never blocks unless log is blocking and buffer is full.
+     *
+     * @param client Client address.
+     * @param method Request method or {@code null} if request wasn't parsed.
+     * @param path Request path or {@code null} if request wasn't parsed.
+     * @param status Response status or {@code 0} if request was aborted.
+     * @param bytes Bytes sent.
+     * @param latencyNanos Processing time.
+     * @return {@code false} if record was dropped.
+     */
+    public boolean log(InetAddress client, HttpMethod method, String path, int status, long bytes, long latencyNanos) {
+        long timeMillis = System.currentTimeMillis();
+
+        while (true) {
+            long t = tail.get();
+            Slot s = slots[(int) t & mask];
+            long dif = s.seq - t;
+
+            if (dif == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    s.timeMillis = timeMillis;
+                    s.client = client;
+                    s.method = method;
+                    s.path = path;
+                    s.status = status;
+                    s.bytes = bytes;
+                    s.latencyNanos = latencyNanos;
+                    s.seq = t + 1; // Publish.
+
+                    return true;
+                }
+            } else if (dif < 0) {
+                // Buffer is full.
+                if (!blocking || stopped) {
+                    dropped.increment();
+                    return false;
+                }
+
+                LockSupport.parkNanos(1000);
+            }
+        }
+    }
+
+    /**
+     * @return Number of written records.
+     */
+    public long getLogged() {
+        return logged.sum();
+    }
+
+    /**
+     * @return Number of records dropped because buffer was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes queued records, stops writer thread and closes file.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+
+        Thread t = writer;
+
+        if (t != null) {
+            LockSupport.unpark(t);
+
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        file.close();
+    }
+
+    private void run() {
+        while (true) {
+            boolean stop = stopped;
+            int n;
+
+            try {
+                n = drain();
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Failed to write access log", e);
+                n = 0;
+            }
+
+            if (n == 0) {
+                if (stop)
+                    return;
+
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Formats and writes one batch.
+     *
+     * @return Number of records written.
+     */
+    private int drain() throws IOException {
+        int n = 0;
+
+        out.clear();
+
+        while (n < BATCH_SIZE) {
+            Slot s = slots[(int) head & mask];
+
+            if (s.seq != head + 1)
+                break;
+
+            format(s);
+
+            s.client = null;
+            s.method = null;
+            s.path = null;
+            s.seq = head + slots.length; // Release slot to producers.
+
+            head++;
+            n++;
+
+            encode();
+        }
+
+        if (n > 0) {
+            out.flip();
+            file.write(out);
+            logged.add(n);
+        }
+
+        return n;
+    }
+
+    private void format(Slot s) {
+        line.setLength(0);
+
+        line.append(s.client == null ? "-" : s.client.getHostAddress())
+            .append(" - - [").append(date(s.timeMillis)).append("] \"")
+            .append(s.method == null ? "-" : s.method).append(' ')
+            .append(s.path == null ? "-" : s.path).append("\" ")
+            .append(s.status).append(' ')
+            .append(s.bytes).append(' ')
+            .append(TimeUnit.NANOSECONDS.toMicros(s.latencyNanos)).append("us\n");
+    }
+
+    private void encode() {
+        int max = (int) (line.length() * encoder.maxBytesPerChar()) + 1;
+
+        if (out.remaining() < max) {
+            ByteBuffer buf = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + max));
+            out.flip();
+            buf.put(out);
+            out = buf;
+        }
+
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(line), out, true);
+    }
+
+    private String date(long millis) {
+        long sec = millis / 1000;
+
+        if (sec != lastSecond) {
+            lastDate = dateFormat.format(new Date(millis));
+            lastSecond = sec;
+        }
+
+        return lastDate;
+    }
+
+    /**
+     * Ring buffer slot. Sequence tells who owns it: producer claiming position
+     * {@code p} waits for {@code seq == p}, consumer reading it waits for {@code p + 1}.
+     */
+    private static class Slot {
+        volatile long seq;
+
+        long timeMillis;
+        InetAddress client;
+        HttpMethod method;
+        String path;
+        int status;
+        long bytes;
+        long latencyNanos;
+
+        Slot(long seq) {
+            this.seq = seq;
+        }
+    }
+}
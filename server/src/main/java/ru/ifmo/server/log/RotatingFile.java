@@ -0,0 +1,96 @@
+package ru.ifmo.server.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.ifmo.server.util.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only file rotated by size: {@code access.log} is renamed to {@code access.log.1},
+ * previous {@code access.log.1} to {@code access.log.2} and so on, the oldest file is deleted.
+ * Not thread safe.
+ */
+class RotatingFile {
+    private static final Logger LOG = LoggerFactory.getLogger(RotatingFile.class);
+
+    private final Path path;
+    private final long maxSize;
+    private final int maxFiles;
+
+    private FileChannel ch;
+    private long size;
+
+    /**
+     * @param path File.
+     * @param maxSize Max file size, {@code 0} disables rotation.
+     * @param maxFiles Number of rotated files kept.
+     */
+    RotatingFile(Path path, long maxSize, int maxFiles) {
+        this.path = path;
+        this.maxSize = maxSize;
+        this.maxFiles = maxFiles;
+    }
+
+    void open() throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+
+        if (dir != null)
+            Files.createDirectories(dir);
+
+        ch = FileChannel.open(path, CREATE, WRITE, APPEND);
+        size = ch.size();
+    }
+
+    /**
+     * Writes buffer, rotates file first if it would exceed max size.
+     */
+    void write(ByteBuffer buf) throws IOException {
+        if (maxSize > 0 && size > 0 && size + buf.remaining() > maxSize)
+            rotate();
+
+        while (buf.hasRemaining())
+            size += ch.write(buf);
+    }
+
+    void close() {
+        Utils.closeQuiet(ch);
+        ch = null;
+    }
+
+    private void rotate() throws IOException {
+        ch.close();
+
+        if (maxFiles > 0) {
+            Files.deleteIfExists(rotated(maxFiles));
+
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                Path src = rotated(i);
+
+                if (Files.exists(src))
+                    Files.move(src, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else
+            Files.delete(path);
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Rotated access log: " + path);
+
+        open();
+    }
+
+    private Path rotated(int idx) {
+        return path.resolveSibling(path.getFileName() + "." + idx);
+    }
+}
@@ -0,0 +1,118 @@
+package ru.ifmo.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non-negative values, e.g. latencies in nanoseconds.
+ * <p>
+ * Like HdrHistogram, each power of two range is split into {@value #SUB_BUCKETS} linear
+ * sub-buckets, so relative error of quantiles is within 1/{@value #SUB_BUCKETS} over the
+ * whole range. Values above {@link #MAX_VALUE} (~18 minutes of nanoseconds) are clamped.
+ * Recording is a few atomic increments and never allocates.
+ * </p>
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 4;
+
+    /** Linear sub-buckets per power of two. */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private static final int MAX_BITS = 40;
+
+    /** Max recorded value. */
+    public static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param val Value, negative is recorded as {@code 0}.
+     */
+    public void record(long val) {
+        if (val < 0)
+            val = 0;
+        else if (val > MAX_VALUE)
+            val = MAX_VALUE;
+
+        counts.incrementAndGet(index(val));
+        count.increment();
+        sum.add(val);
+        max.accumulate(val);
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Sum of recorded values.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return Max recorded value.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Computes quantile over current counts. Concurrent recording is not blocked,
+     * so result may miss the latest values.
+     *
+     * @param q Quantile from {@code 0} to {@code 1}.
+     * @return Highest value equivalent to the quantile or {@code 0} if nothing is recorded.
+     */
+    public long getValueAtQuantile(double q) {
+        long total = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+            total += counts.get(i);
+
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank)
+                return Math.min(upperBound(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    static int index(long val) {
+        if (val < SUB_BUCKETS)
+            return (int) val;
+
+        int exp = 63 - Long.numberOfLeadingZeros(val);
+        int sub = (int) (val >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int idx) {
+        if (idx < SUB_BUCKETS)
+            return idx;
+
+        int shift = idx / SUB_BUCKETS - 1;
+        long sub = SUB_BUCKETS + idx % SUB_BUCKETS;
+
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.ifmo.server.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of a single route.
+ */
+public final class RouteMetrics {
+    static final int MAX_STATUS = 600;
+
+    private final String route;
+    private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(MAX_STATUS);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final Histogram parse = new Histogram();
+    private final Histogram handler = new Histogram();
+    private final Histogram write = new Histogram();
+
+    RouteMetrics(String route) {
+        this.route = route;
+    }
+
+    /**
+     * Records completed request. Negative durations mean stage didn't happen.
+     *
+     * @param status Response status or {@code 0} if request was aborted.
+     */
+    void record(int status, long bytesIn, long bytesOut, long parseNanos, long handlerNanos, long writeNanos) {
+        requests.increment();
+
+        if (status > 0 && status < MAX_STATUS) {
+            LongAdder cnt = statuses.get(status);
+
+            if (cnt == null) {
+                statuses.compareAndSet(status, null, new LongAdder());
+                cnt = statuses.get(status);
+            }
+
+            cnt.increment();
+        }
+
+        if (status == 0 || status >= 500)
+            errors.increment();
+
+        this.bytesIn.add(bytesIn);
+        this.bytesOut.add(bytesOut);
+
+        if (parseNanos >= 0)
+            parse.record(parseNanos);
+
+        if (handlerNanos >= 0)
+            handler.record(handlerNanos);
+
+        if (writeNanos >= 0)
+            write.record(writeNanos);
+    }
+
+    /**
+     * @return Route.
+     */
+    public String getRoute() {
+        return route;
+    }
+
+    /**
+     * @return Number of requests.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @param status HTTP status.
+     * @return Number of responses with given status.
+     */
+    public long getRequests(int status) {
+        LongAdder cnt = status > 0 && status < MAX_STATUS ? statuses.get(status) : null;
+
+        return cnt == null ? 0 : cnt.sum();
+    }
+
+    /**
+     * @return Number of requests failed with server error or aborted.
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return Bytes received.
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * @return Bytes sent.
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * @return Request parsing latency, nanoseconds.
+     */
+    public Histogram getParseLatency() {
+        return parse;
+    }
+
+    /**
+     * @return Handler latency, nanoseconds.
+     */
+    public Histogram getHandlerLatency() {
+        return handler;
+    }
+
+    /**
+     * @return Response writing latency, nanoseconds.
+     */
+    public Histogram getWriteLatency() {
+        return write;
+    }
+}
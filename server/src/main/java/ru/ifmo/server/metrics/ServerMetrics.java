@@ -0,0 +1,235 @@
+package ru.ifmo.server.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Server metrics: per route request counters and latency histograms, connection
+ * counters and registered gauges. Recording is allocation free, except for the
+ * first request of a route or status, so metrics are always on.
+ * <p>
+ * Exported in Prometheus text format by {@link #writePrometheus(Appendable)}.
+ * </p>
+ */
+public final class ServerMetrics {
+    /** Route of static files. */
+    public static final String ROUTE_STATIC = "static";
+
+    /** Route of requests not mapped to handler or rejected before mapping. */
+    public static final String ROUTE_NONE = "none";
+
+    /** Route collecting requests above {@link #MAX_ROUTES} distinct routes. */
+    public static final String ROUTE_OTHER = "other";
+
+    /** Max number of distinct routes, protects from unbounded label cardinality. */
+    public static final int MAX_ROUTES = 1024;
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers gauge sampled on export.
+     *
+     * @param name Metric name.
+     * @param help Metric description.
+     * @param val Value supplier.
+     */
+    public void registerGauge(String name, String help, LongSupplier val) {
+        gauges.add(new Gauge(name, help, val));
+    }
+
+    public void onConnectionOpened() {
+        connections.increment();
+        activeConnections.increment();
+    }
+
+    public void onConnectionClosed() {
+        activeConnections.decrement();
+    }
+
+    public void onConnectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    /**
+     * Records completed request.
+     *
+     * @param route Route, e.g. handler path.
+     * @param status Response status or {@code 0} if request was aborted.
+     * @param bytesIn Bytes received.
+     * @param bytesOut Bytes sent.
+     * @param parseNanos Parsing time or negative if not parsed.
+     * @param handlerNanos Handler time or negative if handler wasn't invoked.
+     * @param writeNanos Response writing time or negative if nothing was written.
+     */
+    public void record(String route, int status, long bytesIn, long bytesOut, long parseNanos, long handlerNanos,
+        long writeNanos) {
+        RouteMetrics m = routes.get(route);
+
+        if (m == null)
+            m = routes.size() < MAX_ROUTES ? routes.computeIfAbsent(route, RouteMetrics::new) :
+                routes.computeIfAbsent(ROUTE_OTHER, RouteMetrics::new);
+
+        m.record(status, bytesIn, bytesOut, parseNanos, handlerNanos, writeNanos);
+    }
+
+    /**
+     * @param route Route.
+     * @return Metrics of route or {@code null} if it had no requests.
+     */
+    public RouteMetrics getRoute(String route) {
+        return routes.get(route);
+    }
+
+    /**
+     * @return Metrics of all routes.
+     */
+    public Collection<RouteMetrics> getRoutes() {
+        return new ArrayList<>(routes.values());
+    }
+
+    /**
+     * @return Number of accepted connections.
+     */
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    /**
+     * @return Number of open connections.
+     */
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    /**
+     * @return Number of connections rejected by connection limits.
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    /**
+     * Writes metrics in Prometheus text exposition format, version 0.0.4.
+     *
+     * @param out Output.
+     * @throws IOException If failed to write.
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        Collection<RouteMetrics> sorted = new TreeMap<>(routes).values();
+
+        header(out, "http_requests_total", "counter", "Requests by route and response status.");
+        for (RouteMetrics m : sorted) {
+            for (int status = 0; status < RouteMetrics.MAX_STATUS; status++) {
+                long cnt = m.getRequests(status);
+
+                if (cnt > 0) {
+                    out.append("http_requests_total{route=\"").append(escape(m.getRoute()))
+                        .append("\",status=\"").append(String.valueOf(status)).append("\"} ")
+                        .append(String.valueOf(cnt)).append('\n');
+                }
+            }
+        }
+
+        counter(out, sorted, "http_request_errors_total", "Requests failed with server error or aborted.",
+            RouteMetrics::getErrors);
+        counter(out, sorted, "http_request_bytes_total", "Bytes received.", RouteMetrics::getBytesIn);
+        counter(out, sorted, "http_response_bytes_total", "Bytes sent.", RouteMetrics::getBytesOut);
+
+        summary(out, sorted, "http_request_parse_seconds", "Request parsing latency.",
+            RouteMetrics::getParseLatency);
+        summary(out, sorted, "http_request_handler_seconds", "Handler latency.", RouteMetrics::getHandlerLatency);
+        summary(out, sorted, "http_response_write_seconds", "Response writing latency.",
+            RouteMetrics::getWriteLatency);
+
+        header(out, "http_connections_total", "counter", "Accepted connections.");
+        out.append("http_connections_total ").append(String.valueOf(getConnections())).append('\n');
+
+        header(out, "http_connections_active", "gauge", "Open connections.");
+        out.append("http_connections_active ").append(String.valueOf(getActiveConnections())).append('\n');
+
+        header(out, "http_connections_rejected_total", "counter", "Connections rejected by connection limits.");
+        out.append("http_connections_rejected_total ").append(String.valueOf(getRejectedConnections())).append('\n');
+
+        for (Gauge g : gauges) {
+            header(out, g.name, "gauge", g.help);
+            out.append(g.name).append(' ').append(String.valueOf(g.val.getAsLong())).append('\n');
+        }
+    }
+
+    private static void counter(Appendable out, Collection<RouteMetrics> routes, String name, String help,
+        ToLongFunction<RouteMetrics> val) throws IOException {
+        header(out, name, "counter", help);
+
+        for (RouteMetrics m : routes) {
+            out.append(name).append("{route=\"").append(escape(m.getRoute())).append("\"} ")
+                .append(String.valueOf(val.applyAsLong(m))).append('\n');
+        }
+    }
+
+    private static void summary(Appendable out, Collection<RouteMetrics> routes, String name, String help,
+        Function<RouteMetrics, Histogram> stage) throws IOException {
+        header(out, name, "summary", help);
+
+        for (RouteMetrics m : routes) {
+            Histogram h = stage.apply(m);
+
+            if (h.getCount() == 0)
+                continue;
+
+            String route = escape(m.getRoute());
+
+            for (double q : QUANTILES) {
+                out.append(name).append("{route=\"").append(route).append("\",quantile=\"")
+                    .append(String.valueOf(q)).append("\"} ")
+                    .append(String.valueOf(h.getValueAtQuantile(q) / NANOS_PER_SECOND)).append('\n');
+            }
+
+            out.append(name).append("_sum{route=\"").append(route).append("\"} ")
+                .append(String.valueOf(h.getSum() / NANOS_PER_SECOND)).append('\n');
+            out.append(name).append("_count{route=\"").append(route).append("\"} ")
+                .append(String.valueOf(h.getCount())).append('\n');
+        }
+    }
+
+    private static void header(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String escape(String label) {
+        if (label.indexOf('\\') < 0 && label.indexOf('"') < 0 && label.indexOf('\n') < 0)
+            return label;
+
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class Gauge {
+        final String name;
+        final String help;
+        final LongSupplier val;
+
+        Gauge(String name, String help, LongSupplier val) {
+            this.name = name;
+            this.help = help;
+            this.val = val;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ru.ifmo.server.replication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring assigning keys to nodes. Each node is placed on the ring
+ * at several virtual points, key belongs to the node of the first point following
+ * key hash, so adding or removing a node moves only keys adjacent to its points.
+ */
+public class HashRing {
+    /** Default number of virtual points per node. */
+    public static final int DFLT_VIRTUAL_NODES = 128;
+
+    private final TreeMap<Integer, String> ring = new TreeMap<>();
+    private final int nodes;
+
+    /**
+     * @param nodes Node IDs.
+     */
+    public HashRing(Collection<String> nodes) {
+        this(nodes, DFLT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param nodes Node IDs.
+     * @param virtualNodes Number of virtual points per node.
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++)
+                ring.put(hash(node + '#' + i), node);
+        }
+
+        this.nodes = nodes.size();
+    }
+
+    /**
+     * @param key Key.
+     * @return Node owning the key.
+     */
+    public String primary(String key) {
+        Map.Entry<Integer, String> e = ring.ceilingEntry(hash(key));
+
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    /**
+     * @param key Key.
+     * @param count Number of owners.
+     * @return Distinct nodes following key on the ring, primary owner first.
+     */
+    public List<String> owners(String key, int count) {
+        count = Math.min(count, nodes);
+
+        List<String> res = new ArrayList<>(count);
+
+        if (count == 0)
+            return res;
+
+        for (String node : ring.tailMap(hash(key)).values()) {
+            if (!res.contains(node) && res.add(node) && res.size() == count)
+                return res;
+        }
+
+        for (String node : ring.values()) {
+            if (!res.contains(node) && res.add(node) && res.size() == count)
+                return res;
+        }
+
+        return res;
+    }
+
+    /**
+     * Murmur3 finalizer over FNV-1a of UTF-8 bytes, gives well spread points for
+     * similar node names.
+     */
+    static int hash(String key) {
+        int h = 0x811C9DC5;
+
+        for (byte b : key.getBytes(StandardCharsets.UTF_8))
+            h = (h ^ b) * 0x01000193;
+
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+
+        return h;
+    }
+}
@@ -0,0 +1,113 @@
+package ru.ifmo.server.replication;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replication statistics of a node.
+ */
+public class ReplicationStats {
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder fetchHits = new LongAdder();
+    private final LongAdder lagMillis = new LongAdder();
+    private final LongAccumulator maxLagMillis = new LongAccumulator(Math::max, 0);
+
+    void onSent(int deltas) {
+        sent.add(deltas);
+        batches.increment();
+    }
+
+    void onReceived(SessionDelta delta) {
+        long lag = Math.max(0, System.currentTimeMillis() - delta.getCreatedMillis());
+
+        received.increment();
+        lagMillis.add(lag);
+        maxLagMillis.accumulate(lag);
+    }
+
+    void onDropped(int deltas) {
+        dropped.add(deltas);
+    }
+
+    void onFetch(boolean hit) {
+        fetches.increment();
+
+        if (hit)
+            fetchHits.increment();
+    }
+
+    /**
+     * @return Number of deltas sent to peers.
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return Number of batches sent to peers.
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return Number of deltas received from peers.
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * @return Number of deltas not delivered because peer was unavailable or lagging.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Number of sessions requested from owners on local miss.
+     */
+    public long getFetches() {
+        return fetches.sum();
+    }
+
+    /**
+     * @return Number of fetches which found the session.
+     */
+    public long getFetchHits() {
+        return fetchHits.sum();
+    }
+
+    /**
+     * @return Average time between change on origin node and its receipt, milliseconds.
+     */
+    public long getAvgLagMillis() {
+        long cnt = received.sum();
+        return cnt == 0 ? 0 : lagMillis.sum() / cnt;
+    }
+
+    /**
+     * @return Max time between change on origin node and its receipt, milliseconds.
+     */
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicationStats{" +
+                "sent=" + getSent() +
+                ", batches=" + getBatches() +
+                ", received=" + getReceived() +
+                ", dropped=" + getDropped() +
+                ", fetches=" + getFetches() +
+                ", fetchHits=" + getFetchHits() +
+                ", avgLagMillis=" + getAvgLagMillis() +
+                ", maxLagMillis=" + getMaxLagMillis() +
+                '}';
+    }
+}
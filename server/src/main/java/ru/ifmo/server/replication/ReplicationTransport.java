@@ -0,0 +1,698 @@
+package ru.ifmo.server.replication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.ifmo.server.ServerException;
+import ru.ifmo.server.util.Utils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP channel between replication nodes.
+ * <p>
+ * Each node listens on its replication address and keeps one outgoing connection per
+ * peer. Deltas sent to a peer are queued and shipped by peer's sender thread in
+ * batches: sender waits up to batch delay for more deltas and coalesces touches of
+ * the same session. Deltas are dropped if peer is unreachable or its queue is full,
+ * replication is best effort.
+ * </p>
+ * <p>
+ * Frames are {@code [int length][byte type][payload]}. Sessions missing locally are
+ * fetched from peers with request-response over the same connections.
+ * </p>
+ * <p>
+ * Nodes authenticate each other with shared secret: connection is accepted only from
+ * address of a configured peer, then both sides prove knowledge of the secret by HMAC
+ * of each other's random challenges. Frames themselves are not encrypted, so nodes
+ * should communicate over trusted network. Wildcard listen address is bound to loopback
+ * interface.
+ * </p>
+ */
+public class ReplicationTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationTransport.class);
+
+    /** Default max number of deltas in batch. */
+    public static final int DFLT_BATCH_SIZE = 256;
+
+    /** Default time sender waits to fill batch. */
+    public static final long DFLT_BATCH_DELAY_MILLIS = 5;
+
+    private static final int QUEUE_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final long RECONNECT_DELAY_MILLIS = 500;
+    private static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    private static final byte BATCH = 1;
+    private static final byte FETCH = 2;
+    private static final byte FETCH_REPLY = 3;
+
+    /** Min length of shared secret. */
+    public static final int MIN_SECRET_LENGTH = 16;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+    private static final int CHALLENGE_LENGTH = 32;
+    private static final int HANDSHAKE_TIMEOUT = 1000;
+    private static final byte[] INITIATOR = {'I'};
+    private static final byte[] ACCEPTOR = {'A'};
+
+    /**
+     * Receives messages from peers. Invoked from transport threads.
+     */
+    public interface Handler {
+        /**
+         * @param from Sender node ID.
+         * @param deltas Received deltas.
+         */
+        void onDeltas(String from, List<SessionDelta> deltas);
+
+        /**
+         * @param from Requesting node ID.
+         * @param id Session ID.
+         * @return Session as {@link SessionDelta.Type#PUT} delta or {@code null} if not found.
+         */
+        SessionDelta onFetch(String from, String id);
+    }
+
+    private final InetSocketAddress local;
+    private final String localId;
+    private final Map<String, Peer> peers = new LinkedHashMap<>();
+    private final int batchSize;
+    private final long batchDelayMillis;
+    private final ReplicationStats stats = new ReplicationStats();
+    private final Set<Socket> inbound = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicLong reqIdGen = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>();
+    private final SecretKeySpec secret;
+    private final SecureRandom rnd = new SecureRandom();
+
+    /** Addresses connections are accepted from, resolved on start. */
+    private final Set<InetAddress> peerHosts = ConcurrentHashMap.newKeySet();
+
+    private Handler handler;
+    private ServerSocket listener;
+    private volatile boolean stopped;
+
+    /**
+     * @param local Address to listen on.
+     * @param peers Addresses of other nodes.
+     * @param secret Secret shared by all nodes, at least {@link #MIN_SECRET_LENGTH} bytes.
+     */
+    public ReplicationTransport(InetSocketAddress local, Collection<InetSocketAddress> peers, byte[] secret) {
+        this(local, peers, secret, DFLT_BATCH_SIZE, DFLT_BATCH_DELAY_MILLIS);
+    }
+
+    /**
+     * @param local Address to listen on.
+     * @param peers Addresses of other nodes.
+     * @param secret Secret shared by all nodes, at least {@link #MIN_SECRET_LENGTH} bytes.
+     * @param batchSize Max number of deltas in batch.
+     * @param batchDelayMillis Time sender waits to fill batch.
+     */
+    public ReplicationTransport(InetSocketAddress local, Collection<InetSocketAddress> peers, byte[] secret,
+        int batchSize, long batchDelayMillis) {
+        if (secret == null || secret.length < MIN_SECRET_LENGTH)
+            throw new IllegalArgumentException("Replication secret must be at least " + MIN_SECRET_LENGTH + " bytes");
+
+        this.secret = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.local = local;
+        this.localId = nodeId(local);
+        this.batchSize = batchSize;
+        this.batchDelayMillis = batchDelayMillis;
+
+        for (InetSocketAddress addr : peers) {
+            String id = nodeId(addr);
+
+            if (!id.equals(localId))
+                this.peers.put(id, new Peer(id, addr));
+        }
+    }
+
+    /**
+     * @param addr Node address.
+     * @return Node ID.
+     */
+    public static String nodeId(InetSocketAddress addr) {
+        return addr.getHostString() + ':' + addr.getPort();
+    }
+
+    /**
+     * @return ID of this node.
+     */
+    public String getLocalId() {
+        return localId;
+    }
+
+    /**
+     * @return IDs of all nodes including this one.
+     */
+    public List<String> getNodes() {
+        List<String> res = new ArrayList<>(peers.keySet());
+        res.add(localId);
+        return res;
+    }
+
+    public ReplicationStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Starts listening and sender threads.
+     *
+     * @param handler Handler of incoming messages.
+     */
+    public void start(Handler handler) {
+        this.handler = handler;
+
+        for (Peer peer : peers.values()) {
+            try {
+                peerHosts.addAll(Arrays.asList(InetAddress.getAllByName(peer.addr.getHostString())));
+            } catch (UnknownHostException e) {
+                LOG.warn("Unable to resolve replication peer {}: {}", peer.id, e.toString());
+            }
+        }
+
+        InetSocketAddress bindAddr = local.getAddress() != null && local.getAddress().isAnyLocalAddress() ?
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), local.getPort()) : local;
+
+        try {
+            listener = new ServerSocket();
+            listener.setReuseAddress(true);
+            listener.bind(bindAddr);
+        } catch (IOException e) {
+            throw new ServerException("Unable to start replication listener on " + bindAddr, e);
+        }
+
+        startThread("repl-acceptor", this::accept);
+
+        for (Peer peer : peers.values())
+            startThread("repl-sender-" + peer.id, peer::sendLoop);
+
+        LOG.info("Replication node {} started, peers: {}", localId, peers.keySet());
+    }
+
+    /**
+     * Stops transport, pending deltas are discarded.
+     */
+    public void stop() {
+        stopped = true;
+
+        Utils.closeQuiet(listener);
+
+        for (Peer peer : peers.values())
+            peer.close();
+
+        for (Socket s : inbound)
+            Utils.closeQuiet(s);
+
+        synchronized (threads) {
+            for (Thread t : threads)
+                t.interrupt();
+        }
+    }
+
+    /**
+     * Queues delta for sending.
+     *
+     * @param node Peer ID.
+     * @param delta Delta.
+     */
+    public void send(String node, SessionDelta delta) {
+        Peer peer = peers.get(node);
+
+        if (peer != null && !peer.queue.offer(delta))
+            stats.onDropped(1);
+    }
+
+    /**
+     * Requests session from peer.
+     *
+     * @param node Peer ID.
+     * @param id Session ID.
+     * @param timeoutMillis Max time to wait for reply.
+     * @return Session as {@link SessionDelta.Type#PUT} delta or {@code null} if
+     * not found, peer is unreachable or didn't reply in time.
+     */
+    public SessionDelta fetch(String node, String id, long timeoutMillis) {
+        Peer peer = peers.get(node);
+
+        if (peer == null)
+            return null;
+
+        SessionDelta res = peer.fetch(id, timeoutMillis);
+        stats.onFetch(res != null);
+        return res;
+    }
+
+    private void accept() {
+        while (!stopped) {
+            try {
+                Socket sock = listener.accept();
+
+                if (!peerHosts.contains(sock.getInetAddress())) {
+                    LOG.warn("Replication connection from unknown address rejected: {}",
+                        sock.getRemoteSocketAddress());
+
+                    Utils.closeQuiet(sock);
+                    continue;
+                }
+
+                sock.setTcpNoDelay(true);
+                inbound.add(sock);
+
+                startThread("repl-receiver", () -> receive(sock));
+            } catch (IOException e) {
+                if (!stopped)
+                    LOG.error("Replication listener failed", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Serves incoming connection: applies batches and answers fetches.
+     */
+    private void receive(Socket sock) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+            String peerId = acceptHandshake(sock, in, out);
+
+            while (!stopped) {
+                DataInputStream frame = readFrame(in);
+                byte type = frame.readByte();
+                String from = frame.readUTF();
+
+                if (!from.equals(peerId))
+                    throw new IOException("Frame of node " + from + " received from " + peerId);
+
+                switch (type) {
+                    case BATCH: {
+                        int cnt = frame.readInt();
+                        List<SessionDelta> deltas = new ArrayList<>(cnt);
+
+                        for (int i = 0; i < cnt; i++) {
+                            SessionDelta d = SessionDelta.read(frame);
+                            stats.onReceived(d);
+                            deltas.add(d);
+                        }
+
+                        handler.onDeltas(from, deltas);
+                        break;
+                    }
+
+                    case FETCH: {
+                        long reqId = frame.readLong();
+                        SessionDelta res = handler.onFetch(from, frame.readUTF());
+
+                        writeFrame(out, FETCH_REPLY, body -> {
+                            body.writeLong(reqId);
+                            body.writeBoolean(res != null);
+
+                            if (res != null)
+                                res.write(body);
+                        });
+                        break;
+                    }
+
+                    default:
+                        throw new IOException("Unknown frame type: " + type);
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            // Peer disconnected.
+        } catch (IOException | RuntimeException e) {
+            if (!stopped)
+                LOG.warn("Replication connection from {} failed: {}", sock.getRemoteSocketAddress(), e.toString());
+        } finally {
+            inbound.remove(sock);
+            Utils.closeQuiet(sock);
+        }
+    }
+
+    /**
+     * Authenticates connecting node: sends challenge, checks node is a peer and its MAC of
+     * both challenges, then proves own knowledge of the secret.
+     *
+     * @return Authenticated peer ID.
+     * @throws IOException If peer is not authenticated.
+     */
+    private String acceptHandshake(Socket sock, DataInputStream in, DataOutputStream out) throws IOException {
+        sock.setSoTimeout(HANDSHAKE_TIMEOUT);
+
+        byte[] challenge = challenge();
+
+        out.write(challenge);
+        out.flush();
+
+        String peerId = in.readUTF();
+        byte[] peerChallenge = readBytes(in, CHALLENGE_LENGTH);
+        byte[] peerMac = readBytes(in, MAC_LENGTH);
+
+        if (!peers.containsKey(peerId) ||
+            !MessageDigest.isEqual(peerMac, mac(INITIATOR, challenge, peerChallenge, peerId)))
+            throw new IOException("Authentication of node " + peerId + " failed");
+
+        out.write(mac(ACCEPTOR, challenge, peerChallenge, localId));
+        out.flush();
+
+        sock.setSoTimeout(0);
+
+        return peerId;
+    }
+
+    /**
+     * Authenticates to peer and checks peer's proof of the secret.
+     *
+     * @throws IOException If peer is not authenticated.
+     */
+    private void connectHandshake(Peer peer, Socket sock, DataInputStream in, DataOutputStream out)
+        throws IOException {
+        sock.setSoTimeout(HANDSHAKE_TIMEOUT);
+
+        byte[] peerChallenge = readBytes(in, CHALLENGE_LENGTH);
+        byte[] challenge = challenge();
+
+        out.writeUTF(localId);
+        out.write(challenge);
+        out.write(mac(INITIATOR, peerChallenge, challenge, localId));
+        out.flush();
+
+        if (!MessageDigest.isEqual(readBytes(in, MAC_LENGTH), mac(ACCEPTOR, peerChallenge, challenge, peer.id)))
+            throw new IOException("Authentication of node " + peer.id + " failed");
+
+        sock.setSoTimeout(0);
+    }
+
+    private byte[] challenge() {
+        byte[] res = new byte[CHALLENGE_LENGTH];
+        rnd.nextBytes(res);
+        return res;
+    }
+
+    /**
+     * @param role Role of node computing MAC, so MAC of one side can't be replayed by the other.
+     * @param acceptorChallenge Challenge of accepting node.
+     * @param initiatorChallenge Challenge of connecting node.
+     * @param nodeId ID of node computing MAC.
+     */
+    private byte[] mac(byte[] role, byte[] acceptorChallenge, byte[] initiatorChallenge, String nodeId) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(role);
+            mac.update(acceptorChallenge);
+            mac.update(initiatorChallenge);
+
+            return mac.doFinal(nodeId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new ServerException("Unable to compute " + MAC_ALGORITHM, e);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in, int len) throws IOException {
+        byte[] res = new byte[len];
+        in.readFully(res);
+        return res;
+    }
+
+    private static DataInputStream readFrame(DataInputStream in) throws IOException {
+        int len = in.readInt();
+
+        if (len <= 0 || len > MAX_FRAME)
+            throw new IOException("Invalid frame length: " + len);
+
+        byte[] frame = new byte[len];
+        in.readFully(frame);
+
+        return new DataInputStream(new ByteArrayInputStream(frame));
+    }
+
+    private interface FrameBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void writeFrame(DataOutputStream out, byte type, FrameBody body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream frame = new DataOutputStream(bytes);
+
+        frame.writeByte(type);
+        frame.writeUTF(localId);
+        body.write(frame);
+
+        synchronized (out) {
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+        }
+    }
+
+    private void startThread(String name, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+
+        synchronized (threads) {
+            threads.removeIf(th -> !th.isAlive());
+            threads.add(t);
+        }
+
+        t.start();
+    }
+
+    /**
+     * Outgoing connection to peer.
+     */
+    private class Peer {
+        final String id;
+        final InetSocketAddress addr;
+        final BlockingQueue<SessionDelta> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final Map<Long, CompletableFuture<SessionDelta>> pending = new ConcurrentHashMap<>();
+
+        /** Guarded by {@code this}. */
+        Socket sock;
+        DataOutputStream out;
+        long nextConnectMillis;
+
+        Peer(String id, InetSocketAddress addr) {
+            this.id = id;
+            this.addr = addr;
+        }
+
+        void sendLoop() {
+            List<SessionDelta> batch = new ArrayList<>(batchSize);
+
+            try {
+                while (!stopped) {
+                    batch.add(queue.take());
+
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchDelayMillis);
+
+                    while (batch.size() < batchSize) {
+                        long wait = deadline - System.nanoTime();
+                        SessionDelta d = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+
+                        if (d == null)
+                            break;
+
+                        batch.add(d);
+                    }
+
+                    List<SessionDelta> deltas = coalesce(batch);
+
+                    try {
+                        DataOutputStream o = connection();
+
+                        writeFrame(o, BATCH, body -> {
+                            body.writeInt(deltas.size());
+
+                            for (SessionDelta d : deltas)
+                                d.write(body);
+                        });
+
+                        stats.onSent(deltas.size());
+                    } catch (IOException e) {
+                        disconnect(null, e);
+                        stats.onDropped(deltas.size());
+                    }
+
+                    batch.clear();
+                }
+            } catch (InterruptedException ignored) {
+                // Stopped.
+            }
+        }
+
+        /**
+         * Keeps only the latest touch of each session, if nothing else was sent for it after.
+         */
+        private List<SessionDelta> coalesce(List<SessionDelta> batch) {
+            Map<String, Integer> lastTouch = new LinkedHashMap<>();
+            List<SessionDelta> res = new ArrayList<>(batch.size());
+
+            for (SessionDelta d : batch) {
+                if (d.getType() == SessionDelta.Type.TOUCH) {
+                    Integer idx = lastTouch.get(d.getId());
+
+                    if (idx != null) {
+                        res.set(idx, d);
+                        continue;
+                    }
+
+                    lastTouch.put(d.getId(), res.size());
+                } else
+                    lastTouch.remove(d.getId());
+
+                res.add(d);
+            }
+
+            return res;
+        }
+
+        SessionDelta fetch(String sessionId, long timeoutMillis) {
+            long reqId = reqIdGen.incrementAndGet();
+            CompletableFuture<SessionDelta> fut = new CompletableFuture<>();
+
+            pending.put(reqId, fut);
+
+            try {
+                writeFrame(connection(), FETCH, body -> {
+                    body.writeLong(reqId);
+                    body.writeUTF(sessionId);
+                });
+
+                return fut.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                disconnect(null, e);
+                return null;
+            } catch (TimeoutException | ExecutionException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                pending.remove(reqId);
+            }
+        }
+
+        synchronized DataOutputStream connection() throws IOException {
+            if (stopped)
+                throw new SocketException("Transport is stopped");
+
+            if (out != null)
+                return out;
+
+            if (System.currentTimeMillis() < nextConnectMillis)
+                throw new SocketException("Peer is unavailable: " + id);
+
+            Socket s = new Socket();
+            DataInputStream sIn;
+            DataOutputStream sOut;
+
+            try {
+                s.connect(addr, CONNECT_TIMEOUT);
+                s.setTcpNoDelay(true);
+
+                sIn = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                sOut = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+                connectHandshake(this, s, sIn, sOut);
+            } catch (IOException e) {
+                Utils.closeQuiet(s);
+                nextConnectMillis = System.currentTimeMillis() + RECONNECT_DELAY_MILLIS;
+                throw e;
+            }
+
+            sock = s;
+            out = sOut;
+
+            startThread("repl-replies-" + id, () -> readReplies(s, sIn));
+
+            return out;
+        }
+
+        /**
+         * Reads fetch replies coming back over outgoing connection.
+         */
+        void readReplies(Socket s, DataInputStream in) {
+            try {
+                while (!stopped) {
+                    DataInputStream frame = readFrame(in);
+
+                    if (frame.readByte() != FETCH_REPLY)
+                        throw new IOException("Unexpected frame");
+
+                    frame.readUTF();
+
+                    long reqId = frame.readLong();
+                    SessionDelta res = frame.readBoolean() ? SessionDelta.read(frame) : null;
+                    CompletableFuture<SessionDelta> fut = pending.get(reqId);
+
+                    if (fut != null)
+                        fut.complete(res);
+                }
+            } catch (IOException e) {
+                disconnect(s, e);
+            }
+        }
+
+        /**
+         * @param s Failed socket or {@code null} for current one.
+         */
+        synchronized void disconnect(Socket s, IOException e) {
+            if (s != null && s != sock) {
+                Utils.closeQuiet(s);
+                return;
+            }
+
+            if (sock != null && !stopped)
+                LOG.warn("Replication connection to {} lost: {}", id, e.toString());
+
+            Utils.closeQuiet(sock);
+            sock = null;
+            out = null;
+            nextConnectMillis = System.currentTimeMillis() + RECONNECT_DELAY_MILLIS;
+        }
+
+        synchronized void close() {
+            Utils.closeQuiet(sock);
+            sock = null;
+            out = null;
+            queue.clear();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package ru.ifmo.server.replication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Single session change shipped between nodes. Data values are already encoded.
+ */
+public final class SessionDelta {
+    /** Delta type. */
+    public enum Type {
+        /** New session with all its data. */
+        PUT,
+
+        /** Data value changed, {@code null} value means removed. */
+        DATA,
+
+        /** Session accessed, expiration time moved. */
+        TOUCH,
+
+        /** Session removed or expired. */
+        REMOVE
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    private final Type type;
+    private final String id;
+    private final long timeoutMillis;
+    private final long expireMillis;
+    private final String key;
+    private final byte[] value;
+    private final Map<String, byte[]> data;
+
+    /** Wall clock time the change was made, used to measure replication lag. */
+    private final long createdMillis;
+
+    private SessionDelta(Type type, String id, long timeoutMillis, long expireMillis, String key, byte[] value,
+        Map<String, byte[]> data, long createdMillis) {
+        this.type = type;
+        this.id = id;
+        this.timeoutMillis = timeoutMillis;
+        this.expireMillis = expireMillis;
+        this.key = key;
+        this.value = value;
+        this.data = data;
+        this.createdMillis = createdMillis;
+    }
+
+    public static SessionDelta put(String id, long timeoutMillis, long expireMillis, Map<String, byte[]> data) {
+        return new SessionDelta(Type.PUT, id, timeoutMillis, expireMillis, null, null, data,
+            System.currentTimeMillis());
+    }
+
+    public static SessionDelta data(String id, long expireMillis, String key, byte[] value) {
+        return new SessionDelta(Type.DATA, id, 0, expireMillis, key, value, null, System.currentTimeMillis());
+    }
+
+    public static SessionDelta touch(String id, long expireMillis) {
+        return new SessionDelta(Type.TOUCH, id, 0, expireMillis, null, null, null, System.currentTimeMillis());
+    }
+
+    public static SessionDelta remove(String id) {
+        return new SessionDelta(Type.REMOVE, id, 0, 0, null, null, null, System.currentTimeMillis());
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return Session idle timeout, set for {@link Type#PUT} only.
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return Wall clock expiration time.
+     */
+    public long getExpireMillis() {
+        return expireMillis;
+    }
+
+    /**
+     * @return Data key of {@link Type#DATA} delta.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return Encoded value of {@link Type#DATA} delta or {@code null} if value was removed.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * @return Encoded data of {@link Type#PUT} delta.
+     */
+    public Map<String, byte[]> getData() {
+        return data == null ? Collections.emptyMap() : data;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeUTF(id);
+        out.writeLong(createdMillis);
+
+        switch (type) {
+            case PUT:
+                out.writeLong(timeoutMillis);
+                out.writeLong(expireMillis);
+                out.writeInt(getData().size());
+
+                for (Map.Entry<String, byte[]> e : getData().entrySet()) {
+                    out.writeUTF(e.getKey());
+                    writeBytes(out, e.getValue());
+                }
+                break;
+
+            case DATA:
+                out.writeLong(expireMillis);
+                out.writeUTF(key);
+                writeBytes(out, value);
+                break;
+
+            case TOUCH:
+                out.writeLong(expireMillis);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    static SessionDelta read(DataInputStream in) throws IOException {
+        int ord = in.readUnsignedByte();
+
+        if (ord >= TYPES.length)
+            throw new IOException("Unknown delta type: " + ord);
+
+        Type type = TYPES[ord];
+        String id = in.readUTF();
+        long created = in.readLong();
+
+        switch (type) {
+            case PUT: {
+                long timeout = in.readLong();
+                long expire = in.readLong();
+                Map<String, byte[]> data = new LinkedHashMap<>();
+
+                for (int n = in.readInt(); n > 0; n--)
+                    data.put(in.readUTF(), readBytes(in));
+
+                return new SessionDelta(type, id, timeout, expire, null, null, data, created);
+            }
+
+            case DATA: {
+                long expire = in.readLong();
+                String key = in.readUTF();
+
+                return new SessionDelta(type, id, 0, expire, key, readBytes(in), null, created);
+            }
+
+            case TOUCH:
+                return new SessionDelta(type, id, 0, in.readLong(), null, null, null, created);
+
+            default:
+                return new SessionDelta(type, id, 0, 0, null, null, null, created);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        if (b == null)
+            out.writeInt(-1);
+        else {
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int len = in.readInt();
+
+        if (len < 0)
+            return null;
+
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return b;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionDelta{type=" + type + ", id=" + id + (key != null ? ", key=" + key : "") + '}';
+    }
+}
@@ -0,0 +1,70 @@
+package ru.ifmo.server.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized byte buffers. Buffers are allocated on demand and at most
+ * {@code maxPooled} released buffers are retained for reuse.
+ */
+public final class BufferPool {
+    private final int bufSize;
+    private final int maxPooled;
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufSize Buffer capacity.
+     * @param maxPooled Max number of idle buffers kept in pool.
+     * @param direct Whether to allocate direct buffers.
+     */
+    public BufferPool(int bufSize, int maxPooled, boolean direct) {
+        this.bufSize = bufSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    /**
+     * @return Cleared buffer of pool buffer size.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = pool.poll();
+
+        if (buf == null)
+            return direct ? ByteBuffer.allocateDirect(bufSize) : ByteBuffer.allocate(bufSize);
+
+        pooled.decrementAndGet();
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Returns buffer to pool. Buffers of foreign size are dropped.
+     *
+     * @param buf Buffer, may be {@code null}.
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null || buf.capacity() != bufSize || buf.isDirect() != direct)
+            return;
+
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+
+        pool.offer(buf);
+    }
+
+    public int getBufferSize() {
+        return bufSize;
+    }
+
+    /**
+     * @return Number of idle buffers.
+     */
+    public int pooled() {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,96 @@
+package ru.ifmo.server.util;
+
+/**
+ * Count-min sketch estimating access frequency of keys by their hash codes,
+ * used for TinyLFU cache admission.
+ * <p>
+ * Keeps 4-bit counters, sixteen per {@code long}. Each key maps to four counters of
+ * the same {@code long} and its frequency is the least of them. Once number of
+ * increments reaches sample size all counters are halved, so frequencies reflect
+ * recent history. Not thread safe.
+ * </p>
+ */
+public final class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L
+    };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param maxSize Expected number of distinct keys.
+     */
+    public FrequencySketch(int maxSize) {
+        int len = Integer.highestOneBit(Math.max(16, Math.min(maxSize, 1 << 26)) - 1) << 1;
+
+        table = new long[len];
+        mask = len - 1;
+        sampleSize = 10 * Math.max(16, maxSize);
+    }
+
+    /**
+     * @param hash Key hash.
+     * @return Estimated number of recent accesses, at most 15.
+     */
+    public int frequency(int hash) {
+        int h = spread(hash);
+        int start = (h & 3) << 2;
+        int freq = MAX_COUNT;
+
+        for (int i = 0; i < 4; i++) {
+            int off = (start + i) << 2;
+            freq = Math.min(freq, (int) ((table[indexOf(h, i)] >>> off) & 0xF));
+        }
+
+        return freq;
+    }
+
+    /**
+     * Records access.
+     *
+     * @param hash Key hash.
+     */
+    public void increment(int hash) {
+        int h = spread(hash);
+        int start = (h & 3) << 2;
+        boolean added = false;
+
+        for (int i = 0; i < 4; i++) {
+            int idx = indexOf(h, i);
+            int off = (start + i) << 2;
+
+            if (((table[idx] >>> off) & 0xF) != MAX_COUNT) {
+                table[idx] += 1L << off;
+                added = true;
+            }
+        }
+
+        if (added && ++size >= sampleSize)
+            reset();
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+
+        size >>>= 1;
+    }
+
+    private int indexOf(int h, int i) {
+        long x = (h + SEEDS[i]) * SEEDS[i];
+        x += x >>> 32;
+        return (int) x & mask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45D9F3B;
+        x = ((x >>> 16) ^ x) * 0x45D9F3B;
+        return (x >>> 16) ^ x;
+    }
+}
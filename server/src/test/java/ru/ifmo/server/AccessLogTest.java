@@ -0,0 +1,141 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.ifmo.server.log.AccessLog;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests asynchronous access log.
+ */
+public class AccessLogTest {
+    private static final int PORT = 8481;
+
+    private Path dir;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("access");
+        file = dir.resolve("access.log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> p.toFile().delete());
+        }
+
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        AccessLog log = new AccessLog(file, 64, 0, 0, true);
+        log.start();
+
+        InetAddress client = InetAddress.getLoopbackAddress();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++)
+                    log.log(client, HttpMethod.GET, "/t" + thread + "/" + i, 200, i, 1000);
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        log.close();
+
+        List<String> lines = Files.readAllLines(file);
+
+        assertEquals(0, log.getDropped());
+        assertEquals(4000, log.getLogged());
+        assertEquals(4000, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches("127\\.0\\.0\\.1 - - \\[.+] \"GET /t\\d/\\d+\" 200 \\d+ 1us"));
+    }
+
+    @Test
+    public void testDropOnOverflow() throws Exception {
+        AccessLog log = new AccessLog(file, 16, 0, 0, false);
+
+        // Writer is not started, so nothing is drained.
+        for (int i = 0; i < 20; i++)
+            assertEquals(i < 16, log.log(null, HttpMethod.GET, "/" + i, 200, 0, 0));
+
+        assertEquals(4, log.getDropped());
+
+        log.start();
+        log.close();
+
+        assertEquals(16, Files.readAllLines(file).size());
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        AccessLog log = new AccessLog(file, 1024, 1024, 2, true);
+        log.start();
+
+        for (int i = 0; i < 200; i++) {
+            log.log(null, HttpMethod.POST, "/rotate/" + i, 201, 0, 0);
+
+            if (i % 10 == 0)
+                Thread.sleep(10);
+        }
+
+        log.close();
+
+        assertTrue(Files.exists(file));
+        assertTrue(Files.exists(dir.resolve("access.log.1")));
+        assertTrue(Files.exists(dir.resolve("access.log.2")));
+        assertFalse(Files.exists(dir.resolve("access.log.3")));
+        assertTrue(Files.size(file) <= 1024);
+        assertTrue(Files.readAllLines(file).get(0).contains("\"POST /rotate/"));
+    }
+
+    @Test
+    public void testServerAccessLog() throws Exception {
+        Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setAccessLogFile(file.toString())
+            .addHandler("/test_success", new SuccessHandler()));
+
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            try (CloseableHttpResponse response = client.execute(new HttpHost("localhost", PORT),
+                new HttpGet("/test_success?a=1"))) {
+                EntityUtils.consume(response.getEntity());
+            }
+        } finally {
+            IOUtils.closeQuietly(server);
+        }
+
+        List<String> lines = Files.readAllLines(file);
+
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("\"GET /test_success\" 200 "));
+    }
+}
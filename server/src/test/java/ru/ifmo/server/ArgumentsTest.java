@@ -0,0 +1,132 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests query and form arguments parsing.
+ */
+public class ArgumentsTest {
+    private static final int PORT = 9381;
+
+    @Test
+    public void testParse() {
+        Arguments args = parse("a=1&b&c=&=skipped&&d=x=y");
+
+        assertEquals("{a=1, b=null, c=null, d=x=y}", args.toString());
+        assertEquals("1", args.get("a"));
+        assertNull(args.get("b"));
+        assertTrue(args.asMap().containsKey("b"));
+        assertNull(args.get("e"));
+    }
+
+    @Test
+    public void testDecode() {
+        Arguments args = parse("x+y=%41%42+c&ru=%D0%B6&amp=%26%3D&bad=%zz%4");
+
+        assertEquals("AB c", args.get("x y"));
+        assertEquals("ж", args.get("ru"));
+        assertEquals("&=", args.get("amp"));
+        assertEquals("%zz%4", args.get("bad"));
+    }
+
+    @Test
+    public void testMultiValue() {
+        Arguments args = parse("a=1&b=2&a=3");
+
+        assertEquals("1", args.get("a"));
+        assertEquals(Arrays.asList("1", "3"), args.getAll("a"));
+        assertEquals(Collections.emptyList(), args.getAll("c"));
+        assertEquals(3, args.size());
+        assertEquals(2, args.asMap().size());
+        assertEquals("{a=1, b=2}", args.asMap().toString());
+    }
+
+    @Test
+    public void testParseReader() throws IOException {
+        char[] val = new char[3000];
+        Arrays.fill(val, 'v');
+
+        // Pairs span reader buffer boundaries.
+        String body = "a=" + new String(val) + "&x+y=%41%42&b&a=2";
+        Arguments args = new Arguments();
+
+        args.parse(new StringReader(body));
+
+        assertEquals(parse(body).toString(), args.toString());
+        assertEquals(Arrays.asList(new String(val), "2"), args.getAll("a"));
+        assertEquals("AB", args.get("x y"));
+        assertTrue(args.asMap().containsKey("b"));
+    }
+
+    @Test
+    public void testLazyBody() {
+        Request req = new Request(null, null);
+        req.addHeader(Http.CONTENT_TYPE, Http.URL_ENCODED);
+        req.query = "a=1";
+        req.body = RequestBody.of("a=2&b=3".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("1", "2"), req.getArgumentValues("a"));
+        assertEquals("3", req.getArgument("b"));
+
+        req = new Request(null, null);
+        req.addHeader(Http.CONTENT_TYPE, Http.TEXT_PLAIN);
+        req.body = RequestBody.of("a=2".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(req.getArguments().isEmpty());
+    }
+
+    @Test
+    public void testLazy() {
+        Request req = new Request(null, null);
+        req.query = "a=1&a=2";
+
+        assertEquals("1", req.getArgument("a"));
+        assertEquals(Arrays.asList("1", "2"), req.getArgumentValues("a"));
+
+        // Parsed once.
+        req.query = "a=3";
+        assertEquals("1", req.getArgument("a"));
+
+        assertTrue(new Request(null, null).getArguments().isEmpty());
+    }
+
+    @Test
+    public void testQueryAndForm() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .addHandler("/form", (req, resp) -> resp.getWriter().write(req.getArgumentValues("a") + " " +
+                req.getArgument("b"))))) {
+
+            try (Socket sock = new Socket("localhost", PORT)) {
+                OutputStream out = sock.getOutputStream();
+                out.write(("POST /form?a=1 HTTP/1.0\r\n" +
+                    "Content-Type: application/x-www-form-urlencoded\r\n" +
+                    "Content-Length: 11\r\n" +
+                    "\r\n" +
+                    "a=2&b=x+%79").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                String resp = IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+
+                assertTrue(resp, resp.endsWith("[1, 2] x y"));
+            }
+        }
+    }
+
+    private static Arguments parse(String s) {
+        Arguments args = new Arguments();
+        args.parse(s);
+        return args;
+    }
+}
@@ -0,0 +1,13 @@
+package ru.ifmo.server;
+
+public class BigBodyHandler implements Handler {
+    public static final int SIZE = 100_000;
+
+    @Override
+    public void handle(Request request, Response response) throws Exception {
+        StringBuilder sb = new StringBuilder(SIZE);
+        for (int i = 0; i < SIZE; i++)
+            sb.append((char) ('a' + i % 26));
+        response.getWriter().write(sb.toString());
+    }
+}
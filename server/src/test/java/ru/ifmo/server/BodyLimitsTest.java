@@ -0,0 +1,156 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests request head and body size limits and buffering of bodies.
+ */
+public class BodyLimitsTest {
+    private static final int PORT = 9681;
+
+    @Test
+    public void testBuffering() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        byte[] data = new byte[80];
+        Arrays.fill(data, (byte) 'a');
+
+        RequestBody first = RequestBody.read(new ByteArrayInputStream(data), 80, 1000, budget, null);
+
+        assertTrue(first.isInMemory());
+        assertEquals(80, budget.getUsed());
+
+        // Doesn't fit budget.
+        RequestBody second = RequestBody.read(new ByteArrayInputStream(data), 80, 1000, budget, null);
+
+        assertFalse(second.isInMemory());
+        assertEquals(80, second.size());
+        assertArrayEquals(data, IOUtils.toByteArray(second.getInputStream()));
+
+        // Decoding spilled body takes budget memory.
+        try {
+            second.asString();
+
+            fail("Spilled body is decoded beyond memory budget");
+        } catch (PayloadTooLargeException ignored) {
+            // Expected.
+        }
+
+        // Above threshold.
+        RequestBody third = RequestBody.read(new ByteArrayInputStream(data), 80, 10, new MemoryBudget(0), null);
+
+        assertFalse(third.isInMemory());
+        assertArrayEquals(data, IOUtils.toByteArray(third.getInputStream()));
+
+        first.release();
+        first.release();
+
+        assertEquals(new String(data, StandardCharsets.US_ASCII), second.asString());
+        assertEquals(80, budget.getUsed());
+
+        second.release();
+
+        assertEquals(0, budget.getUsed());
+
+        // Client closed connection before whole body was sent.
+        RequestBody truncated = RequestBody.read(new ByteArrayInputStream(data, 0, 30), 80, 1000, budget, null);
+
+        assertEquals(30, truncated.size());
+        assertEquals(30, budget.getUsed());
+
+        truncated.release();
+
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testSpilledBodyIsDeleted() throws Exception {
+        Path dir = Files.createTempDirectory("bodies");
+        long[] spilled = new long[1];
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setBodyMemoryThreshold(16)
+            .setUploadDirectory(dir.toString())
+            .addHandler("/", (req, resp) -> {
+                try (Stream<Path> files = Files.list(dir)) {
+                    spilled[0] = files.count();
+                }
+
+                resp.getWriter().write(req.body.isInMemory() + " " + req.getBody().length() + " " +
+                    IOUtils.toByteArray(req.getInputStream()).length + " " + req.getArgument("a"));
+            }))) {
+
+            char[] val = new char[1000];
+            Arrays.fill(val, 'x');
+
+            String body = "a=" + new String(val);
+            String resp = send("POST / HTTP/1.0\r\n" +
+                "Content-Type: application/x-www-form-urlencoded\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "\r\n" +
+                body);
+
+            assertTrue(resp, resp.endsWith("false 1002 1002 " + new String(val)));
+            assertEquals(1, spilled[0]);
+
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals("Temporary file is not deleted", 0, files.count());
+            }
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMaxHeaderSize(256)
+            .setMaxBodySize(100)
+            .addHandler("/", (req, resp) -> resp.getWriter().write(req.getBody())))) {
+
+            assertTrue(send(post(5) + "hello").endsWith("hello"));
+
+            // Rejected by declared length, body is never sent.
+            assertTrue(send(post(1_000_000) + "x").startsWith("HTTP/1.0 413"));
+
+            char[] val = new char[300];
+            Arrays.fill(val, 'x');
+
+            assertTrue(send("GET / HTTP/1.0\r\nX-Long: " + new String(val) + "\r\n\r\n").startsWith("HTTP/1.0 431"));
+
+            assertTrue(send("POST / HTTP/1.0\r\nContent-Type: text/plain\r\nContent-Length: abc\r\n\r\n")
+                .startsWith("HTTP/1.0 400"));
+            assertTrue(send("POST / HTTP/1.0\r\nContent-Type: text/plain\r\n\r\n").startsWith("HTTP/1.0 400"));
+        }
+    }
+
+    private static String post(long length) {
+        return "POST / HTTP/1.0\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Length: " + length + "\r\n" +
+            "\r\n";
+    }
+
+    private static String send(String req) throws Exception {
+        try (Socket sock = new Socket("localhost", PORT)) {
+            OutputStream out = sock.getOutputStream();
+            out.write(req.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            return IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+        }
+    }
+}
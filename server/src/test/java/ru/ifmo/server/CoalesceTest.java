@@ -0,0 +1,171 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests coalescing of concurrent identical requests.
+ */
+public class CoalesceTest {
+    private static final int PORT = 8981;
+
+    private static final int CLIENTS = 10;
+
+    @Test
+    public void testCoalesced() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMetricsPath("/metrics")
+            .addCoalescedRoute("/slow")
+            .addHandler("/slow", (req, resp) -> {
+                calls.incrementAndGet();
+                release.await();
+                resp.getWriter().write("result " + req.getArguments());
+            }))) {
+
+            ExecutorService exec = Executors.newFixedThreadPool(CLIENTS);
+
+            try {
+                List<Future<String>> futs = new ArrayList<>();
+
+                for (int i = 0; i < CLIENTS; i++)
+                    futs.add(exec.submit(() -> get("/slow?a=1")));
+
+                // Let all requests join the flight.
+                Thread.sleep(500);
+
+                assertEquals(1, calls.get());
+
+                release.countDown();
+
+                String first = futs.get(0).get();
+
+                assertTrue(first, first.startsWith("HTTP/1.0 200\r\n"));
+                assertTrue(first, first.endsWith("result {a=1}"));
+
+                for (Future<String> fut : futs)
+                    assertEquals(first, fut.get());
+
+                assertEquals(1, calls.get());
+            } finally {
+                exec.shutdownNow();
+            }
+
+            // Request after flight completion runs handler again.
+            assertTrue(get("/slow?a=1").endsWith("result {a=1}"));
+            assertEquals(2, calls.get());
+
+            String metrics = get("/metrics");
+
+            assertTrue(metrics, metrics.contains("\nhttp_coalesced_requests " + (CLIENTS - 1) + "\n"));
+            assertTrue(metrics, metrics.contains("\nhttp_coalesce_timeouts 0\n"));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMetricsPath("/metrics")
+            .setCoalesceTimeout(100)
+            .addCoalescedRoute("/slow")
+            .addHandler("/slow", (req, resp) -> {
+                int call = calls.incrementAndGet();
+
+                if (call == 1)
+                    release.await();
+
+                resp.getWriter().write("call " + call);
+            }))) {
+
+            ExecutorService exec = Executors.newSingleThreadExecutor();
+
+            try {
+                Future<String> leader = exec.submit(() -> get("/slow"));
+
+                while (calls.get() == 0)
+                    Thread.sleep(10);
+
+                // Waits for leader 100 ms and runs handler itself.
+                assertTrue(get("/slow").endsWith("call 2"));
+
+                release.countDown();
+
+                assertTrue(leader.get().endsWith("call 1"));
+            } finally {
+                exec.shutdownNow();
+            }
+
+            assertTrue(get("/metrics").contains("\nhttp_coalesce_timeouts 1\n"));
+        }
+    }
+
+    @Test
+    public void testCookiesNotShared() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .addCoalescedRoute("/slow")
+            .addHandler("/slow", (req, resp) -> {
+                int call = calls.incrementAndGet();
+
+                if (call == 1)
+                    release.await();
+
+                resp.addCookie(new Cookie("call", String.valueOf(call)));
+            }))) {
+
+            ExecutorService exec = Executors.newFixedThreadPool(2);
+
+            try {
+                Future<String> leader = exec.submit(() -> get("/slow"));
+
+                while (calls.get() == 0)
+                    Thread.sleep(10);
+
+                Future<String> waiter = exec.submit(() -> get("/slow"));
+
+                Thread.sleep(200);
+
+                release.countDown();
+
+                assertTrue(leader.get().contains("Set-Cookie: call=1"));
+                assertTrue(waiter.get().contains("Set-Cookie: call=2"));
+            } finally {
+                exec.shutdownNow();
+            }
+        }
+    }
+
+    private static String get(String path) throws IOException {
+        try (Socket sock = new Socket("localhost", PORT)) {
+            OutputStream out = sock.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            return IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+        }
+    }
+}
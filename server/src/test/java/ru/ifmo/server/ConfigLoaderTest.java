@@ -14,6 +14,7 @@ import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 public class ConfigLoaderTest {
 
@@ -44,6 +45,26 @@ public class ConfigLoaderTest {
         ServerConfig config = new ConfigLoader().load(tmpFile);
         checkConfig(config);
         checkScanHandlers(config);
+
+        assertEquals(8443, config.getHttpsPort());
+        assertEquals("test-keystore.p12", config.getKeyStore());
+        assertEquals("changeit", config.getKeyStorePassword());
+
+        assertEquals(1000, config.getRateLimitMaxKeys());
+        assertEquals(2, config.getRateLimits().size());
+
+        RateLimit client = config.getRateLimits().get(0);
+        assertEquals(RateLimit.Key.CLIENT, client.getKey());
+        assertNull(client.getPath());
+        assertEquals(100, client.getRate(), 0);
+        assertEquals(200, client.getBurst());
+
+        RateLimit apiKey = config.getRateLimits().get(1);
+        assertEquals(RateLimit.Key.HEADER, apiKey.getKey());
+        assertEquals("X-Api-Key", apiKey.getHeader());
+        assertEquals("/api/", apiKey.getPath());
+        assertEquals(0.5, apiKey.getRate(), 0);
+        assertEquals(1, apiKey.getBurst());
     }
 
     @Test
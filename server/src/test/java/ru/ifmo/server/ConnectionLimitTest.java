@@ -0,0 +1,130 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests server-wide and per client connection limits.
+ */
+public class ConnectionLimitTest {
+    private static final int PORT = 8681;
+
+    @Test
+    public void testPerClientLimit() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMaxConnectionsPerClient(2)
+            .addHandler("/ok", new SuccessHandler()))) {
+
+            Socket idle1 = new Socket("localhost", PORT);
+            Socket idle2 = new Socket("localhost", PORT);
+
+            try {
+                waitOpen(server, 2);
+
+                String resp = get();
+
+                assertTrue(resp, resp.startsWith("HTTP/1.0 503"));
+                assertTrue(resp, resp.contains("Too many connections"));
+                assertEquals(1, server.getMetrics().getRejectedConnections());
+            } finally {
+                idle1.close();
+            }
+
+            waitOpen(server, 1);
+
+            String resp = get();
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 200"));
+
+            idle2.close();
+        }
+    }
+
+    @Test
+    public void testGlobalLimitPausesAccept() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMaxConnections(1)
+            .setMetricsPath("/metrics")
+            .addHandler("/ok", new SuccessHandler()))) {
+
+            Socket idle = new Socket("localhost", PORT);
+
+            try (Socket sock = new Socket("localhost", PORT)) {
+                waitOpen(server, 1);
+
+                send(sock);
+                sock.setSoTimeout(300);
+
+                try {
+                    sock.getInputStream().read();
+                    fail("Connection over limit was accepted");
+                } catch (SocketTimeoutException ignored) {
+                    // Expected, connection waits in backlog.
+                }
+
+                StringBuilder sb = new StringBuilder();
+                server.getMetrics().writePrometheus(sb);
+                assertTrue(sb.toString(), sb.toString().contains("\nhttp_accept_paused 1\n"));
+                assertTrue(sb.toString(), sb.toString().contains("\nhttp_connections_open 1\n"));
+
+                idle.close();
+                sock.setSoTimeout(5000);
+
+                String resp = IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+
+                assertTrue(resp, resp.startsWith("HTTP/1.0 200"));
+                assertEquals(0, server.getMetrics().getRejectedConnections());
+            } finally {
+                idle.close();
+            }
+        }
+    }
+
+    @Test
+    public void testLimiterStripes() {
+        ConnectionLimiter limiter = new ConnectionLimiter(0, 1);
+
+        InetAddress a = InetAddress.getLoopbackAddress();
+
+        assertTrue(limiter.acquireClient(a));
+        assertFalse(limiter.acquireClient(a));
+
+        limiter.releaseClient(a);
+
+        assertTrue(limiter.acquireClient(a));
+    }
+
+    private static void waitOpen(Server server, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (server.getMetrics().getActiveConnections() != expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(expected, server.getMetrics().getActiveConnections());
+    }
+
+    private static String get() throws IOException {
+        try (Socket sock = new Socket("localhost", PORT)) {
+            send(sock);
+
+            return IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static void send(Socket sock) throws IOException {
+        OutputStream out = sock.getOutputStream();
+        out.write("GET /ok HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
@@ -0,0 +1,78 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests lazy parsing of request cookies.
+ */
+public class CookieJarTest {
+    private static final int PORT = 9481;
+
+    @Test
+    public void testParse() {
+        Map<String, Cookie> cookies = new CookieJar(" a=1;b = x=y ;flag; =skipped;;a=2; c=").asMap();
+
+        assertEquals(4, cookies.size());
+        assertEquals("1", cookies.get("a").getValue());
+        assertEquals("x=y", cookies.get("b").getValue());
+        assertEquals("", cookies.get("flag").getValue());
+        assertEquals("", cookies.get("c").getValue());
+    }
+
+    @Test
+    public void testFind() {
+        String raw = "JSESSIONIDX=1; flag; JSESSIONID = abc ; JSESSIONID=def";
+
+        assertEquals("abc", CookieJar.find(raw, "JSESSIONID"));
+        assertEquals("", CookieJar.find(raw, "flag"));
+        assertNull(CookieJar.find(raw, "JSESSION"));
+        assertNull(CookieJar.find(raw, ""));
+        assertNull(CookieJar.find("", "a"));
+    }
+
+    @Test
+    public void testRequest() {
+        Request req = new Request(null, null);
+
+        assertTrue(req.getCookies().isEmpty());
+        assertNull(req.getCookieValue("a"));
+
+        req.addCookieHeader("a=1");
+        assertEquals("1", req.getCookieValue("a"));
+
+        req.addCookieHeader("b=2");
+        assertEquals("2", req.getCookieValue("b"));
+        assertEquals(2, req.getCookies().size());
+        assertNull(req.getCookieValue("c"));
+    }
+
+    @Test
+    public void testCookieWithoutValue() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .addHandler("/", (req, resp) -> resp.getWriter().write(req.getCookies().keySet() + " " +
+                req.getCookieValue("b"))))) {
+
+            try (Socket sock = new Socket("localhost", PORT)) {
+                OutputStream out = sock.getOutputStream();
+                out.write(("GET / HTTP/1.0\r\n" +
+                    "Cookie: flag; b=2\r\n" +
+                    "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                String resp = IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+
+                assertTrue(resp, resp.startsWith("HTTP/1.0 200"));
+                assertTrue(resp, resp.endsWith("[flag, b] 2"));
+            }
+        }
+    }
+}
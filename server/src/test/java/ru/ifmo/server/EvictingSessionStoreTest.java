@@ -0,0 +1,90 @@
+package ru.ifmo.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests session limits.
+ */
+public class EvictingSessionStoreTest {
+    private static final long TIMEOUT = 60_000;
+
+    @Test
+    public void testFrequentSessionsSurviveFlood() {
+        EvictingSessionStore store = new EvictingSessionStore(new InMemorySessionStore(), 100, 0);
+        List<Session> hot = new ArrayList<>();
+
+        for (int i = 0; i < 90; i++) {
+            Session s = newSession(store);
+            hot.add(s);
+        }
+
+        for (int round = 0; round < 5; round++) {
+            for (Session s : hot)
+                store.touch(s);
+        }
+
+        // Cookieless crawler, while active users keep using their sessions.
+        for (int i = 0; i < 10_000; i++) {
+            newSession(store);
+
+            if (i % 100 == 0) {
+                for (Session s : hot)
+                    store.touch(s);
+            }
+        }
+
+        assertTrue("Size: " + store.size(), store.size() <= 100);
+
+        int alive = 0;
+        for (Session s : hot) {
+            if (store.get(s.getId()) != null)
+                alive++;
+            else
+                assertTrue(s.expired);
+        }
+
+        assertTrue("Hot sessions alive: " + alive, alive >= 85);
+        assertTrue(store.evicted() >= 10_000 - 10);
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        long budget = 100_000;
+        EvictingSessionStore store = new EvictingSessionStore(new InMemorySessionStore(), 0, budget);
+
+        for (int i = 0; i < 100; i++) {
+            Session s = newSession(store);
+            s.setData("payload", new byte[4096]);
+
+            assertTrue("Estimated: " + store.estimatedBytes(), store.estimatedBytes() <= budget);
+        }
+
+        assertTrue(store.size() < 100);
+        assertTrue(store.size() > 10);
+        assertEquals(100 - store.size(), store.evicted());
+    }
+
+    @Test
+    public void testStats() {
+        EvictingSessionStore store = new EvictingSessionStore(new InMemorySessionStore(), 1, 0);
+        SessionStats stats = new SessionStats(store);
+
+        newSession(store);
+        newSession(store);
+
+        assertEquals(1, stats.getActive());
+        assertEquals(1, stats.getEvicted());
+        assertTrue(stats.getEstimatedBytes() > 0);
+    }
+
+    private static Session newSession(SessionStore store) {
+        Session s = new Session(Session.generateSID(), TIMEOUT);
+        store.put(s);
+        return s;
+    }
+}
@@ -0,0 +1,105 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests handling of requests sent with {@code Expect: 100-continue}.
+ */
+public class ExpectContinueTest {
+    private static final int PORT = 9781;
+
+    private static final String BODY = "hello";
+
+    @Test
+    public void testExpectContinue() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMaxBodySize(100)
+            .setMaxMultipartSize(1000)
+            .setExpectationHandler((req, resp) -> {
+                if (req.getHeader("Authorization") != null)
+                    return Http.SC_CONTINUE;
+
+                resp.setHeader("WWW-Authenticate", "Basic");
+
+                return 401;
+            })
+            .addHandler("/", (req, resp) -> resp.getWriter().write(req.getBody())))) {
+
+            try (Socket sock = new Socket("localhost", PORT)) {
+                sock.getOutputStream().write(head("/", "text/plain", BODY.length(), true));
+
+                String interim = readHead(sock.getInputStream());
+
+                assertTrue(interim, interim.startsWith("HTTP/1.0 100"));
+
+                sock.getOutputStream().write(BODY.getBytes(StandardCharsets.US_ASCII));
+
+                String resp = IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+
+                assertTrue(resp, resp.startsWith("HTTP/1.0 200"));
+                assertTrue(resp, resp.endsWith(BODY));
+            }
+
+            // Rejected requests are answered with final status right away.
+            String resp = rejected(head("/", "text/plain", BODY.length(), false));
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 401"));
+            assertTrue(resp, resp.contains("WWW-Authenticate: Basic"));
+
+            resp = rejected(head("/", "text/plain", 1000, true));
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 413"));
+
+            resp = rejected(head("/", "multipart/form-data; boundary=abc", 10_000, true));
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 413"));
+
+            resp = rejected(head("/missing", "text/plain", BODY.length(), true));
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 404"));
+        }
+    }
+
+    /**
+     * Sends request head only and reads response.
+     */
+    private static String rejected(byte[] head) throws IOException {
+        try (Socket sock = new Socket("localhost", PORT)) {
+            sock.getOutputStream().write(head);
+
+            String resp = IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+
+            assertFalse(resp, resp.contains("100 Continue"));
+
+            return resp;
+        }
+    }
+
+    private static byte[] head(String path, String contentType, int length, boolean authorized) {
+        return ("PUT " + path + " HTTP/1.1\r\n" +
+            "Content-Type: " + contentType + "\r\n" +
+            "Content-Length: " + length + "\r\n" +
+            (authorized ? "Authorization: Basic dXNlcjpwYXNz\r\n" : "") +
+            "Expect: 100-continue\r\n" +
+            "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+
+        for (int c; sb.indexOf("\r\n\r\n") < 0 && (c = in.read()) >= 0; )
+            sb.append((char) c);
+
+        return sb.toString();
+    }
+}
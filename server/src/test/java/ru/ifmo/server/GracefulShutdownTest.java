@@ -0,0 +1,235 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import ru.ifmo.server.http2.Http2Frame;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static ru.ifmo.server.http2.Http2.*;
+
+/**
+ * Tests graceful server stop.
+ */
+public class GracefulShutdownTest {
+    private static final int PORT = 8581;
+
+    @Test
+    public void testInFlightRequestCompletes() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+
+        Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .addHandler("/slow", (req, resp) -> {
+                entered.countDown();
+                Thread.sleep(500);
+                resp.getWriter().write("done");
+            }));
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<String> fut = exec.submit(() -> get("/slow"));
+
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            server.stop();
+
+            String resp = fut.get(5, TimeUnit.SECONDS);
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 200"));
+            assertTrue(resp, resp.contains("Connection: close\r\n"));
+            assertTrue(resp, resp.endsWith("done"));
+            assertEquals(1, server.getDrainedRequests());
+            assertEquals(0, server.getAbortedRequests());
+
+            try {
+                new Socket("localhost", PORT).close();
+                fail("Server still accepts connections");
+            } catch (ConnectException ignored) {
+                // Expected.
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCachedResponseClosesConnection() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+
+        // Expectation check holds request in flight until server is stopping.
+        Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setResponseCacheSize(1 << 20)
+            .setExpectationHandler((req, resp) -> {
+                entered.countDown();
+                Thread.sleep(500);
+
+                return Http.SC_CONTINUE;
+            })
+            .addHandler("/cached", (req, resp) -> {
+                resp.setHeader(Http.CACHE_CONTROL, "public, max-age=60");
+                resp.getWriter().write("cached");
+            }));
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+
+        try {
+            assertFalse(get("/cached").contains("Connection: close"));
+
+            Future<String> fut = exec.submit(() -> {
+                try (Socket sock = new Socket("localhost", PORT)) {
+                    OutputStream out = sock.getOutputStream();
+                    out.write("GET /cached HTTP/1.0\r\nExpect: 100-continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+
+                    return IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+                }
+            });
+
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            server.stop();
+
+            String resp = fut.get(5, TimeUnit.SECONDS);
+
+            assertTrue(resp, resp.contains("HTTP/1.0 200"));
+            assertTrue(resp, resp.contains("Connection: close\r\n"));
+            assertTrue(resp, resp.endsWith("cached"));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTimeoutAbortsRequest() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setShutdownTimeout(200)
+            .addHandler("/stuck", (req, resp) -> {
+                entered.countDown();
+                release.await();
+            }));
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<String> fut = exec.submit(() -> get("/stuck"));
+
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+
+            server.stop();
+
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000);
+            assertEquals("", fut.get(5, TimeUnit.SECONDS));
+            assertEquals(0, server.getDrainedRequests());
+            assertEquals(1, server.getAbortedRequests());
+        } finally {
+            release.countDown();
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionClosedImmediately() throws Exception {
+        Server server = Server.start(new ServerConfig().setPort(PORT));
+
+        try (Socket sock = new Socket("localhost", PORT)) {
+            // Let server pick up connection.
+            Thread.sleep(200);
+
+            long start = System.nanoTime();
+
+            server.stop();
+
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000);
+            assertEquals(-1, sock.getInputStream().read());
+            assertEquals(0, server.getDrainedRequests());
+            assertEquals(0, server.getAbortedRequests());
+        }
+    }
+
+    @Test
+    public void testHttp2GoAway() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+
+        Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .addHandler("/slow", (req, resp) -> {
+                entered.countDown();
+                Thread.sleep(500);
+                resp.getWriter().write("done");
+            }));
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+
+        try (Http2TestClient client = new Http2TestClient(PORT, DFLT_INITIAL_WINDOW_SIZE)) {
+            client.request(1, "GET", "/slow", null, null);
+
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            Future<?> stop = exec.submit(server::stop);
+
+            Http2Frame goAway = client.readFrame();
+
+            assertEquals(TYPE_GOAWAY, goAway.getType());
+            assertEquals(1, Http2Frame.readInt(goAway.getPayload(), 0));
+            assertEquals(NO_ERROR, Http2Frame.readInt(goAway.getPayload(), 4));
+
+            // Stream opened after GOAWAY is refused.
+            client.request(3, "GET", "/slow", null, null);
+
+            boolean refused = false;
+            Http2Frame headers;
+
+            while ((headers = client.readFrame()).getType() != TYPE_HEADERS) {
+                if (headers.getType() == TYPE_RST_STREAM && headers.getStreamId() == 3)
+                    refused = Http2Frame.readInt(headers.getPayload(), 0) == REFUSED_STREAM;
+            }
+
+            assertTrue(refused);
+            assertEquals(1, headers.getStreamId());
+            assertEquals("200", client.decode(headers).get(":status"));
+
+            stop.get(5, TimeUnit.SECONDS);
+
+            assertEquals(1, server.getDrainedRequests());
+            assertEquals(0, server.getAbortedRequests());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    private static String get(String path) throws IOException {
+        try (Socket sock = new Socket("localhost", PORT)) {
+            OutputStream out = sock.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = sock.getInputStream();
+
+            try {
+                return IOUtils.toString(in, StandardCharsets.US_ASCII);
+            } catch (IOException e) {
+                return ""; // Connection reset.
+            }
+        }
+    }
+}
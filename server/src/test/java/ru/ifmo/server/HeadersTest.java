@@ -0,0 +1,135 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests header container.
+ */
+public class HeadersTest {
+    private static final int PORT = 9081;
+
+    @Test
+    public void testCaseInsensitive() {
+        Headers headers = new Headers();
+
+        headers.add("content-type", "text/plain");
+        headers.add("X-Custom", "1");
+
+        assertEquals("text/plain", headers.get(Http.CONTENT_TYPE));
+        assertEquals("text/plain", headers.get("CONTENT-TYPE"));
+        assertEquals("1", headers.get("x-custom"));
+        assertNull(headers.get("X-Custo"));
+
+        // Well-known name is interned.
+        assertSame(Http.CONTENT_TYPE, headers.name(0));
+        assertEquals("X-Custom", headers.name(1));
+    }
+
+    @Test
+    public void testWellKnown() {
+        for (String name : new String[] {Http.CONTENT_TYPE, Http.CONTENT_LENGTH, Http.ACCEPT_ENCODING, "Cookie",
+            "User-Agent", "X-Forwarded-For"}) {
+            assertSame(name, Headers.wellKnown(name, 0, name.length()));
+            assertSame(name, Headers.wellKnown(name.toLowerCase(), 0, name.length()));
+            assertSame(name, Headers.name(new StringBuilder(" " + name.toUpperCase() + ": x"), 1, name.length() + 1));
+        }
+
+        assertNull(Headers.wellKnown("Content-Typ", 0, 11));
+        assertNull(Headers.wellKnown("X-Api-Key", 0, 9));
+        assertEquals("X-Api-Key", Headers.name("X-Api-Key", 0, 9));
+    }
+
+    @Test
+    public void testMultiValue() {
+        Headers headers = new Headers();
+
+        headers.add("Vary", "Accept");
+        headers.add("Host", "localhost");
+        headers.add("vary", "Accept-Encoding");
+
+        assertEquals("Accept", headers.get("Vary"));
+        assertEquals(Arrays.asList("Accept", "Accept-Encoding"), headers.getAll("VARY"));
+        assertEquals(3, headers.size());
+
+        assertEquals("Accept", headers.set("Vary", "Origin"));
+        assertEquals(Arrays.asList("Origin"), headers.getAll("Vary"));
+        assertEquals(2, headers.size());
+
+        assertEquals("Origin", headers.remove("vary"));
+        assertFalse(headers.contains("Vary"));
+        assertEquals(1, headers.size());
+        assertEquals("localhost", headers.get("Host"));
+    }
+
+    @Test
+    public void testMapView() {
+        Headers headers = new Headers();
+
+        for (int i = 0; i < 20; i++)
+            headers.add("X-H" + (i % 5), String.valueOf(i));
+
+        Map<String, String> map = headers.asMap();
+
+        assertEquals(5, map.size());
+        assertEquals("3", map.get("x-h3"));
+        assertTrue(map.containsKey("X-H4"));
+
+        map.put("x-h0", "new");
+        assertEquals("new", headers.get("X-H0"));
+        assertEquals(1, headers.getAll("X-H0").size());
+
+        Iterator<Map.Entry<String, String>> it = map.entrySet().iterator();
+
+        while (it.hasNext()) {
+            if (it.next().getKey().equals("X-H2"))
+                it.remove();
+        }
+
+        assertFalse(headers.contains("X-H2"));
+        assertEquals(4, map.size());
+        assertEquals("{X-H0=new, X-H1=1, X-H3=3, X-H4=4}", map.toString());
+    }
+
+    @Test
+    public void testLowerCaseRequestHeaders() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .addHandler("/echo", (req, resp) -> {
+                resp.addHeader("Vary", "Accept");
+                resp.addHeader("Vary", "Accept-Encoding");
+                resp.getWriter().write(req.getArguments() + " " + req.getHeaders().get("X-Api-Key") + " " +
+                    req.getHeaderValues("x-api-key"));
+            }))) {
+
+            try (Socket sock = new Socket("localhost", PORT)) {
+                OutputStream out = sock.getOutputStream();
+                out.write(("POST /echo HTTP/1.0\r\n" +
+                    "content-type: application/x-www-form-urlencoded\r\n" +
+                    "content-length: 7\r\n" +
+                    "x-api-key: k1\r\n" +
+                    "malformed line\r\n" +
+                    ": no name\r\n" +
+                    "X-API-KEY: k2\r\n" +
+                    "\r\n" +
+                    "a=1&b=2").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                String resp = IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+
+                assertTrue(resp, resp.startsWith("HTTP/1.0 200\r\n"));
+                assertTrue(resp, resp.contains("\r\nVary: Accept\r\nVary: Accept-Encoding\r\n"));
+                assertTrue(resp, resp.endsWith("{a=1, b=2} k1 [k1, k2]"));
+            }
+        }
+    }
+}
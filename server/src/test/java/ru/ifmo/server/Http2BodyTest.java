@@ -0,0 +1,208 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import ru.ifmo.server.http2.Http2Frame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static ru.ifmo.server.http2.Http2.*;
+
+/**
+ * Tests buffering of HTTP/2 request bodies.
+ */
+public class Http2BodyTest {
+    private static final int PORT = 9881;
+
+    private static final String BOUNDARY = "b0undary";
+
+    @Test
+    public void testBodySpilled() throws Exception {
+        Path dir = Files.createTempDirectory("bodies");
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setBodyMemoryThreshold(16)
+            .setUploadDirectory(dir.toString())
+            .addHandler("/", (req, resp) -> resp.getWriter().write(req.body.isInMemory() + " " + count(dir) + " " +
+                IOUtils.toByteArray(req.getInputStream()).length + " " + req.getArgument("a"))));
+             Http2TestClient client = new Http2TestClient(PORT, DFLT_INITIAL_WINDOW_SIZE)) {
+
+            char[] val = new char[5000];
+            Arrays.fill(val, 'x');
+
+            byte[] body = ("a=" + new String(val)).getBytes(StandardCharsets.US_ASCII);
+
+            client.headers(1, "POST", "/", Http.URL_ENCODED, false);
+            client.data(1, Arrays.copyOfRange(body, 0, 1000), false);
+            client.data(1, Arrays.copyOfRange(body, 1000, body.length), true);
+
+            Http2Frame headers = client.readHeaders();
+
+            assertEquals("200", client.decode(headers).get(":status"));
+            assertEquals("false 1 " + body.length + " " + new String(val), readBody(client, 1, headers));
+
+            long deadline = System.currentTimeMillis() + 1000;
+
+            while (count(dir) > 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+
+            assertEquals("Temporary file is not deleted", 0, count(dir));
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testMultipartStreamed() throws Exception {
+        CountDownLatch firstPart = new CountDownLatch(1);
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMaxBodySize(1000)
+            .addHandler("/upload", (req, resp) -> {
+                StringBuilder sb = new StringBuilder();
+
+                for (Iterator<Part> it = req.getParts(); it.hasNext(); ) {
+                    Part p = it.next();
+
+                    sb.append(p.getName()).append('=').append(p.getSize()).append(' ');
+                    firstPart.countDown();
+                }
+
+                resp.getWriter().write(sb.toString().trim());
+            }));
+             Http2TestClient client = new Http2TestClient(PORT, DFLT_INITIAL_WINDOW_SIZE)) {
+
+            client.headers(1, "POST", "/upload", Http.MULTIPART_FORM_DATA + "; boundary=" + BOUNDARY, false);
+            client.data(1, ("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"text\"\r\n" +
+                "\r\n" +
+                "value\r\n" +
+                "--" + BOUNDARY).getBytes(StandardCharsets.US_ASCII), false);
+
+            // Handler reads the first part before the rest of body is sent.
+            assertTrue("Multipart body is buffered", firstPart.await(5, TimeUnit.SECONDS));
+
+            byte[] file = new byte[3000];
+            Arrays.fill(file, (byte) 'f');
+
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            rest.write(("\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII));
+            rest.write(file);
+            rest.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+
+            client.data(1, rest.toByteArray(), true);
+
+            // Multipart body isn't limited by max body size.
+            Http2Frame headers = client.readHeaders();
+
+            assertEquals("200", client.decode(headers).get(":status"));
+            assertEquals("text=5 file=3000", readBody(client, 1, headers));
+        }
+    }
+
+    @Test
+    public void testMultipartFlowControl() throws Exception {
+        int window = 16_384;
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMaxBodySize(1000)
+            .setHttp2InitialWindowSize(window)
+            .addHandler("/upload", (req, resp) -> {
+                long size = 0;
+
+                for (Iterator<Part> it = req.getParts(); it.hasNext(); )
+                    size += it.next().getSize();
+
+                resp.getWriter().write(String.valueOf(size));
+            }));
+             Http2TestClient client = new Http2TestClient(PORT, DFLT_INITIAL_WINDOW_SIZE)) {
+
+            byte[] file = new byte[200_000];
+            Arrays.fill(file, (byte) 'f');
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write(("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII));
+            body.write(file);
+            body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+
+            byte[] data = body.toByteArray();
+
+            client.headers(1, "POST", "/upload", Http.MULTIPART_FORM_DATA + "; boundary=" + BOUNDARY, false);
+
+            // Server window is applied once SETTINGS is acknowledged, so default one is used first.
+            int streamWindow = Math.min(window, DFLT_INITIAL_WINDOW_SIZE);
+            int connWindow = DFLT_INITIAL_WINDOW_SIZE;
+            int sent = 0;
+
+            // Body is larger than both windows, so it's sent only if they're credited as handler reads it.
+            while (sent < data.length) {
+                int len = Math.min(Math.min(streamWindow, connWindow), Math.min(4096, data.length - sent));
+
+                if (len > 0) {
+                    client.data(1, Arrays.copyOfRange(data, sent, sent + len), sent + len == data.length);
+
+                    sent += len;
+                    streamWindow -= len;
+                    connWindow -= len;
+
+                    continue;
+                }
+
+                Http2Frame frame = client.readFrame();
+
+                assertFalse("Stream is reset", frame.getType() == TYPE_RST_STREAM);
+
+                if (frame.getType() == TYPE_WINDOW_UPDATE) {
+                    int inc = Http2Frame.readInt(frame.getPayload(), 0);
+
+                    if (frame.getStreamId() == 0)
+                        connWindow += inc;
+                    else
+                        streamWindow += inc;
+                }
+            }
+
+            Http2Frame headers = client.readHeaders();
+
+            assertEquals("200", client.decode(headers).get(":status"));
+            assertEquals(String.valueOf(file.length), readBody(client, 1, headers));
+        }
+    }
+
+    private static long count(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static String readBody(Http2TestClient client, int streamId, Http2Frame headers) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        boolean end = headers.hasFlag(FLAG_END_STREAM);
+
+        while (!end) {
+            Http2Frame frame = client.readFrame();
+
+            if (frame.getType() == TYPE_DATA && frame.getStreamId() == streamId) {
+                body.write(frame.getPayload());
+                end = frame.hasFlag(FLAG_END_STREAM);
+            }
+        }
+
+        return body.toString("UTF-8");
+    }
+}
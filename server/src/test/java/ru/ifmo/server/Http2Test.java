@@ -0,0 +1,236 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.ifmo.server.http2.HpackDecoder;
+import ru.ifmo.server.http2.HpackEncoder;
+import ru.ifmo.server.http2.Http2Frame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static ru.ifmo.server.http2.Http2.*;
+
+/**
+ * Tests HTTP/2 codec and h2c connections.
+ */
+public class Http2Test {
+    private static final String SUCCESS_URL = "/test_success";
+    private static final String SLOW_URL = "/test_slow";
+    private static final String BIG_URL = "/test_big";
+    private static final String POST_PUT_URL = "/test_post_put";
+
+    private static Server server;
+
+    @BeforeClass
+    public static void initialize() {
+        ServerConfig cfg = new ServerConfig()
+                .addHandler(SUCCESS_URL, new SuccessHandler())
+                .addHandler(SLOW_URL, new SlowHandler())
+                .addHandler(BIG_URL, new BigBodyHandler())
+                .addHandler(POST_PUT_URL, new SuccessPostPutHandler());
+
+        server = Server.start(cfg);
+    }
+
+    @AfterClass
+    public static void stop() {
+        IOUtils.closeQuietly(server);
+        server = null;
+    }
+
+    @Test
+    public void testHpackRfcExamples() {
+        // RFC 7541, C.4.1 and C.4.2: requests with Huffman coding sharing dynamic table.
+        HpackDecoder decoder = new HpackDecoder(DFLT_HEADER_TABLE_SIZE, Integer.MAX_VALUE);
+
+        Map<String, String> first = decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff");
+        assertEquals("GET", first.get(":method"));
+        assertEquals("http", first.get(":scheme"));
+        assertEquals("/", first.get(":path"));
+        assertEquals("www.example.com", first.get(":authority"));
+
+        Map<String, String> second = decode(decoder, "828684be5886a8eb10649cbf");
+        assertEquals("www.example.com", second.get(":authority"));
+        assertEquals("no-cache", second.get("cache-control"));
+    }
+
+    @Test
+    public void testHpackRoundTrip() {
+        HpackEncoder encoder = new HpackEncoder(DFLT_HEADER_TABLE_SIZE);
+        HpackDecoder decoder = new HpackDecoder(DFLT_HEADER_TABLE_SIZE, Integer.MAX_VALUE);
+
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            encoder.encode(":status", "200", true, block);
+            encoder.encode("content-type", "text/html", true, block);
+            encoder.encode("x-custom", "value-" + i, true, block);
+            encoder.encode("set-cookie", "JSESSIONID=abc", false, block);
+
+            byte[] buf = block.toByteArray();
+            List<String> fields = new ArrayList<>();
+            decoder.decode(buf, 0, buf.length, (name, value) -> fields.add(name + "=" + value));
+
+            assertEquals("[:status=200, content-type=text/html, x-custom=value-" + i + ", set-cookie=JSESSIONID=abc]",
+                    fields.toString());
+        }
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        try (Http2TestClient client = new Http2TestClient(ServerConfig.DFLT_PORT, DFLT_INITIAL_WINDOW_SIZE)) {
+            client.request(1, "GET", SUCCESS_URL + "?a=1&b=2", null, null);
+
+            Http2Frame headers = client.readHeaders();
+            assertEquals(1, headers.getStreamId());
+            assertEquals("200", client.decode(headers).get(":status"));
+
+            assertEquals(SuccessHandler.TEST_RESPONSE + "<br>{a=1, b=2}" + SuccessHandler.CLOSE_HTML,
+                    readBody(client, 1, headers));
+        }
+    }
+
+    @Test
+    public void testPost() throws Exception {
+        try (Http2TestClient client = new Http2TestClient(ServerConfig.DFLT_PORT, DFLT_INITIAL_WINDOW_SIZE)) {
+            client.request(1, "POST", POST_PUT_URL, "text/plain", "Some body".getBytes(StandardCharsets.UTF_8));
+
+            Http2Frame headers = client.readHeaders();
+            assertEquals("200", client.decode(headers).get(":status"));
+            assertEquals(SuccessHandler.TEST_RESPONSE + "<br>Some body" + SuccessHandler.CLOSE_HTML,
+                    readBody(client, 1, headers));
+        }
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        try (Http2TestClient client = new Http2TestClient(ServerConfig.DFLT_PORT, DFLT_INITIAL_WINDOW_SIZE)) {
+            client.request(1, "GET", "/test_not_found", null, null);
+
+            assertEquals("404", client.decode(client.readHeaders()).get(":status"));
+        }
+    }
+
+    @Test
+    public void testMultiplexing() throws Exception {
+        try (Http2TestClient client = new Http2TestClient(ServerConfig.DFLT_PORT, DFLT_INITIAL_WINDOW_SIZE)) {
+            client.request(1, "GET", SLOW_URL, null, null);
+            client.request(3, "GET", SUCCESS_URL, null, null);
+
+            List<Integer> completed = new ArrayList<>();
+
+            while (completed.size() < 2) {
+                Http2Frame frame = client.readFrame();
+
+                if (frame.getType() == TYPE_HEADERS)
+                    client.decode(frame);
+
+                if (frame.hasFlag(FLAG_END_STREAM))
+                    completed.add(frame.getStreamId());
+            }
+
+            assertEquals("Fast stream must not wait for slow one", Integer.valueOf(3), completed.get(0));
+            assertEquals(Integer.valueOf(1), completed.get(1));
+        }
+    }
+
+    @Test
+    public void testFlowControl() throws Exception {
+        int window = 1000;
+
+        try (Http2TestClient client = new Http2TestClient(ServerConfig.DFLT_PORT, window)) {
+            client.request(1, "GET", BIG_URL, null, null);
+
+            Http2Frame headers = client.readHeaders();
+            assertEquals("200", client.decode(headers).get(":status"));
+
+            int total = 0;
+            boolean end = false;
+
+            while (!end) {
+                Http2Frame frame = client.readFrame();
+
+                if (frame.getType() != TYPE_DATA)
+                    continue;
+
+                assertTrue("Server exceeded stream window", frame.getLength() <= window);
+
+                total += frame.getLength();
+                end = frame.hasFlag(FLAG_END_STREAM);
+
+                if (!end && frame.getLength() > 0) {
+                    client.windowUpdate(1, frame.getLength());
+                    client.windowUpdate(0, frame.getLength());
+                }
+            }
+
+            assertEquals(BigBodyHandler.SIZE, total);
+        }
+    }
+
+    @Test
+    public void testConnectionWindow() throws Exception {
+        try (Http2TestClient client = new Http2TestClient(ServerConfig.DFLT_PORT, DFLT_INITIAL_WINDOW_SIZE)) {
+            byte[] chunk = new byte[1000];
+            Arrays.fill(chunk, (byte) 'a');
+
+            client.headers(1, "POST", POST_PUT_URL, "text/plain", false);
+            client.data(1, chunk, false);
+            client.data(1, chunk, true);
+
+            List<Integer> updates = new ArrayList<>();
+            boolean responded = false;
+
+            while (updates.size() < 2) {
+                Http2Frame frame = client.readFrame();
+
+                if (frame.getType() == TYPE_WINDOW_UPDATE && frame.getStreamId() == 0) {
+                    assertTrue("Connection window is credited before body is consumed", updates.isEmpty() || responded);
+
+                    updates.add(Http2Frame.readInt(frame.getPayload(), 0));
+                }
+
+                if (frame.getStreamId() == 1 && frame.hasFlag(FLAG_END_STREAM))
+                    responded = true;
+            }
+
+            // Window is enlarged to fit one body of max size, then consumed body is credited.
+            assertEquals(Arrays.asList((int) ServerConfig.DFLT_MAX_BODY_SIZE - DFLT_INITIAL_WINDOW_SIZE,
+                2 * chunk.length), updates);
+        }
+    }
+
+    private static String readBody(Http2TestClient client, int streamId, Http2Frame headers) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        boolean end = headers.hasFlag(FLAG_END_STREAM);
+
+        while (!end) {
+            Http2Frame frame = client.readFrame();
+
+            if (frame.getType() == TYPE_DATA && frame.getStreamId() == streamId) {
+                body.write(frame.getPayload());
+                end = frame.hasFlag(FLAG_END_STREAM);
+            }
+        }
+
+        return body.toString("UTF-8");
+    }
+
+    private static Map<String, String> decode(HpackDecoder decoder, String hex) {
+        byte[] buf = new byte[hex.length() / 2];
+        for (int i = 0; i < buf.length; i++)
+            buf[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+
+        Map<String, String> res = new LinkedHashMap<>();
+        decoder.decode(buf, 0, buf.length, res::put);
+        return res;
+    }
+}
@@ -0,0 +1,121 @@
+package ru.ifmo.server;
+
+import ru.ifmo.server.http2.HpackDecoder;
+import ru.ifmo.server.http2.HpackEncoder;
+import ru.ifmo.server.http2.Http2Frame;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static ru.ifmo.server.http2.Http2.*;
+
+/**
+ * Minimal HTTP/2 client speaking h2c with prior knowledge.
+ */
+public class Http2TestClient implements Closeable {
+    private final Socket sock;
+    private final InputStream in;
+    private final OutputStream out;
+    private final HpackEncoder encoder = new HpackEncoder(DFLT_HEADER_TABLE_SIZE);
+    private final HpackDecoder decoder = new HpackDecoder(DFLT_HEADER_TABLE_SIZE, Integer.MAX_VALUE);
+
+    public Http2TestClient(int port, int initialWindowSize) throws IOException {
+        this(new Socket("localhost", port), initialWindowSize);
+    }
+
+    public Http2TestClient(Socket sock, int initialWindowSize) throws IOException {
+        this.sock = sock;
+        sock.setSoTimeout(5000);
+        in = new BufferedInputStream(sock.getInputStream());
+        out = new BufferedOutputStream(sock.getOutputStream());
+
+        out.write(PREFACE);
+
+        byte[] settings = new byte[6];
+        settings[1] = SETTINGS_INITIAL_WINDOW_SIZE;
+        Http2Frame.writeInt(settings, 2, initialWindowSize);
+        writeFrame(TYPE_SETTINGS, 0, 0, settings);
+    }
+
+    public void request(int streamId, String method, String path, String contentType, byte[] body) throws IOException {
+        boolean hasBody = body != null && body.length > 0;
+
+        headers(streamId, method, path, contentType, !hasBody);
+
+        if (hasBody)
+            data(streamId, body, true);
+    }
+
+    public void headers(int streamId, String method, String path, String contentType, boolean end) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.encode(":method", method, true, block);
+        encoder.encode(":scheme", "http", true, block);
+        encoder.encode(":path", path, true, block);
+        encoder.encode(":authority", "localhost", true, block);
+
+        if (contentType != null)
+            encoder.encode("content-type", contentType, true, block);
+
+        writeFrame(TYPE_HEADERS, FLAG_END_HEADERS | (end ? FLAG_END_STREAM : 0), streamId, block.toByteArray());
+    }
+
+    public void data(int streamId, byte[] payload, boolean end) throws IOException {
+        writeFrame(TYPE_DATA, end ? FLAG_END_STREAM : 0, streamId, payload);
+    }
+
+    public void windowUpdate(int streamId, int inc) throws IOException {
+        byte[] p = new byte[4];
+        Http2Frame.writeInt(p, 0, inc);
+        writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, p);
+    }
+
+    /**
+     * Reads next frame answering server SETTINGS automatically.
+     */
+    public Http2Frame readFrame() throws IOException {
+        while (true) {
+            Http2Frame frame = Http2Frame.read(in, MAX_MAX_FRAME_SIZE);
+
+            if (frame == null)
+                throw new EOFException();
+
+            if (frame.getType() == TYPE_SETTINGS) {
+                if (!frame.hasFlag(FLAG_ACK))
+                    writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, new byte[0]);
+                continue;
+            }
+
+            return frame;
+        }
+    }
+
+    /**
+     * Skips frames until HEADERS.
+     */
+    public Http2Frame readHeaders() throws IOException {
+        while (true) {
+            Http2Frame frame = readFrame();
+
+            if (frame.getType() == TYPE_HEADERS)
+                return frame;
+        }
+    }
+
+    public Map<String, String> decode(Http2Frame headers) {
+        Map<String, String> res = new LinkedHashMap<>();
+        decoder.decode(headers.getPayload(), 0, headers.getLength(), res::put);
+        return res;
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        Http2Frame.write(out, type, flags, streamId, payload, 0, payload.length);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sock.close();
+    }
+}
@@ -0,0 +1,146 @@
+package ru.ifmo.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests persistent session store.
+ */
+public class MappedSessionStoreTest {
+    private static final long TIMEOUT = 60_000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("sessions", ".log");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRestart() {
+        MappedSessionStore store = new MappedSessionStore(file);
+        assertFalse(store.start().iterator().hasNext());
+
+        Session s1 = newSession(store);
+        s1.setData("login", "user1");
+        s1.setData("cart", new ArrayList<>(Arrays.asList(1, 2, 3)));
+
+        Session s2 = newSession(store);
+        s2.setData("login", "user2");
+
+        Session s3 = newSession(store);
+        store.remove(s3.getId());
+
+        // Not serializable value is kept in memory only.
+        s2.setData("lock", new Object());
+
+        store.stop();
+
+        store = new MappedSessionStore(file);
+        List<Session> loaded = toList(store.start());
+
+        assertEquals(2, loaded.size());
+        assertEquals(2, store.size());
+        assertEquals("user1", store.get(s1.getId()).getData("login"));
+        assertEquals(Arrays.asList(1, 2, 3), store.get(s1.getId()).getData("cart"));
+        assertEquals("user2", store.get(s2.getId()).getData("login"));
+        assertNull(store.get(s2.getId()).getData("lock"));
+        assertNull(store.get(s3.getId()));
+
+        long drift = Math.abs(store.get(s1.getId()).expireMillis() - s1.expireMillis());
+        assertTrue("Deadline drift: " + drift, drift < 1000);
+
+        store.stop();
+    }
+
+    @Test
+    public void testCrashRecovery() {
+        MappedSessionStore store = new MappedSessionStore(file);
+        store.start();
+
+        Session s = newSession(store);
+        s.setData("login", "user");
+
+        // No stop: log written so far must be replayable.
+        MappedSessionStore recovered = new MappedSessionStore(file);
+        recovered.start();
+
+        assertEquals("user", recovered.get(s.getId()).getData("login"));
+
+        recovered.stop();
+    }
+
+    @Test
+    public void testCompaction() {
+        MappedSessionStore store = new MappedSessionStore(file, 4096, new SerializableSessionDataCodec());
+        store.start();
+
+        List<String> live = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            Session s = newSession(store);
+            s.setData("n", i);
+
+            if (i % 10 == 0)
+                live.add(s.getId());
+            else
+                store.remove(s.getId());
+        }
+
+        store.stop();
+
+        store = new MappedSessionStore(file, 4096, new SerializableSessionDataCodec());
+        store.start();
+
+        assertEquals(live.size(), store.size());
+        assertEquals(990, (int) store.get(live.get(live.size() - 1)).getData("n"));
+
+        store.stop();
+    }
+
+    @Test
+    public void testExpiredNotRestored() throws InterruptedException {
+        MappedSessionStore store = new MappedSessionStore(file);
+        store.start();
+
+        Session s = new Session(Session.generateSID(), 50);
+        store.put(s);
+
+        Thread.sleep(100);
+        store.stop();
+
+        store = new MappedSessionStore(file);
+        store.start();
+
+        assertNull(store.get(s.getId()));
+
+        store.stop();
+    }
+
+    private static Session newSession(SessionStore store) {
+        Session s = new Session(Session.generateSID(), TIMEOUT);
+        store.put(s);
+        return s;
+    }
+
+    private static List<Session> toList(Iterable<Session> it) {
+        List<Session> res = new ArrayList<>();
+        it.forEach(res::add);
+        return res;
+    }
+}
@@ -0,0 +1,133 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.ifmo.server.metrics.Histogram;
+import ru.ifmo.server.metrics.RouteMetrics;
+import ru.ifmo.server.metrics.ServerMetrics;
+
+import static org.junit.Assert.*;
+import static ru.ifmo.server.TestUtils.assertStatusCode;
+
+/**
+ * Tests request metrics and metrics endpoint.
+ */
+public class MetricsTest {
+    private static final int PORT = 8381;
+    private static final HttpHost host = new HttpHost("localhost", PORT);
+
+    private static final String SUCCESS_URL = "/test_success";
+    private static final String FAIL_URL = "/test_fail";
+    private static final String METRICS_URL = "/metrics";
+
+    private static Server server;
+
+    @BeforeClass
+    public static void initialize() {
+        server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMetricsPath(METRICS_URL)
+            .addHandler(SUCCESS_URL, new SuccessHandler())
+            .addHandler(FAIL_URL, new FailHandler()));
+    }
+
+    @AfterClass
+    public static void stop() {
+        IOUtils.closeQuietly(server);
+        server = null;
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            for (int i = 0; i < 5; i++)
+                assertEquals(HttpStatus.SC_OK, execute(client, SUCCESS_URL));
+
+            assertEquals(HttpStatus.SC_INTERNAL_SERVER_ERROR, execute(client, FAIL_URL));
+            assertEquals(HttpStatus.SC_NOT_FOUND, execute(client, "/test_not_found"));
+
+            ServerMetrics metrics = server.getMetrics();
+
+            // Request is recorded after response is written.
+            awaitRequests(metrics, 7);
+
+            RouteMetrics success = metrics.getRoute(SUCCESS_URL);
+
+            assertNotNull(success);
+            assertEquals(5, success.getRequests(HttpStatus.SC_OK));
+            assertEquals(0, success.getErrors());
+            assertTrue(success.getBytesIn() > 0);
+            assertTrue(success.getBytesOut() > 0);
+            assertEquals(5, success.getParseLatency().getCount());
+            assertEquals(5, success.getHandlerLatency().getCount());
+            assertEquals(5, success.getWriteLatency().getCount());
+
+            assertEquals(1, metrics.getRoute(FAIL_URL).getErrors());
+            assertEquals(1, metrics.getRoute(ServerMetrics.ROUTE_NONE).getRequests(HttpStatus.SC_NOT_FOUND));
+            assertNull("Unmapped path is used as route", metrics.getRoute("/test_not_found"));
+
+            CloseableHttpResponse response = client.execute(host, new HttpGet(METRICS_URL));
+            assertStatusCode(HttpStatus.SC_OK, response);
+            assertTrue(response.getFirstHeader("Content-Type").getValue().startsWith("text/plain"));
+
+            String body = EntityUtils.toString(response.getEntity());
+
+            assertTrue(body, body.contains("http_requests_total{route=\"" + SUCCESS_URL + "\",status=\"200\"} 5\n"));
+            assertTrue(body, body.contains("http_requests_total{route=\"" + FAIL_URL + "\",status=\"500\"} 1\n"));
+            assertTrue(body, body.contains("http_request_errors_total{route=\"" + FAIL_URL + "\"} 1\n"));
+            assertTrue(body, body.contains("http_request_handler_seconds_count{route=\"" + SUCCESS_URL + "\"} 5\n"));
+            assertTrue(body, body.contains("http_request_handler_seconds{route=\"" + SUCCESS_URL + "\",quantile=\"0.99\"}"));
+            assertTrue(body, body.contains("# TYPE http_connections_active gauge\n"));
+            assertTrue(body, body.contains("http_worker_queue_depth 0\n"));
+        }
+    }
+
+    @Test
+    public void testHistogramQuantiles() {
+        Histogram h = new Histogram();
+
+        for (int i = 1; i <= 100_000; i++)
+            h.record(i * 1000L);
+
+        assertEquals(100_000, h.getCount());
+        assertEquals(100_000_000L, h.getMax());
+
+        for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            double expected = q * 100_000_000L;
+            double err = Math.abs(h.getValueAtQuantile(q) - expected) / expected;
+
+            assertTrue("Quantile " + q + " error is too big: " + err, err <= 1.0 / Histogram.SUB_BUCKETS);
+        }
+
+        h.record(-1);
+        h.record(Long.MAX_VALUE);
+
+        assertEquals(Histogram.MAX_VALUE, h.getMax());
+        assertEquals(0, h.getValueAtQuantile(0));
+    }
+
+    private static void awaitRequests(ServerMetrics metrics, long cnt) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (metrics.getRoutes().stream().mapToLong(RouteMetrics::getRequests).sum() < cnt &&
+            System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+    }
+
+    private static int execute(CloseableHttpClient client, String url) throws Exception {
+        try (CloseableHttpResponse response = client.execute(host, new HttpGet(url))) {
+            EntityUtils.consume(response.getEntity());
+
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+}
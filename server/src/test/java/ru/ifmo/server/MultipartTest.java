@@ -0,0 +1,259 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests streaming {@code multipart/form-data} parsing.
+ */
+public class MultipartTest {
+    private static final int PORT = 9581;
+
+    private static final String BOUNDARY = "----b0undary";
+
+    @Test
+    public void testBoundary() {
+        assertEquals("abc", MultipartParser.boundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b", MultipartParser.boundary("Multipart/Form-Data;charset=utf-8; Boundary=\"a b\""));
+        assertNull(MultipartParser.boundary("multipart/form-data"));
+        assertNull(MultipartParser.boundary("multipart/form-datax; boundary=abc"));
+        assertNull(MultipartParser.boundary("text/plain; boundary=abc"));
+        assertNull(MultipartParser.boundary(null));
+
+        String disposition = "form-data; name=\"f\\\"1\"; filename=\"a;b.txt\"";
+
+        assertEquals("f\"1", MultipartParser.parameter(disposition, "name"));
+        assertEquals("a;b.txt", MultipartParser.parameter(disposition, "filename"));
+        assertNull(MultipartParser.parameter(disposition, "size"));
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        byte[] file = content(5000);
+        byte[] body = body("preamble\r\n", file);
+
+        // One byte per read checks delimiter split between reads.
+        for (InputStream in : new InputStream[] {new ByteArrayInputStream(body), new SlowInputStream(body)}) {
+            List<Part> parts = new ArrayList<>();
+            Path path;
+
+            try (MultipartParser parser = parser(in, 1024, 0, 0)) {
+                parser.forEachRemaining(parts::add);
+
+                assertEquals(3, parts.size());
+
+                Part field = parts.get(0);
+
+                assertEquals("text", field.getName());
+                assertNull(field.getFileName());
+                assertTrue(field.isInMemory());
+                assertEquals("value\r\n--" + BOUNDARY.substring(0, 4), field.getString());
+
+                Part empty = parts.get(1);
+
+                assertEquals("empty", empty.getName());
+                assertEquals(0, empty.getSize());
+
+                Part upload = parts.get(2);
+
+                assertEquals("file", upload.getName());
+                assertEquals("a.bin", upload.getFileName());
+                assertEquals("application/octet-stream", upload.getContentType());
+                assertFalse(upload.isInMemory());
+                assertEquals(file.length, upload.getSize());
+
+                path = upload.getFile();
+
+                try (InputStream partIn = upload.getInputStream()) {
+                    assertArrayEquals(file, IOUtils.toByteArray(partIn));
+                }
+            }
+
+            assertFalse("Temporary file is not deleted", Files.exists(path));
+        }
+    }
+
+    @Test
+    public void testLimits() {
+        byte[] body = body("", content(5000));
+
+        try {
+            parser(new ByteArrayInputStream(body), 1024, 4096, 0).forEachRemaining(p -> {});
+
+            fail("Part limit is ignored");
+        } catch (PayloadTooLargeException ignored) {
+            // Expected.
+        }
+
+        try {
+            parser(new ByteArrayInputStream(body), 1024, 0, 4096).forEachRemaining(p -> {});
+
+            fail("Body limit is ignored");
+        } catch (PayloadTooLargeException ignored) {
+            // Expected.
+        }
+
+        parser(new ByteArrayInputStream(body), 1024, 5000, body.length).forEachRemaining(p -> {});
+    }
+
+    @Test
+    public void testMalformed() {
+        byte[] body = body("", content(10));
+
+        for (byte[] bad : new byte[][] {Arrays.copyOf(body, body.length - 30), "no boundary".getBytes()}) {
+            MultipartParser parser = parser(new ByteArrayInputStream(bad), 1024, 0, 0);
+
+            try {
+                parser.forEachRemaining(p -> {});
+
+                fail("Malformed body is accepted");
+            } catch (BadRequestException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed multipart body"));
+            }
+
+            assertFalse(parser.hasNext());
+        }
+    }
+
+    @Test
+    public void testNotMultipart() {
+        Request req = new Request(null, null);
+
+        assertFalse(req.getParts().hasNext());
+    }
+
+    @Test
+    public void testUpload() throws Exception {
+        byte[] file = content(200_000);
+        List<Path> files = new ArrayList<>();
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setMaxPartSize(300_000)
+            .addHandler("/upload", (req, resp) -> {
+                StringBuilder sb = new StringBuilder();
+
+                for (Iterator<Part> it = req.getParts(); it.hasNext(); ) {
+                    Part p = it.next();
+
+                    if (!p.isInMemory())
+                        files.add(p.getFile());
+
+                    sb.append(p.getName()).append('=').append(p.getSize()).append(' ');
+                }
+
+                resp.getWriter().write(sb.toString().trim());
+            }))) {
+
+            String resp = post(body("", file));
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 200"));
+            assertTrue(resp, resp.endsWith("text=" + ("value\r\n--" + BOUNDARY.substring(0, 4)).length() +
+                " empty=0 file=200000"));
+
+            assertEquals(1, files.size());
+            assertFalse("Temporary file is not deleted", Files.exists(files.get(0)));
+
+            resp = post(body("", content(400_000)));
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 413"));
+
+            resp = post("no boundary".getBytes(StandardCharsets.US_ASCII));
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 400"));
+        }
+    }
+
+    private static String post(byte[] body) throws IOException {
+        try (Socket sock = new Socket("localhost", PORT)) {
+            OutputStream out = sock.getOutputStream();
+
+            out.write(("POST /upload HTTP/1.0\r\n" +
+                "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII));
+
+            // Whole body is sent before response is read, rejected one is discarded by server.
+            out.write(body);
+            out.flush();
+
+            return IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static MultipartParser parser(InputStream in, int memoryThreshold, long maxPartSize, long maxSize) {
+        return new MultipartParser(in, BOUNDARY, memoryThreshold, maxPartSize, maxSize, null);
+    }
+
+    private static byte[] body(String preamble, byte[] file) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        write(out, preamble + "--" + BOUNDARY + "\r\n" +
+            "Content-Disposition: form-data; name=\"text\"\r\n" +
+            "\r\n" +
+            "value\r\n--" + BOUNDARY.substring(0, 4) + "\r\n" +
+            "--" + BOUNDARY + "  \r\n" +
+            "content-disposition: form-data; name=empty\r\n" +
+            "\r\n" +
+            "\r\n" +
+            "--" + BOUNDARY + "\r\n" +
+            "Content-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n" +
+            "Content-Type: application/octet-stream\r\n" +
+            "\r\n");
+
+        out.write(file, 0, file.length);
+
+        write(out, "\r\n--" + BOUNDARY + "--\r\nepilogue");
+
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, String s) {
+        byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+
+        out.write(b, 0, b.length);
+    }
+
+    /**
+     * @return Content with line breaks and dashes, like delimiter prefix.
+     */
+    private static byte[] content(int len) {
+        byte[] res = new byte[len];
+
+        for (int i = 0; i < len; i++)
+            res[i] = (byte) "ab\r\n--x-".charAt(i % 8);
+
+        return res;
+    }
+
+    /**
+     * Returns one byte per read.
+     */
+    private static class SlowInputStream extends FilterInputStream {
+        SlowInputStream(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
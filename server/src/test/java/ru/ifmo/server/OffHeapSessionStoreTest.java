@@ -0,0 +1,116 @@
+package ru.ifmo.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests off-heap session store.
+ */
+public class OffHeapSessionStoreTest {
+    private static final long TIMEOUT = 60_000;
+
+    @Test
+    public void testData() {
+        OffHeapSessionStore store = new OffHeapSessionStore();
+
+        Session heap = new Session(Session.generateSID(), TIMEOUT);
+        heap.setData("login", "user");
+        store.put(heap);
+
+        // Written through after registration.
+        heap.setData("count", 1);
+
+        Session view = store.get(heap.getId());
+        assertTrue(view instanceof OffHeapSession);
+        assertEquals("user", view.getData("login"));
+        assertEquals(1, (int) view.getData("count"));
+        assertNull(view.getData("missing"));
+
+        view.setData("count", 2);
+        view.setData("login", "other");
+        view.setData("extra", "value");
+
+        view = store.get(heap.getId());
+        assertEquals("other", view.getData("login"));
+        assertEquals(2, (int) view.getData("count"));
+        assertEquals("value", view.getData("extra"));
+        assertTrue(store.getUsedBytes() > 0);
+
+        assertNotNull(store.remove(heap.getId()));
+        assertNull(store.get(heap.getId()));
+        assertEquals(0, store.size());
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    public void testIndex() {
+        OffHeapSessionStore store = new OffHeapSessionStore();
+        List<String> ids = new ArrayList<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            Session s = new Session(Session.generateSID(), TIMEOUT);
+            store.put(s);
+            store.get(s.getId()).setData("n", i);
+            ids.add(s.getId());
+        }
+
+        for (int i = 0; i < ids.size(); i += 2)
+            store.remove(ids.get(i));
+
+        assertEquals(10_000, store.size());
+
+        for (int i = 0; i < ids.size(); i++) {
+            Session s = store.get(ids.get(i));
+
+            if (i % 2 == 0)
+                assertNull(s);
+            else
+                assertEquals(i, (int) s.getData("n"));
+        }
+    }
+
+    @Test
+    public void testLimits() {
+        OffHeapSessionStore store = new OffHeapSessionStore(2, 256, 16 * 1024 * 1024, new SerializableSessionDataCodec());
+
+        Session s = new Session(Session.generateSID(), TIMEOUT);
+        store.put(s);
+        store.put(new Session(Session.generateSID(), TIMEOUT));
+
+        try {
+            store.put(new Session(Session.generateSID(), TIMEOUT));
+            fail("Session limit not applied");
+        } catch (SessionException ignored) {
+            // Expected.
+        }
+
+        try {
+            store.get(s.getId()).setData("big", new byte[1024]);
+            fail("Session data limit not applied");
+        } catch (SessionException ignored) {
+            // Expected.
+        }
+
+        assertNull(store.get(s.getId()).getData("big"));
+    }
+
+    @Test
+    public void testSweep() throws InterruptedException {
+        OffHeapSessionStore store = new OffHeapSessionStore();
+
+        Session shortLived = new Session(Session.generateSID(), 50);
+        Session longLived = new Session(Session.generateSID(), TIMEOUT);
+        store.put(shortLived);
+        store.put(longLived);
+
+        Thread.sleep(100);
+
+        assertEquals(1, store.sweep(System.nanoTime()));
+        assertNull(store.get(shortLived.getId()));
+        assertNotNull(store.get(longLived.getId()));
+    }
+}
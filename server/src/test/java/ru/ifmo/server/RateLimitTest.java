@@ -0,0 +1,113 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import ru.ifmo.server.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests request rate limiting.
+ */
+public class RateLimitTest {
+    private static final int PORT = 8781;
+
+    @Test
+    public void testPerClient() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .addRateLimit(RateLimit.perClient(0.5, 2))
+            .addHandler("/ok", new SuccessHandler()))) {
+
+            assertTrue(get("/ok", null).startsWith("HTTP/1.0 200"));
+            assertTrue(get("/ok", null).startsWith("HTTP/1.0 200"));
+
+            String resp = get("/ok", null);
+
+            assertTrue(resp, resp.startsWith("HTTP/1.0 429 Too Many Requests\r\n"));
+            assertTrue(resp, resp.contains("\r\nRetry-After: 2\r\n"));
+
+            assertEquals(1, server.getMetrics().getRoute(ServerMetrics.ROUTE_NONE).getRequests(429));
+        }
+    }
+
+    @Test
+    public void testPerHeaderWithPath() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .addRateLimit(RateLimit.perHeader("X-Api-Key", 0.1, 1).setPath("/api/"))
+            .addHandler("/api/ok", new SuccessHandler())
+            .addHandler("/ok", new SuccessHandler()))) {
+
+            assertTrue(get("/api/ok", "a").startsWith("HTTP/1.0 200"));
+            assertTrue(get("/api/ok", "a").startsWith("HTTP/1.0 429"));
+
+            // Other key has own bucket.
+            assertTrue(get("/api/ok", "b").startsWith("HTTP/1.0 200"));
+
+            // Requests without the header share one bucket.
+            assertTrue(get("/api/ok", null).startsWith("HTTP/1.0 200"));
+            assertTrue(get("/api/ok", null).startsWith("HTTP/1.0 429"));
+
+            // Path outside of limit.
+            assertTrue(get("/ok", "a").startsWith("HTTP/1.0 200"));
+            assertTrue(get("/ok", "a").startsWith("HTTP/1.0 200"));
+        }
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        RateLimiter limiter = new RateLimiter(Collections.singletonList(RateLimit.perRoute(20, 1)), 10);
+        Request req = request("/a");
+
+        assertEquals(0, limiter.acquire(req));
+        assertEquals(1, limiter.acquire(req));
+
+        Thread.sleep(100);
+
+        assertEquals(0, limiter.acquire(req));
+    }
+
+    @Test
+    public void testBoundedKeys() throws Exception {
+        RateLimiter limiter = new RateLimiter(Collections.singletonList(RateLimit.perRoute(1, 1)), 2);
+
+        assertEquals(0, limiter.acquire(request("/a")));
+        assertEquals(0, limiter.acquire(request("/b")));
+
+        // Both buckets are empty, new keys share overflow bucket.
+        assertEquals(0, limiter.acquire(request("/c")));
+        assertEquals(1, limiter.acquire(request("/d")));
+        assertEquals(2, limiter.size());
+
+        Thread.sleep(1100);
+
+        // Full buckets are dropped to make room.
+        assertEquals(0, limiter.acquire(request("/e")));
+        assertEquals(1, limiter.size());
+    }
+
+    private static Request request(String path) throws Exception {
+        Request req = new Request(null, null);
+        req.method = HttpMethod.GET;
+        req.path = RequestTarget.parse(path, 0, path.length());
+        return req;
+    }
+
+    private static String get(String path, String apiKey) throws IOException {
+        try (Socket sock = new Socket("localhost", PORT)) {
+            OutputStream out = sock.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.0\r\n" + (apiKey != null ? "X-Api-Key: " + apiKey + "\r\n" : "") +
+                "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            return IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.ifmo.server.replication.ReplicationStats;
+import ru.ifmo.server.replication.ReplicationTransport;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static ru.ifmo.server.TestUtils.assertStatusCode;
+
+/**
+ * Tests session replication between three nodes on loopback.
+ */
+public class ReplicationTest {
+    private static final int NODES = 3;
+    private static final int HTTP_PORT = 8281;
+    private static final int REPL_PORT = 9281;
+
+    private static final byte[] SECRET = "replication-test-secret".getBytes(StandardCharsets.UTF_8);
+
+    private static final String SESSION_OPEN = "/test_sess_open";
+    private static final String SESSION_CHECK = "/test_sess_check";
+
+    /** Time for asynchronous replication to converge. */
+    private static final long CONVERGE_MILLIS = 2000;
+
+    private static final Server[] servers = new Server[NODES];
+    private static final ReplicatingSessionStore[] stores = new ReplicatingSessionStore[NODES];
+
+    @BeforeClass
+    public static void initialize() {
+        for (int i = 0; i < NODES; i++) {
+            List<InetSocketAddress> peers = new ArrayList<>();
+
+            for (int j = 0; j < NODES; j++) {
+                if (j != i)
+                    peers.add(new InetSocketAddress("localhost", REPL_PORT + j));
+            }
+
+            stores[i] = new ReplicatingSessionStore(new InetSocketAddress("localhost", REPL_PORT + i), peers, SECRET);
+
+            servers[i] = Server.start(new ServerConfig()
+                .setPort(HTTP_PORT + i)
+                .setSessionStore(stores[i])
+                .addHandler(SESSION_OPEN, new SessionOpenHandler())
+                .addHandler(SESSION_CHECK, new SessionCheckHandler()));
+        }
+    }
+
+    @AfterClass
+    public static void stop() {
+        for (int i = 0; i < NODES; i++) {
+            IOUtils.closeQuietly(servers[i]);
+            servers[i] = null;
+            stores[i] = null;
+        }
+    }
+
+    @Test
+    public void testSessionServedByAnyNode() throws Exception {
+        // Cookies are not port specific, so session cookie of one node is sent to all of them.
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            CloseableHttpResponse response = client.execute(host(0),
+                new HttpGet(new URIBuilder(SESSION_OPEN).addParameter("login", "alice").build()));
+            assertStatusCode(HttpStatus.SC_OK, response);
+            assertNotNull(response.getFirstHeader("Set-Cookie"));
+            EntityUtils.consume(response.getEntity());
+
+            for (int i = 1; i < NODES; i++)
+                assertEquals("alice", check(client, i));
+
+            response = client.execute(host(2),
+                new HttpGet(new URIBuilder(SESSION_OPEN).addParameter("login", "bob").build()));
+            assertStatusCode(HttpStatus.SC_OK, response);
+            assertNull("Session is recreated on other node", response.getFirstHeader("Set-Cookie"));
+            EntityUtils.consume(response.getEntity());
+
+            for (int i = 0; i < NODES; i++)
+                assertEquals("bob", awaitValue(client, i, "bob"));
+        }
+    }
+
+    @Test
+    public void testConvergence() throws Exception {
+        Random rnd = new Random(42);
+        List<String> ids = new ArrayList<>();
+
+        for (int i = 0; i < 200; i++) {
+            Session s = new Session(60_000);
+            stores[rnd.nextInt(NODES)].put(s);
+            ids.add(s.getId());
+        }
+
+        // Puts are replicated asynchronously, let all sessions reach their owners first.
+        for (String sid : ids) {
+            for (int n = 0; n < NODES; n++)
+                assertNotNull("Session not replicated: " + sid, awaitSession(n, sid));
+        }
+
+        String[] expected = new String[ids.size()];
+        String[] previous = new String[ids.size()];
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < ids.size(); i++) {
+                Session s = stores[rnd.nextInt(NODES)].get(ids.get(i));
+
+                assertNotNull("Session not found: " + ids.get(i), s);
+
+                previous[i] = expected[i];
+                expected[i] = "v" + round + "-" + i;
+                s.setData("key", expected[i]);
+            }
+        }
+
+        String id = ids.get(0);
+        stores[1].get(id);
+        stores[2].get(id);
+        stores[1].remove(id);
+
+        long deadline = System.currentTimeMillis() + CONVERGE_MILLIS;
+        String mismatch;
+
+        // Updates of consecutive rounds are made on different nodes and race to primary,
+        // which orders them, so nodes must agree on a value of one of the last rounds.
+        do {
+            mismatch = null;
+
+            for (int i = 1; i < ids.size() && mismatch == null; i++) {
+                Object val = null;
+
+                for (int n = 0; n < NODES && mismatch == null; n++) {
+                    Session s = stores[n].get(ids.get(i));
+                    Object nodeVal = s == null ? null : s.getData("key");
+
+                    if (nodeVal == null || (n > 0 && !nodeVal.equals(val)))
+                        mismatch = "Node " + n + " has diverged session " + ids.get(i) + ": " + nodeVal +
+                            ", node 0 has " + val;
+
+                    val = nodeVal;
+                }
+
+                if (mismatch == null && !expected[i].equals(val) && !previous[i].equals(val))
+                    mismatch = "Session " + ids.get(i) + " has value of old round: " + val;
+            }
+
+            if (mismatch != null)
+                Thread.sleep(50);
+        }
+        while (mismatch != null && System.currentTimeMillis() < deadline);
+
+        assertNull(mismatch, mismatch);
+
+        // Removal is queued after all updates, so it has reached all nodes by now.
+        for (int n = 0; n < NODES; n++)
+            assertNull("Removed session is alive on node " + n, stores[n].get(id));
+
+        for (ReplicatingSessionStore store : stores) {
+            ReplicationStats stats = store.getReplicationStats();
+
+            assertEquals(0, stats.getDropped());
+            assertTrue("Replication lag is too big: " + stats, stats.getMaxLagMillis() < CONVERGE_MILLIS);
+        }
+    }
+
+    @Test
+    public void testLookupsAndAccessesThrottled() throws Exception {
+        Session s = new Session(60_000);
+        stores[0].put(s);
+
+        for (int n = 0; n < NODES; n++)
+            assertNotNull("Session not replicated: " + s.getId(), awaitSession(n, s.getId()));
+
+        ReplicationStats stats = stores[0].getReplicationStats();
+        long sent = stats.getSent();
+
+        for (int i = 0; i < 100; i++)
+            stores[0].touch(s);
+
+        Thread.sleep(200);
+
+        assertTrue("Accesses are replicated: " + stats, stats.getSent() - sent < 10);
+
+        long fetches = stats.getFetches();
+
+        for (int i = 0; i < 100; i++)
+            assertNull(stores[0].get("missing-session"));
+
+        // Unknown session is looked up at each remote owner once.
+        assertTrue("Unknown session is fetched repeatedly: " + stats, stats.getFetches() - fetches <= NODES - 1);
+    }
+
+    @Test
+    public void testUnauthenticatedNodeRejected() {
+        Session s = new Session(60_000);
+        stores[0].put(s);
+
+        InetSocketAddress target = new InetSocketAddress("localhost", REPL_PORT);
+        InetSocketAddress self = new InetSocketAddress("localhost", REPL_PORT + 1);
+        byte[] wrongSecret = "not-a-replication-secret".getBytes(StandardCharsets.UTF_8);
+
+        ReplicationTransport rogue = new ReplicationTransport(self, Collections.singletonList(target), wrongSecret);
+        ReplicationTransport peer = new ReplicationTransport(self, Collections.singletonList(target), SECRET);
+
+        try {
+            assertNull(rogue.fetch(ReplicationTransport.nodeId(target), s.getId(), 500));
+            assertNotNull(peer.fetch(ReplicationTransport.nodeId(target), s.getId(), 500));
+        } finally {
+            rogue.stop();
+            peer.stop();
+        }
+
+        try {
+            new ReplicationTransport(self, Collections.singletonList(target), new byte[8]);
+
+            fail("Short secret is accepted");
+        } catch (IllegalArgumentException ignored) {
+            // Expected.
+        }
+    }
+
+    private static HttpHost host(int node) {
+        return new HttpHost("localhost", HTTP_PORT + node);
+    }
+
+    private static String check(CloseableHttpClient client, int node) throws Exception {
+        CloseableHttpResponse response = client.execute(host(node), new HttpGet(SESSION_CHECK));
+        assertStatusCode(HttpStatus.SC_OK, response);
+        assertNull("Session is recreated on node " + node, response.getFirstHeader("Set-Cookie"));
+
+        return EntityUtils.toString(response.getEntity());
+    }
+
+    private static Session awaitSession(int node, String id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CONVERGE_MILLIS;
+        Session s = stores[node].get(id);
+
+        while (s == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+
+            s = stores[node].get(id);
+        }
+
+        return s;
+    }
+
+    private static String awaitValue(CloseableHttpClient client, int node, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + CONVERGE_MILLIS;
+        String val = check(client, node);
+
+        while (!expected.equals(val) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+
+            val = check(client, node);
+        }
+
+        return val;
+    }
+}
@@ -0,0 +1,115 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests request target parsing.
+ */
+public class RequestTargetTest {
+    private static final int PORT = 9181;
+
+    @Test
+    public void testOriginForm() throws Exception {
+        RequestTarget t = parse("/a/b?x=1&y=%20#frag");
+
+        assertEquals("/a/b", t.getPath());
+        assertEquals("/a/b", t.getRawPath());
+        assertEquals("x=1&y=%20", t.getRawQuery());
+
+        assertNull(parse("/a").getRawQuery());
+        assertEquals("", parse("/a?").getRawQuery());
+        assertEquals("*", parse("*").getPath());
+    }
+
+    @Test
+    public void testAbsoluteForm() throws Exception {
+        assertEquals("/p", parse("http://localhost:8080/p").getPath());
+        assertEquals("/", parse("http://localhost").getPath());
+        assertEquals("q=1", parse("https://localhost?q=1").getRawQuery());
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        assertEquals("/a b/ж", parse("/a%20b/%D0%B6").getPath());
+        assertEquals("/a|b\"c", parse("/a|b\"c").getPath());
+        assertEquals("x y", decode("x%20y"));
+        assertEquals("100%", decode("100%"));
+        assertEquals("%zz", decode("%zz"));
+
+        String plain = "/plain";
+        assertSame(plain, decode(plain));
+    }
+
+    @Test
+    public void testDotSegments() throws Exception {
+        assertEquals("/a/c", parse("/a/b/../c").getPath());
+        assertEquals("/a/c", parse("/a/./c").getPath());
+        assertEquals("/a/", parse("/a/b/..").getPath());
+        assertEquals("/a/", parse("/a/.").getPath());
+        assertEquals("/", parse("/../..").getPath());
+        assertEquals("/etc", parse("/static/%2e%2e/%2E%2E/etc").getPath());
+        assertEquals("/a/.hidden", parse("/a/.hidden").getPath());
+    }
+
+    @Test
+    public void testMalformed() {
+        for (String target : new String[] {"", "/a%2", "/a%zz", "/a%2Fb", "/a%5cb", "/a%00", "/a\tb", "relative",
+            "mailto:x"}) {
+            try {
+                parse(target);
+
+                fail("Target is accepted: " + target);
+            } catch (URISyntaxException ignored) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void testCachedPath() throws Exception {
+        String path = parse("/cached/%41?a=1").getPath();
+
+        RequestTarget t = parse("/cached/%41?a=2");
+
+        assertSame(path, t.getPath());
+        assertEquals("a=2", t.getRawQuery());
+    }
+
+    @Test
+    public void testRequest() throws Exception {
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .addHandler("/a b", (req, resp) -> resp.getWriter().write(req.getPath() + " " + req.getArguments())))) {
+
+            // Previously rejected by java.net.URI.
+            assertTrue(get("/x/../a%20b?q=a|b&r=%26").endsWith("/a b {q=a|b, r=&}"));
+            assertTrue(get("/a%zz").startsWith("HTTP/1.0 400"));
+        }
+    }
+
+    private static RequestTarget parse(String s) throws URISyntaxException {
+        return RequestTarget.parse(s, 0, s.length());
+    }
+
+    private static String decode(String s) {
+        return RequestTarget.decode(s, 0, s.length(), false);
+    }
+
+    private static String get(String target) throws Exception {
+        try (Socket sock = new Socket("localhost", PORT)) {
+            OutputStream out = sock.getOutputStream();
+            out.write(("GET " + target + " HTTP/1.0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            return IOUtils.toString(sock.getInputStream(), StandardCharsets.US_ASCII);
+        }
+    }
+}
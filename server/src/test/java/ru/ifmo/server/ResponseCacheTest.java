@@ -0,0 +1,287 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests response cache.
+ */
+public class ResponseCacheTest {
+    private static final int PORT = 8881;
+
+    @Test
+    public void testCacheHit() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setResponseCacheSize(1 << 20)
+            .addHandler("/cached", (req, resp) -> {
+                resp.setHeader(Http.CACHE_CONTROL, "public, max-age=60");
+                resp.getWriter().write("call " + calls.incrementAndGet() + " " + req.getArguments());
+            })
+            .addHandler("/uncached", (req, resp) -> resp.getWriter().write("call " + calls.incrementAndGet())))) {
+
+            String first = get("/cached?a=1&b=2", null);
+            String cached = get("/cached?a=1&b=2", null);
+
+            assertTrue(cached, cached.startsWith("HTTP/1.0 200\r\n"));
+            assertTrue(cached, cached.contains("Cache-Control: public, max-age=60\r\n"));
+            assertEquals(body(first), body(cached));
+
+            // Arguments are normalized.
+            assertEquals(body(first), body(get("/cached?b=2&a=1", null)));
+            assertEquals(1, calls.get());
+
+            assertNotEquals(body(first), body(get("/cached?a=2", null)));
+            assertEquals(2, calls.get());
+
+            get("/uncached", null);
+            get("/uncached", null);
+            assertEquals(4, calls.get());
+
+            assertEquals(4, server.getMetrics().getRoute("/cached").getRequests(200));
+        }
+    }
+
+    @Test
+    public void testCompressedVariant() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setCompression(CompressionType.GZIP)
+            .setResponseCacheSize(1 << 20)
+            .addHandler("/cached", (req, resp) -> {
+                calls.incrementAndGet();
+                resp.setHeader(Http.CACHE_CONTROL, "max-age=60");
+                resp.getWriter().write("hello");
+            }))) {
+
+            String plain = get("/cached", null);
+
+            assertTrue(plain, plain.endsWith("\r\n\r\nhello"));
+
+            byte[] gzip = getBytes("/cached", "Accept-Encoding: gzip\r\n");
+            String head = new String(gzip, StandardCharsets.US_ASCII);
+
+            assertTrue(head, head.contains("Content-Encoding: gzip\r\n"));
+
+            int bodyOff = head.indexOf("\r\n\r\n") + 4;
+
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip, bodyOff,
+                gzip.length - bodyOff))) {
+                assertEquals("hello", IOUtils.toString(in, StandardCharsets.US_ASCII));
+            }
+
+            assertEquals(plain, get("/cached", null));
+            assertArrayEquals(gzip, getBytes("/cached", "Accept-Encoding: gzip\r\n"));
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void testKeyHeader() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setResponseCacheSize(1 << 20)
+            .addResponseCacheKeyHeader("Accept-Language")
+            .addHandler("/cached", (req, resp) -> {
+                calls.incrementAndGet();
+                resp.setHeader(Http.CACHE_CONTROL, "max-age=60");
+                resp.getWriter().write(String.valueOf(req.getHeaders().get("Accept-Language")));
+            }))) {
+
+            assertTrue(get("/cached", "Accept-Language: en\r\n").endsWith("en"));
+            assertTrue(get("/cached", "Accept-Language: ru\r\n").endsWith("ru"));
+            assertTrue(get("/cached", "Accept-Language: en\r\n").endsWith("en"));
+            assertEquals(2, calls.get());
+        }
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setResponseCacheSize(1 << 20)
+            .addHandler("/cached", (req, resp) -> {
+                resp.setHeader(Http.CACHE_CONTROL, "max-age=1, stale-while-revalidate=30");
+                resp.getWriter().write("version " + calls.incrementAndGet());
+            }))) {
+
+            assertTrue(get("/cached", null).endsWith("version 1"));
+
+            Thread.sleep(1100);
+
+            // Stale response is served, refresh runs in background.
+            assertTrue(get("/cached", null).endsWith("version 1"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (calls.get() < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+
+            Thread.sleep(100);
+
+            assertTrue(get("/cached", null).endsWith("version 2"));
+            assertEquals(2, calls.get());
+        }
+    }
+
+    @Test
+    public void testRefreshGetsDetachedRequest() throws Exception {
+        List<String> seen = new CopyOnWriteArrayList<>();
+
+        try (Server server = Server.start(new ServerConfig()
+            .setPort(PORT)
+            .setResponseCacheSize(1 << 20)
+            .addHandler("/cached", (req, resp) -> {
+                seen.add(req.getArgument("a") + " " + req.getHeader("X-Test") + " " +
+                    req.getCookieValue("c") + " " + req.getInputStream().available());
+
+                resp.setHeader(Http.CACHE_CONTROL, "max-age=1, stale-while-revalidate=30");
+                resp.getWriter().write("version " + seen.size());
+            }))) {
+
+            String headers = "X-Test: t\r\nCookie: c=v\r\n";
+
+            assertTrue(get("/cached?a=1", headers).endsWith("version 1"));
+
+            Thread.sleep(1100);
+
+            assertTrue(get("/cached?a=1", headers).endsWith("version 1"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (seen.size() < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+
+            // Refresh runs after connection is closed and request is released.
+            assertEquals(Arrays.asList("1 t v 0", "1 t v 0"), seen);
+        }
+    }
+
+    @Test
+    public void testEvictionBySize() throws Exception {
+        ResponseCache cache = new ResponseCache(2000, Collections.emptyList());
+
+        for (int i = 0; i < 10; i++)
+            assertTrue(cache.put("/" + i, request(), response("max-age=60", new byte[500])));
+
+        assertTrue(cache.getWeight() <= 2000);
+        assertEquals(2, cache.size());
+        assertEquals(8, cache.getEvicted());
+        assertNotNull(cache.get("/9", System.nanoTime()));
+        assertNull(cache.get("/0", System.nanoTime()));
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        ResponseCache cache = new ResponseCache(1 << 20, Collections.emptyList());
+
+        assertFalse(cache.put("/", request(), response(null, new byte[1])));
+        assertFalse(cache.put("/", request(), response("no-store, max-age=60", new byte[1])));
+        assertFalse(cache.put("/", request(), response("private, max-age=60", new byte[1])));
+        assertFalse(cache.put("/", request(), response("max-age=0", new byte[1])));
+
+        Response withCookie = response("max-age=60", new byte[1]);
+        withCookie.addCookie(new Cookie("a", "b"));
+        assertFalse(cache.put("/", request(), withCookie));
+
+        assertArrayEquals(new long[] {60, 0}, ResponseCache.parseCacheControl("public, max-age=60"));
+        assertArrayEquals(new long[] {10, 5},
+            ResponseCache.parseCacheControl("max-age=60, s-maxage=10, stale-while-revalidate=5"));
+    }
+
+    @Test
+    public void testKeyIsUnambiguous() throws Exception {
+        List<String> headers = Collections.singletonList("Accept-Encoding");
+        String[][] distinct = {
+            {"/p?a=1%26b%3D2", "/p?a=1&b=2"},
+            {"/p?a=1&a=2", "/p?a=1&a=3"},
+            {"/p?a=1&a=2", "/p?a=1"},
+            {"/p?a=x%0AAccept-Encoding:gzip", "/p?a=x"},
+            {"/p%3Fa=1", "/p?a=1"},
+        };
+
+        for (String[] pair : distinct) {
+            assertNotEquals(pair[0] + " vs " + pair[1],
+                ResponseCache.key(request(pair[0]), headers), ResponseCache.key(request(pair[1]), headers));
+        }
+
+        Request gzip = request("/p?a=x");
+        gzip.addHeader("Accept-Encoding", "gzip");
+
+        assertNotEquals(ResponseCache.key(request("/p?a=x%0A11:Accept-Encoding4:gzip"), headers),
+            ResponseCache.key(gzip, headers));
+
+        // Order of different arguments doesn't matter.
+        assertEquals(ResponseCache.key(request("/p?a=1&b=2"), headers),
+            ResponseCache.key(request("/p?b=2&a=1"), headers));
+    }
+
+    private static Request request() {
+        return new Request(null, null);
+    }
+
+    private static Request request(String target) throws Exception {
+        Request req = new Request(null, null);
+
+        req.path = RequestTarget.parse(target, 0, target.length());
+        req.query = req.path.getRawQuery();
+
+        return req;
+    }
+
+    private static Response response(String cacheControl, byte[] body) throws IOException {
+        Response resp = new Response(null);
+
+        if (cacheControl != null)
+            resp.setHeader(Http.CACHE_CONTROL, cacheControl);
+
+        resp.getOutputStream().write(body);
+
+        return resp;
+    }
+
+    private static String body(String resp) {
+        return resp.substring(resp.indexOf("\r\n\r\n") + 4);
+    }
+
+    private static String get(String path, String headers) throws IOException {
+        return new String(getBytes(path, headers), StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] getBytes(String path, String headers) throws IOException {
+        try (Socket sock = new Socket("localhost", PORT)) {
+            OutputStream out = sock.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.0\r\n" + (headers != null ? headers : "") + "\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            IOUtils.copy(sock.getInputStream(), buf);
+
+            return buf.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ru.ifmo.server;
+
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests class allow-list of {@link SerializableSessionDataCodec}.
+ */
+public class SerializableSessionDataCodecTest {
+    @Test
+    public void testDefaultAllowed() {
+        SerializableSessionDataCodec codec = new SerializableSessionDataCodec();
+
+        Map<String, Object> val = new HashMap<>();
+        val.put("list", new ArrayList<>(Arrays.asList(1, 2L, 3.0)));
+        val.put("time", LocalDateTime.of(2020, 1, 1, 0, 0));
+        val.put("bytes", new byte[] {1, 2});
+        val.put("names", new String[][] {{"a"}});
+        val.put("view", Collections.unmodifiableList(Arrays.asList("a", "b")));
+
+        Map<?, ?> res = (Map<?, ?>) codec.decode(codec.encode(val));
+
+        assertEquals(val.get("list"), res.get("list"));
+        assertEquals(val.get("time"), res.get("time"));
+        assertArrayEquals((byte[]) val.get("bytes"), (byte[]) res.get("bytes"));
+        assertEquals("a", ((String[][]) res.get("names"))[0][0]);
+        assertEquals(val.get("view"), res.get("view"));
+    }
+
+    @Test
+    public void testNotAllowed() {
+        SerializableSessionDataCodec codec = new SerializableSessionDataCodec();
+
+        for (Object val : new Object[] {new Cart(), new Cart[1], Collections.singletonList(new Cart())}) {
+            try {
+                codec.decode(codec.encode(val));
+
+                fail("Not allowed class is deserialized: " + val);
+            } catch (SessionException ignored) {
+                // Expected.
+            }
+        }
+
+        assertFalse(codec.isAllowed("java.util.concurrent.ConcurrentHashMap"));
+        assertFalse(codec.isAllowed("java.utilx.List"));
+    }
+
+    @Test
+    public void testAllowedByApplication() {
+        List<Cart> carts = Collections.singletonList(new Cart());
+
+        SerializableSessionDataCodec byName = new SerializableSessionDataCodec(Cart.class.getName());
+        SerializableSessionDataCodec byPackage = new SerializableSessionDataCodec("ru.ifmo.server.*");
+
+        assertEquals(1, ((List<?>) byName.decode(byName.encode(carts))).size());
+        assertEquals(1, ((List<?>) byPackage.decode(byPackage.encode(carts))).size());
+    }
+
+    private static class Cart implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
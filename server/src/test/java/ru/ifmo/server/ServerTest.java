@@ -127,6 +127,22 @@ public class ServerTest {
         assertNotEquals("Session data are invalid","password", EntityUtils.toString(response.getEntity()));
     }
 
+    @Test
+    public void testLazySession() throws Exception {
+        HttpGet get = new HttpGet(SUCCESS_URL);
+        CloseableHttpResponse response = client.execute(host, get);
+        assertStatusCode(HttpStatus.SC_OK, response);
+        assertNull("Session cookie set without session access", response.getFirstHeader("Set-Cookie"));
+        EntityUtils.consume(response.getEntity());
+
+        get = new HttpGet(new URIBuilder(SUCCES_SESSION_OPEN).addParameter("login", "lazy").build());
+        response = client.execute(host, get);
+        assertStatusCode(HttpStatus.SC_OK, response);
+        assertNotNull(response.getFirstHeader("Set-Cookie"));
+        assertTrue(response.getFirstHeader("Set-Cookie").getValue().startsWith(Session.SESSION_COOKIENAME));
+        EntityUtils.consume(response.getEntity());
+    }
+
     @Test
     public void testCookie() throws Exception {
 
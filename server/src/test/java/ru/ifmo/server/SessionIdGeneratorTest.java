@@ -0,0 +1,56 @@
+package ru.ifmo.server;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests default session ID generator.
+ */
+public class SessionIdGeneratorTest {
+    @Test
+    public void testFormat() {
+        SessionIdGenerator gen = new SecureSessionIdGenerator();
+
+        for (int i = 0; i < 1000; i++) {
+            String id = gen.generate();
+
+            assertEquals(32, id.length());
+            assertTrue(id, id.matches("[A-Za-z0-9_-]+"));
+        }
+    }
+
+    @Test
+    public void testUnpaddedLength() {
+        assertEquals(22, new SecureSessionIdGenerator(16).generate().length());
+        assertEquals(27, new SecureSessionIdGenerator(20).generate().length());
+    }
+
+    @Test
+    public void testUnique() throws InterruptedException {
+        SessionIdGenerator gen = new SecureSessionIdGenerator();
+        Set<String> ids = new HashSet<>();
+        Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    String id = gen.generate();
+
+                    synchronized (ids) {
+                        assertTrue("Duplicate ID: " + id, ids.add(id));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(40_000, ids.size());
+    }
+}
@@ -0,0 +1,83 @@
+package ru.ifmo.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests timing wheel session expiry.
+ */
+public class SessionKillerTest {
+    private static final long TICK = 20;
+
+    private Map<String, Session> sessions;
+    private SessionKiller killer;
+    private Thread thread;
+
+    @Before
+    public void setUp() {
+        sessions = new ConcurrentHashMap<>();
+        killer = new SessionKiller(new InMemorySessionStore(sessions), TICK, 16);
+        thread = new Thread(killer);
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+    }
+
+    @Test
+    public void testExpire() throws InterruptedException {
+        Session s = add(100);
+
+        Thread.sleep(300);
+
+        assertFalse(sessions.containsKey(s.getId()));
+        assertTrue(s.isExpired(System.nanoTime()));
+        assertEquals(1, killer.getStats().getExpired());
+    }
+
+    @Test
+    public void testTouchProlongs() throws InterruptedException {
+        Session s = add(200);
+
+        // Session is accessed well within its timeout for longer than a full wheel turn.
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(50);
+            s.touch();
+        }
+
+        assertTrue(sessions.containsKey(s.getId()));
+        assertTrue(killer.getStats().getRescheduled() > 0);
+
+        Thread.sleep(500);
+
+        assertFalse(sessions.containsKey(s.getId()));
+    }
+
+    @Test
+    public void testTimeoutLongerThanWheel() throws InterruptedException {
+        // 16 buckets * 20 ms = 320 ms per turn.
+        Session s = add(700);
+
+        Thread.sleep(400);
+        assertTrue(sessions.containsKey(s.getId()));
+
+        Thread.sleep(500);
+        assertFalse(sessions.containsKey(s.getId()));
+    }
+
+    private Session add(long timeout) {
+        Session s = new Session(timeout);
+        sessions.put(s.getId(), s);
+        killer.schedule(s);
+        return s;
+    }
+}
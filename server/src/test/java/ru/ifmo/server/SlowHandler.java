@@ -0,0 +1,9 @@
+package ru.ifmo.server;
+
+public class SlowHandler implements Handler {
+    @Override
+    public void handle(Request request, Response response) throws Exception {
+        Thread.sleep(500);
+        response.getWriter().write("slow");
+    }
+}
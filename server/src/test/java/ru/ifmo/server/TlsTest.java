@@ -0,0 +1,116 @@
+package ru.ifmo.server;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.ifmo.server.http2.Http2Frame;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+
+import static org.junit.Assert.*;
+import static ru.ifmo.server.http2.Http2.DFLT_INITIAL_WINDOW_SIZE;
+
+/**
+ * Tests HTTPS listener.
+ */
+public class TlsTest {
+    private static final int HTTPS_PORT = 8443;
+    private static final String PASSWORD = "changeit";
+    private static final String SUCCESS_URL = "/test_success";
+
+    private static Server server;
+    private static SSLContext clientCtx;
+
+    @BeforeClass
+    public static void initialize() throws Exception {
+        String keyStore = new File(TlsTest.class.getResource("/test-keystore.p12").toURI()).getPath();
+
+        ServerConfig cfg = new ServerConfig()
+                .addHandler(SUCCESS_URL, new SuccessHandler())
+                .setHttpsPort(HTTPS_PORT)
+                .setKeyStore(keyStore)
+                .setKeyStorePassword(PASSWORD);
+
+        server = Server.start(cfg);
+
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream in = TlsTest.class.getResourceAsStream("/test-keystore.p12")) {
+            trusted.load(in, PASSWORD.toCharArray());
+        }
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+
+        clientCtx = SSLContext.getInstance("TLS");
+        clientCtx.init(null, tmf.getTrustManagers(), null);
+    }
+
+    @AfterClass
+    public static void stop() {
+        IOUtils.closeQuietly(server);
+        server = null;
+    }
+
+    @Test
+    public void testHttps() throws Exception {
+        String resp = get(SUCCESS_URL + "?a=1");
+
+        assertTrue(resp, resp.startsWith("HTTP/1.0 200"));
+        assertTrue(resp, resp.endsWith(SuccessHandler.TEST_RESPONSE + "<br>{a=1}" + SuccessHandler.CLOSE_HTML));
+    }
+
+    @Test
+    public void testSessionResumption() throws Exception {
+        long resumed = server.getTlsStats().getResumedHandshakes();
+
+        get(SUCCESS_URL);
+        get(SUCCESS_URL);
+
+        TlsStats stats = server.getTlsStats();
+        assertTrue("Session was not resumed: " + stats, stats.getResumedHandshakes() > resumed);
+        assertTrue(stats.getResumptionRate() > 0);
+        assertTrue(stats.getAvgHandshakeMicros() > 0);
+    }
+
+    @Test
+    public void testAlpnHttp2() throws Exception {
+        SSLSocket sock = (SSLSocket) clientCtx.getSocketFactory().createSocket("localhost", HTTPS_PORT);
+
+        SSLParameters params = sock.getSSLParameters();
+        params.setApplicationProtocols(new String[]{"h2"});
+        sock.setSSLParameters(params);
+        sock.startHandshake();
+
+        assertEquals("h2", sock.getApplicationProtocol());
+
+        try (Http2TestClient client = new Http2TestClient(sock, DFLT_INITIAL_WINDOW_SIZE)) {
+            client.request(1, "GET", SUCCESS_URL, null, null);
+
+            Http2Frame headers = client.readHeaders();
+            assertEquals("200", client.decode(headers).get(":status"));
+        }
+
+        assertTrue(server.getTlsStats().getHttp2Handshakes() > 0);
+    }
+
+    private static String get(String path) throws Exception {
+        try (SSLSocket sock = (SSLSocket) clientCtx.getSocketFactory().createSocket("localhost", HTTPS_PORT)) {
+            sock.setSoTimeout(5000);
+
+            OutputStream out = sock.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.0\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            return IOUtils.toString(sock.getInputStream(), StandardCharsets.UTF_8);
+        }
+    }
+}